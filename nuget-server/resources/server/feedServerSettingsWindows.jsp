@@ -25,6 +25,8 @@
 <jsp:useBean id="privateFeedUrl" scope="request" type="java.lang.String" />
 <jsp:useBean id="publicFeedUrl" scope="request" type="java.lang.String" />
 <jsp:useBean id="actualServerUrl" scope="request" type="java.lang.String" />
+<jsp:useBean id="indexingQueueSize" scope="request" type="java.lang.Integer" />
+<jsp:useBean id="indexingQueueLag" scope="request" type="java.lang.Long" />
 
 <jsp:useBean id="fb" class="jetbrains.buildServer.nuget.server.feed.server.tab.FeedServerContants"/>
 
@@ -75,6 +77,20 @@
         </c:choose>
         </td>
       </tr>
+      <tr>
+        <th>Packages Indexing Queue:</th>
+        <td>
+          <c:choose>
+            <c:when test="${indexingQueueSize == 0}">
+              <div>Empty</div>
+            </c:when>
+            <c:otherwise>
+              <div>${indexingQueueSize} package<c:if test="${indexingQueueSize != 1}">s</c:if> waiting or being indexed</div>
+              <span class="smallNote">The oldest package is waiting for ${indexingQueueLag} s. Packages appear in the feed as soon as they are indexed</span>
+            </c:otherwise>
+          </c:choose>
+        </td>
+      </tr>
     </table>
   </c:if>
 
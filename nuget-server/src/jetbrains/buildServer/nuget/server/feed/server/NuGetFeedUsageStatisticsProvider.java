@@ -16,10 +16,8 @@
 
 package jetbrains.buildServer.nuget.server.feed.server;
 
-import com.intellij.openapi.util.Pair;
 import jetbrains.buildServer.nuget.server.feed.server.controllers.requests.RecentNuGetRequests;
-import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
-import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.nuget.server.feed.server.index.NuGetServerStatisticsProvider;
 import jetbrains.buildServer.usageStatistics.UsageStatisticsPublisher;
 import jetbrains.buildServer.usageStatistics.impl.providers.BaseDefaultUsageStatisticsProvider;
 import jetbrains.buildServer.usageStatistics.presentation.UsageStatisticsPresentationManager;
@@ -27,9 +25,7 @@ import jetbrains.buildServer.util.positioning.PositionAware;
 import jetbrains.buildServer.util.positioning.PositionConstraint;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.Map;
 
 /**
  * @author Evgeniy.Koshkin
@@ -55,15 +51,15 @@ public class NuGetFeedUsageStatisticsProvider extends BaseDefaultUsageStatistics
   };
 
   private final RecentNuGetRequests myRequests;
-  private final PackagesIndex myIndex;
+  private final NuGetServerStatisticsProvider myIndexStatistics;
   private final NuGetServerSettings mySettings;
 
   public NuGetFeedUsageStatisticsProvider(@NotNull final RecentNuGetRequests requests,
                                           @NotNull final NuGetServerSettings settings,
-                                          @NotNull final PackagesIndex index) {
+                                          @NotNull final NuGetServerStatisticsProvider indexStatistics) {
     myRequests = requests;
     mySettings = settings;
-    myIndex = index;
+    myIndexStatistics = indexStatistics;
     myGroupName = GROUP_NAME;
   }
 
@@ -79,23 +75,11 @@ public class NuGetFeedUsageStatisticsProvider extends BaseDefaultUsageStatistics
       publisher.publishStatistic(TOTAL_REQUESTS_STAT_ID, myRequests.getTotalRequests());
       presentationManager.applyPresentation(TOTAL_REQUESTS_STAT_ID, "Feed Requests Count per Day", myGroupName, null, null);
 
-      final Pair<Integer, Integer> indexEntriesCount = countIndexEntries();
-      publisher.publishStatistic(TOTAL_PACKAGES_STAT_ID, indexEntriesCount.first);
+      final Map<String, Long> indexStatistics = myIndexStatistics.getIndexStatistics();
+      publisher.publishStatistic(TOTAL_PACKAGES_STAT_ID, indexStatistics.get(NuGetServerStatisticsProvider.TOTAL_NUMBER_OF_ITEMS_STAT));
       presentationManager.applyPresentation(TOTAL_PACKAGES_STAT_ID, "Packages Count", myGroupName, null, null);
-      publisher.publishStatistic(DIFF_PACKAGES_STAT_ID, indexEntriesCount.second);
+      publisher.publishStatistic(DIFF_PACKAGES_STAT_ID, indexStatistics.get(NuGetServerStatisticsProvider.NUMBER_OF_PACKAGE_IDS_STAT));
       presentationManager.applyPresentation(DIFF_PACKAGES_STAT_ID, "Different Package Ids Count", myGroupName, null, null);
     }
   }
-
-  private Pair<Integer, Integer> countIndexEntries() {
-    int count = 0;
-    final Set<String> packagesCounter = new HashSet<String>();
-    final Iterator<NuGetIndexEntry> it = myIndex.getNuGetEntries();
-    while(it.hasNext()) {
-      NuGetIndexEntry next = it.next();
-      packagesCounter.add(next.getAttributes().get("Id"));
-      count++;
-    }
-    return Pair.create(count, packagesCounter.size());
-  }
 }
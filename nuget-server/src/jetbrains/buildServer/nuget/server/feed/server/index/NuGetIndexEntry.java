@@ -18,7 +18,9 @@ package jetbrains.buildServer.nuget.server.feed.server.index;
 
 import jetbrains.buildServer.nuget.common.PackageInfo;
 import jetbrains.buildServer.nuget.server.feed.server.PackageAttributes;
+import jetbrains.buildServer.nuget.server.util.SemanticVersion;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Map;
 
@@ -30,6 +32,9 @@ public class NuGetIndexEntry {
 
   @NotNull private final String myKey;
   @NotNull private final Map<String, String> myAttributes;
+  @Nullable private SemanticVersion mySemanticVersion;
+  private boolean myIsVersionParsed;
+  @Nullable private PackageTypedValues myTypedValues;
 
   public NuGetIndexEntry(@NotNull String key,
                          @NotNull Map<String, String> attributes) {
@@ -37,6 +42,22 @@ public class NuGetIndexEntry {
     myAttributes = attributes;
   }
 
+  public NuGetIndexEntry(@NotNull String key,
+                         @NotNull Map<String, String> attributes,
+                         @Nullable SemanticVersion semanticVersion) {
+    this(key, attributes);
+    mySemanticVersion = semanticVersion;
+    myIsVersionParsed = true;
+  }
+
+  public NuGetIndexEntry(@NotNull String key,
+                         @NotNull Map<String, String> attributes,
+                         @Nullable SemanticVersion semanticVersion,
+                         @Nullable PackageTypedValues typedValues) {
+    this(key, attributes, semanticVersion);
+    myTypedValues = typedValues;
+  }
+
   @NotNull
   public String getKey() {
     return myKey;
@@ -57,6 +78,30 @@ public class NuGetIndexEntry {
     return new PackageInfo(myAttributes.get(PackageAttributes.ID), myAttributes.get(PackageAttributes.VERSION));
   }
 
+  /**
+   * @return parsed package version or null if the version is not valid, the version is parsed only once
+   */
+  @Nullable
+  public SemanticVersion getSemanticVersion() {
+    if (!myIsVersionParsed) {
+      final String version = myAttributes.get(PackageAttributes.VERSION);
+      mySemanticVersion = version == null ? null : SemanticVersion.valueOf(version);
+      myIsVersionParsed = true;
+    }
+    return mySemanticVersion;
+  }
+
+  /**
+   * @return typed values of the entry attributes, shared with the packages index entry if it was decoded there
+   */
+  @NotNull
+  public PackageTypedValues getTypedValues() {
+    if (myTypedValues == null) {
+      myTypedValues = new PackageTypedValues(myAttributes);
+    }
+    return myTypedValues;
+  }
+
   @Override
   public String toString() {
     return "NuGetIndexEntry{" +
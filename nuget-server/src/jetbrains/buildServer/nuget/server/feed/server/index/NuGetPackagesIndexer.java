@@ -27,15 +27,26 @@ public class NuGetPackagesIndexer {
 
   @NotNull
   private final MetadataIndexerService myMetadataIndexerService;
+  @NotNull
+  private final PackagesIndexUpdater myIndexUpdater;
+  @NotNull
+  private final NuGetArtifactsMetadataProvider myMetadataProvider;
 
-  public NuGetPackagesIndexer(@NotNull final MetadataIndexerService metadataIndexerService) {
+  public NuGetPackagesIndexer(@NotNull final MetadataIndexerService metadataIndexerService,
+                              @NotNull final PackagesIndexUpdater indexUpdater,
+                              @NotNull final NuGetArtifactsMetadataProvider metadataProvider) {
     myMetadataIndexerService = metadataIndexerService;
+    myIndexUpdater = indexUpdater;
+    myMetadataProvider = metadataProvider;
   }
 
   /**
    * Re-index all NuGet-related data
    */
   public void reindexAll() {
+    //queued packages would be written after metadata of their builds is re-indexed
+    myMetadataProvider.cancelQueuedPackages();
     myMetadataIndexerService.reindexProviderData(NuGetArtifactsMetadataProvider.NUGET_PROVIDER_ID);
+    myIndexUpdater.rebuild();
   }
 }
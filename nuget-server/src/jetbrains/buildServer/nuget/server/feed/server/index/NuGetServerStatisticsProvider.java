@@ -24,6 +24,23 @@ import java.util.Map;
  * @author Evgeniy.Koshkin
  */
 public interface NuGetServerStatisticsProvider {
+  /**
+   * Number of entries served by the feed, entries hidden by the same package version from a newer build are not counted
+   */
+  String TOTAL_NUMBER_OF_ITEMS_STAT = "Total number of items in index";
+  /**
+   * Number of builds with indexed entries including hidden ones
+   */
+  String NUMBER_OF_INDEXED_BUILDS_STAT = "Number of indexed builds";
+  /**
+   * Number of packages served by the feed, Ids which differ only in case belong to the same package
+   */
+  String NUMBER_OF_PACKAGE_IDS_STAT = "Number of unique package Ids";
+
+  /**
+   * @return statistics of the packages index, it is computed in constant time
+   * before access checks, so entries of all build configurations are counted
+   */
   @NotNull
   Map<String, Long> getIndexStatistics();
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+import static jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex.*;
+
+/**
+ * Map of package attributes with a fixed array slot for each known attribute.
+ * Values of attributes shared by many packages are interned.
+ * Unknown attributes are kept in an additional map, null values are not supported.
+ */
+public class PackageAttributesMap extends AbstractMap<String, String> {
+  private static final String[] ATTRIBUTES = {
+          ID, VERSION, NORMALIZED_VERSION, AUTHORS, COPYRIGHT, DEPENDENCIES, DESCRIPTION, TITLE, ICON_URL,
+          IS_LATEST_VERSION, IS_ABSOLUTE_LATEST_VERSION, IS_PRERELEASE, LANGUAGE, LAST_UPDATED, LICENSE_URL,
+          PACKAGE_HASH, PACKAGE_HASH_ALGORITHM, PACKAGE_SIZE, PROJECT_URL, REPORT_ABUSE_URL, RELEASE_NOTES,
+          REQUIRE_LICENSE_ACCEPTANCE, TAGS, MIN_CLIENT_VERSION, LICENSE_NAMES, LICENSE_REPORT_URL,
+          TEAMCITY_ARTIFACT_RELPATH, TEAMCITY_BUILD_TYPE_ID, TEAMCITY_FRAMEWORK_CONSTRAINTS, TEAMCITY_BUILD_ID, TEAMCITY_DOWNLOAD_URL
+  };
+  private static final Map<String, Integer> SLOTS = new HashMap<String, Integer>();
+  private static final Set<String> INTERNED_ATTRIBUTES = new HashSet<String>(Arrays.asList(
+          AUTHORS, IS_LATEST_VERSION, IS_ABSOLUTE_LATEST_VERSION, IS_PRERELEASE, LANGUAGE, PACKAGE_HASH_ALGORITHM,
+          REQUIRE_LICENSE_ACCEPTANCE, MIN_CLIENT_VERSION, LICENSE_NAMES, TEAMCITY_BUILD_TYPE_ID, TEAMCITY_FRAMEWORK_CONSTRAINTS));
+  private static final boolean[] IS_INTERNED = new boolean[ATTRIBUTES.length];
+  private static final Interner<String> VALUES = Interners.newWeakInterner();
+
+  static {
+    for (int i = 0; i < ATTRIBUTES.length; i++) {
+      SLOTS.put(ATTRIBUTES[i], i);
+      IS_INTERNED[i] = INTERNED_ATTRIBUTES.contains(ATTRIBUTES[i]);
+    }
+  }
+
+  private final String[] myValues;
+  @Nullable private Map<String, String> myOtherAttributes;
+  private int mySize;
+
+  public PackageAttributesMap() {
+    myValues = new String[ATTRIBUTES.length];
+  }
+
+  public PackageAttributesMap(@NotNull final Map<String, String> attributes) {
+    if (attributes instanceof PackageAttributesMap) {
+      final PackageAttributesMap map = (PackageAttributesMap) attributes;
+      myValues = map.myValues.clone();
+      myOtherAttributes = map.myOtherAttributes == null ? null : new HashMap<String, String>(map.myOtherAttributes);
+      mySize = map.mySize;
+    } else {
+      myValues = new String[ATTRIBUTES.length];
+      putAll(attributes);
+    }
+  }
+
+  /**
+   * @param attribute attribute name
+   * @return slot of the attribute or -1 if the attribute has no fixed slot
+   */
+  public static int getSlot(@NotNull final String attribute) {
+    final Integer slot = SLOTS.get(attribute);
+    return slot == null ? -1 : slot;
+  }
+
+  /**
+   * @param slot slot of the attribute
+   * @return attribute value or null
+   * @see #getSlot(String)
+   */
+  @Nullable
+  public String get(final int slot) {
+    return myValues[slot];
+  }
+
+  @Override
+  public String get(final Object key) {
+    if (!(key instanceof String)) return null;
+    final int slot = getSlot((String) key);
+    if (slot >= 0) return myValues[slot];
+    return myOtherAttributes == null ? null : myOtherAttributes.get(key);
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public String put(@NotNull final String key, @Nullable final String value) {
+    if (value == null) return remove(key);
+
+    final int slot = getSlot(key);
+    if (slot < 0) {
+      if (myOtherAttributes == null) myOtherAttributes = new HashMap<String, String>(2);
+      final String old = myOtherAttributes.put(key, value);
+      if (old == null) mySize++;
+      return old;
+    }
+
+    final String old = myValues[slot];
+    myValues[slot] = IS_INTERNED[slot] ? VALUES.intern(value) : value;
+    if (old == null) mySize++;
+    return old;
+  }
+
+  @Override
+  public String remove(final Object key) {
+    if (!(key instanceof String)) return null;
+    final int slot = getSlot((String) key);
+
+    final String old;
+    if (slot >= 0) {
+      old = myValues[slot];
+      myValues[slot] = null;
+    } else {
+      old = myOtherAttributes == null ? null : myOtherAttributes.remove(key);
+    }
+    if (old != null) mySize--;
+    return old;
+  }
+
+  @Override
+  public int size() {
+    return mySize;
+  }
+
+  @NotNull
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    return new AbstractSet<Entry<String, String>>() {
+      @NotNull
+      @Override
+      public Iterator<Entry<String, String>> iterator() {
+        final Iterator<Entry<String, String>> others = myOtherAttributes == null
+                ? Collections.<Entry<String, String>>emptySet().iterator()
+                : myOtherAttributes.entrySet().iterator();
+
+        return new Iterator<Entry<String, String>>() {
+          private int myNextSlot = findSlot(0);
+          private int myLastSlot = -1;
+
+          public boolean hasNext() {
+            return myNextSlot < myValues.length || others.hasNext();
+          }
+
+          public Entry<String, String> next() {
+            if (myNextSlot >= myValues.length) {
+              myLastSlot = -1;
+              return others.next();
+            }
+            myLastSlot = myNextSlot;
+            myNextSlot = findSlot(myNextSlot + 1);
+            return new SimpleImmutableEntry<String, String>(ATTRIBUTES[myLastSlot], myValues[myLastSlot]);
+          }
+
+          public void remove() {
+            if (myLastSlot >= 0) {
+              myValues[myLastSlot] = null;
+              myLastSlot = -1;
+            } else {
+              others.remove();
+            }
+            mySize--;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return mySize;
+      }
+    };
+  }
+
+  private int findSlot(final int from) {
+    int slot = from;
+    while (slot < myValues.length && myValues[slot] == null) slot++;
+    return slot;
+  }
+}
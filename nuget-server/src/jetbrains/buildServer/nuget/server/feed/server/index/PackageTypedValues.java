@@ -0,0 +1,196 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+/****
+****
+**** THIS CODE IS GENERATED BY jetbrains.buildServer.nuget.tests.server.entity.EntityGenerator$EntityValuesGenerator
+**** DO NOT CHANGE!
+**** Generated with class jetbrains.buildServer.nuget.tests.server.entity.EntityGenerator
+**** 
+*****/
+package jetbrains.buildServer.nuget.server.feed.server.index;
+
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.ODataDataFormat;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.joda.time.LocalDateTime;
+
+import java.util.Map;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+
+/**
+ * Typed values of package entity properties decoded once from package attributes.
+ * A decoded value is reused only for the same attribute string instance it was decoded from,
+ * attributes replaced later (e.g. latest version flags computed per request) are decoded on access.
+ */
+public final class PackageTypedValues { 
+
+  @Nullable private final String myIsLatestVersionText;
+  @Nullable private final java.lang.Boolean myIsLatestVersion;
+  @Nullable private final String myIsAbsoluteLatestVersionText;
+  @Nullable private final java.lang.Boolean myIsAbsoluteLatestVersion;
+  @Nullable private final String myIsPrereleaseText;
+  @Nullable private final java.lang.Boolean myIsPrerelease;
+  @Nullable private final String myLastUpdatedText;
+  @Nullable private final org.joda.time.LocalDateTime myLastUpdated;
+  @Nullable private final String myPackageSizeText;
+  @Nullable private final java.lang.Long myPackageSize;
+  @Nullable private final String myRequireLicenseAcceptanceText;
+  @Nullable private final java.lang.Boolean myRequireLicenseAcceptance;
+
+  public PackageTypedValues(@NotNull final Map<String, String> attributes) {
+    myIsLatestVersionText = attributes.get(IS_LATEST_VERSION);
+    java.lang.Boolean isLatestVersion = null;
+    try {
+      isLatestVersion = decodeIsLatestVersion(myIsLatestVersionText);
+    } catch (NumberFormatException e) {
+      //malformed value is decoded and reported on access
+    }
+    myIsLatestVersion = isLatestVersion;
+
+    myIsAbsoluteLatestVersionText = attributes.get(IS_ABSOLUTE_LATEST_VERSION);
+    java.lang.Boolean isAbsoluteLatestVersion = null;
+    try {
+      isAbsoluteLatestVersion = decodeIsAbsoluteLatestVersion(myIsAbsoluteLatestVersionText);
+    } catch (NumberFormatException e) {
+      //malformed value is decoded and reported on access
+    }
+    myIsAbsoluteLatestVersion = isAbsoluteLatestVersion;
+
+    myIsPrereleaseText = attributes.get(IS_PRERELEASE);
+    java.lang.Boolean isPrerelease = null;
+    try {
+      isPrerelease = decodeIsPrerelease(myIsPrereleaseText);
+    } catch (NumberFormatException e) {
+      //malformed value is decoded and reported on access
+    }
+    myIsPrerelease = isPrerelease;
+
+    myLastUpdatedText = attributes.get(LAST_UPDATED);
+    org.joda.time.LocalDateTime lastUpdated = null;
+    try {
+      lastUpdated = decodeLastUpdated(myLastUpdatedText);
+    } catch (NumberFormatException e) {
+      //malformed value is decoded and reported on access
+    }
+    myLastUpdated = lastUpdated;
+
+    myPackageSizeText = attributes.get(PACKAGE_SIZE);
+    java.lang.Long packageSize = null;
+    try {
+      packageSize = decodePackageSize(myPackageSizeText);
+    } catch (NumberFormatException e) {
+      //malformed value is decoded and reported on access
+    }
+    myPackageSize = packageSize;
+
+    myRequireLicenseAcceptanceText = attributes.get(REQUIRE_LICENSE_ACCEPTANCE);
+    java.lang.Boolean requireLicenseAcceptance = null;
+    try {
+      requireLicenseAcceptance = decodeRequireLicenseAcceptance(myRequireLicenseAcceptanceText);
+    } catch (NumberFormatException e) {
+      //malformed value is decoded and reported on access
+    }
+    myRequireLicenseAcceptance = requireLicenseAcceptance;
+  }
+
+  @NotNull
+  public java.lang.Boolean getIsLatestVersion(@Nullable final String text) {
+    if (text == myIsLatestVersionText && myIsLatestVersion != null) return myIsLatestVersion;
+    return decodeIsLatestVersion(text);
+  }
+
+  @NotNull
+  public java.lang.Boolean getIsAbsoluteLatestVersion(@Nullable final String text) {
+    if (text == myIsAbsoluteLatestVersionText && myIsAbsoluteLatestVersion != null) return myIsAbsoluteLatestVersion;
+    return decodeIsAbsoluteLatestVersion(text);
+  }
+
+  @NotNull
+  public java.lang.Boolean getIsPrerelease(@Nullable final String text) {
+    if (text == myIsPrereleaseText && myIsPrerelease != null) return myIsPrerelease;
+    return decodeIsPrerelease(text);
+  }
+
+  @NotNull
+  public org.joda.time.LocalDateTime getLastUpdated(@Nullable final String text) {
+    if (text == myLastUpdatedText && myLastUpdated != null) return myLastUpdated;
+    return decodeLastUpdated(text);
+  }
+
+  @NotNull
+  public java.lang.Long getPackageSize(@Nullable final String text) {
+    if (text == myPackageSizeText && myPackageSize != null) return myPackageSize;
+    return decodePackageSize(text);
+  }
+
+  @NotNull
+  public java.lang.Boolean getRequireLicenseAcceptance(@Nullable final String text) {
+    if (text == myRequireLicenseAcceptanceText && myRequireLicenseAcceptance != null) return myRequireLicenseAcceptance;
+    return decodeRequireLicenseAcceptance(text);
+  }
+
+  @NotNull
+  private static java.lang.Boolean decodeIsLatestVersion(@Nullable final String v) {
+    if (v == null) { 
+      return false;
+    }
+    return Boolean.valueOf(v);
+  }
+
+  @NotNull
+  private static java.lang.Boolean decodeIsAbsoluteLatestVersion(@Nullable final String v) {
+    if (v == null) { 
+      return false;
+    }
+    return Boolean.valueOf(v);
+  }
+
+  @NotNull
+  private static java.lang.Boolean decodeIsPrerelease(@Nullable final String v) {
+    if (v == null) { 
+      return false;
+    }
+    return Boolean.valueOf(v);
+  }
+
+  @NotNull
+  private static org.joda.time.LocalDateTime decodeLastUpdated(@Nullable final String v) {
+    if (v != null) {
+      final LocalDateTime date = ODataDataFormat.parseDate(v);
+      if (date != null) return date;
+    }
+    return new LocalDateTime();
+  }
+
+  @NotNull
+  private static java.lang.Long decodePackageSize(@Nullable final String v) {
+    if (v == null) { 
+      return 0L;
+    }
+    return Long.parseLong(v);
+  }
+
+  @NotNull
+  private static java.lang.Boolean decodeRequireLicenseAcceptance(@Nullable final String v) {
+    if (v == null) { 
+      return false;
+    }
+    return Boolean.valueOf(v);
+  }
+}
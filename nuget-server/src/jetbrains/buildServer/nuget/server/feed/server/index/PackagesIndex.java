@@ -16,9 +16,14 @@
 
 package jetbrains.buildServer.nuget.server.feed.server.index;
 
+import jetbrains.buildServer.nuget.server.util.SemanticVersion;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.Set;
 
 /**
  * @author Eugene Petrenko (eugene.petrenko@gmail.com)
@@ -37,9 +42,83 @@ public interface PackagesIndex {
   @NotNull
   Iterator<NuGetIndexEntry> getNuGetEntries(long buildId);
 
+  /**
+   * Selects a page of entries matching the query, entries out of the page are not built
+   * @param query conditions on entries checked in the index
+   * @param order order of entries or null for the index order by package Id and version
+   * @param skip number of first entries to skip
+   * @param count max number of entries to return
+   * @return entries of the page
+   */
+  @NotNull
+  Iterator<NuGetIndexEntry> getNuGetEntries(@NotNull PackagesQuery query, @Nullable Comparator<NuGetIndexEntry> order, int skip, int count);
+
+  /**
+   * @param packageId package Id, case-insensitive
+   * @return entries of the package sorted by version
+   */
   @NotNull
   Iterator<NuGetIndexEntry> getNuGetEntries(@NotNull String packageId);
 
+  /**
+   * Looks the package version up in the hash index without scanning other packages,
+   * latest flags are set for the returned entry
+   * @param packageId package Id, case-insensitive
+   * @param version package version, compared as normalized version, exact version string is preferred
+   * @return entry of the package version from the newest build or null if there is no such package version
+   */
+  @Nullable
+  NuGetIndexEntry getNuGetEntry(@NotNull String packageId, @NotNull String version);
+
+  /**
+   * @param packageIds package Ids, case-insensitive
+   * @return entries of all given packages sorted by package Id and version, all entries are read from the same state of the index
+   */
+  @NotNull
+  Iterator<NuGetIndexEntry> getNuGetEntries(@NotNull Collection<String> packageIds);
+
+  /**
+   * @param packageId package Id, case-insensitive
+   * @param version version to compare with
+   * @return entries of the package with versions greater than given one sorted by version
+   */
+  @NotNull
+  Iterator<NuGetIndexEntry> getNuGetEntriesNewerThan(@NotNull String packageId, @NotNull SemanticVersion version);
+
+  /**
+   * Entries of the latest release version and of the absolute latest version of each package are
+   * taken from the index without checking all versions of packages, latest flags are set for returned entries
+   * @return latest entries of all packages sorted by package Id and version
+   */
+  @NotNull
+  Iterator<NuGetIndexEntry> getLatestNuGetEntries();
+
+  /**
+   * Finds packages which may contain given text in the attribute value ignoring case.
+   * Packages are looked up in the trigram index, so found packages should be checked by the caller
+   * @param attribute package attribute, Id, Description and Tags are supported
+   * @param text text to find
+   * @return lower case Ids of packages or null if packages could not be looked up for given attribute and text
+   */
+  @Nullable
+  Set<String> findPackageIdsContaining(@NotNull String attribute, @NotNull String text);
+
+  /**
+   * @param searchTerm search term, every its word should match the beginning of a word
+   *                   in package Id, title, tags, description or authors
+   * @return found entries sorted by package Id and version
+   */
   @NotNull
   Iterator<NuGetIndexEntry> search(@NotNull String searchTerm);
+
+  /**
+   * Finds entries the same way as {@link #search(String)} and returns the most relevant of them first.
+   * Entries are built as the iterator is advanced, so entries after the requested page are not built,
+   * latest flags are computed for all versions of a package
+   * @param searchTerm search term
+   * @param query conditions on found entries
+   * @return found entries matching the query, entries with the same relevance are sorted by package Id and version
+   */
+  @NotNull
+  Iterator<NuGetIndexEntry> searchRanked(@NotNull String searchTerm, @NotNull PackagesQuery query);
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index;
+
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Keeps in-memory packages index in sync with metadata storage
+ */
+public interface PackagesIndexUpdater {
+  /**
+   * Adds entries that were just written to metadata storage
+   * @param entries new metadata entries
+   */
+  void addEntries(@NotNull Collection<? extends BuildMetadataEntry> entries);
+
+  /**
+   * Removes entries of a build which was removed from the server
+   * @param buildId id of the removed build
+   */
+  void removeBuild(long buildId);
+
+  /**
+   * Schedules re-load of the whole index from metadata storage,
+   * the current index is served until re-load is finished
+   */
+  void rebuild();
+
+  /**
+   * Schedules re-load of the whole index from metadata storage
+   * @param onRebuilt action executed once the index is re-loaded from storage by a load started after this call
+   */
+  void rebuild(@NotNull Runnable onRebuilt);
+
+  /**
+   * @param size package size in bytes
+   * @param hash Base64 encoded SHA512 hash of the package
+   * @return metadata of an indexed package with the same content or null if there is no such package or index is not loaded yet
+   */
+  @Nullable
+  Map<String, String> findMetadataByContent(long size, @NotNull String hash);
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.joda.time.LocalDateTime;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+
+/**
+ * Conditions on packages which are checked in the packages index before entries are built.
+ * A query without conditions matches all packages.
+ */
+public class PackagesQuery {
+  @Nullable private Set<String> myPackageIds;
+  private boolean myLatestVersionsOnly;
+  @Nullable private String myId;
+  @Nullable private String myVersion;
+  private boolean myIsLatestVersion;
+  private boolean myIsAbsoluteLatestVersion;
+  @Nullable private LocalDateTime myLastUpdatedAfter;
+
+  /**
+   * @return lower case Ids of packages to look up or null if all packages should be checked
+   */
+  @Nullable
+  public Set<String> getPackageIds() {
+    return myPackageIds;
+  }
+
+  /**
+   * @param packageIds lower case Ids of packages to look up or null to check all packages
+   */
+  public void setPackageIds(@Nullable final Set<String> packageIds) {
+    myPackageIds = packageIds;
+  }
+
+  /**
+   * @return true if only entries of latest or absolute latest versions of packages may match the query
+   */
+  public boolean isLatestVersionsOnly() {
+    return myLatestVersionsOnly || myIsLatestVersion || myIsAbsoluteLatestVersion;
+  }
+
+  public void setLatestVersionsOnly(final boolean latestVersionsOnly) {
+    myLatestVersionsOnly = latestVersionsOnly;
+  }
+
+  /**
+   * @return package Id the entry should have, case-sensitive
+   */
+  @Nullable
+  public String getId() {
+    return myId;
+  }
+
+  public void setId(@Nullable final String id) {
+    myId = id;
+  }
+
+  /**
+   * @return package version the entry should have, case-sensitive
+   */
+  @Nullable
+  public String getVersion() {
+    return myVersion;
+  }
+
+  public void setVersion(@Nullable final String version) {
+    myVersion = version;
+  }
+
+  public boolean isLatestVersion() {
+    return myIsLatestVersion;
+  }
+
+  public void setLatestVersion(final boolean isLatestVersion) {
+    myIsLatestVersion = isLatestVersion;
+  }
+
+  public boolean isAbsoluteLatestVersion() {
+    return myIsAbsoluteLatestVersion;
+  }
+
+  public void setAbsoluteLatestVersion(final boolean isAbsoluteLatestVersion) {
+    myIsAbsoluteLatestVersion = isAbsoluteLatestVersion;
+  }
+
+  /**
+   * @return time the entry should be updated after
+   */
+  @Nullable
+  public LocalDateTime getLastUpdatedAfter() {
+    return myLastUpdatedAfter;
+  }
+
+  public void setLastUpdatedAfter(@Nullable final LocalDateTime lastUpdatedAfter) {
+    myLastUpdatedAfter = lastUpdatedAfter;
+  }
+
+  /**
+   * Latest version flags of the entry should be already computed
+   * @param entry entry to check
+   * @return true if the entry satisfies all conditions of the query
+   */
+  public boolean matches(@NotNull final NuGetIndexEntry entry) {
+    final Map<String, String> attributes = entry.getAttributes();
+    final PackageTypedValues values = entry.getTypedValues();
+
+    if (myPackageIds != null) {
+      final String id = attributes.get(ID);
+      if (id == null || !myPackageIds.contains(id.toLowerCase(Locale.ENGLISH))) return false;
+    }
+    if (myId != null && !myId.equals(attributes.get(ID))) return false;
+    if (myVersion != null && !myVersion.equals(attributes.get(VERSION))) return false;
+
+    final boolean isLatest = Boolean.TRUE.equals(values.getIsLatestVersion(attributes.get(IS_LATEST_VERSION)));
+    final boolean isAbsoluteLatest = Boolean.TRUE.equals(values.getIsAbsoluteLatestVersion(attributes.get(IS_ABSOLUTE_LATEST_VERSION)));
+    if (myLatestVersionsOnly && !isLatest && !isAbsoluteLatest) return false;
+    if (myIsLatestVersion && !isLatest) return false;
+    if (myIsAbsoluteLatestVersion && !isAbsoluteLatest) return false;
+
+    if (myLastUpdatedAfter != null) {
+      final LocalDateTime lastUpdated = values.getLastUpdated(attributes.get(LAST_UPDATED));
+      if (lastUpdated == null || !lastUpdated.isAfter(myLastUpdatedAfter)) return false;
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("PackagesQuery{");
+    if (myPackageIds != null) sb.append("packageIds=").append(myPackageIds.size()).append(", ");
+    if (myLatestVersionsOnly) sb.append("latestVersionsOnly, ");
+    if (myId != null) sb.append("Id=").append(myId).append(", ");
+    if (myVersion != null) sb.append("Version=").append(myVersion).append(", ");
+    if (myIsLatestVersion) sb.append("IsLatestVersion, ");
+    if (myIsAbsoluteLatestVersion) sb.append("IsAbsoluteLatestVersion, ");
+    if (myLastUpdatedAfter != null) sb.append("LastUpdated>").append(myLastUpdatedAfter).append(", ");
+    if (sb.charAt(sb.length() - 1) == ' ') sb.setLength(sb.length() - 2);
+    return sb.append('}').toString();
+  }
+}
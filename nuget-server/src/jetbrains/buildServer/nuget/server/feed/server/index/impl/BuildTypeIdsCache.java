@@ -0,0 +1,142 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches external ids and project ids of build types packages were published from.
+ * Cached ids are dropped on build type and project changes and resolved again on demand.
+ */
+public class BuildTypeIdsCache {
+  private final ProjectManager myProjects;
+  private final Object myLock = new Object();
+  //null values are stored for build types which were not found
+  private final Map<String, String> myExternalIds = new HashMap<String, String>();
+  private final Map<String, String> myProjectIds = new HashMap<String, String>();
+  //incremented on every change to skip ids resolved before the change
+  private long myModificationCount;
+
+  public BuildTypeIdsCache(@NotNull final ProjectManager projects,
+                           @NotNull final EventDispatcher<BuildServerListener> events) {
+    myProjects = projects;
+    events.addListener(new BuildServerAdapter() {
+      @Override
+      public void buildTypeRegistered(SBuildType buildType) {
+        reset(buildType.getBuildTypeId());
+      }
+
+      @Override
+      public void buildTypeUnregistered(SBuildType buildType) {
+        reset(buildType.getBuildTypeId());
+      }
+
+      @Override
+      public void buildTypeMoved(SBuildType buildType, SProject original) {
+        reset(buildType.getBuildTypeId());
+      }
+
+      @Override
+      public void buildTypeExternalIdChanged(@NotNull SBuildType buildType, @NotNull String oldExternalId, @NotNull String newExternalId) {
+        reset(buildType.getBuildTypeId());
+      }
+
+      @Override
+      public void projectRemoved(String projectId) {
+        resetAll();
+      }
+
+      @Override
+      public void projectRestored(String projectId) {
+        resetAll();
+      }
+    });
+  }
+
+  /**
+   * @param buildTypeId internal build type id
+   * @return external id of the build type or null if the build type was not found
+   */
+  @Nullable
+  public String getExternalId(@NotNull final String buildTypeId) {
+    final long modificationCount;
+    synchronized (myLock) {
+      if (myExternalIds.containsKey(buildTypeId)) return myExternalIds.get(buildTypeId);
+      modificationCount = myModificationCount;
+    }
+
+    final SBuildType buildType;
+    try {
+      buildType = myProjects.findBuildTypeById(buildTypeId);
+    } catch (RuntimeException e) {
+      return null;
+    }
+    final String externalId = buildType == null ? null : buildType.getExternalId();
+
+    synchronized (myLock) {
+      if (modificationCount == myModificationCount) myExternalIds.put(buildTypeId, externalId);
+    }
+    return externalId;
+  }
+
+  /**
+   * @param buildTypeId internal build type id
+   * @return id of the project of the build type or null if the build type was not found
+   */
+  @Nullable
+  public String getProjectId(@NotNull final String buildTypeId) {
+    final long modificationCount;
+    synchronized (myLock) {
+      if (myProjectIds.containsKey(buildTypeId)) return myProjectIds.get(buildTypeId);
+      modificationCount = myModificationCount;
+    }
+
+    final String projectId;
+    try {
+      projectId = myProjects.findProjectId(buildTypeId);
+    } catch (RuntimeException e) {
+      return null;
+    }
+
+    synchronized (myLock) {
+      if (modificationCount == myModificationCount) myProjectIds.put(buildTypeId, projectId);
+    }
+    return projectId;
+  }
+
+  private void reset(@NotNull final String buildTypeId) {
+    synchronized (myLock) {
+      myModificationCount++;
+      myExternalIds.remove(buildTypeId);
+      myProjectIds.remove(buildTypeId);
+    }
+  }
+
+  private void resetAll() {
+    synchronized (myLock) {
+      myModificationCount++;
+      myExternalIds.clear();
+      myProjectIds.clear();
+    }
+  }
+}
@@ -26,9 +26,11 @@ import jetbrains.buildServer.serverSide.SBuild;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
@@ -38,6 +40,13 @@ import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*
  * Date: 06.09.11 22:03
  */
 public class LocalNuGetPackageItemsFactory implements NuGetPackageStructureAnalyser {
+  /**
+   * Attributes read from .nuspec file by {@link #analyseNuspecFile(NuspecFileContent)} except the last updated date
+   */
+  private static final List<String> NUSPEC_ATTRIBUTES = Arrays.asList(
+          ID, VERSION, NORMALIZED_VERSION, TITLE, RELEASE_NOTES, AUTHORS, DEPENDENCIES, DESCRIPTION, COPYRIGHT,
+          PROJECT_URL, TAGS, ICON_URL, LICENSE_URL, REQUIRE_LICENSE_ACCEPTANCE, MIN_CLIENT_VERSION);
+
   private final Date myFinishDate;
   private final Map<String, String> myItems = new LinkedHashMap<String, String>();
 
@@ -57,6 +66,18 @@ public class LocalNuGetPackageItemsFactory implements NuGetPackageStructureAnaly
     return myItems;
   }
 
+  /**
+   * Copies items of a package with the same content indexed from another build instead of reading the package.
+   * Only items read from .nuspec file are copied, the last updated date is taken from this build
+   * @param items items of the package
+   */
+  public void copyItems(@NotNull Map<String, String> items) {
+    for (String name : NUSPEC_ATTRIBUTES) {
+      addItem(name, items.get(name));
+    }
+    addItem(LAST_UPDATED, ODataDataFormat.formatDate(myFinishDate));
+  }
+
   public void analyseEntry(@NotNull String entryName) {
   }
 
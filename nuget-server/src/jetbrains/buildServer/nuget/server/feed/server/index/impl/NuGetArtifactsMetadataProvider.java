@@ -22,8 +22,10 @@ import jetbrains.buildServer.nuget.common.FeedConstants;
 import jetbrains.buildServer.nuget.common.PackageLoadException;
 import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
 import jetbrains.buildServer.nuget.server.feed.server.PackageAttributes;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndexUpdater;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache.ResponseCacheReset;
 import jetbrains.buildServer.nuget.server.util.FrameworkConstraints;
+import jetbrains.buildServer.serverSide.BuildsManager;
 import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.serverSide.SBuildType;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
@@ -31,19 +33,22 @@ import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
 import jetbrains.buildServer.serverSide.artifacts.BuildArtifactsViewMode;
 import jetbrains.buildServer.serverSide.impl.LogUtil;
 import jetbrains.buildServer.serverSide.metadata.BuildMetadataProvider;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
 import jetbrains.buildServer.serverSide.metadata.MetadataStorageWriter;
-import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.util.NamedDeamonThreadFactory;
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
 
 import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
 import static jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex.*;
@@ -58,15 +63,38 @@ public class NuGetArtifactsMetadataProvider implements BuildMetadataProvider {
 
   public static final String NUGET_PROVIDER_ID = "nuget";
   private static final String TEAMCITY_NUGET_INDEX_PACKAGES_PROP_NAME = "teamcity.nuget.index.packages";
+  private static final String TEAMCITY_NUGET_INDEX_THREADS_PROP_NAME = "teamcity.nuget.index.packages.threads";
+  private static final String TEAMCITY_NUGET_INDEX_ASYNC_PROP_NAME = "teamcity.nuget.index.async";
   private static final String SHA512 = "SHA512";
 
   private final ResponseCacheReset myReset;
   @NotNull
   private final NuGetServerSettings myFeedSettings;
+  @NotNull
+  private final PackagesIndexUpdater myIndexUpdater;
+  @NotNull
+  private final MetadataStorage myStorage;
+  @NotNull
+  private final PackagesIndexingQueue myQueue;
+  @NotNull
+  private final BuildsManager myBuilds;
+  //builds with packages waiting in the indexing queue
+  @NotNull private final ConcurrentMap<Long, QueuedPackages> myQueuedBuilds = new ConcurrentHashMap<Long, QueuedPackages>();
+  private final int myThreadsCount = Math.max(1, TeamCityProperties.getInteger(TEAMCITY_NUGET_INDEX_THREADS_PROP_NAME, Math.min(4, Runtime.getRuntime().availableProcessors())));
+  @NotNull private final ExecutorService myExecutor = Executors.newFixedThreadPool(myThreadsCount, new NamedDeamonThreadFactory("NuGet Packages Indexer"));
 
-  public NuGetArtifactsMetadataProvider(@NotNull final ResponseCacheReset reset, @NotNull final NuGetServerSettings feedSettings) {
+  public NuGetArtifactsMetadataProvider(@NotNull final ResponseCacheReset reset,
+                                        @NotNull final NuGetServerSettings feedSettings,
+                                        @NotNull final PackagesIndexUpdater indexUpdater,
+                                        @NotNull final MetadataStorage storage,
+                                        @NotNull final PackagesIndexingQueue queue,
+                                        @NotNull final BuildsManager builds) {
     myReset = reset;
     myFeedSettings = feedSettings;
+    myIndexUpdater = indexUpdater;
+    myStorage = storage;
+    myQueue = queue;
+    myBuilds = builds;
   }
 
   @NotNull
@@ -93,31 +121,239 @@ public class NuGetArtifactsMetadataProvider implements BuildMetadataProvider {
     final List<BuildArtifact> packages = new ArrayList<BuildArtifact>();
     visitArtifacts(build.getArtifacts(BuildArtifactsViewMode.VIEW_ALL).getRootArtifact(), packages);
 
-    for (BuildArtifact aPackage : packages) {
-      LOG.info("Indexing NuGet package from artifact " + aPackage.getRelativePath() + " of build " + LogUtil.describe(build));
+    if (packages.isEmpty()) return;
+
+    //packages are indexed in background, those which do not fit into the queue are indexed right away
+    final List<BuildArtifact> notQueued = TeamCityProperties.getBooleanOrTrue(TEAMCITY_NUGET_INDEX_ASYNC_PROP_NAME)
+            ? enqueuePackages(build, packages)
+            : packages;
+    if (notQueued.isEmpty()) return;
+
+    final long startTime = System.currentTimeMillis();
+    final List<Map<String, String>> packagesMetadata = generateMetadataForPackages(build, notQueued);
+
+    //metadata is written in the order packages were found, so it does not depend on the order packages were indexed in
+    final List<NuGetMetadataEntry> entries = new ArrayList<NuGetMetadataEntry>(notQueued.size());
+    for (Map<String, String> metadata : packagesMetadata) {
+      if (metadata == null) continue;
+      final String key = metadata.get(PackageAttributes.ID);
+      store.addParameters(key, metadata);
+      entries.add(new NuGetMetadataEntry(build.getBuildId(), key, metadata));
+    }
+    if (!entries.isEmpty()) {
+      myReset.resetCache();
+      myIndexUpdater.addEntries(entries);
+    }
+    LOG.info(String.format("Indexed %d of %d NuGet packages of build %s in %d ms",
+            entries.size(), notQueued.size(), LogUtil.describe(build), System.currentTimeMillis() - startTime));
+  }
+
+  /**
+   * Each queued package is written to the metadata storage and added to the index as soon as it is indexed
+   * @return packages which were not queued because the queue is full
+   */
+  @NotNull
+  private List<BuildArtifact> enqueuePackages(@NotNull final SBuild build, @NotNull final List<BuildArtifact> packages) {
+    final long buildId = build.getBuildId();
+    final QueuedPackages queuedPackages = new QueuedPackages(buildId, packages.size());
+    final QueuedPackages previous = myQueuedBuilds.put(buildId, queuedPackages);
+    if (previous != null) cancel(previous);
+
+    final List<BuildArtifact> notQueued = new ArrayList<BuildArtifact>();
+    for (final BuildArtifact aPackage : packages) {
+      final String description = "NuGet package from artifact " + aPackage.getRelativePath() + " of build " + LogUtil.describe(build);
+      final boolean queued = myQueue.offer(buildId, description, aPackage.getSize(), new Runnable() {
+        public void run() {
+          try {
+            if (queuedPackages.isCancelled() || !isBuildPresent(buildId)) return;
+            final Map<String, String> metadata = generateMetadataForPackageLogged(build, aPackage);
+            if (metadata != null) writeQueuedPackage(queuedPackages, metadata);
+          } finally {
+            packagesIndexed(queuedPackages, 1);
+          }
+        }
+      });
+      if (!queued) notQueued.add(aPackage);
+    }
+    packagesIndexed(queuedPackages, notQueued.size());
+
+    if (!notQueued.isEmpty()) {
+      LOG.info(String.format("NuGet packages indexing queue is full, %d of %d NuGet packages of build %s will be indexed synchronously",
+              notQueued.size(), packages.size(), LogUtil.describe(build)));
+    }
+    return notQueued;
+  }
+
+  /**
+   * Metadata is written and added to the index under the lock of queued packages,
+   * so it is never written after the build was removed or re-indexed
+   */
+  private void writeQueuedPackage(@NotNull final QueuedPackages queuedPackages, @NotNull final Map<String, String> metadata) {
+    final long buildId = queuedPackages.myBuildId;
+    synchronized (queuedPackages) {
+      if (queuedPackages.myCancelled) return;
+      if (!isBuildPresent(buildId)) {
+        queuedPackages.myCancelled = true;
+        return;
+      }
+      final String key = metadata.get(PackageAttributes.ID);
+      myStorage.addParameters(buildId, NUGET_PROVIDER_ID, key, metadata);
+      myReset.resetCache();
+      myIndexUpdater.addEntries(Collections.singletonList(new NuGetMetadataEntry(buildId, key, metadata)));
+    }
+  }
+
+  private void packagesIndexed(@NotNull final QueuedPackages queuedPackages, final int count) {
+    synchronized (queuedPackages) {
+      queuedPackages.myRemaining -= count;
+      if (queuedPackages.myRemaining > 0) return;
+    }
+    myQueuedBuilds.remove(queuedPackages.myBuildId, queuedPackages);
+  }
+
+  private boolean isBuildPresent(final long buildId) {
+    if (myBuilds.findBuildInstanceById(buildId) != null) return true;
+    LOG.debug(String.format("Skip indexing of queued NuGet packages of build with id %d. The build was removed.", buildId));
+    return false;
+  }
+
+  /**
+   * Drops packages of the build waiting in the indexing queue, metadata of packages being indexed is not written
+   * @param buildId id of removed or re-indexed build
+   */
+  public void cancelQueuedPackages(final long buildId) {
+    final QueuedPackages queuedPackages = myQueuedBuilds.remove(buildId);
+    if (queuedPackages != null) cancel(queuedPackages);
+  }
+
+  /**
+   * Drops packages of all builds waiting in the indexing queue, e.g. before all builds are re-indexed
+   */
+  public void cancelQueuedPackages() {
+    for (Long buildId : new ArrayList<Long>(myQueuedBuilds.keySet())) {
+      cancelQueuedPackages(buildId);
+    }
+  }
+
+  private void cancel(@NotNull final QueuedPackages queuedPackages) {
+    synchronized (queuedPackages) {
+      queuedPackages.myCancelled = true;
+    }
+    final int removed = myQueue.remove(queuedPackages.myBuildId);
+    if (removed > 0) {
+      LOG.info(String.format("Removed %d NuGet packages of build with id %d from the indexing queue", removed, queuedPackages.myBuildId));
+    }
+  }
+
+  public void dispose() {
+    myExecutor.shutdownNow();
+  }
+
+  /**
+   * Packages are indexed in parallel on the bounded pool if there are several of them
+   * @return metadata of packages in the order of given packages, null for packages which failed to load
+   */
+  @NotNull
+  private List<Map<String, String>> generateMetadataForPackages(@NotNull final SBuild build, @NotNull final List<BuildArtifact> packages) {
+    if (packages.size() > 1 && myThreadsCount > 1) {
+      final List<Callable<Map<String, String>>> tasks = new ArrayList<Callable<Map<String, String>>>(packages.size());
+      for (final BuildArtifact aPackage : packages) {
+        tasks.add(new Callable<Map<String, String>>() {
+          public Map<String, String> call() throws Exception {
+            return generateMetadataForPackageLogged(build, aPackage);
+          }
+        });
+      }
+
       try {
-        final Map<String, String> metadata = generateMetadataForPackage(build, aPackage);
-        myReset.resetCache();
-        store.addParameters(metadata.get(PackageAttributes.ID), metadata);
-      } catch (PackageLoadException e) {
-        LOG.warn("Failed to read NuGet package: " + aPackage);
+        final List<Map<String, String>> result = new ArrayList<Map<String, String>>(packages.size());
+        for (Future<Map<String, String>> future : myExecutor.invokeAll(tasks)) {
+          result.add(future.get());
+        }
+        return result;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        LOG.warn("Interrupted indexing of NuGet packages of build " + LogUtil.describe(build));
+        return new ArrayList<Map<String, String>>();
+      } catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new RuntimeException(cause);
+      } catch (RejectedExecutionException e) {
+        LOG.warn("Failed to index NuGet packages in parallel. " + e.getMessage(), e);
       }
     }
+
+    final List<Map<String, String>> result = new ArrayList<Map<String, String>>(packages.size());
+    for (BuildArtifact aPackage : packages) {
+      result.add(generateMetadataForPackageLogged(build, aPackage));
+    }
+    return result;
+  }
+
+  @Nullable
+  private Map<String, String> generateMetadataForPackageLogged(@NotNull final SBuild build, @NotNull final BuildArtifact aPackage) {
+    LOG.info("Indexing NuGet package from artifact " + aPackage.getRelativePath() + " of build " + LogUtil.describe(build));
+    final long startTime = System.currentTimeMillis();
+    try {
+      final Map<String, String> metadata = generateMetadataForPackage(build, aPackage);
+      LOG.info(String.format("Indexed NuGet package from artifact %s of build %s in %d ms",
+              aPackage.getRelativePath(), LogUtil.describe(build), System.currentTimeMillis() - startTime));
+      return metadata;
+    } catch (PackageLoadException e) {
+      LOG.warn("Failed to read NuGet package: " + aPackage);
+      return null;
+    }
   }
 
   public Map<String, String> generateMetadataForPackage(SBuild build, BuildArtifact aPackage) throws PackageLoadException {
     final LocalNuGetPackageItemsFactory packageItemsFactory = LocalNuGetPackageItemsFactory.createForBuild(build);
     final FrameworkConstraintsCalculator frameworkConstraintsCalculator = new FrameworkConstraintsCalculator();
     final List<NuGetPackageStructureAnalyser> analysers = Lists.newArrayList(frameworkConstraintsCalculator, packageItemsFactory);
-    new NuGetPackageStructureVisitor(analysers).visit(aPackage);
+    final MessageDigest digest = sha512Digest();
+    final File packageFile = new File(build.getArtifactsDirectory(), aPackage.getRelativePath());
+
+    //local package is hashed first, so metadata of the same package content indexed from another build is reused without reading the package
+    String hash = null;
+    if (packageFile.isFile() && packageFile.length() == aPackage.getSize()) {
+      try {
+        NuGetPackageStructureVisitor.updateDigest(packageFile, digest);
+      } catch (IOException e) {
+        throw new PackageLoadException("Failed to compute digest for " + aPackage);
+      }
+      hash = encodeHash(digest.digest());
+
+      final Map<String, String> sameContentMetadata = myIndexUpdater.findMetadataByContent(aPackage.getSize(), hash);
+      final String sameContentConstraints = sameContentMetadata == null ? null : sameContentMetadata.get(TEAMCITY_FRAMEWORK_CONSTRAINTS);
+      if (sameContentConstraints != null) {
+        LOG.debug(String.format("NuGet package from artifact %s of build %s is already indexed, metadata of the package is reused",
+                aPackage.getRelativePath(), LogUtil.describe(build)));
+        packageItemsFactory.copyItems(sameContentMetadata);
+        return completeMetadata(build, aPackage, packageItemsFactory.getItems(), hash, sameContentConstraints);
+      }
+    }
+
+    //package content is read once for the hash, entries of a local package are listed from the zip central directory
+    new NuGetPackageStructureVisitor(analysers).visit(aPackage, packageFile, hash == null ? digest : null);
+    if (hash == null) hash = encodeHash(digest.digest());
 
-    final Map<String,String> metadata = packageItemsFactory.getItems();
-    metadata.put(PACKAGE_HASH, sha512(aPackage));
+    return completeMetadata(build, aPackage, packageItemsFactory.getItems(), hash,
+            FrameworkConstraints.convertToString(frameworkConstraintsCalculator.getPackageConstraints()));
+  }
+
+  @NotNull
+  private static Map<String, String> completeMetadata(@NotNull final SBuild build,
+                                                      @NotNull final BuildArtifact aPackage,
+                                                      @NotNull final Map<String, String> metadata,
+                                                      @NotNull final String hash,
+                                                      @NotNull final String frameworkConstraints) {
+    metadata.put(PACKAGE_HASH, hash);
     metadata.put(PACKAGE_HASH_ALGORITHM, SHA512);
     metadata.put(PACKAGE_SIZE, String.valueOf(aPackage.getSize()));
     metadata.put(TEAMCITY_ARTIFACT_RELPATH, aPackage.getRelativePath());
     metadata.put(TEAMCITY_BUILD_TYPE_ID, build.getBuildTypeId());
-    metadata.put(TEAMCITY_FRAMEWORK_CONSTRAINTS, FrameworkConstraints.convertToString(frameworkConstraintsCalculator.getPackageConstraints()));
+    metadata.put(TEAMCITY_FRAMEWORK_CONSTRAINTS, frameworkConstraints);
     return metadata;
   }
 
@@ -142,17 +378,35 @@ public class NuGetArtifactsMetadataProvider implements BuildMetadataProvider {
   }
 
   @NotNull
-  private String sha512(@NotNull final BuildArtifact aPackage) throws PackageLoadException {
-    InputStream is = null;
+  private static MessageDigest sha512Digest() throws PackageLoadException {
     try {
-      is = new BufferedInputStream(aPackage.getInputStream());
-      final byte[] hash = DigestUtils.sha512(is);
-      //Buggy commons.codes added unnecessary newlines
-      return Base64.encodeBase64String(hash).replaceAll("[\r\n]+", "");
-    } catch (IOException e) {
-      throw new PackageLoadException("Failed to compute SHA-512 for " + aPackage);
-    } finally {
-      FileUtil.close(is);
+      return MessageDigest.getInstance("SHA-512");
+    } catch (NoSuchAlgorithmException e) {
+      throw new PackageLoadException("SHA-512 is not supported");
+    }
+  }
+
+  @NotNull
+  private static String encodeHash(@NotNull final byte[] hash) {
+    //Buggy commons.codes added unnecessary newlines
+    return Base64.encodeBase64String(hash).replaceAll("[\r\n]+", "");
+  }
+
+  /**
+   * Queued packages of a build, fields are guarded by the instance lock
+   */
+  private static class QueuedPackages {
+    private final long myBuildId;
+    private int myRemaining;
+    private boolean myCancelled;
+
+    private QueuedPackages(final long buildId, final int packagesCount) {
+      myBuildId = buildId;
+      myRemaining = packagesCount;
+    }
+
+    private synchronized boolean isCancelled() {
+      return myCancelled;
     }
   }
 }
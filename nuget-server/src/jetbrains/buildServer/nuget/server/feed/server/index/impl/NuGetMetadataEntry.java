@@ -0,0 +1,140 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import jetbrains.buildServer.nuget.server.feed.server.PackageAttributes;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackageAttributesMap;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackageTypedValues;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.nuget.server.util.SemanticVersion;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Immutable copy of NuGet package metadata entry kept in the in-memory index
+ */
+public class NuGetMetadataEntry implements BuildMetadataEntry {
+  private final long myBuildId;
+  @NotNull private final String myKey;
+  @NotNull private final PackageAttributesMap myAttributes;
+  @NotNull private final Map<String, String> myMetadata;
+  @Nullable private final SemanticVersion mySemanticVersion;
+  @NotNull private final PackageTypedValues myTypedValues;
+
+  public NuGetMetadataEntry(long buildId,
+                            @NotNull final String key,
+                            @NotNull final Map<String, String> metadata) {
+    myBuildId = buildId;
+    myKey = key;
+    myAttributes = new PackageAttributesMap(metadata);
+    myMetadata = Collections.unmodifiableMap(myAttributes);
+
+    final String version = getVersion();
+    mySemanticVersion = version == null ? null : SemanticVersion.valueOf(version);
+    myTypedValues = new PackageTypedValues(myAttributes);
+  }
+
+  @NotNull
+  public static NuGetMetadataEntry copyOf(@NotNull final BuildMetadataEntry entry) {
+    if (entry instanceof NuGetMetadataEntry) return (NuGetMetadataEntry) entry;
+    return new NuGetMetadataEntry(entry.getBuildId(), entry.getKey(), entry.getMetadata());
+  }
+
+  public long getBuildId() {
+    return myBuildId;
+  }
+
+  @NotNull
+  public String getKey() {
+    return myKey;
+  }
+
+  @NotNull
+  public Map<String, String> getMetadata() {
+    return myMetadata;
+  }
+
+  /**
+   * @return attributes of the entry, must not be modified
+   */
+  @NotNull
+  PackageAttributesMap getAttributes() {
+    return myAttributes;
+  }
+
+  @Nullable
+  public String getPackageId() {
+    return myAttributes.get(PackageAttributes.ID);
+  }
+
+  @Nullable
+  public String getVersion() {
+    return myAttributes.get(PackageAttributes.VERSION);
+  }
+
+  /**
+   * @return version of the package parsed when the entry was created or null if the version is not valid
+   */
+  @Nullable
+  public SemanticVersion getSemanticVersion() {
+    return mySemanticVersion;
+  }
+
+  /**
+   * @return typed values decoded when the entry was created
+   */
+  @NotNull
+  public PackageTypedValues getTypedValues() {
+    return myTypedValues;
+  }
+
+  /**
+   * @param entry metadata entry
+   * @return key of the package version, entries of the same package version from different builds have the same key
+   */
+  @NotNull
+  public static String getPackageKey(@NotNull final BuildMetadataEntry entry) {
+    return entry.getKey() + "." + entry.getMetadata().get(PackageAttributes.VERSION);
+  }
+
+  /**
+   * @param other entry to compare with
+   * @return true if both entries describe the same artifact of the same build
+   */
+  public boolean isSameArtifact(@NotNull final NuGetMetadataEntry other) {
+    return myBuildId == other.myBuildId
+            && myKey.equals(other.myKey)
+            && equal(getVersion(), other.getVersion())
+            && equal(myAttributes.get(PackagesIndex.TEAMCITY_ARTIFACT_RELPATH), other.myAttributes.get(PackagesIndex.TEAMCITY_ARTIFACT_RELPATH));
+  }
+
+  private static boolean equal(@Nullable String a, @Nullable String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  @Override
+  public String toString() {
+    return "NuGetMetadataEntry{" +
+            "myKey='" + myKey + '\'' +
+            ", myBuildId=" + myBuildId +
+            '}';
+  }
+}
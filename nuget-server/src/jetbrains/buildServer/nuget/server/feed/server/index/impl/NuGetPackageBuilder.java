@@ -17,11 +17,13 @@
 package jetbrains.buildServer.nuget.server.feed.server.index.impl;
 
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackageAttributesMap;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackageTypedValues;
+import jetbrains.buildServer.nuget.server.util.SemanticVersion;
 import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
@@ -36,14 +38,25 @@ public class NuGetPackageBuilder {
   private final String myKey;
   private final String myVersion;
   private final long myBuildId;
-  private final Map<String, String> myMetadata;
+  private final PackageAttributesMap myMetadata;
+  private final SemanticVersion mySemanticVersion;
+  private final PackageTypedValues myTypedValues;
   private String myExternalId = null;
 
   public NuGetPackageBuilder(@NotNull final BuildMetadataEntry entry) {
-    myMetadata = new HashMap<String, String>(entry.getMetadata());
+    //attributes of index entries are copied as arrays
+    myMetadata = entry instanceof NuGetMetadataEntry
+            ? new PackageAttributesMap(((NuGetMetadataEntry) entry).getAttributes())
+            : new PackageAttributesMap(entry.getMetadata());
     myVersion = myMetadata.get(VERSION);
     myKey = entry.getKey() + "." + myVersion;
     myBuildId = entry.getBuildId();
+    //entries of the packages index already have parsed versions
+    mySemanticVersion = entry instanceof NuGetMetadataEntry
+            ? ((NuGetMetadataEntry) entry).getSemanticVersion()
+            : myVersion == null ? null : SemanticVersion.valueOf(myVersion);
+    //values decoded in the index are reused for attributes which are not changed
+    myTypedValues = entry instanceof NuGetMetadataEntry ? ((NuGetMetadataEntry) entry).getTypedValues() : null;
     setMetadata(TEAMCITY_BUILD_ID, String.valueOf(myBuildId));
   }
 
@@ -66,6 +79,11 @@ public class NuGetPackageBuilder {
     return myVersion;
   }
 
+  @Nullable
+  public SemanticVersion getSemanticVersion() {
+    return mySemanticVersion;
+  }
+
   public void setPrerelease(boolean isPrerelease) {
     setMetadata(IS_PRERELEASE, String.valueOf(isPrerelease));
   }
@@ -118,16 +136,34 @@ public class NuGetPackageBuilder {
     setMetadata(IS_LATEST_VERSION, String.valueOf(isLatest));
   }
 
+  /**
+   * @return true if the entry could be built
+   */
+  public boolean isComplete() {
+    return getDownloadUrl() != null && getBuildTypeId() != null;
+  }
+
+  /**
+   * Entry view shares attributes with the builder, so it could be used
+   * to check the package before it is built. Latest flags may be not set in the view.
+   * @return view of the entry being built
+   */
+  @NotNull
+  public NuGetIndexEntry getEntryView() {
+    return new NuGetIndexEntry(myKey, myMetadata, mySemanticVersion, myTypedValues);
+  }
+
   @Nullable
   public NuGetIndexEntry build() {
-    if (getDownloadUrl() == null) return null;
-    if (getBuildTypeId() == null) return null;
+    if (!isComplete()) return null;
 
     if (myMetadata.get(IS_LATEST_VERSION) == null) setIsLatest(false);
     if (myMetadata.get(IS_ABSOLUTE_LATEST_VERSION) == null) setIsAbsoluteLatest(false);
     return new NuGetIndexEntry(
             myKey,
-            myMetadata
+            myMetadata,
+            mySemanticVersion,
+            myTypedValues
     );
   }
 }
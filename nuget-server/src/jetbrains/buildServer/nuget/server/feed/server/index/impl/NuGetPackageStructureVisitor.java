@@ -27,11 +27,13 @@ import org.jdom.JDOMException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.Collection;
+import java.util.Enumeration;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -41,6 +43,8 @@ public class NuGetPackageStructureVisitor {
 
   private static final Logger LOG = Logger.getInstance(NuGetPackageStructureVisitor.class.getName());
 
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   @NotNull private final Collection<NuGetPackageStructureAnalyser> myAnalysers;
 
   public NuGetPackageStructureVisitor(@NotNull Collection<NuGetPackageStructureAnalyser> analysers) {
@@ -49,60 +53,170 @@ public class NuGetPackageStructureVisitor {
 
   public void visit(@NotNull BuildArtifact artifact) throws PackageLoadException {
     if(myAnalysers.isEmpty()) return;
-    ZipInputStream zipInputStream = null;
-    InputStream stream = null;
+    visit(artifact, null);
+  }
+
+  /**
+   * Visits entries of the package and computes the digest of the package in the same pass
+   * @param artifact NuGet package
+   * @param digest digest to update with all bytes of the package or null
+   * @throws PackageLoadException if the package could not be read to compute the digest
+   */
+  public void visit(@NotNull BuildArtifact artifact, @Nullable MessageDigest digest) throws PackageLoadException {
     final String nugetPackageName = artifact.getName();
+    final InputStream stream;
     try {
       stream = artifact.getInputStream();
-      zipInputStream = new ZipInputStream(new BufferedInputStream(stream));
+    } catch (IOException e) {
+      LOG.warn("Failed to read content of NuGet package " + nugetPackageName);
+      if (digest != null) throw new PackageLoadException("Failed to compute digest for " + artifact);
+      return;
+    }
+
+    try {
+      //digest is updated below the buffer, so it sees every byte read from the artifact exactly once
+      final InputStream digestStream = digest == null ? stream : new DigestInputStream(stream, digest);
+      visitEntries(new ZipInputStream(new BufferedInputStream(digestStream, BUFFER_SIZE)), nugetPackageName);
+
+      //zip stream stops at the central directory, the rest of the package is read for the digest only
+      if (digest != null) readToEnd(digestStream);
+    } catch (IOException e) {
+      throw new PackageLoadException("Failed to compute digest for " + artifact);
+    } finally {
+      FileUtil.close(stream);
+    }
+  }
+
+  /**
+   * Visits entries of the local package file listed in the zip central directory, so only .nuspec entries are read.
+   * If the file could not be opened as zip, entries are visited by reading the artifact stream
+   * @param artifact NuGet package
+   * @param packageFile local file of the artifact
+   * @param digest digest to update with all bytes of the package or null
+   * @throws PackageLoadException if the package could not be read to compute the digest
+   */
+  public void visit(@NotNull BuildArtifact artifact, @NotNull File packageFile, @Nullable MessageDigest digest) throws PackageLoadException {
+    if (!packageFile.isFile() || packageFile.length() != artifact.getSize() || !visitEntries(packageFile, artifact.getName())) {
+      visit(artifact, digest);
+      return;
+    }
+    if (digest == null) return;
+
+    try {
+      updateDigest(packageFile, digest);
+    } catch (IOException e) {
+      throw new PackageLoadException("Failed to compute digest for " + artifact);
+    }
+  }
+
+  /**
+   * @param file file to read
+   * @param digest digest to update with all bytes of the file
+   * @throws IOException if the file could not be read
+   */
+  public static void updateDigest(@NotNull File file, @NotNull MessageDigest digest) throws IOException {
+    final InputStream stream = new DigestInputStream(new FileInputStream(file), digest);
+    try {
+      readToEnd(stream);
+    } finally {
+      FileUtil.close(stream);
+    }
+  }
+
+  /**
+   * @return false if the package file could not be opened as zip, so no entries were visited
+   */
+  private boolean visitEntries(@NotNull final File packageFile, @NotNull final String nugetPackageName) {
+    final ZipFile zipFile;
+    try {
+      zipFile = new ZipFile(packageFile);
+    } catch (IOException e) {
+      LOG.debug(String.format("Failed to read zip central directory of NuGet package %s, the package will be read sequentially. %s", packageFile, e.getMessage()));
+      return false;
+    }
+
+    try {
+      final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        final ZipEntry zipEntry = entries.nextElement();
+        if (zipEntry.isDirectory()) continue;
+        final String zipEntryName = zipEntry.getName();
+        if (!analyseEntry(zipEntryName)) continue;
+
+        final InputStream stream = zipFile.getInputStream(zipEntry);
+        try {
+          analyseNuspecFile(stream, zipEntryName, nugetPackageName);
+        } finally {
+          FileUtil.close(stream);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to read content of NuGet package " + nugetPackageName);
+    } finally {
+      try {
+        zipFile.close();
+      } catch (IOException e) {
+        //NOP
+      }
+    }
+    return true;
+  }
+
+  private void visitEntries(@NotNull final ZipInputStream zipInputStream, @NotNull final String nugetPackageName) {
+    try {
       ZipEntry zipEntry;
       while ((zipEntry = zipInputStream.getNextEntry()) != null) {
         if(zipEntry.isDirectory()) continue;
         final String zipEntryName = zipEntry.getName();
-        for(NuGetPackageStructureAnalyser analyser : myAnalysers){
-          analyser.analyseEntry(zipEntryName);
-        }
-        if (zipEntryName.endsWith(FeedConstants.NUSPEC_FILE_EXTENSION)) {
-          LOG.debug(String.format("Nuspec file found on path %s in NuGet package %s", zipEntryName, nugetPackageName));
-          final NuspecFileContent nuspecContent = readNuspecFileContent(zipInputStream);
-          if (nuspecContent == null)
-            LOG.warn("Failed to read .nuspec file content from NuGet package " + nugetPackageName);
-          else {
-            for(NuGetPackageStructureAnalyser analyser : myAnalysers){
-              analyser.analyseNuspecFile(nuspecContent);
-            }
-          }
+        if (analyseEntry(zipEntryName)) {
+          analyseNuspecFile(zipInputStream, zipEntryName, nugetPackageName);
           zipInputStream.closeEntry();
         }
       }
     } catch (IOException e) {
       LOG.warn("Failed to read content of NuGet package " + nugetPackageName);
-      if(zipInputStream != null){
-        try {
-          zipInputStream.close();
-        } catch (IOException ex) {
-          //NOP
-        }
+    }
+  }
+
+  /**
+   * @return true if the entry is .nuspec file
+   */
+  private boolean analyseEntry(@NotNull final String zipEntryName) {
+    for(NuGetPackageStructureAnalyser analyser : myAnalysers){
+      analyser.analyseEntry(zipEntryName);
+    }
+    return zipEntryName.endsWith(FeedConstants.NUSPEC_FILE_EXTENSION);
+  }
+
+  private void analyseNuspecFile(@NotNull final InputStream stream,
+                                 @NotNull final String zipEntryName,
+                                 @NotNull final String nugetPackageName) throws IOException {
+    LOG.debug(String.format("Nuspec file found on path %s in NuGet package %s", zipEntryName, nugetPackageName));
+    final NuspecFileContent nuspecContent = readNuspecFileContent(stream);
+    if (nuspecContent == null)
+      LOG.warn("Failed to read .nuspec file content from NuGet package " + nugetPackageName);
+    else {
+      for(NuGetPackageStructureAnalyser analyser : myAnalysers){
+        analyser.analyseNuspecFile(nuspecContent);
       }
-    } finally {
-      FileUtil.close(stream);
     }
   }
 
+  private static void readToEnd(@NotNull final InputStream stream) throws IOException {
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    //noinspection StatementWithEmptyBody
+    while (stream.read(buffer) >= 0) ;
+  }
+
   @Nullable
-  private NuspecFileContent readNuspecFileContent(final ZipInputStream finalZipInputStream) throws IOException {
+  private NuspecFileContent readNuspecFileContent(@NotNull final InputStream stream) throws IOException {
     try {
-      final Element document = FileUtil.parseDocument(new InputStream() {
-        @Override
-        public int read() throws IOException {
-          return finalZipInputStream.read();
-        }
-
+      final Element document = FileUtil.parseDocument(new BufferedInputStream(new FilterInputStream(stream) {
         @Override
         public void close() throws IOException {
           //do nothing, should avoid stream closing by xml parse util
         }
-      }, false);
+      }), false);
       return new NuspecFileContent(document);
     } catch (JDOMException e) {
       LOG.debug(e);
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndexUpdater;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.executors.ExecutorServices;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.util.ExceptionUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.LAST_UPDATED;
+import static jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex.TEAMCITY_BUILD_TYPE_ID;
+import static jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetArtifactsMetadataProvider.NUGET_PROVIDER_ID;
+
+/**
+ * Rewrites metadata entries of old format (without build type id) once on server startup.
+ * Build type id and LastUpdated of such entries are resolved from builds and written back to metadata storage.
+ */
+public class OldFormatEntriesMigration {
+  private static final Logger LOG = Logger.getInstance(OldFormatEntriesMigration.class.getName());
+  private static final long PROGRESS_INTERVAL = 10 * 1000;
+
+  private final MetadataStorage myStorage;
+  private final BuildsManager myBuilds;
+  private final PackagesIndexUpdater myIndexUpdater;
+  //resolved builds are served from here until migrated entries are re-loaded from storage
+  private final Map<Long, MigratedBuild> myMigratedBuilds = new ConcurrentHashMap<Long, MigratedBuild>();
+  private volatile boolean myIsCompleted = false;
+
+  public OldFormatEntriesMigration(@NotNull final MetadataStorage storage,
+                                   @NotNull final BuildsManager builds,
+                                   @NotNull final PackagesIndexUpdater indexUpdater,
+                                   @NotNull final ExecutorServices executors,
+                                   @NotNull final EventDispatcher<BuildServerListener> events) {
+    myStorage = storage;
+    myBuilds = builds;
+    myIndexUpdater = indexUpdater;
+    events.addListener(new BuildServerAdapter() {
+      @Override
+      public void serverStartup() {
+        executors.getNormalExecutorService().submit(ExceptionUtil.catchAll("migrate old format NuGet packages metadata", new Runnable() {
+          public void run() {
+            migrate();
+          }
+        }));
+      }
+    });
+  }
+
+  /**
+   * @return true if all old format entries were processed,
+   * entries which are still in old format after that could not be resolved
+   */
+  public boolean isCompleted() {
+    return myIsCompleted;
+  }
+
+  /**
+   * @param buildId build of the entry
+   * @return build migrated in the current run or null
+   */
+  @Nullable
+  public MigratedBuild getMigratedBuild(long buildId) {
+    return myMigratedBuilds.get(buildId);
+  }
+
+  public void migrate() {
+    final long startTime = System.currentTimeMillis();
+    long lastReport = startTime;
+    int migrated = 0;
+    int processed = 0;
+    //builds with entries which were not written are resolved from the cache after the index is re-loaded
+    final Set<Long> notMigratedBuilds = new HashSet<Long>();
+
+    //entries are migrated as they are read, so they are not collected in memory
+    final Iterator<BuildMetadataEntry> it = myStorage.getAllEntries(NUGET_PROVIDER_ID);
+    while (it.hasNext()) {
+      final BuildMetadataEntry entry = it.next();
+      if (entry.getMetadata().get(TEAMCITY_BUILD_TYPE_ID) != null) continue;
+
+      if (processed == 0) LOG.info("Migrating NuGet packages metadata entries of old format");
+      if (migrate(entry)) {
+        migrated++;
+      } else {
+        notMigratedBuilds.add(entry.getBuildId());
+      }
+      processed++;
+
+      final long now = System.currentTimeMillis();
+      if (now - lastReport > PROGRESS_INTERVAL) {
+        LOG.info(String.format("Processed %d NuGet packages metadata entries of old format", processed));
+        lastReport = now;
+      }
+    }
+
+    myIsCompleted = true;
+    if (processed == 0) return;
+
+    LOG.info(String.format("Migrated %d of %d NuGet packages metadata entries of old format in %d ms, other entries refer to unknown builds",
+            migrated, processed, System.currentTimeMillis() - startTime));
+    if (migrated > 0) {
+      myIndexUpdater.rebuild(new Runnable() {
+        public void run() {
+          myMigratedBuilds.keySet().retainAll(notMigratedBuilds);
+        }
+      });
+    }
+  }
+
+  private boolean migrate(@NotNull final BuildMetadataEntry entry) {
+    final long buildId = entry.getBuildId();
+    MigratedBuild migratedBuild = myMigratedBuilds.get(buildId);
+    if (migratedBuild == null) {
+      final SBuild build = safeFindBuildInstanceById(buildId);
+      if (build == null || !(build instanceof SFinishedBuild) || build.getBuildTypeId() == null) return false;
+      migratedBuild = new MigratedBuild(build.getBuildTypeId(), ODataDataFormat.formatDate(((SFinishedBuild) build).getFinishDate()));
+    }
+
+    //resolved build is used by feed requests even if the entry was not written
+    myMigratedBuilds.put(buildId, migratedBuild);
+
+    final Map<String, String> metadata = new HashMap<String, String>(entry.getMetadata());
+    metadata.put(TEAMCITY_BUILD_TYPE_ID, migratedBuild.getBuildTypeId());
+    metadata.put(LAST_UPDATED, migratedBuild.getLastUpdated());
+    try {
+      myStorage.addParameters(buildId, NUGET_PROVIDER_ID, entry.getKey(), metadata);
+      return true;
+    } catch (RuntimeException e) {
+      LOG.warn("Failed to migrate NuGet package metadata entry " + entry.getKey() + " of build " + buildId + ". " + e.getMessage());
+      LOG.debug("Failed to migrate NuGet package metadata entry " + entry.getKey() + " of build " + buildId, e);
+      return false;
+    }
+  }
+
+  @Nullable
+  private SBuild safeFindBuildInstanceById(long buildId) {
+    try {
+      return myBuilds.findBuildInstanceById(buildId);
+    } catch (RuntimeException e) {
+      //AccessDeniedException and others could be thrown
+      return null;
+    }
+  }
+
+  public static final class MigratedBuild {
+    private final String myBuildTypeId;
+    private final String myLastUpdated;
+
+    private MigratedBuild(@NotNull final String buildTypeId, @NotNull final String lastUpdated) {
+      myBuildTypeId = buildTypeId;
+      myLastUpdated = lastUpdated;
+    }
+
+    @NotNull
+    public String getBuildTypeId() {
+      return myBuildTypeId;
+    }
+
+    @NotNull
+    public String getLastUpdated() {
+      return myLastUpdated;
+    }
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.IsPrereleaseTransformation;
+import jetbrains.buildServer.nuget.server.util.SemanticVersion;
+import jetbrains.buildServer.nuget.server.util.VersionUtility;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Immutable list of entries of a package sorted by version.
+ * Entries of the latest release version and of the absolute latest version
+ * are tracked when entries are added, so they are never re-computed from all versions.
+ */
+public class PackageVersions {
+  static final Comparator<NuGetMetadataEntry> VERSIONS_ORDER = new Comparator<NuGetMetadataEntry>() {
+    public int compare(@NotNull NuGetMetadataEntry o1, @NotNull NuGetMetadataEntry o2) {
+      final int cmp = compareVersions(o1, o2);
+      if (cmp != 0) return cmp;
+
+      //newer builds go first, the same way metadata storage returns them
+      final long b1 = o1.getBuildId();
+      final long b2 = o2.getBuildId();
+      return b1 > b2 ? -1 : b1 == b2 ? 0 : 1;
+    }
+  };
+
+  private final List<NuGetMetadataEntry> myEntries;
+  @Nullable private final NuGetMetadataEntry myLatest;
+  @NotNull private final NuGetMetadataEntry myAbsoluteLatest;
+  //entries grouped by normalized version, computed on the first lookup by version
+  @Nullable private volatile Map<String, List<NuGetMetadataEntry>> myEntriesByVersion;
+
+  private PackageVersions(@NotNull final List<NuGetMetadataEntry> sortedEntries,
+                          @Nullable final NuGetMetadataEntry latest,
+                          @NotNull final NuGetMetadataEntry absoluteLatest) {
+    myEntries = Collections.unmodifiableList(sortedEntries);
+    myLatest = latest;
+    myAbsoluteLatest = absoluteLatest;
+  }
+
+  /**
+   * @param sortedEntries not empty list of entries of the same package sorted by {@link #VERSIONS_ORDER}
+   */
+  @NotNull
+  static PackageVersions create(@NotNull final List<NuGetMetadataEntry> sortedEntries) {
+    NuGetMetadataEntry latest = null;
+    NuGetMetadataEntry absoluteLatest = null;
+    for (NuGetMetadataEntry entry : sortedEntries) {
+      if (isNewer(entry, absoluteLatest)) absoluteLatest = entry;
+      if (isRelease(entry) && isNewer(entry, latest)) latest = entry;
+    }
+    if (absoluteLatest == null) throw new IllegalArgumentException("Package versions list should not be empty");
+    return new PackageVersions(sortedEntries, latest, absoluteLatest);
+  }
+
+  /**
+   * @param sortedEntries entries of the same package sorted by {@link #VERSIONS_ORDER}, must not be already added
+   * @return new list containing entries of this list and given entries
+   */
+  @NotNull
+  PackageVersions withEntries(@NotNull final List<NuGetMetadataEntry> sortedEntries) {
+    if (sortedEntries.isEmpty()) return this;
+
+    NuGetMetadataEntry latest = myLatest;
+    NuGetMetadataEntry absoluteLatest = myAbsoluteLatest;
+    final List<NuGetMetadataEntry> result = new ArrayList<NuGetMetadataEntry>(myEntries.size() + sortedEntries.size());
+    int i = 0;
+    for (NuGetMetadataEntry entry : sortedEntries) {
+      if (isNewer(entry, absoluteLatest)) absoluteLatest = entry;
+      if (isRelease(entry) && isNewer(entry, latest)) latest = entry;
+
+      while (i < myEntries.size() && VERSIONS_ORDER.compare(myEntries.get(i), entry) <= 0) {
+        result.add(myEntries.get(i++));
+      }
+      result.add(entry);
+    }
+    result.addAll(myEntries.subList(i, myEntries.size()));
+    return new PackageVersions(result, latest, absoluteLatest);
+  }
+
+  /**
+   * @param entry entry of this list
+   * @return new list without the entry or null if no entries remain
+   */
+  @Nullable
+  PackageVersions withoutEntry(@NotNull final NuGetMetadataEntry entry) {
+    final List<NuGetMetadataEntry> result = new ArrayList<NuGetMetadataEntry>(myEntries);
+    if (!result.remove(entry)) return this;
+    return result.isEmpty() ? null : create(result);
+  }
+
+  /**
+   * @return entries sorted by version, newer builds of the same version go first
+   */
+  @NotNull
+  public List<NuGetMetadataEntry> getEntries() {
+    return myEntries;
+  }
+
+  /**
+   * @param version package version, compared as normalized version ignoring case
+   * @return entries of the version, newer builds go first
+   */
+  @NotNull
+  public List<NuGetMetadataEntry> getEntries(@NotNull final String version) {
+    Map<String, List<NuGetMetadataEntry>> entriesByVersion = myEntriesByVersion;
+    if (entriesByVersion == null) {
+      entriesByVersion = new HashMap<String, List<NuGetMetadataEntry>>();
+      for (NuGetMetadataEntry entry : myEntries) {
+        final String key = normalizeVersion(nonNull(entry.getVersion()));
+        List<NuGetMetadataEntry> list = entriesByVersion.get(key);
+        if (list == null) {
+          list = new ArrayList<NuGetMetadataEntry>(1);
+          entriesByVersion.put(key, list);
+        }
+        list.add(entry);
+      }
+      myEntriesByVersion = entriesByVersion;
+    }
+
+    final List<NuGetMetadataEntry> entries = entriesByVersion.get(normalizeVersion(version));
+    return entries == null ? Collections.<NuGetMetadataEntry>emptyList() : Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * @return Id of the package as it is written in the entry with the lowest version
+   */
+  @NotNull
+  public String getPackageId() {
+    return nonNull(myEntries.get(0).getPackageId());
+  }
+
+  /**
+   * @return entry of the greatest release version from the newest build or null if there are only prerelease versions
+   */
+  @Nullable
+  public NuGetMetadataEntry getLatest() {
+    return myLatest;
+  }
+
+  /**
+   * @return entry of the greatest version from the newest build
+   */
+  @NotNull
+  public NuGetMetadataEntry getAbsoluteLatest() {
+    return myAbsoluteLatest;
+  }
+
+  /**
+   * @return entries from the greatest version to the lowest one, newer builds of the same version go first
+   */
+  @NotNull
+  public Iterator<NuGetMetadataEntry> newestFirst() {
+    return new Iterator<NuGetMetadataEntry>() {
+      private int myBlockStart = myEntries.size();
+      private int myBlockEnd = myEntries.size();
+      private int myNext = myEntries.size();
+
+      public boolean hasNext() {
+        return myNext < myBlockEnd || myBlockStart > 0;
+      }
+
+      public NuGetMetadataEntry next() {
+        if (myNext == myBlockEnd) {
+          if (myBlockStart == 0) throw new NoSuchElementException();
+          //entries of the same version are iterated in the list order to keep newer builds first
+          myBlockEnd = myBlockStart;
+          myBlockStart = findVersionStart(myBlockEnd - 1);
+          myNext = myBlockStart;
+        }
+        return myEntries.get(myNext++);
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private int findVersionStart(final int index) {
+    final NuGetMetadataEntry entry = myEntries.get(index);
+    int start = index;
+    while (start > 0 && compareVersions(myEntries.get(start - 1), entry) == 0) {
+      start--;
+    }
+    return start;
+  }
+
+  private static boolean isNewer(@NotNull final NuGetMetadataEntry entry, @Nullable final NuGetMetadataEntry current) {
+    if (current == null) return true;
+    final int cmp = compareVersions(entry, current);
+    return cmp > 0 || cmp == 0 && entry.getBuildId() > current.getBuildId();
+  }
+
+  private static boolean isRelease(@NotNull final NuGetMetadataEntry entry) {
+    return IsPrereleaseTransformation.isReleaseVersion(nonNull(entry.getVersion()));
+  }
+
+  static int compareVersions(@NotNull final NuGetMetadataEntry e1, @NotNull final NuGetMetadataEntry e2) {
+    return SemanticVersion.compareAsVersions(e1.getSemanticVersion(), nonNull(e1.getVersion()), e2.getSemanticVersion(), nonNull(e2.getVersion()));
+  }
+
+  @NotNull
+  private static String normalizeVersion(@NotNull final String version) {
+    final String normalized = VersionUtility.normalizeVersion(version);
+    return (normalized == null ? version : normalized).toLowerCase(Locale.ENGLISH);
+  }
+
+  @NotNull
+  static String nonNull(@Nullable final String s) {
+    return s == null ? "" : s;
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndexUpdater;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Re-loads in-memory packages index when metadata entries were removed by build cleanup or with a build configuration,
+ * removes packages of removed builds from the index and drops their queued packages
+ */
+public class PackagesIndexEventsListener {
+  public PackagesIndexEventsListener(@NotNull final EventDispatcher<BuildServerListener> events,
+                                     @NotNull final PackagesIndexUpdater updater,
+                                     @NotNull final NuGetArtifactsMetadataProvider metadataProvider) {
+    events.addListener(new BuildServerAdapter() {
+      @Override
+      public void cleanupFinished() {
+        updater.rebuild();
+      }
+
+      @Override
+      public void entryDeleted(@NotNull SFinishedBuild oldEntry) {
+        metadataProvider.cancelQueuedPackages(oldEntry.getBuildId());
+        updater.removeBuild(oldEntry.getBuildId());
+      }
+
+      @Override
+      public void buildTypeUnregistered(@NotNull SBuildType buildType) {
+        updater.rebuild();
+      }
+    });
+  }
+}
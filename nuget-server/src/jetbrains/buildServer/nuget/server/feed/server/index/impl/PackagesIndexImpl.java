@@ -24,9 +24,11 @@ import jetbrains.buildServer.nuget.server.feed.server.PackageAttributes;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetServerStatisticsProvider;
 import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesQuery;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.latest.LatestCalculator;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.latest.LatestVersionsCalculator;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.IsLatestFieldTransformation;
+import jetbrains.buildServer.nuget.server.util.SemanticVersion;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
 import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
@@ -48,45 +50,246 @@ public class PackagesIndexImpl implements PackagesIndex, NuGetServerStatisticsPr
 
   public static final Collection<String> PACKAGE_ATTRIBUTES_TO_SEARCH = Lists.newArrayList(PackageAttributes.ID, TITLE, TAGS, DESCRIPTION, AUTHORS);
 
-  private static final String TOTAL_NUMBER_OF_ITEMS_STAT = "Total number of items in index";
-  private static final String NUMBER_OF_INDEXED_BUILDS_STAT = "Number of indexed builds";
-  private static final String NUMBER_OF_PACKAGE_IDS_STAT = "Number of unique package Ids";
 
   private final MetadataStorage myStorage;
+  private final PackagesSnapshotHolder mySnapshotHolder;
   private final Collection<PackageTransformation> myTransformations;
 
 
   public PackagesIndexImpl(@NotNull final MetadataStorage storage,
+                           @NotNull final PackagesSnapshotHolder snapshotHolder,
                            @NotNull final Collection<PackageTransformation> transformations) {
     myStorage = storage;
+    mySnapshotHolder = snapshotHolder;
     myTransformations = new ArrayList<PackageTransformation>(transformations);
   }
 
   @NotNull
   public Iterator<NuGetIndexEntry> getNuGetEntries(long buildId) {
-    return decorateMetadata(getBuildEntries(buildId));
+    //entries of a build are read from metadata storage, so duplicates are skipped here rather than by the index
+    return decorateMetadata(PackagesSnapshot.skipDuplicates(getBuildEntries(buildId)));
   }
 
   @NotNull
   public Iterator<NuGetIndexEntry> getNuGetEntries(@NotNull String packageId) {
-    return decorateMetadata(myStorage.getEntriesByKey(NUGET_PROVIDER_ID, packageId));
+    return decorateIndexEntries(mySnapshotHolder.getSnapshot().getEntries(packageId));
+  }
+
+  @NotNull
+  public Iterator<NuGetIndexEntry> getNuGetEntries(@NotNull Collection<String> packageIds) {
+    return decorateIndexEntries(mySnapshotHolder.getSnapshot().getEntries(packageIds));
+  }
+
+  @Nullable
+  public Set<String> findPackageIdsContaining(@NotNull String attribute, @NotNull String text) {
+    return mySnapshotHolder.getSnapshot().findPackageIdsContaining(attribute, text);
+  }
+
+  @NotNull
+  public Iterator<NuGetIndexEntry> getNuGetEntriesNewerThan(@NotNull String packageId, @NotNull SemanticVersion version) {
+    return decorateIndexEntries(mySnapshotHolder.getSnapshot().getEntriesNewerThan(packageId, version));
   }
 
   @NotNull
   public Iterator<NuGetIndexEntry> search(@NotNull String searchTerm) {
-    return decorateMetadata(myStorage.findEntriesWithValue(NUGET_PROVIDER_ID, searchTerm, PACKAGE_ATTRIBUTES_TO_SEARCH));
+    return decorateIndexEntries(mySnapshotHolder.getSnapshot().search(searchTerm));
+  }
+
+  @NotNull
+  public Iterator<NuGetIndexEntry> searchRanked(@NotNull String searchTerm, @NotNull final PackagesQuery query) {
+    final PackagesSnapshot snapshot = mySnapshotHolder.getSnapshot();
+    final Collection<PackageTransformation> translators = getTranslators(); //contains processing state!
+    //latest versions of packages by lower case Id, they are computed once for all found versions of a package
+    final Map<String, List<NuGetPackageBuilder>> latestBuilders = new HashMap<String, List<NuGetPackageBuilder>>();
+
+    final Iterator<NuGetPackageBuilder> builders = new DecoratingIterator<NuGetPackageBuilder, NuGetMetadataEntry>(
+            snapshot.searchRanked(searchTerm).iterator(),
+            new Mapper<NuGetMetadataEntry, NuGetPackageBuilder>() {
+              @Nullable
+              public NuGetPackageBuilder mapKey(@NotNull NuGetMetadataEntry entry) {
+                final String packageId = entry.getPackageId();
+                if (packageId == null) return null;
+                final String id = packageId.toLowerCase(Locale.ENGLISH);
+                List<NuGetPackageBuilder> latest = latestBuilders.get(id);
+                if (latest == null) {
+                  latest = new ArrayList<NuGetPackageBuilder>(2);
+                  final PackageVersions versions = snapshot.getPackage(packageId);
+                  if (versions != null) addLatestBuilders(versions, translators, latest);
+                  latestBuilders.put(id, latest);
+                }
+
+                NuGetPackageBuilder builder = null;
+                for (NuGetPackageBuilder latestBuilder : latest) {
+                  if (latestBuilder.getBuildId() == entry.getBuildId() && latestBuilder.getKey().equals(NuGetMetadataEntry.getPackageKey(entry))) {
+                    builder = latestBuilder;
+                    break;
+                  }
+                }
+                if (builder == null) {
+                  if (query.isLatestVersionsOnly()) return null;
+                  builder = applyTransformation(entry, translators);
+                }
+                return builder != null && builder.isComplete() && query.matches(builder.getEntryView()) ? builder : null;
+              }
+            });
+    return buildEntries(builders);
   }
 
   @NotNull
   public Iterator<NuGetIndexEntry> getNuGetEntries() {
-    return decorateMetadata(myStorage.getAllEntries(NUGET_PROVIDER_ID));
+    return decorateIndexEntries(mySnapshotHolder.getSnapshot().getEntries());
+  }
+
+  @NotNull
+  public Iterator<NuGetIndexEntry> getNuGetEntries(@NotNull final PackagesQuery query,
+                                                   @Nullable final Comparator<NuGetIndexEntry> order,
+                                                   final int skip,
+                                                   final int count) {
+    final PackagesSnapshot snapshot = mySnapshotHolder.getSnapshot();
+    final Set<String> packageIds = query.getPackageIds();
+
+    final Iterator<NuGetPackageBuilder> builders;
+    if (query.isLatestVersionsOnly()) {
+      builders = getLatestBuilders(packageIds == null ? snapshot.getPackages() : snapshot.getPackages(packageIds));
+    } else {
+      final Collection<NuGetMetadataEntry> entries = packageIds == null ? snapshot.getEntries() : snapshot.getEntries(packageIds);
+      builders = decorateBuilders(Collections.<BuildMetadataEntry>unmodifiableCollection(entries).iterator(), false).iterator();
+    }
+
+    //conditions are checked after latest versions are computed for all versions of packages
+    final Iterator<NuGetPackageBuilder> matching = new DecoratingIterator<NuGetPackageBuilder, NuGetPackageBuilder>(
+            builders,
+            new Mapper<NuGetPackageBuilder, NuGetPackageBuilder>() {
+              @Nullable
+              public NuGetPackageBuilder mapKey(@NotNull NuGetPackageBuilder builder) {
+                return builder.isComplete() && query.matches(builder.getEntryView()) ? builder : null;
+              }
+            });
+
+    //entries of the index are already sorted, so a page is sliced without sorting
+    return buildEntries(order == null
+            ? PackagesPageSelector.slice(matching, skip, count)
+            : PackagesPageSelector.top(matching, order, skip, count).iterator());
+  }
+
+  @Nullable
+  public NuGetIndexEntry getNuGetEntry(@NotNull final String packageId, @NotNull final String version) {
+    final PackagesSnapshot snapshot = mySnapshotHolder.getSnapshot();
+    final List<NuGetMetadataEntry> entries = snapshot.getEntries(packageId, version);
+    if (entries.isEmpty()) return null;
+
+    final Collection<PackageTransformation> translators = getTranslators(); //contains processing state!
+    NuGetPackageBuilder found = null;
+    for (NuGetMetadataEntry entry : entries) {
+      final NuGetPackageBuilder builder = applyTransformation(entry, translators);
+      if (builder == null || !builder.isComplete()) continue;
+      if (found == null) found = builder;
+      if (version.equals(builder.getVersion())) {
+        found = builder;
+        break;
+      }
+    }
+    if (found == null) return null;
+
+    //latest flags are computed the same way as for the feed of latest versions,
+    //translators state is per request, so the same copies are used for all versions of the package
+    final PackageVersions versions = snapshot.getPackage(packageId);
+    if (versions != null) {
+      final List<NuGetPackageBuilder> latest = new ArrayList<NuGetPackageBuilder>(2);
+      addLatestBuilders(versions, translators, latest);
+      for (NuGetPackageBuilder builder : latest) {
+        if (builder.getBuildId() == found.getBuildId() && builder.getKey().equals(found.getKey())) {
+          return builder.build();
+        }
+      }
+    }
+    return found.build();
+  }
+
+  @NotNull
+  public Iterator<NuGetIndexEntry> getLatestNuGetEntries() {
+    return buildEntries(getLatestBuilders(mySnapshotHolder.getSnapshot().getPackages()));
+  }
+
+  @NotNull
+  private Iterator<NuGetPackageBuilder> getLatestBuilders(@NotNull final Collection<PackageVersions> sortedPackages) {
+    final Collection<PackageTransformation> translators = getTranslators(); //contains processing state!
+    final Iterator<PackageVersions> packages = sortedPackages.iterator();
+
+    //latest versions are computed on demand, so a page of the feed checks only packages it contains
+    return new Iterator<NuGetPackageBuilder>() {
+      private final Queue<NuGetPackageBuilder> myNext = new LinkedList<NuGetPackageBuilder>();
+
+      public boolean hasNext() {
+        while (myNext.isEmpty() && packages.hasNext()) {
+          addLatestBuilders(packages.next(), translators, myNext);
+        }
+        return !myNext.isEmpty();
+      }
+
+      public NuGetPackageBuilder next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return myNext.poll();
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
   }
 
-  private Iterator<NuGetIndexEntry> decorateMetadata(Iterator<BuildMetadataEntry> entries) {
-    if (TeamCityProperties.getBoolean("teamcity.nuget.simple.feed.sort")) {
+  private static void addLatestBuilders(@NotNull final PackageVersions versions,
+                                        @NotNull final Collection<PackageTransformation> translators,
+                                        @NotNull final Collection<NuGetPackageBuilder> result) {
+    NuGetPackageBuilder absoluteLatest = null;
+    NuGetPackageBuilder latest = null;
+
+    //newest versions are checked until the first visible release version is found
+    final Iterator<NuGetMetadataEntry> it = versions.newestFirst();
+    while (latest == null && it.hasNext()) {
+      final NuGetPackageBuilder builder = applyTransformation(it.next(), translators);
+      if (builder == null) continue;
+
+      if (absoluteLatest == null) absoluteLatest = builder;
+      if (!builder.isPrerelease()) latest = builder;
+      else if (versions.getLatest() == null) break;
+    }
+
+    if (latest != null) {
+      latest.setIsLatest(true);
+      if (latest != absoluteLatest) result.add(latest);
+    }
+    if (absoluteLatest != null) {
+      absoluteLatest.setIsAbsoluteLatest(true);
+      result.add(absoluteLatest);
+    }
+  }
+
+  @NotNull
+  private Iterator<NuGetIndexEntry> decorateIndexEntries(@NotNull Collection<? extends BuildMetadataEntry> sortedEntries) {
+    //entries of the index are already sorted, so latest versions are computed the same way in simple mode
+    return decorateMetadata(Collections.<BuildMetadataEntry>unmodifiableCollection(sortedEntries).iterator(), false);
+  }
+
+  @NotNull
+  private Iterator<NuGetIndexEntry> decorateMetadata(@NotNull Iterator<BuildMetadataEntry> entries) {
+    if (isSimpleMode()) {
       return transformEntries(entries, getTranslatorsSimple());
     }
+    return decorateMetadata(entries, true);
+  }
 
+  private static boolean isSimpleMode() {
+    return TeamCityProperties.getBoolean("teamcity.nuget.simple.feed.sort");
+  }
+
+  @NotNull
+  private Iterator<NuGetIndexEntry> decorateMetadata(@NotNull Iterator<BuildMetadataEntry> entries, boolean sort) {
+    return buildEntries(decorateBuilders(entries, sort).iterator());
+  }
+
+  @NotNull
+  private List<NuGetPackageBuilder> decorateBuilders(@NotNull Iterator<BuildMetadataEntry> entries, boolean sort) {
     final List<NuGetPackageBuilder> result = new ArrayList<NuGetPackageBuilder>();
     final Collection<PackageTransformation> translators = getTranslators(); //contains processing state!
     final LatestCalculator latestPackages = new LatestVersionsCalculator();
@@ -100,10 +303,16 @@ public class PackagesIndexImpl implements PackagesIndex, NuGetServerStatisticsPr
     latestPackages.updateSelectedPackages();
 
     //This is most consuming operation that requires to sort collection of entire packages
-    Collections.sort(result, SemanticVersionsComparators.getBuildersComparator());
+    if (sort) {
+      Collections.sort(result, SemanticVersionsComparators.getBuildersComparator());
+    }
+    return result;
+  }
 
+  @NotNull
+  private static Iterator<NuGetIndexEntry> buildEntries(@NotNull final Iterator<NuGetPackageBuilder> builders) {
     return new DecoratingIterator<NuGetIndexEntry, NuGetPackageBuilder>(
-            result.iterator(),
+            builders,
             new Mapper<NuGetPackageBuilder, NuGetIndexEntry>() {
               @Nullable
               public NuGetIndexEntry mapKey(@NotNull NuGetPackageBuilder internal) {
@@ -166,23 +375,13 @@ public class PackagesIndexImpl implements PackagesIndex, NuGetServerStatisticsPr
 
   @NotNull
   public Map<String, Long> getIndexStatistics() {
-    final Iterator<BuildMetadataEntry> entries = myStorage.getAllEntries(NUGET_PROVIDER_ID);
-
-    long totalItemsNumber = 0;
-    Set<Long> buildIds = new HashSet<Long>();
-    Set<String> packageIds = new HashSet<String>();
-
-    while(entries.hasNext()){
-      final BuildMetadataEntry entry = entries.next();
-      totalItemsNumber++;
-      buildIds.add(entry.getBuildId());
-      packageIds.add(entry.getMetadata().get(PackageAttributes.ID));
-    }
+    //counters are maintained by the snapshot as entries are added
+    final PackagesSnapshot snapshot = mySnapshotHolder.getSnapshot();
 
     final Map<String, Long> stats = new HashMap<String, Long>();
-    stats.put(TOTAL_NUMBER_OF_ITEMS_STAT, totalItemsNumber);
-    stats.put(NUMBER_OF_INDEXED_BUILDS_STAT, (long) buildIds.size());
-    stats.put(NUMBER_OF_PACKAGE_IDS_STAT, (long) packageIds.size());
+    stats.put(TOTAL_NUMBER_OF_ITEMS_STAT, (long) snapshot.size());
+    stats.put(NUMBER_OF_INDEXED_BUILDS_STAT, (long) snapshot.getBuildsCount());
+    stats.put(NUMBER_OF_PACKAGE_IDS_STAT, (long) snapshot.getPackageIdsCount());
     return stats;
   }
 }
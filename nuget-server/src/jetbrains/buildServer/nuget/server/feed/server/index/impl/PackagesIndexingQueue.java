@@ -0,0 +1,186 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.NamedDeamonThreadFactory;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of NuGet packages waiting to be indexed.
+ * Smaller packages are indexed first: a package is ordered as if it was enqueued later by the time
+ * its hashing is expected to take, so large packages wait longer but are not starved by small ones.
+ */
+public class PackagesIndexingQueue {
+  private static final Logger LOG = Logger.getInstance(PackagesIndexingQueue.class.getName());
+
+  private static final String QUEUE_SIZE_PROP_NAME = "teamcity.nuget.index.queue.size";
+  private static final String QUEUE_THREADS_PROP_NAME = "teamcity.nuget.index.queue.threads";
+  private static final String QUEUE_SHUTDOWN_TIMEOUT_PROP_NAME = "teamcity.nuget.index.queue.shutdown.timeout";
+  private static final long BYTES_PER_MS = 10 * 1024;
+
+  private final int myCapacity;
+  private final AtomicInteger mySize = new AtomicInteger();
+  private final AtomicLong mySequence = new AtomicLong();
+  private final PriorityBlockingQueue<Runnable> myQueue = new PriorityBlockingQueue<Runnable>();
+  private final ThreadPoolExecutor myExecutor;
+
+  public PackagesIndexingQueue() {
+    this(TeamCityProperties.getInteger(QUEUE_THREADS_PROP_NAME, 2), TeamCityProperties.getInteger(QUEUE_SIZE_PROP_NAME, 1000));
+  }
+
+  public PackagesIndexingQueue(final int threadsCount, final int capacity) {
+    final int threads = Math.max(1, threadsCount);
+    myCapacity = Math.max(1, capacity);
+    myExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, myQueue, new NamedDeamonThreadFactory("NuGet Packages Indexing Queue"));
+  }
+
+  /**
+   * @param buildId id of the build the package belongs to
+   * @param description package description for logging
+   * @param packageSize size of the package in bytes
+   * @param indexing indexes the package
+   * @return false if the queue is full, so the package should be indexed by the caller
+   */
+  public boolean offer(final long buildId, @NotNull final String description, final long packageSize, @NotNull final Runnable indexing) {
+    if (mySize.incrementAndGet() > myCapacity) {
+      mySize.decrementAndGet();
+      return false;
+    }
+
+    try {
+      myExecutor.execute(new Task(buildId, description, packageSize, indexing));
+      return true;
+    } catch (RejectedExecutionException e) {
+      mySize.decrementAndGet();
+      return false;
+    }
+  }
+
+  /**
+   * @return number of packages waiting to be indexed or being indexed
+   */
+  public int getSize() {
+    return mySize.get();
+  }
+
+  /**
+   * @return time in milliseconds the longest waiting package is in the queue
+   */
+  public long getLag() {
+    long oldest = Long.MAX_VALUE;
+    for (Runnable runnable : myQueue) {
+      oldest = Math.min(oldest, ((Task) runnable).myEnqueueTime);
+    }
+    return oldest == Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+  }
+
+  /**
+   * Removes packages of the build which are waiting in the queue, packages being indexed are not interrupted
+   * @param buildId id of the build
+   * @return number of removed packages
+   */
+  public int remove(final long buildId) {
+    int removed = 0;
+    for (Runnable runnable : myQueue.toArray(new Runnable[0])) {
+      if (((Task) runnable).myBuildId == buildId && myExecutor.remove(runnable)) {
+        mySize.decrementAndGet();
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Removes all packages which are waiting in the queue, packages being indexed are not interrupted
+   * @return number of removed packages
+   */
+  public int clear() {
+    final List<Runnable> removed = new ArrayList<Runnable>();
+    myQueue.drainTo(removed);
+    mySize.addAndGet(-removed.size());
+    return removed.size();
+  }
+
+  /**
+   * Packages waiting in the queue are indexed within the shutdown timeout, the rest are dropped
+   */
+  public void dispose() {
+    myExecutor.shutdown();
+    try {
+      final int timeout = TeamCityProperties.getInteger(QUEUE_SHUTDOWN_TIMEOUT_PROP_NAME, 30);
+      if (!myExecutor.awaitTermination(timeout, TimeUnit.SECONDS)) {
+        LOG.info(String.format("NuGet packages indexing queue was not drained in %d seconds", timeout));
+      }
+    } catch (InterruptedException e) {
+      LOG.debug("Interrupted wait of NuGet packages indexing queue shutdown. ", e);
+    }
+
+    final List<Runnable> dropped = myExecutor.shutdownNow();
+    if (dropped.isEmpty()) return;
+
+    final Set<Long> buildIds = new TreeSet<Long>();
+    for (Runnable runnable : dropped) {
+      buildIds.add(((Task) runnable).myBuildId);
+    }
+    LOG.warn(String.format("%d NuGet packages of builds with ids %s were not indexed before server shutdown, re-index NuGet packages to add them to the feed",
+            dropped.size(), buildIds));
+  }
+
+  private class Task implements Runnable, Comparable<Task> {
+    private final long myBuildId;
+    @NotNull private final String myDescription;
+    @NotNull private final Runnable myIndexing;
+    private final long myEnqueueTime = System.currentTimeMillis();
+    private final long myPriority;
+    private final long mySequenceNumber = mySequence.incrementAndGet();
+
+    private Task(final long buildId, @NotNull final String description, final long packageSize, @NotNull final Runnable indexing) {
+      myBuildId = buildId;
+      myDescription = description;
+      myIndexing = indexing;
+      myPriority = myEnqueueTime + Math.max(0, packageSize) / BYTES_PER_MS;
+    }
+
+    public void run() {
+      try {
+        LOG.debug(String.format("Indexing %s after %d ms in the queue", myDescription, System.currentTimeMillis() - myEnqueueTime));
+        myIndexing.run();
+      } catch (Throwable t) {
+        LOG.warn("Failed to index " + myDescription + ". " + t.getMessage(), t);
+      } finally {
+        mySize.decrementAndGet();
+      }
+    }
+
+    public int compareTo(@NotNull final Task o) {
+      if (myPriority != o.myPriority) return myPriority < o.myPriority ? -1 : 1;
+      if (mySequenceNumber != o.mySequenceNumber) return mySequenceNumber < o.mySequenceNumber ? -1 : 1;
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Selects a page of packages before entries are built, so entries out of the page are never built.
+ * Incomplete builders are not counted as they are not built into entries.
+ */
+final class PackagesPageSelector {
+  private PackagesPageSelector() {
+  }
+
+  /**
+   * Builders are taken lazily, so builders after the page are not checked
+   * @param builders builders in the order of the result
+   * @param skip number of first builders to skip
+   * @param count max number of builders to select
+   * @return selected builders
+   */
+  @NotNull
+  static Iterator<NuGetPackageBuilder> slice(@NotNull final Iterator<NuGetPackageBuilder> builders, final int skip, final int count) {
+    return new Iterator<NuGetPackageBuilder>() {
+      private NuGetPackageBuilder myNext;
+      private int mySkipped;
+      private int myReturned;
+
+      public boolean hasNext() {
+        while (myNext == null && myReturned < count && builders.hasNext()) {
+          final NuGetPackageBuilder builder = builders.next();
+          if (!builder.isComplete()) continue;
+          if (mySkipped < skip) {
+            mySkipped++;
+            continue;
+          }
+          myNext = builder;
+        }
+        return myNext != null;
+      }
+
+      public NuGetPackageBuilder next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        final NuGetPackageBuilder next = myNext;
+        myNext = null;
+        myReturned++;
+        return next;
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Only skip + count first builders are kept in a bounded heap, so the whole list is never sorted.
+   * Builders with equal entries keep their original order as with a stable sort.
+   * @param builders builders to select from
+   * @param order order of entries
+   * @param skip number of first builders to skip
+   * @param count max number of builders to select
+   * @return selected builders sorted in the given order
+   */
+  @NotNull
+  static List<NuGetPackageBuilder> top(@NotNull final Iterator<NuGetPackageBuilder> builders,
+                                       @NotNull final Comparator<NuGetIndexEntry> order,
+                                       final int skip,
+                                       final int count) {
+    final int size = (int) Math.min((long) skip + count, Integer.MAX_VALUE);
+    if (count <= 0) return Collections.emptyList();
+
+    final Comparator<Candidate> candidatesOrder = new Comparator<Candidate>() {
+      public int compare(@NotNull Candidate o1, @NotNull Candidate o2) {
+        final int cmp = order.compare(o1.myEntry, o2.myEntry);
+        if (cmp != 0) return cmp;
+        return o1.myPosition < o2.myPosition ? -1 : o1.myPosition == o2.myPosition ? 0 : 1;
+      }
+    };
+
+    //the head of the heap is the greatest of selected candidates
+    final PriorityQueue<Candidate> heap = new PriorityQueue<Candidate>(Math.min(size, 1024), Collections.reverseOrder(candidatesOrder));
+    int position = 0;
+    while (builders.hasNext()) {
+      final NuGetPackageBuilder builder = builders.next();
+      if (!builder.isComplete()) continue;
+
+      final Candidate candidate = new Candidate(builder, position++);
+      if (heap.size() < size) {
+        heap.add(candidate);
+      } else if (candidatesOrder.compare(candidate, heap.peek()) < 0) {
+        heap.poll();
+        heap.add(candidate);
+      }
+    }
+
+    final List<Candidate> selected = new ArrayList<Candidate>(heap);
+    Collections.sort(selected, candidatesOrder);
+
+    final List<NuGetPackageBuilder> result = new ArrayList<NuGetPackageBuilder>(Math.max(0, selected.size() - skip));
+    for (Candidate candidate : selected.subList(Math.min(skip, selected.size()), selected.size())) {
+      result.add(candidate.myBuilder);
+    }
+    return result;
+  }
+
+  private static final class Candidate {
+    private final NuGetPackageBuilder myBuilder;
+    private final NuGetIndexEntry myEntry;
+    private final int myPosition;
+
+    private Candidate(@NotNull final NuGetPackageBuilder builder, final int position) {
+      myBuilder = builder;
+      myEntry = builder.getEntryView();
+      myPosition = position;
+    }
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+
+/**
+ * Immutable inverted index of words from searchable package attributes.
+ * Each word is mapped to the entries containing it and to the mask of attributes of the entry the word is found in,
+ * so found entries are ranked without reading their attributes.
+ * Words and their postings are persistent maps, so a new index shares all unchanged postings with this one.
+ */
+public class PackagesSearchIndex {
+  private static final Comparator<String> WORDS_ORDER = new Comparator<String>() {
+    public int compare(@NotNull String o1, @NotNull String o2) {
+      return o1.compareTo(o2);
+    }
+  };
+
+  public static final PackagesSearchIndex EMPTY = new PackagesSearchIndex(
+          PersistentSortedMap.<String, PersistentSortedMap<NuGetMetadataEntry, Integer>>empty(WORDS_ORDER));
+
+  //searchable attributes in the order of bits of attribute masks and their weights in scores of found entries
+  private static final String[] ATTRIBUTES = {ID, TITLE, TAGS, AUTHORS, DESCRIPTION};
+  private static final int[] ATTRIBUTE_WEIGHTS = {10, 5, 3, 2, 1};
+  private static final int EXACT_ID_MATCH_WEIGHT = 100;
+
+  private final PersistentSortedMap<String, PersistentSortedMap<NuGetMetadataEntry, Integer>> myPostings;
+
+  private PackagesSearchIndex(@NotNull final PersistentSortedMap<String, PersistentSortedMap<NuGetMetadataEntry, Integer>> postings) {
+    myPostings = postings;
+  }
+
+  /**
+   * @param entries served entries to index
+   * @return index built in one pass over the entries
+   */
+  @NotNull
+  public static PackagesSearchIndex create(@NotNull final Collection<NuGetMetadataEntry> entries) {
+    final TreeMap<String, Map<NuGetMetadataEntry, Integer>> words = new TreeMap<String, Map<NuGetMetadataEntry, Integer>>(WORDS_ORDER);
+    for (NuGetMetadataEntry entry : entries) {
+      for (Map.Entry<String, Integer> word : getWords(entry).entrySet()) {
+        Map<NuGetMetadataEntry, Integer> masks = words.get(word.getKey());
+        if (masks == null) {
+          masks = new HashMap<NuGetMetadataEntry, Integer>(2);
+          words.put(word.getKey(), masks);
+        }
+        masks.put(entry, word.getValue());
+      }
+    }
+
+    final List<PersistentSortedMap<NuGetMetadataEntry, Integer>> postings =
+            new ArrayList<PersistentSortedMap<NuGetMetadataEntry, Integer>>(words.size());
+    for (Map<NuGetMetadataEntry, Integer> masks : words.values()) {
+      final List<NuGetMetadataEntry> sorted = new ArrayList<NuGetMetadataEntry>(masks.keySet());
+      Collections.sort(sorted, PackagesSnapshot.SERVED_ENTRIES_ORDER);
+      final List<Integer> values = new ArrayList<Integer>(sorted.size());
+      for (NuGetMetadataEntry entry : sorted) {
+        values.add(masks.get(entry));
+      }
+      postings.add(PersistentSortedMap.fromSorted(PackagesSnapshot.SERVED_ENTRIES_ORDER, sorted, values));
+    }
+    return new PackagesSearchIndex(PersistentSortedMap.fromSorted(WORDS_ORDER, new ArrayList<String>(words.keySet()), postings));
+  }
+
+  /**
+   * @param entry served entry to add
+   * @return new index containing words of this index and the entry
+   */
+  @NotNull
+  public PackagesSearchIndex withEntry(@NotNull final NuGetMetadataEntry entry) {
+    PersistentSortedMap<String, PersistentSortedMap<NuGetMetadataEntry, Integer>> postings = myPostings;
+    for (Map.Entry<String, Integer> word : getWords(entry).entrySet()) {
+      PersistentSortedMap<NuGetMetadataEntry, Integer> posting = postings.get(word.getKey());
+      if (posting == null) posting = PersistentSortedMap.empty(PackagesSnapshot.SERVED_ENTRIES_ORDER);
+      postings = postings.put(word.getKey(), posting.put(entry, word.getValue()));
+    }
+    return new PackagesSearchIndex(postings);
+  }
+
+  /**
+   * @param entry indexed entry to remove
+   * @return new index without the entry
+   */
+  @NotNull
+  public PackagesSearchIndex withoutEntry(@NotNull final NuGetMetadataEntry entry) {
+    PersistentSortedMap<String, PersistentSortedMap<NuGetMetadataEntry, Integer>> postings = myPostings;
+    for (String word : getWords(entry).keySet()) {
+      final PersistentSortedMap<NuGetMetadataEntry, Integer> posting = postings.get(word);
+      if (posting == null) continue;
+
+      final PersistentSortedMap<NuGetMetadataEntry, Integer> updated = posting.remove(entry);
+      postings = updated.isEmpty() ? postings.remove(word) : postings.put(word, updated);
+    }
+    return new PackagesSearchIndex(postings);
+  }
+
+  /**
+   * Finds entries containing all words of the search term.
+   * Every word of the search term matches words of entries starting with it
+   * @param searchTerm search term
+   * @return found entries or null if the search term contains no words
+   */
+  @Nullable
+  public Collection<NuGetMetadataEntry> search(@NotNull final String searchTerm) {
+    final List<String> terms = tokenize(searchTerm);
+    if (terms.isEmpty()) return null;
+
+    return find(findByPrefixes(terms));
+  }
+
+  /**
+   * Finds entries the same way as {@link #search(String)} and scores them by attributes the words of the search term are found in.
+   * A word found in a more important attribute gives a higher score, a word equal to a word of the search term scores twice
+   * as much as a word starting with it. The entry with the Id equal to the whole search term gets the highest score.
+   * @param searchTerm search term
+   * @return scores of found entries or null if the search term contains no words
+   */
+  @Nullable
+  public Map<NuGetMetadataEntry, Integer> searchScored(@NotNull final String searchTerm) {
+    final List<String> terms = tokenize(searchTerm);
+    if (terms.isEmpty()) return null;
+
+    final List<PrefixMatch> matches = findByPrefixes(terms);
+    final Set<NuGetMetadataEntry> found = find(matches);
+
+    final String id = searchTerm.trim();
+    final Map<NuGetMetadataEntry, Integer> scores = new HashMap<NuGetMetadataEntry, Integer>(found.size());
+    for (NuGetMetadataEntry entry : found) {
+      scores.put(entry, id.equalsIgnoreCase(entry.getPackageId()) ? EXACT_ID_MATCH_WEIGHT : 0);
+    }
+    for (PrefixMatch match : matches) {
+      match.addScores(scores);
+    }
+    return scores;
+  }
+
+  /**
+   * @return number of indexed words
+   */
+  public int getWordsCount() {
+    return myPostings.size();
+  }
+
+  /**
+   * Splits text into lower case words
+   * @param text text to split
+   * @return words of the text
+   */
+  @NotNull
+  public static List<String> tokenize(@Nullable final String text) {
+    if (text == null || text.length() == 0) return Collections.emptyList();
+
+    final List<String> result = new ArrayList<String>();
+    final String lowerCaseText = text.toLowerCase(Locale.ENGLISH);
+    int start = -1;
+    for (int i = 0; i <= lowerCaseText.length(); i++) {
+      final boolean isWordChar = i < lowerCaseText.length() && Character.isLetterOrDigit(lowerCaseText.charAt(i));
+      if (isWordChar && start < 0) {
+        start = i;
+      } else if (!isWordChar && start >= 0) {
+        result.add(lowerCaseText.substring(start, i));
+        start = -1;
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private List<PrefixMatch> findByPrefixes(@NotNull final List<String> prefixes) {
+    final List<PrefixMatch> result = new ArrayList<PrefixMatch>(prefixes.size());
+    for (String prefix : prefixes) {
+      result.add(findByPrefix(prefix));
+    }
+    return result;
+  }
+
+  @NotNull
+  private PrefixMatch findByPrefix(@NotNull final String prefix) {
+    final PrefixMatch result = new PrefixMatch();
+    final Iterator<Map.Entry<String, PersistentSortedMap<NuGetMetadataEntry, Integer>>> words = myPostings.entriesFrom(prefix);
+    while (words.hasNext()) {
+      final Map.Entry<String, PersistentSortedMap<NuGetMetadataEntry, Integer>> word = words.next();
+      if (!word.getKey().startsWith(prefix)) break;
+      result.myPostings.add(word.getValue());
+      if (word.getKey().length() == prefix.length()) result.myExactPosting = word.getValue();
+    }
+    return result;
+  }
+
+  @NotNull
+  private static Set<NuGetMetadataEntry> find(@NotNull final List<PrefixMatch> matches) {
+    final List<PrefixMatch> sorted = new ArrayList<PrefixMatch>(matches);
+    Collections.sort(sorted, new Comparator<PrefixMatch>() {
+      public int compare(PrefixMatch o1, PrefixMatch o2) {
+        return o1.size() - o2.size();
+      }
+    });
+    if (sorted.get(0).size() == 0) return Collections.emptySet();
+
+    //entries of the smallest match are checked against postings of other words instead of copying them
+    final Set<NuGetMetadataEntry> result = new HashSet<NuGetMetadataEntry>();
+    for (PersistentSortedMap<NuGetMetadataEntry, Integer> posting : sorted.get(0).myPostings) {
+      for (Iterator<Map.Entry<NuGetMetadataEntry, Integer>> it = posting.entries(); it.hasNext(); ) {
+        result.add(it.next().getKey());
+      }
+    }
+    for (PrefixMatch match : sorted.subList(1, sorted.size())) {
+      for (Iterator<NuGetMetadataEntry> it = result.iterator(); it.hasNext(); ) {
+        if (!match.contains(it.next())) it.remove();
+      }
+      if (result.isEmpty()) break;
+    }
+    return result;
+  }
+
+  /**
+   * @return words of searchable attributes of the entry mapped to masks of attributes containing them
+   */
+  @NotNull
+  private static Map<String, Integer> getWords(@NotNull final NuGetMetadataEntry entry) {
+    final Map<String, Integer> words = new HashMap<String, Integer>();
+    for (int i = 0; i < ATTRIBUTES.length; i++) {
+      for (String word : tokenize(entry.getMetadata().get(ATTRIBUTES[i]))) {
+        final Integer mask = words.get(word);
+        words.put(word, (mask == null ? 0 : mask) | 1 << i);
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Postings of all words starting with a search term
+   */
+  private static class PrefixMatch {
+    private final List<PersistentSortedMap<NuGetMetadataEntry, Integer>> myPostings =
+            new ArrayList<PersistentSortedMap<NuGetMetadataEntry, Integer>>(1);
+    @Nullable private PersistentSortedMap<NuGetMetadataEntry, Integer> myExactPosting;
+
+    /**
+     * @return number of matched entries, entries containing several matched words are counted several times
+     */
+    private int size() {
+      int size = 0;
+      for (PersistentSortedMap<NuGetMetadataEntry, Integer> posting : myPostings) {
+        size += posting.size();
+      }
+      return size;
+    }
+
+    private boolean contains(@NotNull final NuGetMetadataEntry entry) {
+      for (PersistentSortedMap<NuGetMetadataEntry, Integer> posting : myPostings) {
+        if (posting.get(entry) != null) return true;
+      }
+      return false;
+    }
+
+    /**
+     * Adds scores of the term for all found entries
+     * @param scores scores of found entries
+     */
+    private void addScores(@NotNull final Map<NuGetMetadataEntry, Integer> scores) {
+      //masks of attributes with words starting with the term and equal to the term
+      final Map<NuGetMetadataEntry, int[]> masks = new HashMap<NuGetMetadataEntry, int[]>(scores.size());
+
+      //postings are scanned only if it is cheaper than looking every found entry up in them
+      if (size() < (long) scores.size() * myPostings.size()) {
+        for (PersistentSortedMap<NuGetMetadataEntry, Integer> posting : myPostings) {
+          for (Iterator<Map.Entry<NuGetMetadataEntry, Integer>> it = posting.entries(); it.hasNext(); ) {
+            final Map.Entry<NuGetMetadataEntry, Integer> entry = it.next();
+            if (scores.containsKey(entry.getKey())) addMask(masks, entry.getKey(), entry.getValue(), posting == myExactPosting);
+          }
+        }
+      } else {
+        for (NuGetMetadataEntry entry : scores.keySet()) {
+          for (PersistentSortedMap<NuGetMetadataEntry, Integer> posting : myPostings) {
+            final Integer mask = posting.get(entry);
+            if (mask != null) addMask(masks, entry, mask, posting == myExactPosting);
+          }
+        }
+      }
+
+      for (Map.Entry<NuGetMetadataEntry, int[]> entry : masks.entrySet()) {
+        final int[] mask = entry.getValue();
+        int score = 0;
+        for (int i = 0; i < ATTRIBUTES.length; i++) {
+          if ((mask[1] & 1 << i) != 0) score += 2 * ATTRIBUTE_WEIGHTS[i];
+          else if ((mask[0] & 1 << i) != 0) score += ATTRIBUTE_WEIGHTS[i];
+        }
+        scores.put(entry.getKey(), scores.get(entry.getKey()) + score);
+      }
+    }
+
+    private static void addMask(@NotNull final Map<NuGetMetadataEntry, int[]> masks,
+                                @NotNull final NuGetMetadataEntry entry,
+                                final int mask,
+                                final boolean isExact) {
+      int[] current = masks.get(entry);
+      if (current == null) {
+        current = new int[2];
+        masks.put(entry, current);
+      }
+      current[0] |= mask;
+      if (isExact) current[1] |= mask;
+    }
+  }
+}
@@ -0,0 +1,690 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import jetbrains.buildServer.dataStructures.DecoratingIterator;
+import jetbrains.buildServer.dataStructures.Mapper;
+import jetbrains.buildServer.nuget.server.util.SemanticVersion;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+import static jetbrains.buildServer.nuget.server.feed.server.index.impl.PackageVersions.nonNull;
+
+/**
+ * Immutable state of the in-memory packages index.
+ * Packages are sorted by package Id, entries of a package are sorted by package version and then from newer to older builds.
+ * Entries of each package are also grouped by case-insensitive package Id together with
+ * the latest versions of the package, searchable attributes of entries are indexed by words and by trigrams.
+ * Only the entry from the newest build is served for each package version, entries of the same package version
+ * from other builds are kept aside as duplicates. All entries are also grouped by build and by package size and hash,
+ * so builds holding the same package content are found without reading packages.
+ * Any modification produces a new snapshot, so readers never see partially updated index.
+ * All structures are persistent maps, a new snapshot shares everything but the changed paths with this one,
+ * so adding a build costs O(log n) per entry plus the size of the changed packages.
+ */
+public class PackagesSnapshot {
+  private static final Comparator<NuGetMetadataEntry> VERSIONS_ORDER = PackageVersions.VERSIONS_ORDER;
+
+  private static final Comparator<NuGetMetadataEntry> ENTRIES_ORDER = new Comparator<NuGetMetadataEntry>() {
+    public int compare(@NotNull NuGetMetadataEntry o1, @NotNull NuGetMetadataEntry o2) {
+      final int cmp = compareIds(o1.getPackageId(), o2.getPackageId());
+      if (cmp != 0) return cmp;
+      return VERSIONS_ORDER.compare(o1, o2);
+    }
+  };
+
+  /**
+   * Total order of served entries, there is the only served entry for a package key
+   */
+  static final Comparator<NuGetMetadataEntry> SERVED_ENTRIES_ORDER = new Comparator<NuGetMetadataEntry>() {
+    public int compare(@NotNull NuGetMetadataEntry o1, @NotNull NuGetMetadataEntry o2) {
+      final int cmp = ENTRIES_ORDER.compare(o1, o2);
+      if (cmp != 0) return cmp;
+      return NuGetMetadataEntry.getPackageKey(o1).compareTo(NuGetMetadataEntry.getPackageKey(o2));
+    }
+  };
+
+  private static final Comparator<PackageVersions> PACKAGES_ORDER = new Comparator<PackageVersions>() {
+    public int compare(@NotNull PackageVersions o1, @NotNull PackageVersions o2) {
+      return compareIds(o1.getPackageId(), o2.getPackageId());
+    }
+  };
+
+  private static final Comparator<String> STRINGS_ORDER = new Comparator<String>() {
+    public int compare(@NotNull String o1, @NotNull String o2) {
+      return o1.compareTo(o2);
+    }
+  };
+
+  private static final Comparator<Long> BUILDS_ORDER = new Comparator<Long>() {
+    public int compare(@NotNull Long o1, @NotNull Long o2) {
+      return o1.compareTo(o2);
+    }
+  };
+
+  public static final PackagesSnapshot EMPTY = new PackagesSnapshot(
+          PersistentSortedMap.<String, PackageVersions>empty(STRINGS_ORDER),
+          PersistentSortedMap.<String, PackageVersions>empty(STRINGS_ORDER),
+          PersistentSortedMap.<String, List<NuGetMetadataEntry>>empty(STRINGS_ORDER),
+          PersistentSortedMap.<Long, List<NuGetMetadataEntry>>empty(BUILDS_ORDER),
+          PersistentSortedMap.<String, List<NuGetMetadataEntry>>empty(STRINGS_ORDER),
+          PackagesSearchIndex.EMPTY,
+          PackagesTrigramIndex.EMPTY,
+          0, 0);
+
+  //packages by lower case Id
+  private final PersistentSortedMap<String, PackageVersions> myEntriesById;
+  //packages by Id as it is written in the lowest version, the index order
+  private final PersistentSortedMap<String, PackageVersions> myPackages;
+  //entries hidden by entries of the same package version from newer builds by package key, newer builds go first
+  private final PersistentSortedMap<String, List<NuGetMetadataEntry>> myDuplicates;
+  //served and duplicate entries by build id
+  private final PersistentSortedMap<Long, List<NuGetMetadataEntry>> myEntriesByBuild;
+  //served and duplicate entries by package size and hash
+  private final PersistentSortedMap<String, List<NuGetMetadataEntry>> myEntriesByContent;
+  private final PackagesSearchIndex mySearchIndex;
+  private final PackagesTrigramIndex myTrigramIndex;
+  private final int mySize;
+  private final int myDuplicatesCount;
+
+  private PackagesSnapshot(@NotNull final PersistentSortedMap<String, PackageVersions> entriesById,
+                           @NotNull final PersistentSortedMap<String, PackageVersions> packages,
+                           @NotNull final PersistentSortedMap<String, List<NuGetMetadataEntry>> duplicates,
+                           @NotNull final PersistentSortedMap<Long, List<NuGetMetadataEntry>> entriesByBuild,
+                           @NotNull final PersistentSortedMap<String, List<NuGetMetadataEntry>> entriesByContent,
+                           @NotNull final PackagesSearchIndex searchIndex,
+                           @NotNull final PackagesTrigramIndex trigramIndex,
+                           final int size,
+                           final int duplicatesCount) {
+    myEntriesById = entriesById;
+    myPackages = packages;
+    myDuplicates = duplicates;
+    myEntriesByBuild = entriesByBuild;
+    myEntriesByContent = entriesByContent;
+    mySearchIndex = searchIndex;
+    myTrigramIndex = trigramIndex;
+    mySize = size;
+    myDuplicatesCount = duplicatesCount;
+  }
+
+  @NotNull
+  public static PackagesSnapshot create(@NotNull final Iterator<? extends BuildMetadataEntry> entries) {
+    final List<NuGetMetadataEntry> list = new ArrayList<NuGetMetadataEntry>();
+    while (entries.hasNext()) {
+      list.add(NuGetMetadataEntry.copyOf(entries.next()));
+    }
+    Collections.sort(list, ENTRIES_ORDER);
+
+    //the first entry of a package version in the index order is from the newest build
+    final List<NuGetMetadataEntry> served = new ArrayList<NuGetMetadataEntry>(list.size());
+    final TreeMap<String, List<NuGetMetadataEntry>> duplicates = new TreeMap<String, List<NuGetMetadataEntry>>(STRINGS_ORDER);
+    final TreeMap<Long, List<NuGetMetadataEntry>> entriesByBuild = new TreeMap<Long, List<NuGetMetadataEntry>>(BUILDS_ORDER);
+    final TreeMap<String, List<NuGetMetadataEntry>> entriesByContent = new TreeMap<String, List<NuGetMetadataEntry>>(STRINGS_ORDER);
+    final Set<String> packageKeys = new HashSet<String>();
+    int duplicatesCount = 0;
+    for (NuGetMetadataEntry entry : list) {
+      addToGroup(entriesByBuild, entry.getBuildId(), entry);
+      final String content = getContentKey(entry);
+      if (content != null) addToGroup(entriesByContent, content, entry);
+
+      final String packageKey = NuGetMetadataEntry.getPackageKey(entry);
+      if (packageKeys.add(packageKey)) {
+        served.add(entry);
+      } else {
+        addToGroup(duplicates, packageKey, entry);
+        duplicatesCount++;
+      }
+    }
+
+    final TreeMap<String, PackageVersions> entriesById = new TreeMap<String, PackageVersions>(STRINGS_ORDER);
+    final TreeMap<String, PackageVersions> packages = new TreeMap<String, PackageVersions>(STRINGS_ORDER);
+    for (Map.Entry<String, List<NuGetMetadataEntry>> e : groupById(served).entrySet()) {
+      final PackageVersions versions = PackageVersions.create(e.getValue());
+      entriesById.put(e.getKey(), versions);
+      packages.put(versions.getPackageId(), versions);
+    }
+
+    return new PackagesSnapshot(toPersistentMap(entriesById), toPersistentMap(packages), toPersistentMap(duplicates),
+            toPersistentMap(entriesByBuild), toPersistentMap(entriesByContent),
+            PackagesSearchIndex.create(served), PackagesTrigramIndex.create(served), served.size(), duplicatesCount);
+  }
+
+  /**
+   * Skips entries of package versions which were already returned, the same way the index serves the only entry of a package version
+   * @param entries entries to filter
+   * @return entries of distinct package versions
+   */
+  @NotNull
+  public static Iterator<BuildMetadataEntry> skipDuplicates(@NotNull final Iterator<BuildMetadataEntry> entries) {
+    final Set<String> packageKeys = new HashSet<String>();
+    return new DecoratingIterator<BuildMetadataEntry, BuildMetadataEntry>(entries, new Mapper<BuildMetadataEntry, BuildMetadataEntry>() {
+      @Nullable
+      public BuildMetadataEntry mapKey(@NotNull BuildMetadataEntry entry) {
+        return packageKeys.add(NuGetMetadataEntry.getPackageKey(entry)) ? entry : null;
+      }
+    });
+  }
+
+  /**
+   * @param entries entries to add
+   * @return new snapshot containing entries of this snapshot and given entries.
+   * Entries for already indexed artifacts are ignored, entries of already served package versions are added as duplicates
+   */
+  @NotNull
+  public PackagesSnapshot withEntries(@NotNull final Collection<NuGetMetadataEntry> entries) {
+    final List<NuGetMetadataEntry> sorted = new ArrayList<NuGetMetadataEntry>(entries);
+    Collections.sort(sorted, ENTRIES_ORDER);
+
+    final Modification modification = new Modification();
+    for (NuGetMetadataEntry entry : sorted) {
+      modification.add(entry);
+    }
+    return modification.getResult();
+  }
+
+  /**
+   * @param buildId id of a removed build
+   * @return new snapshot without entries of the build, for package versions served from the build
+   * the entry from the newest of other builds is served instead
+   */
+  @NotNull
+  public PackagesSnapshot withoutBuild(final long buildId) {
+    final List<NuGetMetadataEntry> entries = myEntriesByBuild.get(buildId);
+    if (entries == null) return this;
+
+    final Modification modification = new Modification();
+    modification.removeBuild(buildId, entries);
+    return modification.getResult();
+  }
+
+  /**
+   * @return all served entries in the index order
+   */
+  @NotNull
+  public Collection<NuGetMetadataEntry> getEntries() {
+    return new AbstractCollection<NuGetMetadataEntry>() {
+      @Override
+      public Iterator<NuGetMetadataEntry> iterator() {
+        final Iterator<PackageVersions> packages = myPackages.values().iterator();
+        return new Iterator<NuGetMetadataEntry>() {
+          private Iterator<NuGetMetadataEntry> myEntries = Collections.<NuGetMetadataEntry>emptyList().iterator();
+
+          public boolean hasNext() {
+            while (!myEntries.hasNext() && packages.hasNext()) {
+              myEntries = packages.next().getEntries().iterator();
+            }
+            return myEntries.hasNext();
+          }
+
+          public NuGetMetadataEntry next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return myEntries.next();
+          }
+
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return mySize;
+      }
+    };
+  }
+
+  /**
+   * @return served entries followed by duplicates, the list may be modified
+   */
+  @NotNull
+  public List<NuGetMetadataEntry> getAllEntries() {
+    final List<NuGetMetadataEntry> result = new ArrayList<NuGetMetadataEntry>(mySize + myDuplicatesCount);
+    result.addAll(getEntries());
+    for (List<NuGetMetadataEntry> duplicates : myDuplicates.values()) {
+      result.addAll(duplicates);
+    }
+    return result;
+  }
+
+  /**
+   * @param size package size in bytes
+   * @param hash Base64 encoded SHA512 hash of the package
+   * @return served and duplicate entries of packages with the given content from all indexed builds
+   */
+  @NotNull
+  public List<NuGetMetadataEntry> getEntriesWithContent(final long size, @NotNull final String hash) {
+    final List<NuGetMetadataEntry> entries = myEntriesByContent.get(getContentKey(String.valueOf(size), hash));
+    return entries == null ? Collections.<NuGetMetadataEntry>emptyList() : Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * @param packageId package Id, case-insensitive
+   * @return entries of the package sorted by version
+   */
+  @NotNull
+  public List<NuGetMetadataEntry> getEntries(@NotNull final String packageId) {
+    final PackageVersions versions = myEntriesById.get(normalizeId(packageId));
+    return versions == null ? Collections.<NuGetMetadataEntry>emptyList() : versions.getEntries();
+  }
+
+  /**
+   * @param packageId package Id, case-insensitive
+   * @param version package version, compared as normalized version
+   * @return entries of the package version, newer builds go first
+   */
+  @NotNull
+  public List<NuGetMetadataEntry> getEntries(@NotNull final String packageId, @NotNull final String version) {
+    final PackageVersions versions = myEntriesById.get(normalizeId(packageId));
+    return versions == null ? Collections.<NuGetMetadataEntry>emptyList() : versions.getEntries(version);
+  }
+
+  /**
+   * @param packageId package Id, case-insensitive
+   * @return versions of the package or null if there is no such package
+   */
+  @Nullable
+  public PackageVersions getPackage(@NotNull final String packageId) {
+    return myEntriesById.get(normalizeId(packageId));
+  }
+
+  /**
+   * @return versions of all packages sorted by package Id
+   */
+  @NotNull
+  public Collection<PackageVersions> getPackages() {
+    return myPackages.values();
+  }
+
+  /**
+   * @param packageIds package Ids, case-insensitive
+   * @return versions of given packages sorted by package Id
+   */
+  @NotNull
+  public List<PackageVersions> getPackages(@NotNull final Collection<String> packageIds) {
+    final Set<String> ids = new HashSet<String>();
+    final List<PackageVersions> result = new ArrayList<PackageVersions>();
+    for (String packageId : packageIds) {
+      final String id = normalizeId(packageId);
+      if (!ids.add(id)) continue;
+
+      final PackageVersions versions = myEntriesById.get(id);
+      if (versions != null) result.add(versions);
+    }
+    Collections.sort(result, PACKAGES_ORDER);
+    return result;
+  }
+
+  /**
+   * @param packageIds package Ids, case-insensitive
+   * @return entries of given packages in the index order
+   */
+  @NotNull
+  public List<NuGetMetadataEntry> getEntries(@NotNull final Collection<String> packageIds) {
+    final List<NuGetMetadataEntry> result = new ArrayList<NuGetMetadataEntry>();
+    for (PackageVersions versions : getPackages(packageIds)) {
+      result.addAll(versions.getEntries());
+    }
+    return result;
+  }
+
+  /**
+   * @param packageId package Id, case-insensitive
+   * @param version version to compare with
+   * @return entries of the package with versions greater than given one sorted by version
+   */
+  @NotNull
+  public List<NuGetMetadataEntry> getEntriesNewerThan(@NotNull final String packageId, @NotNull final SemanticVersion version) {
+    final List<NuGetMetadataEntry> entries = getEntries(packageId);
+    int low = 0;
+    int high = entries.size();
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      final NuGetMetadataEntry entry = entries.get(mid);
+      if (SemanticVersion.compareAsVersions(entry.getSemanticVersion(), nonNull(entry.getVersion()), version, version.toString()) <= 0) low = mid + 1;
+      else high = mid;
+    }
+    return entries.subList(low, entries.size());
+  }
+
+  /**
+   * @param searchTerm search term
+   * @return entries containing all words of the search term in the index order
+   * @see PackagesSearchIndex#search(String)
+   */
+  @NotNull
+  public Collection<NuGetMetadataEntry> search(@NotNull final String searchTerm) {
+    final Collection<NuGetMetadataEntry> found = mySearchIndex.search(searchTerm);
+    if (found == null) return getEntries();
+
+    final List<NuGetMetadataEntry> result = new ArrayList<NuGetMetadataEntry>(found);
+    Collections.sort(result, ENTRIES_ORDER);
+    return result;
+  }
+
+  /**
+   * @param searchTerm search term
+   * @return entries containing all words of the search term, entries with higher scores go first,
+   * entries with the same score are in the index order
+   * @see PackagesSearchIndex#searchScored(String)
+   */
+  @NotNull
+  public Collection<NuGetMetadataEntry> searchRanked(@NotNull final String searchTerm) {
+    final Map<NuGetMetadataEntry, Integer> scores = mySearchIndex.searchScored(searchTerm);
+    if (scores == null) return getEntries();
+
+    final List<NuGetMetadataEntry> result = new ArrayList<NuGetMetadataEntry>(scores.keySet());
+    Collections.sort(result, new Comparator<NuGetMetadataEntry>() {
+      public int compare(@NotNull NuGetMetadataEntry o1, @NotNull NuGetMetadataEntry o2) {
+        final int cmp = scores.get(o2).compareTo(scores.get(o1));
+        return cmp != 0 ? cmp : ENTRIES_ORDER.compare(o1, o2);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * @see PackagesTrigramIndex#findPackageIds(String, String)
+   */
+  @Nullable
+  public Set<String> findPackageIdsContaining(@NotNull final String attribute, @NotNull final String text) {
+    return myTrigramIndex.findPackageIds(attribute, text);
+  }
+
+  /**
+   * @return number of unique package Ids
+   */
+  public int getPackageIdsCount() {
+    return myEntriesById.size();
+  }
+
+  /**
+   * @return number of entries hidden by entries of the same package versions from newer builds
+   */
+  public int getDuplicatesCount() {
+    return myDuplicatesCount;
+  }
+
+  /**
+   * @return number of builds with indexed packages
+   */
+  public int getBuildsCount() {
+    return myEntriesByBuild.size();
+  }
+
+  public int size() {
+    return mySize;
+  }
+
+  @NotNull
+  private static <K, V> PersistentSortedMap<K, V> toPersistentMap(@NotNull final TreeMap<K, V> map) {
+    //noinspection ConstantConditions
+    return PersistentSortedMap.fromSorted(map.comparator(), new ArrayList<K>(map.keySet()), new ArrayList<V>(map.values()));
+  }
+
+  private static <K> void addToGroup(@NotNull final Map<K, List<NuGetMetadataEntry>> groups,
+                                     @NotNull final K key,
+                                     @NotNull final NuGetMetadataEntry entry) {
+    List<NuGetMetadataEntry> list = groups.get(key);
+    if (list == null) {
+      list = new ArrayList<NuGetMetadataEntry>(1);
+      groups.put(key, list);
+    }
+    list.add(entry);
+  }
+
+  /**
+   * Lists of persistent maps are shared between snapshots and are never changed
+   * @return new list containing entries of the given list and the entry
+   */
+  @NotNull
+  private static List<NuGetMetadataEntry> append(@Nullable final List<NuGetMetadataEntry> list, @NotNull final NuGetMetadataEntry entry) {
+    if (list == null) return Collections.singletonList(entry);
+
+    final List<NuGetMetadataEntry> result = new ArrayList<NuGetMetadataEntry>(list.size() + 1);
+    result.addAll(list);
+    result.add(entry);
+    return result;
+  }
+
+  /**
+   * @return new map where the list of the key does not contain the entry or the given map if there is no such entry
+   */
+  @NotNull
+  private static <K> PersistentSortedMap<K, List<NuGetMetadataEntry>> without(@NotNull final PersistentSortedMap<K, List<NuGetMetadataEntry>> groups,
+                                                                            @NotNull final K key,
+                                                                            @NotNull final NuGetMetadataEntry entry) {
+    final List<NuGetMetadataEntry> list = groups.get(key);
+    if (list == null || !list.contains(entry)) return groups;
+    if (list.size() == 1) return groups.remove(key);
+
+    final List<NuGetMetadataEntry> result = new ArrayList<NuGetMetadataEntry>(list);
+    result.remove(entry);
+    return groups.put(key, result);
+  }
+
+  private static boolean containsArtifact(@Nullable final List<NuGetMetadataEntry> entries, @NotNull final NuGetMetadataEntry entry) {
+    if (entries == null) return false;
+    for (NuGetMetadataEntry e : entries) {
+      if (e.isSameArtifact(entry)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return package size and hash of the entry or null if the hash is not comparable
+   */
+  @Nullable
+  private static String getContentKey(@NotNull final NuGetMetadataEntry entry) {
+    final Map<String, String> metadata = entry.getMetadata();
+    final String size = metadata.get(PACKAGE_SIZE);
+    final String hash = metadata.get(PACKAGE_HASH);
+    //hashes computed by other algorithms are not comparable
+    if (size == null || hash == null || !"SHA512".equals(metadata.get(PACKAGE_HASH_ALGORITHM))) return null;
+    return getContentKey(size, hash);
+  }
+
+  @NotNull
+  private static String getContentKey(@NotNull final String size, @NotNull final String hash) {
+    return size + ":" + hash;
+  }
+
+  @NotNull
+  private static Map<String, List<NuGetMetadataEntry>> groupById(@NotNull final List<NuGetMetadataEntry> sortedEntries) {
+    final Map<String, List<NuGetMetadataEntry>> result = new HashMap<String, List<NuGetMetadataEntry>>();
+    final Set<String> mixedCaseIds = new HashSet<String>();
+
+    String prevId = null;
+    for (NuGetMetadataEntry entry : sortedEntries) {
+      final String packageId = nonNull(entry.getPackageId());
+      final String id = normalizeId(packageId);
+      List<NuGetMetadataEntry> list = result.get(id);
+      if (list == null) {
+        list = new ArrayList<NuGetMetadataEntry>();
+        result.put(id, list);
+      } else if (!packageId.equals(prevId)) {
+        //the same Id written in different case, versions of such groups should be merged
+        mixedCaseIds.add(id);
+      }
+      list.add(entry);
+      prevId = packageId;
+    }
+
+    for (String id : mixedCaseIds) {
+      Collections.sort(result.get(id), VERSIONS_ORDER);
+    }
+    return result;
+  }
+
+  @NotNull
+  private static String normalizeId(@NotNull final String packageId) {
+    return packageId.toLowerCase(Locale.ENGLISH);
+  }
+
+  private static int compareIds(@Nullable final String id1, @Nullable final String id2) {
+    return nonNull(id1).compareTo(nonNull(id2));
+  }
+
+  /**
+   * Collects changes of this snapshot, every change replaces only paths of persistent maps
+   */
+  private class Modification {
+    private PersistentSortedMap<String, PackageVersions> myNewEntriesById = myEntriesById;
+    private PersistentSortedMap<String, PackageVersions> myNewPackages = myPackages;
+    private PersistentSortedMap<String, List<NuGetMetadataEntry>> myNewDuplicates = myDuplicates;
+    private PersistentSortedMap<Long, List<NuGetMetadataEntry>> myNewEntriesByBuild = myEntriesByBuild;
+    private PersistentSortedMap<String, List<NuGetMetadataEntry>> myNewEntriesByContent = myEntriesByContent;
+    private PackagesSearchIndex myNewSearchIndex = mySearchIndex;
+    private PackagesTrigramIndex myNewTrigramIndex = myTrigramIndex;
+    private int myNewSize = mySize;
+    private int myNewDuplicatesCount = myDuplicatesCount;
+    private boolean myChanged = false;
+
+    /**
+     * Entries must be added in the index order, so entries of the same package version go from newer to older builds
+     */
+    private void add(@NotNull final NuGetMetadataEntry entry) {
+      final Long buildId = entry.getBuildId();
+      final List<NuGetMetadataEntry> buildEntries = myNewEntriesByBuild.get(buildId);
+      if (containsArtifact(buildEntries, entry)) return;
+
+      myChanged = true;
+      myNewEntriesByBuild = myNewEntriesByBuild.put(buildId, append(buildEntries, entry));
+      final String content = getContentKey(entry);
+      if (content != null) {
+        myNewEntriesByContent = myNewEntriesByContent.put(content, append(myNewEntriesByContent.get(content), entry));
+      }
+
+      final NuGetMetadataEntry served = findServedEntry(entry);
+      if (served == null) {
+        addServed(entry);
+      } else if (ENTRIES_ORDER.compare(entry, served) < 0) {
+        //an entry from a newer build replaces the served one
+        removeServed(served);
+        addDuplicate(served);
+        addServed(entry);
+      } else {
+        addDuplicate(entry);
+      }
+    }
+
+    private void removeBuild(final long buildId, @NotNull final List<NuGetMetadataEntry> entries) {
+      myChanged = true;
+      myNewEntriesByBuild = myNewEntriesByBuild.remove(buildId);
+
+      //duplicates are removed first, so entries of the build are never served instead of removed ones
+      final List<NuGetMetadataEntry> served = new ArrayList<NuGetMetadataEntry>();
+      for (NuGetMetadataEntry entry : entries) {
+        final String content = getContentKey(entry);
+        if (content != null) myNewEntriesByContent = without(myNewEntriesByContent, content, entry);
+
+        if (findServedEntry(entry) == entry) {
+          served.add(entry);
+        } else {
+          removeDuplicate(entry);
+        }
+      }
+
+      for (NuGetMetadataEntry entry : served) {
+        removeServed(entry);
+        final List<NuGetMetadataEntry> duplicates = myNewDuplicates.get(NuGetMetadataEntry.getPackageKey(entry));
+        if (duplicates == null) continue;
+
+        //duplicates go from newer to older builds
+        final NuGetMetadataEntry newest = duplicates.get(0);
+        removeDuplicate(newest);
+        addServed(newest);
+      }
+    }
+
+    @NotNull
+    private PackagesSnapshot getResult() {
+      if (!myChanged) return PackagesSnapshot.this;
+      return new PackagesSnapshot(myNewEntriesById, myNewPackages, myNewDuplicates, myNewEntriesByBuild, myNewEntriesByContent,
+              myNewSearchIndex, myNewTrigramIndex, myNewSize, myNewDuplicatesCount);
+    }
+
+    private void addServed(@NotNull final NuGetMetadataEntry entry) {
+      final String id = normalizeId(nonNull(entry.getPackageId()));
+      final PackageVersions current = myNewEntriesById.get(id);
+      final PackageVersions updated = current == null
+              ? PackageVersions.create(Collections.singletonList(entry))
+              : current.withEntries(Collections.singletonList(entry));
+      updatePackage(id, current, updated);
+
+      myNewSearchIndex = myNewSearchIndex.withEntry(entry);
+      myNewTrigramIndex = myNewTrigramIndex.withEntry(entry);
+      myNewSize++;
+    }
+
+    private void removeServed(@NotNull final NuGetMetadataEntry entry) {
+      final String id = normalizeId(nonNull(entry.getPackageId()));
+      final PackageVersions current = myNewEntriesById.get(id);
+      if (current == null) return;
+      final PackageVersions updated = current.withoutEntry(entry);
+      updatePackage(id, current, updated);
+
+      myNewSearchIndex = myNewSearchIndex.withoutEntry(entry);
+      myNewTrigramIndex = myNewTrigramIndex.withoutEntry(entry, updated == null ? Collections.<NuGetMetadataEntry>emptyList() : updated.getEntries());
+      myNewSize--;
+    }
+
+    private void updatePackage(@NotNull final String id, @Nullable final PackageVersions current, @Nullable final PackageVersions updated) {
+      myNewEntriesById = updated == null ? myNewEntriesById.remove(id) : myNewEntriesById.put(id, updated);
+
+      //Id of the package may change if a lower version is written in different case
+      if (current != null) myNewPackages = myNewPackages.remove(current.getPackageId());
+      if (updated != null) myNewPackages = myNewPackages.put(updated.getPackageId(), updated);
+    }
+
+    private void addDuplicate(@NotNull final NuGetMetadataEntry entry) {
+      final String packageKey = NuGetMetadataEntry.getPackageKey(entry);
+      final List<NuGetMetadataEntry> current = myNewDuplicates.get(packageKey);
+      final List<NuGetMetadataEntry> updated = append(current, entry);
+      if (current != null) Collections.sort(updated, VERSIONS_ORDER);
+      myNewDuplicates = myNewDuplicates.put(packageKey, updated);
+      myNewDuplicatesCount++;
+    }
+
+    private void removeDuplicate(@NotNull final NuGetMetadataEntry entry) {
+      final PersistentSortedMap<String, List<NuGetMetadataEntry>> updated = without(myNewDuplicates, NuGetMetadataEntry.getPackageKey(entry), entry);
+      if (updated == myNewDuplicates) return;
+
+      myNewDuplicates = updated;
+      myNewDuplicatesCount--;
+    }
+
+    /**
+     * @return served entry of the same package version or null
+     */
+    @Nullable
+    private NuGetMetadataEntry findServedEntry(@NotNull final NuGetMetadataEntry entry) {
+      final PackageVersions versions = myNewEntriesById.get(normalizeId(nonNull(entry.getPackageId())));
+      if (versions == null) return null;
+
+      final String packageKey = NuGetMetadataEntry.getPackageKey(entry);
+      for (NuGetMetadataEntry served : versions.getEntries(nonNull(entry.getVersion()))) {
+        if (packageKey.equals(NuGetMetadataEntry.getPackageKey(served))) return served;
+      }
+      return null;
+    }
+  }
+}
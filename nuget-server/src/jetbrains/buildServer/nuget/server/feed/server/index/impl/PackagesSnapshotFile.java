@@ -0,0 +1,250 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary file with entries of the packages index used to serve the feed right after server startup.
+ * Strings are stored once in a table and referenced from entries by index,
+ * the file ends with a checksum of its content and is memory-mapped on load.
+ */
+public class PackagesSnapshotFile {
+  private static final Logger LOG = Logger.getInstance(PackagesSnapshotFile.class.getName());
+  private static final int MAGIC = 0x4E475058;
+  private static final int FORMAT_VERSION = 2;
+  private static final String UTF8 = "UTF-8";
+  private static final int CHECKSUM_SIZE = 8;
+  private static final int ENTRY_MIN_SIZE = 16;
+  private static final int ATTRIBUTE_SIZE = 8;
+
+  private final File myFile;
+
+  public PackagesSnapshotFile(@NotNull final File file) {
+    myFile = file;
+  }
+
+  /**
+   * @return snapshot stored in the file or null if there is no file or it could not be read
+   */
+  @Nullable
+  public PackagesSnapshot load() {
+    if (!myFile.isFile()) return null;
+
+    final long startTime = System.currentTimeMillis();
+    RandomAccessFile file = null;
+    try {
+      file = new RandomAccessFile(myFile, "r");
+      final FileChannel channel = file.getChannel();
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      final List<NuGetMetadataEntry> entries = readEntries(buffer);
+      if (entries == null) return null;
+
+      final PackagesSnapshot snapshot = PackagesSnapshot.create(entries.iterator());
+      LOG.info(String.format("NuGet packages index with %d entries loaded from %s in %d ms", snapshot.size(), myFile, System.currentTimeMillis() - startTime));
+      return snapshot;
+    } catch (IOException e) {
+      LOG.warn("Failed to load NuGet packages index from " + myFile + ". " + e.getMessage());
+      LOG.debug("Failed to load NuGet packages index from " + myFile, e);
+      return null;
+    } catch (RuntimeException e) {
+      LOG.warn("Failed to load NuGet packages index from " + myFile + ", the file is corrupted. " + e.getMessage());
+      LOG.debug("Failed to load NuGet packages index from " + myFile, e);
+      return null;
+    } finally {
+      FileUtil.close(file);
+    }
+  }
+
+  /**
+   * Writes entries of the snapshot to a temporary file which then replaces the stored one
+   * @param snapshot snapshot to store
+   */
+  public void save(@NotNull final PackagesSnapshot snapshot) {
+    final long startTime = System.currentTimeMillis();
+    final File temp = new File(myFile.getPath() + ".tmp");
+    FileUtil.createParentDirs(temp);
+
+    boolean written = false;
+    DataOutputStream os = null;
+    try {
+      final CRC32 checksum = new CRC32();
+      os = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(temp)), checksum));
+      writeEntries(os, snapshot.getAllEntries());
+      os.writeLong(checksum.getValue());
+      os.flush();
+      written = true;
+    } catch (IOException e) {
+      LOG.warn("Failed to save NuGet packages index to " + myFile + ". " + e.getMessage());
+      LOG.debug("Failed to save NuGet packages index to " + myFile, e);
+    } finally {
+      FileUtil.close(os);
+    }
+
+    if (!written || !replaceFile(temp)) {
+      FileUtil.delete(temp);
+      return;
+    }
+    LOG.debug(String.format("NuGet packages index with %d entries saved to %s in %d ms", snapshot.size(), myFile, System.currentTimeMillis() - startTime));
+  }
+
+  private boolean replaceFile(@NotNull final File temp) {
+    if (temp.renameTo(myFile)) return true;
+
+    //previous file could still be mapped, it is moved aside and restored if the new one could not take its place
+    final File backup = new File(myFile.getPath() + ".bak");
+    FileUtil.delete(backup);
+    if (myFile.exists() && !myFile.renameTo(backup)) {
+      LOG.warn("Failed to save NuGet packages index to " + myFile + ", the file could not be replaced");
+      return false;
+    }
+
+    if (!temp.renameTo(myFile)) {
+      LOG.warn("Failed to save NuGet packages index to " + myFile + ", the file could not be replaced");
+      if (backup.exists() && !backup.renameTo(myFile)) {
+        LOG.warn("Failed to restore NuGet packages index file " + myFile + " from " + backup);
+      }
+      return false;
+    }
+
+    FileUtil.delete(backup);
+    return true;
+  }
+
+  private static void writeEntries(@NotNull final DataOutputStream os,
+                                   @NotNull final List<NuGetMetadataEntry> entries) throws IOException {
+    final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+    for (NuGetMetadataEntry entry : entries) {
+      addString(strings, entry.getKey());
+      for (Map.Entry<String, String> e : entry.getMetadata().entrySet()) {
+        addString(strings, e.getKey());
+        addString(strings, e.getValue());
+      }
+    }
+
+    os.writeInt(MAGIC);
+    os.writeInt(FORMAT_VERSION);
+
+    os.writeInt(strings.size());
+    for (String string : strings.keySet()) {
+      final byte[] bytes = string.getBytes(UTF8);
+      os.writeInt(bytes.length);
+      os.write(bytes);
+    }
+
+    os.writeInt(entries.size());
+    for (NuGetMetadataEntry entry : entries) {
+      final Map<String, String> metadata = entry.getMetadata();
+      os.writeLong(entry.getBuildId());
+      os.writeInt(strings.get(entry.getKey()));
+      os.writeInt(metadata.size());
+      for (Map.Entry<String, String> e : metadata.entrySet()) {
+        os.writeInt(strings.get(e.getKey()));
+        os.writeInt(strings.get(e.getValue()));
+      }
+    }
+  }
+
+  private static void addString(@NotNull final Map<String, Integer> strings, @NotNull final String string) {
+    if (!strings.containsKey(string)) {
+      strings.put(string, strings.size());
+    }
+  }
+
+  @Nullable
+  private List<NuGetMetadataEntry> readEntries(@NotNull final ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+      LOG.info("NuGet packages index file " + myFile + " has unsupported format and will be re-written");
+      return null;
+    }
+
+    //all sizes below are trusted only after the content matches the checksum
+    if (buffer.remaining() < CHECKSUM_SIZE) throw new IOException("The file is truncated");
+    final int contentEnd = buffer.limit() - CHECKSUM_SIZE;
+    if (computeChecksum(buffer, contentEnd) != buffer.getLong(contentEnd)) throw new IOException("The file checksum does not match");
+    buffer.limit(contentEnd);
+
+    final String[] strings = new String[readCount(buffer, 4)];
+    for (int i = 0; i < strings.length; i++) {
+      final byte[] bytes = new byte[readCount(buffer, 1)];
+      buffer.get(bytes);
+      strings[i] = new String(bytes, UTF8);
+    }
+
+    final int count = readCount(buffer, ENTRY_MIN_SIZE);
+    final List<NuGetMetadataEntry> entries = new ArrayList<NuGetMetadataEntry>(count);
+    for (int i = 0; i < count; i++) {
+      final long buildId = buffer.getLong();
+      final String key = readString(buffer, strings);
+      final int attributesCount = readCount(buffer, ATTRIBUTE_SIZE);
+      final Map<String, String> metadata = new HashMap<String, String>(attributesCount * 2);
+      for (int j = 0; j < attributesCount; j++) {
+        metadata.put(readString(buffer, strings), readString(buffer, strings));
+      }
+      entries.add(new NuGetMetadataEntry(buildId, key, metadata));
+    }
+
+    if (buffer.hasRemaining()) throw new IOException("The file has unexpected data after entries");
+    return entries;
+  }
+
+  private static long computeChecksum(@NotNull final ByteBuffer buffer, final int end) {
+    final CRC32 checksum = new CRC32();
+    final ByteBuffer content = buffer.duplicate();
+    content.position(0);
+    content.limit(end);
+    final byte[] chunk = new byte[64 * 1024];
+    while (content.hasRemaining()) {
+      final int length = Math.min(chunk.length, content.remaining());
+      content.get(chunk, 0, length);
+      checksum.update(chunk, 0, length);
+    }
+    return checksum.getValue();
+  }
+
+  /**
+   * @param elementSize minimal number of bytes each counted element occupies in the file
+   * @return count which is checked to fit into the rest of the file, so nothing is allocated for a damaged count
+   */
+  private static int readCount(@NotNull final ByteBuffer buffer, final int elementSize) throws IOException {
+    final int count = buffer.getInt();
+    if (count < 0 || count > buffer.remaining() / elementSize) {
+      throw new IOException("The file contains invalid count " + count + " at position " + (buffer.position() - 4));
+    }
+    return count;
+  }
+
+  @NotNull
+  private static String readString(@NotNull final ByteBuffer buffer, @NotNull final String[] strings) throws IOException {
+    final int index = buffer.getInt();
+    if (index < 0 || index >= strings.length) {
+      throw new IOException("The file contains invalid string reference " + index + " at position " + (buffer.position() - 4));
+    }
+    return strings[index];
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndexUpdater;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import jetbrains.buildServer.util.ExceptionUtil;
+import jetbrains.buildServer.util.NamedDeamonThreadFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetArtifactsMetadataProvider.NUGET_PROVIDER_ID;
+
+/**
+ * Holds in-memory packages index.
+ * The index is loaded from metadata storage on first access and then
+ * updated with entries of newly indexed packages. Full re-load is done
+ * in background and the new snapshot is swapped in at once.
+ * The index is periodically saved to a file, on server startup it is served
+ * from the file until it is re-loaded from metadata storage.
+ */
+public class PackagesSnapshotHolder implements PackagesIndexUpdater {
+  private static final Logger LOG = Logger.getInstance(PackagesSnapshotHolder.class.getName());
+
+  private static final String SNAPSHOT_INTERVAL_PROP_NAME = "teamcity.nuget.index.snapshot.interval";
+
+  private final MetadataStorage myStorage;
+  @Nullable private final PackagesSnapshotFile mySnapshotFile;
+  private final AtomicReference<PackagesSnapshot> mySnapshot = new AtomicReference<PackagesSnapshot>();
+  private final AtomicBoolean myRebuildScheduled = new AtomicBoolean();
+  private final ScheduledExecutorService myExecutor = Executors.newSingleThreadScheduledExecutor(new NamedDeamonThreadFactory("NuGet Packages Index"));
+  /**
+   * Last snapshot written to or read from the file
+   */
+  @Nullable private volatile PackagesSnapshot mySavedSnapshot = null;
+  private final Object myLoadLock = new Object();
+  private final Object myUpdateLock = new Object();
+
+  /**
+   * Collects entries added while the snapshot is being loaded from storage,
+   * guarded by {@link #myUpdateLock}
+   */
+  @Nullable private List<NuGetMetadataEntry> myPendingEntries = null;
+  /**
+   * Collects builds removed while the snapshot is being loaded from storage,
+   * guarded by {@link #myUpdateLock}
+   */
+  @Nullable private List<Long> myPendingRemovedBuilds = null;
+  /**
+   * Actions to execute once the snapshot is re-loaded from storage,
+   * guarded by {@link #myUpdateLock}
+   */
+  private final List<Runnable> myRebuildActions = new ArrayList<Runnable>();
+
+  public PackagesSnapshotHolder(@NotNull final MetadataStorage storage) {
+    myStorage = storage;
+    mySnapshotFile = null;
+  }
+
+  public PackagesSnapshotHolder(@NotNull final MetadataStorage storage,
+                                @NotNull final ServerPaths paths) {
+    myStorage = storage;
+    mySnapshotFile = new PackagesSnapshotFile(new File(new File(paths.getPluginDataDirectory(), "jetbrains.nuget"), "packages.index"));
+
+    //index is loaded in background to serve first requests from the stored file
+    myExecutor.submit(ExceptionUtil.catchAll("load stored NuGet packages index", new Runnable() {
+      public void run() {
+        synchronized (myLoadLock) {
+          if (mySnapshot.get() == null) loadStoredSnapshot();
+        }
+      }
+    }));
+
+    final long interval = Math.max(1, TeamCityProperties.getInteger(SNAPSHOT_INTERVAL_PROP_NAME, 5 * 60));
+    myExecutor.scheduleWithFixedDelay(ExceptionUtil.catchAll("save NuGet packages index", new Runnable() {
+      public void run() {
+        saveSnapshot();
+      }
+    }), interval, interval, TimeUnit.SECONDS);
+  }
+
+  @NotNull
+  public PackagesSnapshot getSnapshot() {
+    final PackagesSnapshot snapshot = mySnapshot.get();
+    if (snapshot != null) return snapshot;
+
+    synchronized (myLoadLock) {
+      final PackagesSnapshot loaded = mySnapshot.get();
+      if (loaded != null) return loaded;
+
+      final PackagesSnapshot stored = loadStoredSnapshot();
+      if (stored == null) return loadSnapshot();
+      return stored;
+    }
+  }
+
+  public void addEntries(@NotNull final Collection<? extends BuildMetadataEntry> entries) {
+    if (entries.isEmpty()) return;
+    final List<NuGetMetadataEntry> copies = new ArrayList<NuGetMetadataEntry>(entries.size());
+    for (BuildMetadataEntry entry : entries) {
+      copies.add(NuGetMetadataEntry.copyOf(entry));
+    }
+
+    synchronized (myUpdateLock) {
+      if (myPendingEntries != null) {
+        myPendingEntries.addAll(copies);
+      }
+      final PackagesSnapshot snapshot = mySnapshot.get();
+      //index is not loaded yet, entries will be read from storage
+      if (snapshot == null) return;
+      mySnapshot.set(snapshot.withEntries(copies));
+    }
+  }
+
+  public void removeBuild(final long buildId) {
+    synchronized (myUpdateLock) {
+      //entries of the build may be already read by the loading snapshot
+      if (myPendingRemovedBuilds != null) {
+        myPendingRemovedBuilds.add(buildId);
+      }
+      final PackagesSnapshot snapshot = mySnapshot.get();
+      if (snapshot == null) return;
+      mySnapshot.set(snapshot.withoutBuild(buildId));
+    }
+  }
+
+  @Nullable
+  public Map<String, String> findMetadataByContent(final long size, @NotNull final String hash) {
+    final PackagesSnapshot snapshot = mySnapshot.get();
+    if (snapshot == null) return null;
+
+    final List<NuGetMetadataEntry> entries = snapshot.getEntriesWithContent(size, hash);
+    return entries.isEmpty() ? null : entries.get(0).getMetadata();
+  }
+
+  public void rebuild() {
+    if (mySnapshot.get() == null) return;
+    if (!myRebuildScheduled.compareAndSet(false, true)) return;
+
+    myExecutor.submit(ExceptionUtil.catchAll("rebuild NuGet packages index", new Runnable() {
+      public void run() {
+        myRebuildScheduled.set(false);
+        synchronized (myLoadLock) {
+          loadSnapshot();
+        }
+      }
+    }));
+  }
+
+  public void rebuild(@NotNull final Runnable onRebuilt) {
+    synchronized (myUpdateLock) {
+      //index which is not loaded yet executes the action after its first load
+      myRebuildActions.add(onRebuilt);
+    }
+    rebuild();
+  }
+
+  public void dispose() {
+    myExecutor.shutdownNow();
+    try {
+      myExecutor.awaitTermination(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      LOG.debug("Interrupted wait of NuGet packages index executor service shutdown. ", e);
+    }
+    saveSnapshot();
+  }
+
+  /**
+   * Stored index is served until it is reconciled with metadata storage in background,
+   * must be called under {@link #myLoadLock}
+   * @return index loaded from the file or null
+   */
+  @Nullable
+  private PackagesSnapshot loadStoredSnapshot() {
+    if (mySnapshotFile == null) return null;
+    final PackagesSnapshot stored = mySnapshotFile.load();
+    if (stored == null) return null;
+
+    mySavedSnapshot = stored;
+    mySnapshot.set(stored);
+    rebuild();
+    return stored;
+  }
+
+  private void saveSnapshot() {
+    if (mySnapshotFile == null) return;
+    final PackagesSnapshot snapshot = mySnapshot.get();
+    //snapshots are immutable, a new instance is created on each change
+    if (snapshot == null || snapshot == mySavedSnapshot) return;
+
+    mySnapshotFile.save(snapshot);
+    mySavedSnapshot = snapshot;
+  }
+
+  @NotNull
+  private PackagesSnapshot loadSnapshot() {
+    final List<Runnable> actions;
+    synchronized (myUpdateLock) {
+      myPendingEntries = new ArrayList<NuGetMetadataEntry>();
+      myPendingRemovedBuilds = new ArrayList<Long>();
+      actions = new ArrayList<Runnable>(myRebuildActions);
+      myRebuildActions.clear();
+    }
+
+    final long startTime = System.currentTimeMillis();
+    PackagesSnapshot snapshot = null;
+    try {
+      snapshot = PackagesSnapshot.create(myStorage.getAllEntries(NUGET_PROVIDER_ID));
+    } finally {
+      synchronized (myUpdateLock) {
+        final List<NuGetMetadataEntry> pending = myPendingEntries;
+        final List<Long> removedBuilds = myPendingRemovedBuilds;
+        myPendingEntries = null;
+        myPendingRemovedBuilds = null;
+        //on failure the previous snapshot is preserved
+        if (snapshot != null) {
+          if (pending != null) snapshot = snapshot.withEntries(pending);
+          if (removedBuilds != null) {
+            for (Long buildId : removedBuilds) {
+              snapshot = snapshot.withoutBuild(buildId);
+            }
+          }
+          mySnapshot.set(snapshot);
+        } else {
+          myRebuildActions.addAll(actions);
+        }
+      }
+    }
+
+    LOG.info(String.format("NuGet packages index loaded with %d entries in %d ms", snapshot.size(), System.currentTimeMillis() - startTime));
+    for (Runnable action : actions) {
+      action.run();
+    }
+    return snapshot;
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+
+/**
+ * Immutable index of lower case trigrams of package Id, Description and Tags.
+ * Each trigram is mapped to the set of lower case Ids of packages containing it.
+ * Trigrams and their sets are persistent maps, so a new index shares all unchanged sets with this one.
+ */
+public class PackagesTrigramIndex {
+  public static final Collection<String> INDEXED_ATTRIBUTES = Collections.unmodifiableList(Arrays.asList(ID, DESCRIPTION, TAGS));
+  public static final PackagesTrigramIndex EMPTY = new PackagesTrigramIndex(Collections.<String, PersistentSortedMap<String, PersistentSortedMap<String, String>>>emptyMap());
+
+  private static final int GRAM_LENGTH = 3;
+
+  private static final Comparator<String> STRINGS_ORDER = new Comparator<String>() {
+    public int compare(@NotNull String o1, @NotNull String o2) {
+      return o1.compareTo(o2);
+    }
+  };
+
+  private final Map<String, PersistentSortedMap<String, PersistentSortedMap<String, String>>> myTrigrams;
+
+  private PackagesTrigramIndex(@NotNull final Map<String, PersistentSortedMap<String, PersistentSortedMap<String, String>>> trigrams) {
+    myTrigrams = trigrams;
+  }
+
+  /**
+   * @param entries entries to index
+   * @return index built in one pass over the entries
+   */
+  @NotNull
+  public static PackagesTrigramIndex create(@NotNull final Collection<NuGetMetadataEntry> entries) {
+    final Map<String, PersistentSortedMap<String, PersistentSortedMap<String, String>>> result =
+            new HashMap<String, PersistentSortedMap<String, PersistentSortedMap<String, String>>>();
+    for (String attribute : INDEXED_ATTRIBUTES) {
+      final TreeMap<String, TreeSet<String>> trigrams = new TreeMap<String, TreeSet<String>>(STRINGS_ORDER);
+      for (NuGetMetadataEntry entry : entries) {
+        final String packageId = entry.getPackageId();
+        final String value = entry.getMetadata().get(attribute);
+        if (packageId == null || value == null) continue;
+
+        final String id = packageId.toLowerCase(Locale.ENGLISH);
+        for (String trigram : getTrigrams(value.toLowerCase(Locale.ENGLISH))) {
+          TreeSet<String> ids = trigrams.get(trigram);
+          if (ids == null) {
+            ids = new TreeSet<String>(STRINGS_ORDER);
+            trigrams.put(trigram, ids);
+          }
+          ids.add(id);
+        }
+      }
+
+      final List<PersistentSortedMap<String, String>> sets = new ArrayList<PersistentSortedMap<String, String>>(trigrams.size());
+      for (TreeSet<String> ids : trigrams.values()) {
+        final List<String> list = new ArrayList<String>(ids);
+        sets.add(PersistentSortedMap.fromSorted(STRINGS_ORDER, list, list));
+      }
+      result.put(attribute, PersistentSortedMap.fromSorted(STRINGS_ORDER, new ArrayList<String>(trigrams.keySet()), sets));
+    }
+    return new PackagesTrigramIndex(result);
+  }
+
+  /**
+   * @param entry entry to add
+   * @return new index containing trigrams of this index and the entry
+   */
+  @NotNull
+  public PackagesTrigramIndex withEntry(@NotNull final NuGetMetadataEntry entry) {
+    final String packageId = entry.getPackageId();
+    if (packageId == null) return this;
+    final String id = packageId.toLowerCase(Locale.ENGLISH);
+
+    final Map<String, PersistentSortedMap<String, PersistentSortedMap<String, String>>> result =
+            new HashMap<String, PersistentSortedMap<String, PersistentSortedMap<String, String>>>(myTrigrams);
+    for (String attribute : INDEXED_ATTRIBUTES) {
+      final String value = entry.getMetadata().get(attribute);
+      if (value == null) continue;
+
+      PersistentSortedMap<String, PersistentSortedMap<String, String>> trigrams = result.get(attribute);
+      if (trigrams == null) trigrams = PersistentSortedMap.empty(STRINGS_ORDER);
+      for (String trigram : getTrigrams(value.toLowerCase(Locale.ENGLISH))) {
+        PersistentSortedMap<String, String> ids = trigrams.get(trigram);
+        if (ids == null) ids = PersistentSortedMap.empty(STRINGS_ORDER);
+        else if (ids.get(id) != null) continue;
+        trigrams = trigrams.put(trigram, ids.put(id, id));
+      }
+      result.put(attribute, trigrams);
+    }
+    return new PackagesTrigramIndex(result);
+  }
+
+  /**
+   * The Id is dropped from the set of a trigram only if no remaining entry of the package contains the trigram
+   * @param entry entry to remove
+   * @param remaining served entries of the same package left after the removal
+   * @return new index without trigrams of the entry
+   */
+  @NotNull
+  public PackagesTrigramIndex withoutEntry(@NotNull final NuGetMetadataEntry entry, @NotNull final Collection<NuGetMetadataEntry> remaining) {
+    final String packageId = entry.getPackageId();
+    if (packageId == null) return this;
+    final String id = packageId.toLowerCase(Locale.ENGLISH);
+
+    final Map<String, PersistentSortedMap<String, PersistentSortedMap<String, String>>> result =
+            new HashMap<String, PersistentSortedMap<String, PersistentSortedMap<String, String>>>(myTrigrams);
+    for (String attribute : INDEXED_ATTRIBUTES) {
+      final String value = entry.getMetadata().get(attribute);
+      PersistentSortedMap<String, PersistentSortedMap<String, String>> trigrams = result.get(attribute);
+      if (value == null || trigrams == null) continue;
+
+      final Set<String> kept = new HashSet<String>();
+      for (NuGetMetadataEntry other : remaining) {
+        final String otherValue = other.getMetadata().get(attribute);
+        if (otherValue != null) kept.addAll(getTrigrams(otherValue.toLowerCase(Locale.ENGLISH)));
+      }
+
+      for (String trigram : getTrigrams(value.toLowerCase(Locale.ENGLISH))) {
+        if (kept.contains(trigram)) continue;
+        final PersistentSortedMap<String, String> ids = trigrams.get(trigram);
+        if (ids == null || ids.get(id) == null) continue;
+
+        final PersistentSortedMap<String, String> updated = ids.remove(id);
+        trigrams = updated.isEmpty() ? trigrams.remove(trigram) : trigrams.put(trigram, updated);
+      }
+      result.put(attribute, trigrams);
+    }
+    return new PackagesTrigramIndex(result);
+  }
+
+  /**
+   * Finds packages which may contain given text in the attribute value ignoring case.
+   * Found packages should be checked by the caller.
+   * @param attribute package attribute
+   * @param text text to find
+   * @return lower case Ids of packages or null if the index could not be used for given attribute and text
+   */
+  @Nullable
+  public Set<String> findPackageIds(@NotNull final String attribute, @NotNull final String text) {
+    if (text.length() < GRAM_LENGTH) return null;
+    final PersistentSortedMap<String, PersistentSortedMap<String, String>> trigrams = myTrigrams.get(attribute);
+    if (trigrams == null) return INDEXED_ATTRIBUTES.contains(attribute) ? Collections.<String>emptySet() : null;
+
+    Set<String> result = null;
+    for (String trigram : getTrigrams(text.toLowerCase(Locale.ENGLISH))) {
+      final PersistentSortedMap<String, String> ids = trigrams.get(trigram);
+      if (ids == null) return Collections.emptySet();
+
+      if (result == null) {
+        result = new HashSet<String>(ids.values());
+      } else {
+        for (Iterator<String> it = result.iterator(); it.hasNext(); ) {
+          if (ids.get(it.next()) == null) it.remove();
+        }
+      }
+      if (result.isEmpty()) break;
+    }
+    return result;
+  }
+
+  @NotNull
+  private static Set<String> getTrigrams(@NotNull final String text) {
+    final Set<String> result = new HashSet<String>();
+    for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+      result.add(text.substring(i, i + GRAM_LENGTH));
+    }
+    return result;
+  }
+}
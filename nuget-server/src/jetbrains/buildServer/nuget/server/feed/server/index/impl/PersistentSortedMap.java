@@ -0,0 +1,296 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Immutable sorted map based on AVL tree.
+ * Modifications copy only the path from the root to the changed node, the rest of the tree is shared with the new map,
+ * so a map is updated in O(log n) and all versions of the map stay valid.
+ */
+final class PersistentSortedMap<K, V> {
+  @NotNull private final Comparator<? super K> myComparator;
+  @Nullable private final Node<K, V> myRoot;
+
+  private PersistentSortedMap(@NotNull final Comparator<? super K> comparator, @Nullable final Node<K, V> root) {
+    myComparator = comparator;
+    myRoot = root;
+  }
+
+  @NotNull
+  static <K, V> PersistentSortedMap<K, V> empty(@NotNull final Comparator<? super K> comparator) {
+    return new PersistentSortedMap<K, V>(comparator, null);
+  }
+
+  /**
+   * @param comparator keys order
+   * @param sortedKeys unique keys sorted by the comparator
+   * @param values values of the keys
+   * @return balanced map built in O(n)
+   */
+  @NotNull
+  static <K, V> PersistentSortedMap<K, V> fromSorted(@NotNull final Comparator<? super K> comparator,
+                                                    @NotNull final List<K> sortedKeys,
+                                                    @NotNull final List<V> values) {
+    return new PersistentSortedMap<K, V>(comparator, build(sortedKeys, values, 0, sortedKeys.size()));
+  }
+
+  public int size() {
+    return size(myRoot);
+  }
+
+  public boolean isEmpty() {
+    return myRoot == null;
+  }
+
+  @Nullable
+  public V get(@NotNull final K key) {
+    Node<K, V> node = myRoot;
+    while (node != null) {
+      final int cmp = myComparator.compare(key, node.myKey);
+      if (cmp == 0) return node.myValue;
+      node = cmp < 0 ? node.myLeft : node.myRight;
+    }
+    return null;
+  }
+
+  /**
+   * @return new map with the value set for the key
+   */
+  @NotNull
+  public PersistentSortedMap<K, V> put(@NotNull final K key, @NotNull final V value) {
+    return new PersistentSortedMap<K, V>(myComparator, put(myRoot, key, value));
+  }
+
+  /**
+   * @return new map without the key or this map if there is no such key
+   */
+  @NotNull
+  public PersistentSortedMap<K, V> remove(@NotNull final K key) {
+    if (get(key) == null) return this;
+    return new PersistentSortedMap<K, V>(myComparator, remove(myRoot, key));
+  }
+
+  /**
+   * @return values in the keys order
+   */
+  @NotNull
+  public Collection<V> values() {
+    return new AbstractCollection<V>() {
+      @Override
+      public Iterator<V> iterator() {
+        final Iterator<Node<K, V>> nodes = nodesFrom(null);
+        return new Iterator<V>() {
+          public boolean hasNext() {
+            return nodes.hasNext();
+          }
+
+          public V next() {
+            return nodes.next().myValue;
+          }
+
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return PersistentSortedMap.this.size();
+      }
+    };
+  }
+
+  /**
+   * @return entries in the keys order
+   */
+  @NotNull
+  public Iterator<Map.Entry<K, V>> entries() {
+    return toEntries(nodesFrom(null));
+  }
+
+  /**
+   * @param fromKey the lowest key to iterate from, inclusive
+   * @return entries with keys greater than or equal to the given one in the keys order
+   */
+  @NotNull
+  public Iterator<Map.Entry<K, V>> entriesFrom(@NotNull final K fromKey) {
+    return toEntries(nodesFrom(fromKey));
+  }
+
+  @NotNull
+  private static <K, V> Iterator<Map.Entry<K, V>> toEntries(@NotNull final Iterator<Node<K, V>> nodes) {
+    return new Iterator<Map.Entry<K, V>>() {
+      public boolean hasNext() {
+        return nodes.hasNext();
+      }
+
+      public Map.Entry<K, V> next() {
+        return nodes.next();
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @NotNull
+  private Iterator<Node<K, V>> nodesFrom(@Nullable final K fromKey) {
+    final Deque<Node<K, V>> path = new ArrayDeque<Node<K, V>>();
+    Node<K, V> node = myRoot;
+    while (node != null) {
+      if (fromKey == null || myComparator.compare(fromKey, node.myKey) <= 0) {
+        path.push(node);
+        node = node.myLeft;
+      } else {
+        node = node.myRight;
+      }
+    }
+
+    return new Iterator<Node<K, V>>() {
+      public boolean hasNext() {
+        return !path.isEmpty();
+      }
+
+      public Node<K, V> next() {
+        if (path.isEmpty()) throw new NoSuchElementException();
+        final Node<K, V> next = path.pop();
+        for (Node<K, V> n = next.myRight; n != null; n = n.myLeft) {
+          path.push(n);
+        }
+        return next;
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @NotNull
+  private Node<K, V> put(@Nullable final Node<K, V> node, @NotNull final K key, @NotNull final V value) {
+    if (node == null) return new Node<K, V>(key, value, null, null);
+
+    final int cmp = myComparator.compare(key, node.myKey);
+    if (cmp == 0) return new Node<K, V>(key, value, node.myLeft, node.myRight);
+    if (cmp < 0) return balance(node.myKey, node.myValue, put(node.myLeft, key, value), node.myRight);
+    return balance(node.myKey, node.myValue, node.myLeft, put(node.myRight, key, value));
+  }
+
+  @Nullable
+  private Node<K, V> remove(@Nullable final Node<K, V> node, @NotNull final K key) {
+    if (node == null) return null;
+
+    final int cmp = myComparator.compare(key, node.myKey);
+    if (cmp < 0) return balance(node.myKey, node.myValue, remove(node.myLeft, key), node.myRight);
+    if (cmp > 0) return balance(node.myKey, node.myValue, node.myLeft, remove(node.myRight, key));
+
+    if (node.myLeft == null) return node.myRight;
+    if (node.myRight == null) return node.myLeft;
+
+    Node<K, V> min = node.myRight;
+    while (min.myLeft != null) min = min.myLeft;
+    return balance(min.myKey, min.myValue, node.myLeft, removeMin(node.myRight));
+  }
+
+  @Nullable
+  private static <K, V> Node<K, V> removeMin(@NotNull final Node<K, V> node) {
+    if (node.myLeft == null) return node.myRight;
+    return balance(node.myKey, node.myValue, removeMin(node.myLeft), node.myRight);
+  }
+
+  @NotNull
+  private static <K, V> Node<K, V> balance(@NotNull final K key, @NotNull final V value,
+                                           @Nullable final Node<K, V> left, @Nullable final Node<K, V> right) {
+    final int diff = height(left) - height(right);
+    if (diff > 1) {
+      //left subtree is not null as it is higher
+      //noinspection ConstantConditions
+      if (height(left.myLeft) >= height(left.myRight)) {
+        return new Node<K, V>(left.myKey, left.myValue, left.myLeft, new Node<K, V>(key, value, left.myRight, right));
+      }
+      final Node<K, V> lr = left.myRight;
+      //noinspection ConstantConditions
+      return new Node<K, V>(lr.myKey, lr.myValue,
+              new Node<K, V>(left.myKey, left.myValue, left.myLeft, lr.myLeft),
+              new Node<K, V>(key, value, lr.myRight, right));
+    }
+    if (diff < -1) {
+      //noinspection ConstantConditions
+      if (height(right.myRight) >= height(right.myLeft)) {
+        return new Node<K, V>(right.myKey, right.myValue, new Node<K, V>(key, value, left, right.myLeft), right.myRight);
+      }
+      final Node<K, V> rl = right.myLeft;
+      //noinspection ConstantConditions
+      return new Node<K, V>(rl.myKey, rl.myValue,
+              new Node<K, V>(key, value, left, rl.myLeft),
+              new Node<K, V>(right.myKey, right.myValue, rl.myRight, right.myRight));
+    }
+    return new Node<K, V>(key, value, left, right);
+  }
+
+  @Nullable
+  private static <K, V> Node<K, V> build(@NotNull final List<K> keys, @NotNull final List<V> values, final int from, final int to) {
+    if (from >= to) return null;
+    final int mid = (from + to) >>> 1;
+    return new Node<K, V>(keys.get(mid), values.get(mid), build(keys, values, from, mid), build(keys, values, mid + 1, to));
+  }
+
+  private static int height(@Nullable final Node<?, ?> node) {
+    return node == null ? 0 : node.myHeight;
+  }
+
+  private static int size(@Nullable final Node<?, ?> node) {
+    return node == null ? 0 : node.mySize;
+  }
+
+  private static final class Node<K, V> implements Map.Entry<K, V> {
+    @NotNull private final K myKey;
+    @NotNull private final V myValue;
+    @Nullable private final Node<K, V> myLeft;
+    @Nullable private final Node<K, V> myRight;
+    private final int myHeight;
+    private final int mySize;
+
+    private Node(@NotNull final K key, @NotNull final V value, @Nullable final Node<K, V> left, @Nullable final Node<K, V> right) {
+      myKey = key;
+      myValue = value;
+      myLeft = left;
+      myRight = right;
+      myHeight = Math.max(height(left), height(right)) + 1;
+      mySize = size(left) + size(right) + 1;
+    }
+
+    public K getKey() {
+      return myKey;
+    }
+
+    public V getValue() {
+      return myValue;
+    }
+
+    public V setValue(V value) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -22,6 +22,9 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.Comparator;
 
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.ID;
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.VERSION;
+
 /**
  * Created 18.03.13 15:50
  *
@@ -38,9 +41,7 @@ public class SemanticVersionsComparators {
         int cmp;
         if ((cmp = id1.compareTo(id2)) != 0) return cmp;
 
-        final String v1 = o1.getVersion();
-        final String v2 = o2.getVersion();
-        return SemanticVersion.compareAsVersions(v1, v2);
+        return SemanticVersion.compareAsVersions(o1.getSemanticVersion(), o1.getVersion(), o2.getSemanticVersion(), o2.getVersion());
       }
     };
   }
@@ -49,16 +50,16 @@ public class SemanticVersionsComparators {
   public static Comparator<NuGetIndexEntry> getEntriesComparator() {
     return new Comparator<NuGetIndexEntry>() {
       public int compare(@NotNull NuGetIndexEntry o1, @NotNull NuGetIndexEntry o2) {
-        final String id1 = o1.getPackageInfo().getId();
-        final String id2 = o2.getPackageInfo().getId();
+        final String id1 = o1.getAttributes().get(ID);
+        final String id2 = o2.getAttributes().get(ID);
 
         int cmp;
         if ((cmp = id1.compareTo(id2)) != 0) return cmp;
 
-        final String v1 = o1.getPackageInfo().getVersion();
-        final String v2 = o2.getPackageInfo().getVersion();
+        final String v1 = o1.getAttributes().get(VERSION);
+        final String v2 = o2.getAttributes().get(VERSION);
 
-        return SemanticVersion.compareAsVersions(v1, v2);
+        return SemanticVersion.compareAsVersions(o1.getSemanticVersion(), v1, o2.getSemanticVersion(), v2);
       }
     };
   }
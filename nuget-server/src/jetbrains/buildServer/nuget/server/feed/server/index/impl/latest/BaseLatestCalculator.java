@@ -21,6 +21,7 @@ import jetbrains.buildServer.nuget.server.util.SemanticVersion;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -32,10 +33,12 @@ public abstract class BaseLatestCalculator implements LatestCalculator {
   private final Map<String, NuGetPackageBuilder> myLatestPackages = new HashMap<String, NuGetPackageBuilder>();
 
   public void updatePackage(@NotNull NuGetPackageBuilder newLatest) {
-    final NuGetPackageBuilder currentLatest = myLatestPackages.get(newLatest.getPackageName());
+    //package Ids are case-insensitive
+    final String packageId = newLatest.getPackageName().toLowerCase(Locale.ENGLISH);
+    final NuGetPackageBuilder currentLatest = myLatestPackages.get(packageId);
 
-    if (currentLatest == null || SemanticVersion.compareAsVersions(currentLatest.getVersion(), newLatest.getVersion()) < 0) {
-      myLatestPackages.put(newLatest.getPackageName(), newLatest);
+    if (currentLatest == null || SemanticVersion.compareAsVersions(currentLatest.getSemanticVersion(), currentLatest.getVersion(), newLatest.getSemanticVersion(), newLatest.getVersion()) < 0) {
+      myLatestPackages.put(packageId, newLatest);
     }
   }
 
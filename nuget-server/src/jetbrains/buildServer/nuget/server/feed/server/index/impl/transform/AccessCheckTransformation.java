@@ -16,46 +16,57 @@
 
 package jetbrains.buildServer.nuget.server.feed.server.index.impl.transform;
 
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.BuildTypeIdsCache;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetPackageBuilder;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackageTransformation;
-import jetbrains.buildServer.serverSide.ProjectManager;
 import jetbrains.buildServer.serverSide.auth.AuthUtil;
 import jetbrains.buildServer.serverSide.auth.SecurityContext;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * @author Eugene Petrenko (eugene.petrenko@gmail.com)
  *         Date: 18.01.12 20:30
  */
 public class AccessCheckTransformation implements PackageTransformation {
-  private final ProjectManager myProjects;
+  private final BuildTypeIdsCache myBuildTypes;
   private final SecurityContext myContext;
+  //access is resolved once per build type and project for all entries processed by this copy
+  private final Map<String, Boolean> myBuildTypeAccess = new HashMap<String, Boolean>();
+  private final Map<String, Boolean> myProjectAccess = new HashMap<String, Boolean>();
 
-  public AccessCheckTransformation(@NotNull final ProjectManager projects,
+  public AccessCheckTransformation(@NotNull final BuildTypeIdsCache buildTypes,
                                    @NotNull final SecurityContext context) {
-    myProjects = projects;
+    myBuildTypes = buildTypes;
     myContext = context;
   }
 
-  @Nullable
-  private String safeFindProjectId(@NotNull final String buildTypeId) {
-    try {
-      return myProjects.findProjectId(buildTypeId);
-    } catch (RuntimeException e) {
-      return null;
+  private boolean isAccessible(@Nullable final String buildTypeId) {
+    if (buildTypeId == null) return false;
+    Boolean accessible = myBuildTypeAccess.get(buildTypeId);
+    if (accessible == null) {
+      accessible = isBuildTypeAccessible(buildTypeId);
+      myBuildTypeAccess.put(buildTypeId, accessible);
     }
+    return accessible;
   }
 
-  private boolean isAccessible(@Nullable final String buildTypeId) {
-    if (buildTypeId == null) return false;
+  private boolean isBuildTypeAccessible(@NotNull final String buildTypeId) {
     //TODO: move it into BuildMetadataStorage instead.
     //check access to the entry
-    final String projectId = safeFindProjectId(buildTypeId);
+    final String projectId = myBuildTypes.getProjectId(buildTypeId);
     //no project no chance
     if (projectId == null) return false;
     //check project access
-    return AuthUtil.hasReadAccessTo(myContext.getAuthorityHolder(), projectId);
+    Boolean accessible = myProjectAccess.get(projectId);
+    if (accessible == null) {
+      accessible = AuthUtil.hasReadAccessTo(myContext.getAuthorityHolder(), projectId);
+      myProjectAccess.put(projectId, accessible);
+    }
+    return accessible;
   }
 
   @NotNull
@@ -65,6 +76,6 @@ public class AccessCheckTransformation implements PackageTransformation {
 
   @NotNull
   public PackageTransformation createCopy() {
-    return this;
+    return new AccessCheckTransformation(myBuildTypes, myContext);
   }
 }
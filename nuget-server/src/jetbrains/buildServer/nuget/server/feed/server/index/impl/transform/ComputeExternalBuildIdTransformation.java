@@ -16,10 +16,9 @@
 
 package jetbrains.buildServer.nuget.server.feed.server.index.impl.transform;
 
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.BuildTypeIdsCache;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetPackageBuilder;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackageTransformation;
-import jetbrains.buildServer.serverSide.ProjectManager;
-import jetbrains.buildServer.serverSide.SBuildType;
 import jetbrains.buildServer.version.ServerVersionHolder;
 import org.jetbrains.annotations.NotNull;
 
@@ -29,10 +28,10 @@ import org.jetbrains.annotations.NotNull;
  * @author Eugene Petrenko (eugene.petrenko@jetbrains.com)
  */
 public class ComputeExternalBuildIdTransformation implements PackageTransformation {
-  private final ProjectManager myProjects;
+  private final BuildTypeIdsCache myBuildTypes;
 
-  public ComputeExternalBuildIdTransformation(@NotNull final ProjectManager projects) {
-    myProjects = projects;
+  public ComputeExternalBuildIdTransformation(@NotNull final BuildTypeIdsCache buildTypes) {
+    myBuildTypes = buildTypes;
   }
 
   @NotNull
@@ -46,10 +45,10 @@ public class ComputeExternalBuildIdTransformation implements PackageTransformati
       return Status.CONTINUE;
     }
 
-    final SBuildType externalBuildTypeId = myProjects.findBuildTypeById(buildTypeId);
+    final String externalBuildTypeId = myBuildTypes.getExternalId(buildTypeId);
     if (externalBuildTypeId == null) return Status.SKIP;
 
-    builder.setBuildTypeExternalId(externalBuildTypeId.getExternalId());
+    builder.setBuildTypeExternalId(externalBuildTypeId);
     return Status.CONTINUE;
   }
 
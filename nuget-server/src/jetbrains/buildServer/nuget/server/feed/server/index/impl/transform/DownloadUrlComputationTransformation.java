@@ -22,6 +22,9 @@ import jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetPackageBui
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackageTransformation;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
 * @author Eugene Petrenko (eugene.petrenko@gmail.com)
 *         Date: 18.01.12 20:29
@@ -29,6 +32,8 @@ import org.jetbrains.annotations.NotNull;
 public class DownloadUrlComputationTransformation implements PackageTransformation {
 
   private final NuGetServerSettings myServerSettings;
+  //download url prefixes computed in the current request by build type external id
+  private final Map<String, String> myUrlPrefixes = new HashMap<String, String>();
 
   public DownloadUrlComputationTransformation(NuGetServerSettings serverSettings) {
     myServerSettings = serverSettings;
@@ -42,13 +47,23 @@ public class DownloadUrlComputationTransformation implements PackageTransformati
     if (buildTypeExternalId == null) return Status.SKIP;
 
     while (relPath.startsWith("/")) relPath = relPath.substring(1);
-    final String downloadUrl = myServerSettings.getNuGetFeedControllerPath() + "/download/" + buildTypeExternalId + "/" + builder.getBuildId() + ":id/" + relPath;
+    final String downloadUrl = getUrlPrefix(buildTypeExternalId) + builder.getBuildId() + ":id/" + relPath;
     builder.setDownloadUrl(downloadUrl);
     return Status.CONTINUE;
   }
 
+  @NotNull
+  private String getUrlPrefix(@NotNull final String buildTypeExternalId) {
+    String prefix = myUrlPrefixes.get(buildTypeExternalId);
+    if (prefix == null) {
+      prefix = myServerSettings.getNuGetFeedControllerPath() + "/download/" + buildTypeExternalId + "/";
+      myUrlPrefixes.put(buildTypeExternalId, prefix);
+    }
+    return prefix;
+  }
+
   @NotNull
   public PackageTransformation createCopy() {
-    return this;
+    return new DownloadUrlComputationTransformation(myServerSettings);
   }
 }
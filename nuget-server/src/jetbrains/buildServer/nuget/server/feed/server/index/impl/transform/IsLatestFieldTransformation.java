@@ -34,12 +34,7 @@ public class IsLatestFieldTransformation implements PackageTransformation {
   @NotNull
   public Status applyTransformation(@NotNull final NuGetPackageBuilder builder) {
     final String packageName = builder.getPackageName();
-    final String version = builder.getVersion();
-
-    //release or preselease version is parsed from package information according for semver.org
-    //http://semver.org/
-    //http://docs.nuget.org/docs/reference/versioning
-    final boolean isReleaseVersion = version.matches("^\\d+(\\.\\d+)+$");
+    final boolean isReleaseVersion = IsPrereleaseTransformation.isReleaseVersion(builder.getVersion());
 
     //Metadata entries are sorted from newer to older packages
     //isLatestVersion === this is the firts occurence of package in the collection
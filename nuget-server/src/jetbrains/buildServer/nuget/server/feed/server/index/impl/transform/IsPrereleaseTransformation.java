@@ -20,22 +20,27 @@ import jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetPackageBui
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackageTransformation;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.regex.Pattern;
+
 /**
  * Created 18.03.13 15:48
  *
  * @author Eugene Petrenko (eugene.petrenko@jetbrains.com)
  */
 public class IsPrereleaseTransformation implements PackageTransformation {
+  private static final Pattern RELEASE_VERSION = Pattern.compile("^\\d+(\\.\\d+)+$");
+
   @NotNull
   public Status applyTransformation(@NotNull NuGetPackageBuilder builder) {
-    final String version = builder.getVersion();
+    builder.setPrerelease(!isReleaseVersion(builder.getVersion()));
+    return Status.CONTINUE;
+  }
+
+  public static boolean isReleaseVersion(@NotNull final String version) {
     //release or preselease version is parsed from package information according for semver.org
     //http://semver.org/
     //http://docs.nuget.org/docs/reference/versioning
-    final boolean isReleaseVersion = version.matches("^\\d+(\\.\\d+)+$");
-
-    builder.setPrerelease(!isReleaseVersion);
-    return Status.CONTINUE;
+    return RELEASE_VERSION.matcher(version).matches();
   }
 
   @NotNull
@@ -18,6 +18,7 @@ package jetbrains.buildServer.nuget.server.feed.server.index.impl.transform;
 
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetPackageBuilder;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.ODataDataFormat;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.OldFormatEntriesMigration;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackageTransformation;
 import jetbrains.buildServer.serverSide.BuildsManager;
 import jetbrains.buildServer.serverSide.SBuild;
@@ -33,9 +34,12 @@ public class OldFormatConvertTransformation implements PackageTransformation {
   private static final String LAST_UPDATED = "LastUpdated";
 
   private final BuildsManager myBuilds;
+  private final OldFormatEntriesMigration myMigration;
 
-  public OldFormatConvertTransformation(@NotNull final BuildsManager builds) {
+  public OldFormatConvertTransformation(@NotNull final BuildsManager builds,
+                                        @NotNull final OldFormatEntriesMigration migration) {
     myBuilds = builds;
+    myMigration = migration;
   }
 
   @Nullable
@@ -50,6 +54,14 @@ public class OldFormatConvertTransformation implements PackageTransformation {
 
   @Nullable
   private String findBuildTypeId(@NotNull final NuGetPackageBuilder builder) {
+    final OldFormatEntriesMigration.MigratedBuild migrated = myMigration.getMigratedBuild(builder.getBuildId());
+    if (migrated != null) {
+      builder.setMetadata(LAST_UPDATED, migrated.getLastUpdated());
+      return migrated.getBuildTypeId();
+    }
+    //entries left in old format after migration refer to unknown builds
+    if (myMigration.isCompleted()) return null;
+
     final SBuild aBuild = safeFindBuildInstanceById(builder.getBuildId());
     if (aBuild == null || !(aBuild instanceof SFinishedBuild)) return null;
     final SFinishedBuild build = (SFinishedBuild) aBuild;
@@ -22,17 +22,29 @@ import jetbrains.buildServer.nuget.server.feed.server.javaFeed.functions.NuGetFe
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.functions.NuGetFeedFunctions;
 import org.core4j.Enumerable;
 import org.core4j.Func;
+import org.core4j.Func1;
+import org.core4j.Func2;
+import org.core4j.Predicate1;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.odata4j.core.OFunctionParameter;
+import org.odata4j.core.OProperties;
+import org.odata4j.core.OProperty;
 import org.odata4j.edm.EdmDataServices;
+import org.odata4j.edm.EdmEntityType;
 import org.odata4j.edm.EdmFunctionImport;
+import org.odata4j.edm.EdmProperty;
+import org.odata4j.edm.EdmSimpleType;
+import org.odata4j.edm.EdmStructuralType;
 import org.odata4j.exceptions.NotImplementedException;
 import org.odata4j.producer.BaseResponse;
+import org.odata4j.producer.EntitiesResponse;
 import org.odata4j.producer.ODataContext;
 import org.odata4j.producer.PropertyPathHelper;
 import org.odata4j.producer.QueryInfo;
 import org.odata4j.producer.inmemory.*;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -40,15 +52,24 @@ import java.util.Map;
  */
 public class NuGetFeedInMemoryProducer extends InMemoryProducer {
   private static final Logger LOG = Logger.getInstance(NuGetFeedInMemoryProducer.class.getName());
+  private static final int MAX_RESULTS = 100;
   private final Object mySyncRoot = new Object();
 
   @NotNull private final NuGetFeedFunctions myFunctions;
+  @NotNull private final PackagesQueryPlanner myPlanner;
+  @NotNull private final PackagesFilterCompiler myFilterCompiler;
 
   private String myApiVersion;
+  @Nullable private Func1<PackagesPage, Iterable<PackageEntity>> myPageFunc;
+  @Nullable private Func2<String, String, PackageEntity> myLookupFunc;
 
-  public NuGetFeedInMemoryProducer(@NotNull final NuGetFeedFunctions functions) {
-    super(MetadataConstants.NUGET_GALLERY_NAMESPACE);
+  public NuGetFeedInMemoryProducer(@NotNull final NuGetFeedFunctions functions,
+                                   @NotNull final PackagesQueryPlanner planner,
+                                   @NotNull final PackagesFilterCompiler filterCompiler) {
+    super(MetadataConstants.NUGET_GALLERY_NAMESPACE, MAX_RESULTS);
     myFunctions = functions;
+    myPlanner = planner;
+    myFilterCompiler = filterCompiler;
   }
 
   public void register(Func<Iterable<PackageEntity>> getFunc){
@@ -59,6 +80,37 @@ public class NuGetFeedInMemoryProducer extends InMemoryProducer {
             PackageEntity.KeyPropertyNames);
   }
 
+  public void register(Func1<RequestContext, Iterable<PackageEntity>> getFunc){
+    register(PackageEntity.class,
+            new EnumsAsStringsPropertyModelDelegate(new BeanBasedPropertyModel(PackageEntity.class, true)),
+            MetadataConstants.ENTITY_SET_NAME,
+            MetadataConstants.ENTITY_TYPE_NAME,
+            null,
+            getFunc,
+            PackageEntity.KeyPropertyNames);
+  }
+
+  /**
+   * @param getFunc returns packages to process the whole query for
+   * @param getPageFunc returns packages requested by the query, the rest of the query is processed by the producer
+   */
+  public void register(Func1<RequestContext, Iterable<PackageEntity>> getFunc, Func1<PackagesPage, Iterable<PackageEntity>> getPageFunc){
+    register(getFunc);
+    myPageFunc = getPageFunc;
+  }
+
+  /**
+   * @param getFunc returns packages to process the whole query for
+   * @param getPageFunc returns packages requested by the query, the rest of the query is processed by the producer
+   * @param lookupFunc returns the package by Id and version or null if there is no such package
+   */
+  public void register(Func1<RequestContext, Iterable<PackageEntity>> getFunc,
+                       Func1<PackagesPage, Iterable<PackageEntity>> getPageFunc,
+                       Func2<String, String, PackageEntity> lookupFunc){
+    register(getFunc, getPageFunc);
+    myLookupFunc = lookupFunc;
+  }
+
   @Override
   public EdmDataServices getMetadata() {
     final String apiVersionToUse = NuGetAPIVersion.getVersionToUse();
@@ -71,6 +123,41 @@ public class NuGetFeedInMemoryProducer extends InMemoryProducer {
     return super.getMetadata();
   }
 
+  @Override
+  public EntitiesResponse getEntities(ODataContext context, String entitySetName, QueryInfo queryInfo) {
+    final Func1<PackagesPage, Iterable<PackageEntity>> pageFunc = myPageFunc;
+    if (pageFunc == null || queryInfo == null) {
+      return super.getEntities(context, entitySetName, queryInfo);
+    }
+
+    //conditions of the filter are checked in the packages index, so the producer evaluates only the residual filter
+    final InMemoryEntityInfo<?> ei = getEntityInfo(entitySetName);
+    final PackagesPage page = PackagesPage.create(myPlanner.plan(queryInfo.filter), queryInfo, MAX_RESULTS, ei.getPropertyModel());
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(String.format("Selecting %s from the packages index, page is selected %s",
+              page, page.isSelectedInIndex() ? "in the index" : "by the producer"));
+    }
+
+    QueryInfo pageQuery = page.getProducerQuery();
+    Enumerable<PackageEntity> entities = Enumerable.create(pageFunc.apply(page));
+    final Predicate1<PackageEntity> filter = myFilterCompiler.compile(pageQuery.filter);
+    if (filter != null) {
+      entities = entities.where(filter);
+      pageQuery = withoutFilter(pageQuery);
+    }
+
+    final PackagePropertiesSelection selection = new PackagePropertiesSelection(pageQuery);
+    final RequestContext rc = RequestContext.newBuilder(RequestContext.RequestType.GetEntities)
+            .entitySetName(entitySetName)
+            .entitySet(getMetadata().getEdmEntitySet(entitySetName))
+            .queryInfo(pageQuery)
+            .odataContext(context)
+            .pathHelper(selection).build();
+    final EntitiesResponse response = getEntitiesResponse(rc, rc.getEntitySet(), entities.cast(Object.class), ei.getPropertyModel());
+    logSelection(selection);
+    return response;
+  }
+
   @Override
   public BaseResponse callFunction(ODataContext context, EdmFunctionImport function, Map<String, OFunctionParameter> params, QueryInfo queryInfo, boolean isCountCall) {
     final NuGetFeedFunction targetFunction = myFunctions.find(function);
@@ -82,18 +169,75 @@ public class NuGetFeedInMemoryProducer extends InMemoryProducer {
     final Iterable<Object> functionCallResult = targetFunction.call(function.getReturnType(), params, queryInfo);
     if(functionCallResult == null) return null;
 
+    Enumerable<Object> entities = Enumerable.create(functionCallResult);
+    final Predicate1<PackageEntity> filter = queryInfo == null ? null : myFilterCompiler.compile(queryInfo.filter);
+    if (filter != null) {
+      //functions return package entities
+      entities = entities.cast(PackageEntity.class).where(filter).cast(Object.class);
+      queryInfo = withoutFilter(queryInfo);
+    }
+
     final RequestContext rc = RequestContext.newBuilder(RequestContext.RequestType.GetEntities)
             .entitySetName(MetadataConstants.ENTITY_SET_NAME)
             .entitySet(getMetadata().getEdmEntitySet(MetadataConstants.ENTITY_SET_NAME))
             .queryInfo(queryInfo)
             .odataContext(context)
-            .pathHelper(new PropertyPathHelper(queryInfo)).build();
+            .pathHelper(new PackagePropertiesSelection(queryInfo)).build();
     final InMemoryEntityInfo<?> ei = getEntityInfo(MetadataConstants.ENTITY_SET_NAME);
 
     if(isCountCall)
-      return getCountResponse(rc, Enumerable.create(functionCallResult));
-    else
-      return getEntitiesResponse(rc, rc.getEntitySet(), Enumerable.create(functionCallResult), ei.getPropertyModel());
+      return getCountResponse(rc, entities);
+
+    final EntitiesResponse response = getEntitiesResponse(rc, rc.getEntitySet(), entities, ei.getPropertyModel());
+    logSelection((PackagePropertiesSelection) rc.getPathHelper());
+    return response;
+  }
+
+  @Override
+  protected Object getEntityPojo(RequestContext rc) {
+    final Func2<String, String, PackageEntity> lookupFunc = myLookupFunc;
+    final PackageKey key = MetadataConstants.ENTITY_SET_NAME.equals(rc.getEntitySetName())
+            ? PackageKey.fromEntityKey(rc.getEntityKey())
+            : null;
+    if (lookupFunc == null || key == null) {
+      return super.getEntityPojo(rc);
+    }
+
+    //Packages(Id='...',Version='...') is looked up in the packages index instead of scanning all packages
+    return lookupFunc.apply(key.getId(), key.getVersion());
+  }
+
+  @Override
+  protected void addPropertiesFromObject(Object obj, PropertyModel propertyModel, EdmStructuralType structuralType, List<OProperty<?>> properties, PropertyPathHelper pathHelper) {
+    final PackagePropertiesSelection selection = pathHelper instanceof PackagePropertiesSelection ? (PackagePropertiesSelection) pathHelper : null;
+    final List<EdmProperty> selected = selection != null && selection.isLimited() && structuralType instanceof EdmEntityType
+            ? selection.getSelectedProperties(structuralType)
+            : null;
+    if (selected == null) {
+      super.addPropertiesFromObject(obj, propertyModel, structuralType, properties, pathHelper);
+      return;
+    }
+
+    //only selected properties are read from the entity
+    for (EdmProperty property : selected) {
+      final Object value = propertyModel.getPropertyValue(obj, property.getName());
+      properties.add(OProperties.simple(property.getName(), (EdmSimpleType<? extends Object>) property.getType(), value));
+    }
+    if (LOG.isDebugEnabled()) {
+      selection.onEntityWritten(obj, structuralType, selected.size());
+    }
+  }
+
+  private static void logSelection(@NotNull final PackagePropertiesSelection selection) {
+    if (LOG.isDebugEnabled() && selection.isLimited()) {
+      LOG.debug(selection.getStatistics());
+    }
+  }
+
+  @NotNull
+  private static QueryInfo withoutFilter(@NotNull final QueryInfo queryInfo) {
+    return new QueryInfo(queryInfo.inlineCount, queryInfo.top, queryInfo.skip, null, queryInfo.orderBy,
+            queryInfo.skipToken, queryInfo.customOptions, queryInfo.expand, queryInfo.select);
   }
 
   @Override
@@ -21,14 +21,20 @@ import jetbrains.buildServer.dataStructures.Mapper;
 import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
 import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesQuery;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.entity.PackageEntity;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.functions.NuGetFeedFunctions;
-import org.core4j.Func;
+import org.core4j.Func1;
+import org.core4j.Func2;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.odata4j.producer.ODataProducer;
+import org.odata4j.producer.QueryInfo;
+import org.odata4j.producer.inmemory.InMemoryProducer;
 import org.odata4j.stax2.XMLFactoryProvider2;
 import org.odata4j.stax2.xppimpl.XmlPullXMLFactoryProvider2;
 
+import java.util.Comparator;
 import java.util.Iterator;
 
 /**
@@ -37,6 +43,8 @@ import java.util.Iterator;
  */
 public class NuGetProducerHolder {
   private final NuGetFeedInMemoryProducer myProducer;
+  private final PackagesIndex myIndex;
+  private final NuGetServerSettings mySettings;
 
   public NuGetProducerHolder(@NotNull final PackagesIndex index,
                              @NotNull final NuGetServerSettings settings,
@@ -45,22 +53,74 @@ public class NuGetProducerHolder {
     //used to generate <foo></foo> that is badly parsed in
     //.NET OData WCF client
     XMLFactoryProvider2.setInstance(new XmlPullXMLFactoryProvider2());
-    myProducer = new NuGetFeedInMemoryProducer(functions);
-    myProducer.register(new Func<Iterable<PackageEntity>>() {
-      public Iterable<PackageEntity> apply() {
+    myIndex = index;
+    mySettings = settings;
+    final PackagesQueryPlanner planner = new PackagesQueryPlanner(new PackagesFilterLookup(index));
+    myProducer = new NuGetFeedInMemoryProducer(functions, planner, new PackagesFilterCompiler());
+    myProducer.register(new Func1<InMemoryProducer.RequestContext, Iterable<PackageEntity>>() {
+      public Iterable<PackageEntity> apply(final InMemoryProducer.RequestContext context) {
         return new Iterable<PackageEntity>() {
           public Iterator<PackageEntity> iterator() {
-            return new DecoratingIterator<PackageEntity, NuGetIndexEntry>(index.getNuGetEntries(), new Mapper<NuGetIndexEntry, PackageEntity>() {
-              public PackageEntity mapKey(@NotNull NuGetIndexEntry internal) {
-                return new PackageEntityEx(internal, settings);
-              }
-            });
+            //the whole filter is evaluated by the producer, so the index query only narrows packages to check
+            final QueryInfo queryInfo = context.getQueryInfo();
+            final PackagesQuery query = planner.plan(queryInfo == null ? null : queryInfo.filter).getQuery();
+            return toEntities(index.getNuGetEntries(query, null, 0, Integer.MAX_VALUE), settings);
           }
         };
       }
+    }, new Func1<PackagesPage, Iterable<PackageEntity>>() {
+      public Iterable<PackageEntity> apply(final PackagesPage page) {
+        return new Iterable<PackageEntity>() {
+          public Iterator<PackageEntity> iterator() {
+            final Comparator<NuGetIndexEntry> order = getEntriesOrder(page, settings);
+            return toEntities(index.getNuGetEntries(page.getQuery(), order, page.getSkip(), page.getCount()), settings);
+          }
+        };
+      }
+    }, new Func2<String, String, PackageEntity>() {
+      public PackageEntity apply(final String id, final String version) {
+        return findPackage(id, version);
+      }
     });
   }
 
+  /**
+   * @param id package Id, case-insensitive
+   * @param version package version
+   * @return package entity looked up in the packages index or null if there is no such package
+   */
+  @Nullable
+  public PackageEntity findPackage(@NotNull final String id, @NotNull final String version) {
+    final NuGetIndexEntry entry = myIndex.getNuGetEntry(id, version);
+    return entry == null ? null : new PackageEntityEx(entry, mySettings);
+  }
+
+  @NotNull
+  private static Iterator<PackageEntity> toEntities(@NotNull final Iterator<NuGetIndexEntry> entries,
+                                                    @NotNull final NuGetServerSettings settings) {
+    return new DecoratingIterator<PackageEntity, NuGetIndexEntry>(entries, new Mapper<NuGetIndexEntry, PackageEntity>() {
+      public PackageEntity mapKey(@NotNull NuGetIndexEntry internal) {
+        return new PackageEntityEx(internal, settings);
+      }
+    });
+  }
+
+  @Nullable
+  private static Comparator<NuGetIndexEntry> getEntriesOrder(@NotNull final PackagesPage page,
+                                                             @NotNull final NuGetServerSettings settings) {
+    final Comparator<NuGetIndexEntry> compiled = page.getEntriesOrder();
+    if (compiled != null) return compiled;
+
+    final Comparator<PackageEntity> order = page.getOrder();
+    if (order == null) return null;
+    //expressions not supported by the compiler are evaluated for entities
+    return new Comparator<NuGetIndexEntry>() {
+      public int compare(@NotNull NuGetIndexEntry o1, @NotNull NuGetIndexEntry o2) {
+        return order.compare(new PackageEntityEx(o1, settings), new PackageEntityEx(o2, settings));
+      }
+    };
+  }
+
   @NotNull
   public ODataProducer getProducer() {
     return myProducer;
@@ -51,8 +51,11 @@ import static jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache.Resp
  */
 public class ODataPackagesFeedController implements NuGetFeedHandler {
   private static final Logger LOG = Logger.getInstance(ODataPackagesFeedController.class.getName());
+  private static final String HEAD = "HEAD";
+  private static final String ATOM_ENTRY_CONTENT_TYPE = "application/atom+xml;type=entry;charset=utf-8";
 
   private ServletContainer myContainer;
+  private final NuGetProducerHolder myProducer;
   private final NuGetServerJavaSettings mySettings;
   private final ResponseCache myCache;
 
@@ -60,6 +63,7 @@ public class ODataPackagesFeedController implements NuGetFeedHandler {
                                      @NotNull final ServletConfig config,
                                      @NotNull final NuGetServerJavaSettings settings,
                                      @NotNull final ResponseCache cache) {
+    myProducer = producer;
     mySettings = settings;
     myCache = cache;
     try {
@@ -115,6 +119,14 @@ public class ODataPackagesFeedController implements NuGetFeedHandler {
       return;
     }
 
+    if (HEAD.equals(request.getMethod())) {
+      final PackageKey key = PackageKey.fromPath(new RequestWrapper(request, baseMappingPath).getPathInfo());
+      if (key != null) {
+        processPackageExistsRequest(key, response);
+        return;
+      }
+    }
+
     if (!BaseController.isGet(request)) {
       //error response according to OData spec for unsupported oprtaions (modification operations)
       response.sendError(HttpServletResponse.SC_NOT_ACCEPTABLE, "TeamCity provided feed is readonly.");
@@ -135,6 +147,19 @@ public class ODataPackagesFeedController implements NuGetFeedHandler {
     }
   }
 
+  private void processPackageExistsRequest(@NotNull final PackageKey key, @NotNull final HttpServletResponse response) {
+    //existence of the package is checked in the packages index, the entity is not serialized
+    final boolean exists = myProducer.findPackage(key.getId(), key.getVersion()) != null;
+    LOG.debug("NuGet Feed: HEAD " + key + " " + (exists ? "found" : "not found"));
+
+    if (exists) {
+      response.setStatus(HttpServletResponse.SC_OK);
+      response.setContentType(ATOM_ENTRY_CONTENT_TYPE);
+    } else {
+      response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+    }
+  }
+
   private void processFeedRequest(final String baseMappingPath, final HttpServletRequest request, final HttpServletResponse response) throws Exception {
     XMLFactoryProvider2.setInstance(DOM_XML_FACTORY_PROVIDER_2);
     LOG.debug("NuGet Feed: " + WebUtil.getRequestDump(request) + "|" + request.getRequestURI());
@@ -18,6 +18,7 @@ package jetbrains.buildServer.nuget.server.feed.server.javaFeed;
 
 import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackageTypedValues;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.entity.PackageEntityAdapter;
 import org.jetbrains.annotations.NotNull;
 import org.odata4j.core.OAtomStreamEntity;
@@ -55,4 +56,19 @@ public class PackageEntityEx extends PackageEntityAdapter implements OAtomStream
   protected String getValue(@NotNull String key) {
     return myEntry.getAttributes().get(key);
   }
+
+  /**
+   * @param key attribute name
+   * @return length of the stored attribute value or 0 if there is no value
+   */
+  public int getValueLength(@NotNull String key) {
+    final String value = getValue(key);
+    return value == null ? 0 : value.length();
+  }
+
+  @NotNull
+  @Override
+  protected PackageTypedValues getTypedValues() {
+    return myEntry.getTypedValues();
+  }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.server.feed.server.javaFeed;
+
+import jetbrains.buildServer.nuget.server.feed.server.PackageAttributes;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.odata4j.core.OEntityKey;
+import org.odata4j.core.OProperty;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Id and version of a package requested by the key of the Packages entity set,
+ * e.g. Packages(Id='NuGet.Core',Version='1.6.2')
+ */
+public class PackageKey {
+  private static final Pattern PACKAGE_PATH = Pattern.compile("/" + MetadataConstants.ENTITY_SET_NAME + "(\\(.+\\))/?");
+
+  @NotNull private final String myId;
+  @NotNull private final String myVersion;
+
+  private PackageKey(@NotNull final String id, @NotNull final String version) {
+    myId = id;
+    myVersion = version;
+  }
+
+  @NotNull
+  public String getId() {
+    return myId;
+  }
+
+  @NotNull
+  public String getVersion() {
+    return myVersion;
+  }
+
+  /**
+   * @param key key of the Packages entity set
+   * @return package key or null if the key does not contain both Id and Version
+   */
+  @Nullable
+  public static PackageKey fromEntityKey(@Nullable final OEntityKey key) {
+    if (key == null || key.getKeyType() != OEntityKey.KeyType.COMPLEX) return null;
+
+    String id = null;
+    String version = null;
+    for (OProperty<?> property : key.asComplexProperties()) {
+      final Object value = property.getValue();
+      if (!(value instanceof String)) continue;
+      if (PackageAttributes.ID.equalsIgnoreCase(property.getName())) id = (String) value;
+      else if (PackageAttributes.VERSION.equalsIgnoreCase(property.getName())) version = (String) value;
+    }
+    return id == null || version == null ? null : new PackageKey(id, version);
+  }
+
+  /**
+   * @param pathInfo path of the request relative to the feed root
+   * @return package key or null if the path does not address a single package
+   */
+  @Nullable
+  public static PackageKey fromPath(@Nullable final String pathInfo) {
+    if (pathInfo == null) return null;
+    final Matcher matcher = PACKAGE_PATH.matcher(pathInfo);
+    if (!matcher.matches()) return null;
+
+    try {
+      //'+' is a part of semantic versions, it is not an encoded space in the path
+      return fromEntityKey(OEntityKey.parse(URLDecoder.decode(matcher.group(1).replace("+", "%2B"), "UTF-8")));
+    } catch (UnsupportedEncodingException e) {
+      return null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MetadataConstants.ENTITY_SET_NAME + "(Id='" + myId + "',Version='" + myVersion + "')";
+  }
+}
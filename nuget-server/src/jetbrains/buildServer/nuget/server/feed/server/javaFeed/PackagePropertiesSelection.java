@@ -0,0 +1,132 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.javaFeed;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.odata4j.edm.EdmProperty;
+import org.odata4j.edm.EdmStructuralType;
+import org.odata4j.expression.EntitySimpleProperty;
+import org.odata4j.producer.PropertyPathHelper;
+import org.odata4j.producer.QueryInfo;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * $select of a feed request.
+ * Selected properties of the entity type are found once per request, so only they are read from
+ * package entities and written to the response.
+ * Also counts properties left out of the response to report saved bytes.
+ */
+public class PackagePropertiesSelection extends PropertyPathHelper {
+  @Nullable private final Set<String> mySelectedNames;
+  @Nullable private EdmStructuralType myType;
+  @Nullable private List<EdmProperty> mySelectedProperties;
+
+  private int myEntitiesCount;
+  private long myWrittenPropertiesCount;
+  private long mySkippedPropertiesCount;
+  private long mySkippedBytes;
+
+  public PackagePropertiesSelection(@Nullable final QueryInfo queryInfo) {
+    super(queryInfo);
+    mySelectedNames = getSelectedNames(queryInfo);
+  }
+
+  /**
+   * @return true if $select limits properties of entities
+   */
+  public boolean isLimited() {
+    return mySelectedNames != null && getCurrentNavPath().isEmpty();
+  }
+
+  /**
+   * @param type entity type
+   * @return selected simple properties in the order of the entity type
+   * or null if the selection could not be applied to the type
+   */
+  @Nullable
+  public List<EdmProperty> getSelectedProperties(@NotNull final EdmStructuralType type) {
+    if (mySelectedNames == null) return null;
+    if (myType == type) return mySelectedProperties;
+
+    List<EdmProperty> properties = new ArrayList<EdmProperty>(mySelectedNames.size());
+    for (EdmProperty property : type.getProperties()) {
+      if (!mySelectedNames.contains(property.getName())) continue;
+      if (property.getCollectionKind() != EdmProperty.CollectionKind.NONE || !property.getType().isSimple()) {
+        properties = null;
+        break;
+      }
+      properties.add(property);
+    }
+
+    myType = type;
+    mySelectedProperties = properties;
+    return properties;
+  }
+
+  /**
+   * Counts properties of the entity left out of the response
+   * @param entity written entity
+   * @param type entity type
+   * @param selectedCount number of written properties
+   */
+  public void onEntityWritten(@NotNull final Object entity, @NotNull final EdmStructuralType type, final int selectedCount) {
+    if (mySelectedNames == null) return;
+
+    myEntitiesCount++;
+    myWrittenPropertiesCount += selectedCount;
+    for (EdmProperty property : type.getProperties()) {
+      final String name = property.getName();
+      if (mySelectedNames.contains(name)) continue;
+
+      mySkippedPropertiesCount++;
+      //<d:Name>value</d:Name>
+      mySkippedBytes += 2 * name.length() + 9;
+      if (entity instanceof PackageEntityEx) {
+        mySkippedBytes += ((PackageEntityEx) entity).getValueLength(name);
+      }
+    }
+  }
+
+  @NotNull
+  public String getStatistics() {
+    return String.format("$select=%s: written %d properties of %d entities, skipped %d properties, about %d bytes saved",
+            mySelectedNames, myWrittenPropertiesCount, myEntitiesCount, mySkippedPropertiesCount, mySkippedBytes);
+  }
+
+  /**
+   * @return names of selected properties or null if all properties are selected
+   * or the selection is processed by odata4j
+   */
+  @Nullable
+  private static Set<String> getSelectedNames(@Nullable final QueryInfo queryInfo) {
+    if (queryInfo == null || queryInfo.select == null || queryInfo.select.isEmpty()) return null;
+
+    final Set<String> names = new HashSet<String>();
+    for (EntitySimpleProperty property : queryInfo.select) {
+      final String name = property.getPropertyName();
+      //wildcards and navigation paths
+      if (name.contains("*") || name.contains("/")) return null;
+      names.add(name);
+    }
+    return names;
+  }
+}
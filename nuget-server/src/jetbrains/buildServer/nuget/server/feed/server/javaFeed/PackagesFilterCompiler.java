@@ -0,0 +1,395 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.javaFeed;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.entity.PackageEntity;
+import org.core4j.Func1;
+import org.core4j.Predicate1;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.odata4j.expression.*;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+
+/**
+ * Compiles $filter expressions into predicates over typed properties of package entities,
+ * so the filter is not interpreted with reflection for every entity.
+ *
+ * Supported are eq, ne, and, or, not, tolower, toupper, substringof, startswith, endswith,
+ * string and boolean literals and the most used string and boolean properties.
+ * Compiled predicates are cached by the normalized filter text.
+ * Other expressions are left to the in-memory producer.
+ */
+public class PackagesFilterCompiler {
+  private static final Logger LOG = Logger.getInstance(PackagesFilterCompiler.class.getName());
+  private static final int MAX_CACHED_FILTERS = 256;
+
+  private static final Map<String, Func1<PackageEntity, String>> STRING_PROPERTIES = new HashMap<String, Func1<PackageEntity, String>>();
+  private static final Map<String, Func1<PackageEntity, Boolean>> BOOLEAN_PROPERTIES = new HashMap<String, Func1<PackageEntity, Boolean>>();
+
+  static {
+    STRING_PROPERTIES.put(ID, new Func1<PackageEntity, String>() {
+      public String apply(PackageEntity entity) {
+        return entity.getId();
+      }
+    });
+    STRING_PROPERTIES.put(VERSION, new Func1<PackageEntity, String>() {
+      public String apply(PackageEntity entity) {
+        return entity.getVersion();
+      }
+    });
+    STRING_PROPERTIES.put(NORMALIZED_VERSION, new Func1<PackageEntity, String>() {
+      public String apply(PackageEntity entity) {
+        return entity.getNormalizedVersion();
+      }
+    });
+    STRING_PROPERTIES.put(TITLE, new Func1<PackageEntity, String>() {
+      public String apply(PackageEntity entity) {
+        return entity.getTitle();
+      }
+    });
+    STRING_PROPERTIES.put(TAGS, new Func1<PackageEntity, String>() {
+      public String apply(PackageEntity entity) {
+        return entity.getTags();
+      }
+    });
+    STRING_PROPERTIES.put(DESCRIPTION, new Func1<PackageEntity, String>() {
+      public String apply(PackageEntity entity) {
+        return entity.getDescription();
+      }
+    });
+    STRING_PROPERTIES.put(AUTHORS, new Func1<PackageEntity, String>() {
+      public String apply(PackageEntity entity) {
+        return entity.getAuthors();
+      }
+    });
+
+    BOOLEAN_PROPERTIES.put(IS_LATEST_VERSION, new Func1<PackageEntity, Boolean>() {
+      public Boolean apply(PackageEntity entity) {
+        return entity.getIsLatestVersion();
+      }
+    });
+    BOOLEAN_PROPERTIES.put(IS_ABSOLUTE_LATEST_VERSION, new Func1<PackageEntity, Boolean>() {
+      public Boolean apply(PackageEntity entity) {
+        return entity.getIsAbsoluteLatestVersion();
+      }
+    });
+    BOOLEAN_PROPERTIES.put(IS_PRERELEASE, new Func1<PackageEntity, Boolean>() {
+      public Boolean apply(PackageEntity entity) {
+        return entity.getIsPrerelease();
+      }
+    });
+  }
+
+  private final Map<String, Predicate1<PackageEntity>> myCache = new LinkedHashMap<String, Predicate1<PackageEntity>>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Predicate1<PackageEntity>> eldest) {
+      return size() > MAX_CACHED_FILTERS;
+    }
+  };
+
+  /**
+   * @param filter $filter expression
+   * @return predicate equivalent to the filter or null if the filter should be evaluated by the in-memory producer
+   */
+  @Nullable
+  public Predicate1<PackageEntity> compile(@Nullable final BoolCommonExpression filter) {
+    if (filter == null) return null;
+
+    final StringBuilder text = new StringBuilder();
+    if (!appendFilter(filter, text)) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Filter is not supported by the compiler and is evaluated by the producer: " + Expression.asPrintString(filter));
+      }
+      return null;
+    }
+
+    final String key = text.toString();
+    synchronized (myCache) {
+      final Predicate1<PackageEntity> cached = myCache.get(key);
+      if (cached != null) return cached;
+    }
+
+    final Predicate1<PackageEntity> predicate = compileFilter(filter);
+    if (predicate == null) return null;
+
+    LOG.debug("Compiled filter " + key);
+    synchronized (myCache) {
+      myCache.put(key, predicate);
+    }
+    return predicate;
+  }
+
+  /**
+   * Writes normalized text of the filter: parentheses are explicit and literals are quoted
+   * @return false if the filter could not be compiled
+   */
+  private static boolean appendFilter(@NotNull final CommonExpression expression, @NotNull final StringBuilder text) {
+    if (expression instanceof BoolParenExpression) {
+      return appendFilter(((BoolParenExpression) expression).getExpression(), text);
+    }
+    if (expression instanceof AndExpression || expression instanceof OrExpression) {
+      final BinaryBoolCommonExpression binary = (BinaryBoolCommonExpression) expression;
+      text.append('(');
+      if (!appendFilter(binary.getLHS(), text)) return false;
+      text.append(expression instanceof AndExpression ? " and " : " or ");
+      if (!appendFilter(binary.getRHS(), text)) return false;
+      text.append(')');
+      return true;
+    }
+    if (expression instanceof NotExpression) {
+      text.append("not(");
+      if (!appendFilter(((NotExpression) expression).getExpression(), text)) return false;
+      text.append(')');
+      return true;
+    }
+    if (expression instanceof EqExpression || expression instanceof NeExpression) {
+      final BinaryCommonExpression binary = (BinaryCommonExpression) expression;
+      final String operator = expression instanceof EqExpression ? " eq " : " ne ";
+      if (isStringValue(binary.getLHS()) && isStringValue(binary.getRHS())) {
+        text.append('(');
+        appendStringValue(binary.getLHS(), text);
+        text.append(operator);
+        appendStringValue(binary.getRHS(), text);
+        text.append(')');
+        return true;
+      }
+      if (isBooleanValue(binary.getLHS()) && isBooleanValue(binary.getRHS())) {
+        text.append('(');
+        appendBooleanValue(binary.getLHS(), text);
+        text.append(operator);
+        appendBooleanValue(binary.getRHS(), text);
+        text.append(')');
+        return true;
+      }
+      return false;
+    }
+    if (isStringMethod(expression)) {
+      final BoolMethodExpression method = (BoolMethodExpression) expression;
+      if (!isStringValue(method.getTarget()) || !isStringValue(method.getValue())) return false;
+      text.append(getMethodName(method)).append('(');
+      appendStringValue(method.getTarget(), text);
+      text.append(", ");
+      appendStringValue(method.getValue(), text);
+      text.append(')');
+      return true;
+    }
+    if (isBooleanValue(expression)) {
+      appendBooleanValue(expression, text);
+      return true;
+    }
+    return false;
+  }
+
+  private static boolean isStringValue(@NotNull final CommonExpression expression) {
+    if (expression instanceof StringLiteral) return true;
+    if (expression instanceof EntitySimpleProperty) {
+      return STRING_PROPERTIES.containsKey(((EntitySimpleProperty) expression).getPropertyName());
+    }
+    if (expression instanceof ToLowerMethodCallExpression) {
+      return isStringValue(((ToLowerMethodCallExpression) expression).getTarget());
+    }
+    if (expression instanceof ToUpperMethodCallExpression) {
+      return isStringValue(((ToUpperMethodCallExpression) expression).getTarget());
+    }
+    return false;
+  }
+
+  private static void appendStringValue(@NotNull final CommonExpression expression, @NotNull final StringBuilder text) {
+    if (expression instanceof StringLiteral) {
+      text.append('\'').append(((StringLiteral) expression).getValue().replace("'", "''")).append('\'');
+    } else if (expression instanceof EntitySimpleProperty) {
+      text.append(((EntitySimpleProperty) expression).getPropertyName());
+    } else if (expression instanceof ToLowerMethodCallExpression) {
+      text.append("tolower(");
+      appendStringValue(((ToLowerMethodCallExpression) expression).getTarget(), text);
+      text.append(')');
+    } else if (expression instanceof ToUpperMethodCallExpression) {
+      text.append("toupper(");
+      appendStringValue(((ToUpperMethodCallExpression) expression).getTarget(), text);
+      text.append(')');
+    }
+  }
+
+  private static boolean isBooleanValue(@NotNull final CommonExpression expression) {
+    if (expression instanceof BooleanLiteral) return true;
+    if (expression instanceof EntitySimpleProperty) {
+      return BOOLEAN_PROPERTIES.containsKey(((EntitySimpleProperty) expression).getPropertyName());
+    }
+    return false;
+  }
+
+  private static void appendBooleanValue(@NotNull final CommonExpression expression, @NotNull final StringBuilder text) {
+    if (expression instanceof BooleanLiteral) {
+      text.append(((BooleanLiteral) expression).getValue());
+    } else {
+      text.append(((EntitySimpleProperty) expression).getPropertyName());
+    }
+  }
+
+  private static boolean isStringMethod(@NotNull final CommonExpression expression) {
+    return expression instanceof SubstringOfMethodCallExpression
+            || expression instanceof StartsWithMethodCallExpression
+            || expression instanceof EndsWithMethodCallExpression;
+  }
+
+  @NotNull
+  private static String getMethodName(@NotNull final BoolMethodExpression method) {
+    if (method instanceof SubstringOfMethodCallExpression) return "substringof";
+    if (method instanceof StartsWithMethodCallExpression) return "startswith";
+    return "endswith";
+  }
+
+  /**
+   * Follows evaluation rules of {@link org.odata4j.producer.inmemory.InMemoryEvaluation}
+   * @return predicate or null if the expression could not be compiled
+   */
+  @Nullable
+  private static Predicate1<PackageEntity> compileFilter(@NotNull final CommonExpression expression) {
+    if (expression instanceof BoolParenExpression) {
+      return compileFilter(((BoolParenExpression) expression).getExpression());
+    }
+    if (expression instanceof AndExpression) {
+      final Predicate1<PackageEntity> lhs = compileFilter(((AndExpression) expression).getLHS());
+      final Predicate1<PackageEntity> rhs = compileFilter(((AndExpression) expression).getRHS());
+      if (lhs == null || rhs == null) return null;
+      return new Predicate1<PackageEntity>() {
+        public boolean apply(PackageEntity entity) {
+          return lhs.apply(entity) && rhs.apply(entity);
+        }
+      };
+    }
+    if (expression instanceof OrExpression) {
+      final Predicate1<PackageEntity> lhs = compileFilter(((OrExpression) expression).getLHS());
+      final Predicate1<PackageEntity> rhs = compileFilter(((OrExpression) expression).getRHS());
+      if (lhs == null || rhs == null) return null;
+      return new Predicate1<PackageEntity>() {
+        public boolean apply(PackageEntity entity) {
+          return lhs.apply(entity) || rhs.apply(entity);
+        }
+      };
+    }
+    if (expression instanceof NotExpression) {
+      final Predicate1<PackageEntity> inner = compileFilter(((NotExpression) expression).getExpression());
+      if (inner == null) return null;
+      return new Predicate1<PackageEntity>() {
+        public boolean apply(PackageEntity entity) {
+          return !inner.apply(entity);
+        }
+      };
+    }
+    if (expression instanceof EqExpression || expression instanceof NeExpression) {
+      final BinaryCommonExpression binary = (BinaryCommonExpression) expression;
+      final Func1<PackageEntity, ?> lhs = compileValue(binary.getLHS());
+      final Func1<PackageEntity, ?> rhs = compileValue(binary.getRHS());
+      if (lhs == null || rhs == null) return null;
+      final boolean equals = expression instanceof EqExpression;
+      return new Predicate1<PackageEntity>() {
+        public boolean apply(PackageEntity entity) {
+          final Object lhsValue = lhs.apply(entity);
+          final Object rhsValue = rhs.apply(entity);
+          return equals == (lhsValue == null ? rhsValue == null : lhsValue.equals(rhsValue));
+        }
+      };
+    }
+    if (isStringMethod(expression)) {
+      final BoolMethodExpression method = (BoolMethodExpression) expression;
+      final Func1<PackageEntity, String> target = compileStringValue(method.getTarget());
+      final Func1<PackageEntity, String> value = compileStringValue(method.getValue());
+      if (target == null || value == null) return null;
+      final boolean substringOf = method instanceof SubstringOfMethodCallExpression;
+      final boolean startsWith = method instanceof StartsWithMethodCallExpression;
+      return new Predicate1<PackageEntity>() {
+        public boolean apply(PackageEntity entity) {
+          final String targetValue = target.apply(entity);
+          final String searchValue = value.apply(entity);
+          if (targetValue == null || searchValue == null) return false;
+          if (substringOf) return targetValue.contains(searchValue);
+          if (startsWith) return targetValue.startsWith(searchValue);
+          return targetValue.endsWith(searchValue);
+        }
+      };
+    }
+    final Func1<PackageEntity, Boolean> value = compileBooleanValue(expression);
+    if (value == null) return null;
+    return new Predicate1<PackageEntity>() {
+      public boolean apply(PackageEntity entity) {
+        return Boolean.TRUE.equals(value.apply(entity));
+      }
+    };
+  }
+
+  @Nullable
+  private static Func1<PackageEntity, ?> compileValue(@NotNull final CommonExpression expression) {
+    if (isStringValue(expression)) return compileStringValue(expression);
+    if (isBooleanValue(expression)) return compileBooleanValue(expression);
+    return null;
+  }
+
+  @Nullable
+  private static Func1<PackageEntity, String> compileStringValue(@NotNull final CommonExpression expression) {
+    if (expression instanceof StringLiteral) {
+      final String value = ((StringLiteral) expression).getValue();
+      return new Func1<PackageEntity, String>() {
+        public String apply(PackageEntity entity) {
+          return value;
+        }
+      };
+    }
+    if (expression instanceof EntitySimpleProperty) {
+      return STRING_PROPERTIES.get(((EntitySimpleProperty) expression).getPropertyName());
+    }
+    if (expression instanceof ToLowerMethodCallExpression || expression instanceof ToUpperMethodCallExpression) {
+      final boolean toLower = expression instanceof ToLowerMethodCallExpression;
+      final Func1<PackageEntity, String> target = compileStringValue(toLower
+              ? ((ToLowerMethodCallExpression) expression).getTarget()
+              : ((ToUpperMethodCallExpression) expression).getTarget());
+      if (target == null) return null;
+      return new Func1<PackageEntity, String>() {
+        public String apply(PackageEntity entity) {
+          final String value = target.apply(entity);
+          if (value == null) return null;
+          //the same locale is used by the packages index, so packages found by the lookup are not lost
+          return toLower ? value.toLowerCase(Locale.ENGLISH) : value.toUpperCase(Locale.ENGLISH);
+        }
+      };
+    }
+    return null;
+  }
+
+  @Nullable
+  private static Func1<PackageEntity, Boolean> compileBooleanValue(@NotNull final CommonExpression expression) {
+    if (expression instanceof BooleanLiteral) {
+      final Boolean value = ((BooleanLiteral) expression).getValue();
+      return new Func1<PackageEntity, Boolean>() {
+        public Boolean apply(PackageEntity entity) {
+          return value;
+        }
+      };
+    }
+    if (expression instanceof EntitySimpleProperty) {
+      return BOOLEAN_PROPERTIES.get(((EntitySimpleProperty) expression).getPropertyName());
+    }
+    return null;
+  }
+}
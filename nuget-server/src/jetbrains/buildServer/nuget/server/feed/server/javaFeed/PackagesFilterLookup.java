@@ -0,0 +1,133 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.javaFeed;
+
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.odata4j.expression.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.IS_ABSOLUTE_LATEST_VERSION;
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.IS_LATEST_VERSION;
+
+/**
+ * Looks up packages which may satisfy $filter expression in the packages index.
+ * Only substringof and startswith predicates on package attributes are used to narrow
+ * the set of packages, the whole expression is still evaluated for found packages.
+ */
+public class PackagesFilterLookup {
+  @NotNull private final PackagesIndex myIndex;
+
+  public PackagesFilterLookup(@NotNull final PackagesIndex index) {
+    myIndex = index;
+  }
+
+  /**
+   * @param filter $filter expression
+   * @return lower case Ids of packages which may satisfy the filter or null if all packages should be checked
+   */
+  @Nullable
+  public Set<String> findPackageIds(@Nullable final CommonExpression filter) {
+    if (filter instanceof BoolParenExpression) {
+      return findPackageIds(((BoolParenExpression) filter).getExpression());
+    }
+
+    if (filter instanceof AndExpression) {
+      final AndExpression and = (AndExpression) filter;
+      final Set<String> lhs = findPackageIds(and.getLHS());
+      final Set<String> rhs = findPackageIds(and.getRHS());
+      if (lhs == null) return rhs;
+      if (rhs == null) return lhs;
+
+      final Set<String> result = new HashSet<String>(lhs.size() < rhs.size() ? lhs : rhs);
+      result.retainAll(lhs.size() < rhs.size() ? rhs : lhs);
+      return result;
+    }
+
+    if (filter instanceof OrExpression) {
+      final OrExpression or = (OrExpression) filter;
+      final Set<String> lhs = findPackageIds(or.getLHS());
+      if (lhs == null) return null;
+      final Set<String> rhs = findPackageIds(or.getRHS());
+      if (rhs == null) return null;
+
+      final Set<String> result = new HashSet<String>(lhs);
+      result.addAll(rhs);
+      return result;
+    }
+
+    if (filter instanceof SubstringOfMethodCallExpression || filter instanceof StartsWithMethodCallExpression) {
+      final BoolMethodExpression method = (BoolMethodExpression) filter;
+      final String attribute = getPropertyName(method.getTarget());
+      final CommonExpression value = method.getValue();
+      if (attribute == null || !(value instanceof StringLiteral)) return null;
+      return myIndex.findPackageIdsContaining(attribute, ((StringLiteral) value).getValue());
+    }
+
+    return null;
+  }
+
+  /**
+   * @param filter $filter expression
+   * @return true if only entries of latest or absolute latest versions of packages may satisfy the filter
+   */
+  public static boolean isLatestVersionsOnly(@Nullable final CommonExpression filter) {
+    if (filter instanceof BoolParenExpression) {
+      return isLatestVersionsOnly(((BoolParenExpression) filter).getExpression());
+    }
+
+    if (filter instanceof AndExpression) {
+      final AndExpression and = (AndExpression) filter;
+      return isLatestVersionsOnly(and.getLHS()) || isLatestVersionsOnly(and.getRHS());
+    }
+
+    if (filter instanceof OrExpression) {
+      final OrExpression or = (OrExpression) filter;
+      return isLatestVersionsOnly(or.getLHS()) && isLatestVersionsOnly(or.getRHS());
+    }
+
+    if (filter instanceof EqExpression) {
+      final EqExpression eq = (EqExpression) filter;
+      return isTrue(eq.getRHS()) && isLatestVersionsOnly(eq.getLHS()) || isTrue(eq.getLHS()) && isLatestVersionsOnly(eq.getRHS());
+    }
+
+    if (filter instanceof EntitySimpleProperty) {
+      final String name = ((EntitySimpleProperty) filter).getPropertyName();
+      return IS_LATEST_VERSION.equals(name) || IS_ABSOLUTE_LATEST_VERSION.equals(name);
+    }
+
+    return false;
+  }
+
+  private static boolean isTrue(@Nullable final CommonExpression expression) {
+    return expression instanceof BooleanLiteral && ((BooleanLiteral) expression).getValue();
+  }
+
+  @Nullable
+  private static String getPropertyName(@Nullable CommonExpression target) {
+    if (target instanceof ToLowerMethodCallExpression) {
+      target = ((ToLowerMethodCallExpression) target).getTarget();
+    }
+    if (target instanceof EntitySimpleProperty) {
+      return ((EntitySimpleProperty) target).getPropertyName();
+    }
+    return null;
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.javaFeed;
+
+import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.joda.time.LocalDateTime;
+import org.odata4j.expression.EntitySimpleProperty;
+import org.odata4j.expression.OrderByExpression;
+
+import java.util.*;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+
+/**
+ * Compiles $orderby expressions into comparators over typed values of index entries,
+ * so entries are not wrapped into package entities and properties are not evaluated with reflection on every comparison.
+ *
+ * Supported are ascending and descending orders by Id, Version, LastUpdated, Published, Created,
+ * DownloadCount and VersionDownloadCount properties. Id and Version are compared as strings,
+ * the same way as the in-memory producer orders package entities, so a page is the same whichever way it is selected.
+ * Other expressions are evaluated for package entities.
+ */
+public class PackagesOrderCompiler {
+  private static final Map<String, Comparator<NuGetIndexEntry>> PROPERTIES = new HashMap<String, Comparator<NuGetIndexEntry>>();
+
+  static {
+    PROPERTIES.put(ID, new Comparator<NuGetIndexEntry>() {
+      public int compare(@NotNull NuGetIndexEntry o1, @NotNull NuGetIndexEntry o2) {
+        return getValue(o1, ID).compareTo(getValue(o2, ID));
+      }
+    });
+    PROPERTIES.put(VERSION, new Comparator<NuGetIndexEntry>() {
+      public int compare(@NotNull NuGetIndexEntry o1, @NotNull NuGetIndexEntry o2) {
+        return getValue(o1, VERSION).compareTo(getValue(o2, VERSION));
+      }
+    });
+
+    //publication dates of a package are reported as its last update date
+    final Comparator<NuGetIndexEntry> lastUpdated = new Comparator<NuGetIndexEntry>() {
+      public int compare(@NotNull NuGetIndexEntry o1, @NotNull NuGetIndexEntry o2) {
+        return getLastUpdated(o1).compareTo(getLastUpdated(o2));
+      }
+    };
+    PROPERTIES.put(LAST_UPDATED, lastUpdated);
+    PROPERTIES.put("Published", lastUpdated);
+    PROPERTIES.put("Created", lastUpdated);
+
+    //download counts are not tracked, all packages report the same value
+    final Comparator<NuGetIndexEntry> same = new Comparator<NuGetIndexEntry>() {
+      public int compare(@NotNull NuGetIndexEntry o1, @NotNull NuGetIndexEntry o2) {
+        return 0;
+      }
+    };
+    PROPERTIES.put("DownloadCount", same);
+    PROPERTIES.put("VersionDownloadCount", same);
+  }
+
+  private PackagesOrderCompiler() {
+  }
+
+  /**
+   * @param orderBy $orderby expressions
+   * @return comparator equivalent to the expressions or null if they should be evaluated for package entities
+   */
+  @Nullable
+  public static Comparator<NuGetIndexEntry> compile(@Nullable final List<OrderByExpression> orderBy) {
+    if (orderBy == null || orderBy.isEmpty()) return null;
+
+    final List<Comparator<NuGetIndexEntry>> comparators = new ArrayList<Comparator<NuGetIndexEntry>>(orderBy.size());
+    for (OrderByExpression expression : orderBy) {
+      if (!(expression.getExpression() instanceof EntitySimpleProperty)) return null;
+      final Comparator<NuGetIndexEntry> property = PROPERTIES.get(((EntitySimpleProperty) expression.getExpression()).getPropertyName());
+      if (property == null) return null;
+
+      comparators.add(expression.getDirection() == OrderByExpression.Direction.ASCENDING ? property : Collections.reverseOrder(property));
+    }
+    if (comparators.size() == 1) return comparators.get(0);
+
+    return new Comparator<NuGetIndexEntry>() {
+      public int compare(@NotNull NuGetIndexEntry o1, @NotNull NuGetIndexEntry o2) {
+        for (Comparator<NuGetIndexEntry> comparator : comparators) {
+          final int cmp = comparator.compare(o1, o2);
+          if (cmp != 0) return cmp;
+        }
+        return 0;
+      }
+    };
+  }
+
+  @NotNull
+  private static String getValue(@NotNull final NuGetIndexEntry entry, @NotNull final String attribute) {
+    final String value = entry.getAttributes().get(attribute);
+    return value == null ? "" : value;
+  }
+
+  @NotNull
+  private static LocalDateTime getLastUpdated(@NotNull final NuGetIndexEntry entry) {
+    return entry.getTypedValues().getLastUpdated(entry.getAttributes().get(LAST_UPDATED));
+  }
+}
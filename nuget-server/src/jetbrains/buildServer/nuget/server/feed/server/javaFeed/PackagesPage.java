@@ -0,0 +1,188 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.javaFeed;
+
+import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesQuery;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.entity.PackageEntity;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.odata4j.expression.BoolCommonExpression;
+import org.odata4j.expression.OrderByExpression;
+import org.odata4j.producer.InlineCount;
+import org.odata4j.producer.QueryInfo;
+import org.odata4j.producer.inmemory.InMemoryEvaluation;
+import org.odata4j.producer.inmemory.PropertyModel;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Packages of the feed requested by a query.
+ * If the whole $filter is checked in the packages index, the page requested by $orderby, $skip and $top
+ * is selected in the index too, so entries out of the page are not sorted and built.
+ * Otherwise all packages matching the index query are passed to the producer.
+ */
+public class PackagesPage {
+  @NotNull private final PackagesQuery myQuery;
+  @Nullable private final Comparator<PackageEntity> myOrder;
+  @Nullable private final Comparator<NuGetIndexEntry> myEntriesOrder;
+  private final int mySkip;
+  private final int myCount;
+  @NotNull private final QueryInfo myProducerQuery;
+
+  private PackagesPage(@NotNull final PackagesQuery query,
+                       @Nullable final Comparator<PackageEntity> order,
+                       @Nullable final Comparator<NuGetIndexEntry> entriesOrder,
+                       final int skip,
+                       final int count,
+                       @NotNull final QueryInfo producerQuery) {
+    myQuery = query;
+    myOrder = order;
+    myEntriesOrder = entriesOrder;
+    mySkip = skip;
+    myCount = count;
+    myProducerQuery = producerQuery;
+  }
+
+  /**
+   * @return conditions on packages checked in the index
+   */
+  @NotNull
+  public PackagesQuery getQuery() {
+    return myQuery;
+  }
+
+  /**
+   * @return order of entities or null if entities are requested in the index order or the order is compiled for index entries
+   */
+  @Nullable
+  public Comparator<PackageEntity> getOrder() {
+    return myOrder;
+  }
+
+  /**
+   * @return order compiled for index entries or null if entities are requested in the index order
+   * or the order is evaluated for package entities
+   * @see PackagesOrderCompiler
+   */
+  @Nullable
+  public Comparator<NuGetIndexEntry> getEntriesOrder() {
+    return myEntriesOrder;
+  }
+
+  public int getSkip() {
+    return mySkip;
+  }
+
+  public int getCount() {
+    return myCount;
+  }
+
+  /**
+   * @return the rest of the query to be processed by the producer for selected entities
+   */
+  @NotNull
+  public QueryInfo getProducerQuery() {
+    return myProducerQuery;
+  }
+
+  /**
+   * @param plan plan of the query $filter
+   * @param queryInfo query to process
+   * @param maxResults max number of entities returned by the producer
+   * @param properties properties of entities to order by
+   * @return packages requested by the query
+   */
+  @NotNull
+  public static PackagesPage create(@NotNull final PackagesQueryPlanner.Plan plan,
+                                    @NotNull final QueryInfo queryInfo,
+                                    final int maxResults,
+                                    @NotNull final PropertyModel properties) {
+    final BoolCommonExpression residualFilter = plan.getResidualFilter();
+    //the index groups entries by Id ignoring case, so the order by Id is always evaluated as for strings
+    final List<OrderByExpression> orderBy = queryInfo.orderBy;
+
+    //inline count is computed for all entities, so the page is selected by the producer
+    if (residualFilter != null || queryInfo.skipToken != null || queryInfo.inlineCount == InlineCount.ALLPAGES) {
+      return new PackagesPage(plan.getQuery(), null, null, 0, Integer.MAX_VALUE, new QueryInfo(
+              queryInfo.inlineCount, queryInfo.top, queryInfo.skip, residualFilter, orderBy,
+              queryInfo.skipToken, queryInfo.customOptions, queryInfo.expand, queryInfo.select));
+    }
+
+    int limit = maxResults;
+    if (queryInfo.top != null && queryInfo.top < limit) {
+      limit = queryInfo.top;
+    }
+    //one more entity is taken by the producer to check whether the next page exists
+    final int count = Math.max(0, limit) + 1;
+    final int skip = queryInfo.skip == null ? 0 : Math.max(0, queryInfo.skip);
+    final Comparator<NuGetIndexEntry> entriesOrder = PackagesOrderCompiler.compile(orderBy);
+    final Comparator<PackageEntity> order = orderBy == null || entriesOrder != null ? null : new EntitiesOrder(orderBy, properties);
+
+    return new PackagesPage(plan.getQuery(), order, entriesOrder, skip, count, new QueryInfo(
+            queryInfo.inlineCount, queryInfo.top, null, null, null,
+            null, queryInfo.customOptions, queryInfo.expand, queryInfo.select));
+  }
+
+  /**
+   * @return true if the page is selected in the index
+   */
+  public boolean isSelectedInIndex() {
+    return myCount != Integer.MAX_VALUE;
+  }
+
+  @Override
+  public String toString() {
+    return "PackagesPage{" +
+            "query=" + myQuery +
+            ", order=" + (myEntriesOrder != null ? myEntriesOrder : myOrder) +
+            ", skip=" + mySkip +
+            ", count=" + myCount +
+            '}';
+  }
+
+  /**
+   * Compares entities the same way as $orderby is applied by the in-memory producer
+   */
+  private static class EntitiesOrder implements Comparator<PackageEntity> {
+    private final List<OrderByExpression> myOrderBy;
+    private final PropertyModel myProperties;
+
+    private EntitiesOrder(@NotNull final List<OrderByExpression> orderBy, @NotNull final PropertyModel properties) {
+      myOrderBy = orderBy;
+      myProperties = properties;
+    }
+
+    @SuppressWarnings("unchecked")
+    public int compare(@NotNull PackageEntity o1, @NotNull PackageEntity o2) {
+      for (OrderByExpression orderBy : myOrderBy) {
+        final Comparable lhs = (Comparable) InMemoryEvaluation.evaluate(orderBy.getExpression(), o1, myProperties);
+        final Comparable rhs = (Comparable) InMemoryEvaluation.evaluate(orderBy.getExpression(), o2, myProperties);
+        //null values go first
+        final int cmp = lhs == null ? (rhs == null ? 0 : -1) : rhs == null ? 1 : lhs.compareTo(rhs);
+        if (cmp != 0) return orderBy.getDirection() == OrderByExpression.Direction.ASCENDING ? cmp : -cmp;
+      }
+      return 0;
+    }
+
+    @Override
+    public String toString() {
+      return myOrderBy.toString();
+    }
+  }
+}
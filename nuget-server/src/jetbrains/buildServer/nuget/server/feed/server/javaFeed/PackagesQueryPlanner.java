@@ -0,0 +1,197 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.javaFeed;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.nuget.server.feed.server.PackageAttributes;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesQuery;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.odata4j.expression.*;
+
+import java.util.*;
+
+/**
+ * Splits $filter expression into conditions checked in the packages index
+ * and a residual expression evaluated by the producer for found packages.
+ *
+ * Conjuncts like Id eq 'x', Version eq 'x', IsLatestVersion, IsAbsoluteLatestVersion
+ * and LastUpdated gt datetime'x' are checked in the index and removed from the filter.
+ * The residual expression is still used to narrow the set of packages to check.
+ */
+public class PackagesQueryPlanner {
+  private static final Logger LOG = Logger.getInstance(PackagesQueryPlanner.class.getName());
+
+  @NotNull private final PackagesFilterLookup myFilterLookup;
+
+  public PackagesQueryPlanner(@NotNull final PackagesFilterLookup filterLookup) {
+    myFilterLookup = filterLookup;
+  }
+
+  /**
+   * @param filter $filter expression
+   * @return query to the packages index and residual filter
+   */
+  @NotNull
+  public Plan plan(@Nullable final BoolCommonExpression filter) {
+    final PackagesQuery query = new PackagesQuery();
+    if (filter == null) return new Plan(query, null);
+
+    final List<BoolCommonExpression> conjuncts = new ArrayList<BoolCommonExpression>();
+    collectConjuncts(filter, conjuncts);
+
+    final List<String> indexConditions = new ArrayList<String>();
+    BoolCommonExpression residual = null;
+    for (BoolCommonExpression conjunct : conjuncts) {
+      if (addIndexCondition(conjunct, query)) {
+        indexConditions.add(Expression.asPrintString(conjunct));
+      } else {
+        residual = residual == null ? conjunct : Expression.and(residual, conjunct);
+      }
+    }
+
+    Set<String> packageIds = query.getId() == null ? null : Collections.singleton(query.getId().toLowerCase(Locale.ENGLISH));
+    if (residual != null) {
+      packageIds = intersect(packageIds, myFilterLookup.findPackageIds(residual));
+      query.setLatestVersionsOnly(PackagesFilterLookup.isLatestVersionsOnly(residual));
+    }
+    query.setPackageIds(packageIds);
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(String.format("Planned $filter=%s: %s, index conditions: %s, residual filter: %s",
+              Expression.asPrintString(filter), query, indexConditions, residual == null ? null : Expression.asPrintString(residual)));
+    }
+    return new Plan(query, residual);
+  }
+
+  private static void collectConjuncts(@NotNull final BoolCommonExpression filter, @NotNull final List<BoolCommonExpression> result) {
+    if (filter instanceof BoolParenExpression) {
+      final CommonExpression expression = ((BoolParenExpression) filter).getExpression();
+      if (expression instanceof BoolCommonExpression) {
+        collectConjuncts((BoolCommonExpression) expression, result);
+        return;
+      }
+    }
+    if (filter instanceof AndExpression) {
+      final AndExpression and = (AndExpression) filter;
+      collectConjuncts(and.getLHS(), result);
+      collectConjuncts(and.getRHS(), result);
+      return;
+    }
+    result.add(filter);
+  }
+
+  /**
+   * @return true if the condition is added to the query and should not be checked by the producer
+   */
+  private static boolean addIndexCondition(@NotNull final BoolCommonExpression conjunct, @NotNull final PackagesQuery query) {
+    if (conjunct instanceof EntitySimpleProperty) {
+      return addFlagCondition(((EntitySimpleProperty) conjunct).getPropertyName(), query);
+    }
+
+    if (conjunct instanceof EqExpression) {
+      final EqExpression eq = (EqExpression) conjunct;
+      final String property = getPropertyName(eq.getLHS()) != null ? getPropertyName(eq.getLHS()) : getPropertyName(eq.getRHS());
+      final CommonExpression value = getPropertyName(eq.getLHS()) != null ? eq.getRHS() : eq.getLHS();
+      if (property == null) return false;
+
+      if (value instanceof BooleanLiteral && ((BooleanLiteral) value).getValue()) {
+        return addFlagCondition(property, query);
+      }
+      if (value instanceof StringLiteral) {
+        final String text = ((StringLiteral) value).getValue();
+        if (PackageAttributes.ID.equals(property) && query.getId() == null) {
+          query.setId(text);
+          return true;
+        }
+        if (PackageAttributes.VERSION.equals(property) && query.getVersion() == null) {
+          query.setVersion(text);
+          return true;
+        }
+      }
+      return false;
+    }
+
+    if (conjunct instanceof GtExpression || conjunct instanceof LtExpression) {
+      final BinaryCommonExpression compare = (BinaryCommonExpression) conjunct;
+      //LastUpdated gt datetime'x' or datetime'x' lt LastUpdated
+      final CommonExpression property = conjunct instanceof GtExpression ? compare.getLHS() : compare.getRHS();
+      final CommonExpression value = conjunct instanceof GtExpression ? compare.getRHS() : compare.getLHS();
+      if (PackageAttributes.LAST_UPDATED.equals(getPropertyName(property))
+              && value instanceof DateTimeLiteral
+              && query.getLastUpdatedAfter() == null) {
+        query.setLastUpdatedAfter(((DateTimeLiteral) value).getValue());
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean addFlagCondition(@NotNull final String property, @NotNull final PackagesQuery query) {
+    if (PackageAttributes.IS_LATEST_VERSION.equals(property)) {
+      query.setLatestVersion(true);
+      return true;
+    }
+    if (PackageAttributes.IS_ABSOLUTE_LATEST_VERSION.equals(property)) {
+      query.setAbsoluteLatestVersion(true);
+      return true;
+    }
+    return false;
+  }
+
+  @Nullable
+  private static String getPropertyName(@Nullable final CommonExpression expression) {
+    return expression instanceof EntitySimpleProperty ? ((EntitySimpleProperty) expression).getPropertyName() : null;
+  }
+
+  @Nullable
+  private static Set<String> intersect(@Nullable final Set<String> lhs, @Nullable final Set<String> rhs) {
+    if (lhs == null) return rhs;
+    if (rhs == null) return lhs;
+
+    final Set<String> result = new HashSet<String>(lhs);
+    result.retainAll(rhs);
+    return result;
+  }
+
+  /**
+   * Query to the packages index with the filter left to be evaluated by the producer
+   */
+  public static class Plan {
+    @NotNull private final PackagesQuery myQuery;
+    @Nullable private final BoolCommonExpression myResidualFilter;
+
+    private Plan(@NotNull final PackagesQuery query, @Nullable final BoolCommonExpression residualFilter) {
+      myQuery = query;
+      myResidualFilter = residualFilter;
+    }
+
+    @NotNull
+    public PackagesQuery getQuery() {
+      return myQuery;
+    }
+
+    /**
+     * @return part of the filter which is not checked in the index or null if the index checks the whole filter
+     */
+    @Nullable
+    public BoolCommonExpression getResidualFilter() {
+      return myResidualFilter;
+    }
+  }
+}
@@ -23,10 +23,9 @@
 *****/
 package jetbrains.buildServer.nuget.server.feed.server.javaFeed.entity;
 
-import jetbrains.buildServer.nuget.server.feed.server.index.impl.ODataDataFormat;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackageTypedValues;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.joda.time.LocalDateTime;
 import org.odata4j.core.OAtomEntity;
 
 import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
@@ -112,31 +111,19 @@ public abstract class PackageEntityImpl  implements PackageEntityV2, OAtomEntity
 
   @NotNull
   public final java.lang.Boolean getIsLatestVersion(){ 
-    final String v = getValue(IS_LATEST_VERSION);
-    if (v == null) { 
-      return false;
-    }
-    return Boolean.valueOf(v);
+    return getTypedValues().getIsLatestVersion(getValue(IS_LATEST_VERSION));
   }
 
 
   @NotNull
   public final java.lang.Boolean getIsAbsoluteLatestVersion(){ 
-    final String v = getValue(IS_ABSOLUTE_LATEST_VERSION);
-    if (v == null) { 
-      return false;
-    }
-    return Boolean.valueOf(v);
+    return getTypedValues().getIsAbsoluteLatestVersion(getValue(IS_ABSOLUTE_LATEST_VERSION));
   }
 
 
   @NotNull
   public final java.lang.Boolean getIsPrerelease(){ 
-    final String v = getValue(IS_PRERELEASE);
-    if (v == null) { 
-      return false;
-    }
-    return Boolean.valueOf(v);
+    return getTypedValues().getIsPrerelease(getValue(IS_PRERELEASE));
   }
 
 
@@ -152,12 +139,7 @@ public abstract class PackageEntityImpl  implements PackageEntityV2, OAtomEntity
 
   @NotNull
   public final org.joda.time.LocalDateTime getLastUpdated(){ 
-    final String v = getValue(LAST_UPDATED);
-    if (v != null) {
-      final LocalDateTime date = ODataDataFormat.parseDate(v);
-      if (date != null) return date;
-    }
-    return new LocalDateTime();
+    return getTypedValues().getLastUpdated(getValue(LAST_UPDATED));
   }
 
 
@@ -193,11 +175,7 @@ public abstract class PackageEntityImpl  implements PackageEntityV2, OAtomEntity
 
   @NotNull
   public final java.lang.Long getPackageSize(){ 
-    final String v = getValue(PACKAGE_SIZE);
-    if (v == null) { 
-      return 0L;
-    }
-    return Long.parseLong(v);
+    return getTypedValues().getPackageSize(getValue(PACKAGE_SIZE));
   }
 
 
@@ -233,11 +211,7 @@ public abstract class PackageEntityImpl  implements PackageEntityV2, OAtomEntity
 
   @NotNull
   public final java.lang.Boolean getRequireLicenseAcceptance(){ 
-    final String v = getValue(REQUIRE_LICENSE_ACCEPTANCE);
-    if (v == null) { 
-      return false;
-    }
-    return Boolean.valueOf(v);
+    return getTypedValues().getRequireLicenseAcceptance(getValue(REQUIRE_LICENSE_ACCEPTANCE));
   }
 
 
@@ -284,6 +258,9 @@ public abstract class PackageEntityImpl  implements PackageEntityV2, OAtomEntity
   @Nullable
   protected abstract String getValue(@NotNull final String key);
 
+  @NotNull
+  protected abstract PackageTypedValues getTypedValues();
+
 
   public final java.lang.String getAtomEntityTitle() {
     return getId();
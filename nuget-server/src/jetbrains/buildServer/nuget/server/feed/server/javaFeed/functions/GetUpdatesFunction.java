@@ -29,6 +29,7 @@ import jetbrains.buildServer.nuget.server.util.FrameworkConstraints;
 import jetbrains.buildServer.nuget.server.util.SemanticVersion;
 import jetbrains.buildServer.nuget.server.util.VersionConstraint;
 import jetbrains.buildServer.nuget.server.util.VersionUtility;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.util.CollectionsUtil;
 import jetbrains.buildServer.util.Converter;
 import jetbrains.buildServer.util.StringUtil;
@@ -44,7 +45,9 @@ import org.odata4j.edm.EdmType;
 import org.odata4j.producer.QueryInfo;
 
 import java.util.*;
+import java.util.concurrent.*;
 
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.ID;
 import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.IS_PRERELEASE;
 
 /**
@@ -53,14 +56,22 @@ import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.I
 public class GetUpdatesFunction implements NuGetFeedFunction {
 
   private static final String COLLECTION_VALUE_SEPARATOR = "|";
+  private static final String PARALLEL_THRESHOLD_PROP_NAME = "teamcity.nuget.feed.getUpdates.parallelThreshold";
+  private static final int MIN_PACKAGES_PER_TASK = 20;
 
   @NotNull private final Logger LOG = Logger.getInstance(getClass().getName());
   @NotNull private final PackagesIndex myIndex;
   @NotNull private final NuGetServerSettings myServerSettings;
+  private final int myThreadsCount = Runtime.getRuntime().availableProcessors();
+  @NotNull private final ExecutorService myExecutor;
 
-  public GetUpdatesFunction(@NotNull PackagesIndex index, @NotNull NuGetServerSettings serverSettings) {
+  /**
+   * @param executor executor for computing updates of many packages in parallel, owned by the caller
+   */
+  public GetUpdatesFunction(@NotNull PackagesIndex index, @NotNull NuGetServerSettings serverSettings, @NotNull ExecutorService executor) {
     myIndex = index;
     myServerSettings = serverSettings;
+    myExecutor = executor;
   }
 
   @NotNull
@@ -103,7 +114,7 @@ public class GetUpdatesFunction implements NuGetFeedFunction {
     final boolean includePreRelease = extractBooleanParameterValue(params, MetadataConstants.INCLUDE_PRERELEASE);
     final Set<String> frameworkConstraints = FrameworkConstraints.convertFromString(extractStringParameterValue(params, MetadataConstants.TARGET_FRAMEWORKS));
 
-    final List<NuGetIndexEntry> result = new ArrayList<NuGetIndexEntry>();
+    final List<PackageUpdateQuery> queries = new ArrayList<PackageUpdateQuery>(packageIds.size());
 
     for(int i = 0; i < packageIds.size(); i++){
       final String requestedPackageId = packageIds.get(i);
@@ -123,9 +134,12 @@ public class GetUpdatesFunction implements NuGetFeedFunction {
         }
       }
 
-      result.addAll(getUpdateOfPackageWithId(includeAllVersions, includePreRelease, frameworkConstraints, requestedPackageId, requestedVersion, versionConstraint));
+      queries.add(new PackageUpdateQuery(requestedPackageId, requestedVersion, versionConstraint));
     }
 
+    final Map<String, List<NuGetIndexEntry>> entriesById = getEntriesById(packageIds);
+    final List<NuGetIndexEntry> result = getUpdates(queries, entriesById, includeAllVersions, includePreRelease, frameworkConstraints);
+
     if(result.isEmpty()){
       LOG.debug("No package updates found.");
       return null;
@@ -138,12 +152,88 @@ public class GetUpdatesFunction implements NuGetFeedFunction {
     });
   }
 
+  /**
+   * Reads entries of all requested packages at once.
+   * Index entries are computed in the calling thread as they depend on the current user permissions
+   */
   @NotNull
-  private Collection<NuGetIndexEntry> getUpdateOfPackageWithId(boolean includeAllVersions, boolean includePreRelease, Set<String> frameworkConstraints, String requestedPackageId, SemanticVersion requestedVersion, VersionConstraint versionConstraint) {
-    final Iterator<NuGetIndexEntry> entryIterator = myIndex.getNuGetEntries(requestedPackageId);
-    List<NuGetIndexEntry> result = new SortedList<NuGetIndexEntry>(Collections.reverseOrder(SemanticVersionsComparators.getEntriesComparator()));
-    while (entryIterator.hasNext()){
+  private Map<String, List<NuGetIndexEntry>> getEntriesById(@NotNull Collection<String> packageIds) {
+    final Map<String, List<NuGetIndexEntry>> result = new HashMap<String, List<NuGetIndexEntry>>();
+    final Iterator<NuGetIndexEntry> entryIterator = myIndex.getNuGetEntries(packageIds);
+    while (entryIterator.hasNext()) {
       final NuGetIndexEntry indexEntry = entryIterator.next();
+      final String packageId = indexEntry.getAttributes().get(ID);
+      if (packageId == null) continue;
+
+      final String id = packageId.toLowerCase(Locale.ENGLISH);
+      List<NuGetIndexEntry> entries = result.get(id);
+      if (entries == null) {
+        entries = new ArrayList<NuGetIndexEntry>();
+        result.put(id, entries);
+      }
+      entries.add(indexEntry);
+    }
+    return result;
+  }
+
+  @NotNull
+  private List<NuGetIndexEntry> getUpdates(@NotNull final List<PackageUpdateQuery> queries,
+                                           @NotNull final Map<String, List<NuGetIndexEntry>> entriesById,
+                                           final boolean includeAllVersions,
+                                           final boolean includePreRelease,
+                                           @NotNull final Set<String> frameworkConstraints) {
+    final int tasksCount = Math.min(myThreadsCount, queries.size() / MIN_PACKAGES_PER_TASK);
+    if (queries.size() < TeamCityProperties.getInteger(PARALLEL_THRESHOLD_PROP_NAME, 100) || tasksCount < 2) {
+      return getUpdatesSequentially(queries, entriesById, includeAllVersions, includePreRelease, frameworkConstraints);
+    }
+
+    final int queriesPerTask = (queries.size() + tasksCount - 1) / tasksCount;
+    final List<Callable<List<NuGetIndexEntry>>> tasks = new ArrayList<Callable<List<NuGetIndexEntry>>>(tasksCount);
+    for (int from = 0; from < queries.size(); from += queriesPerTask) {
+      final List<PackageUpdateQuery> part = queries.subList(from, Math.min(from + queriesPerTask, queries.size()));
+      tasks.add(new Callable<List<NuGetIndexEntry>>() {
+        public List<NuGetIndexEntry> call() throws Exception {
+          return getUpdatesSequentially(part, entriesById, includeAllVersions, includePreRelease, frameworkConstraints);
+        }
+      });
+    }
+
+    try {
+      final List<NuGetIndexEntry> result = new ArrayList<NuGetIndexEntry>();
+      for (Future<List<NuGetIndexEntry>> future : myExecutor.invokeAll(tasks)) {
+        result.addAll(future.get());
+      }
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.debug("Interrupted parallel computation of package updates. ", e);
+    } catch (ExecutionException e) {
+      LOG.warn("Failed to compute package updates in parallel. " + e.getMessage(), e);
+    } catch (RejectedExecutionException e) {
+      LOG.warn("Failed to compute package updates in parallel. " + e.getMessage(), e);
+    }
+    return getUpdatesSequentially(queries, entriesById, includeAllVersions, includePreRelease, frameworkConstraints);
+  }
+
+  @NotNull
+  private List<NuGetIndexEntry> getUpdatesSequentially(@NotNull List<PackageUpdateQuery> queries,
+                                                       @NotNull Map<String, List<NuGetIndexEntry>> entriesById,
+                                                       boolean includeAllVersions,
+                                                       boolean includePreRelease,
+                                                       @NotNull Set<String> frameworkConstraints) {
+    final List<NuGetIndexEntry> result = new ArrayList<NuGetIndexEntry>();
+    for (PackageUpdateQuery query : queries) {
+      final List<NuGetIndexEntry> entries = entriesById.get(query.getPackageId().toLowerCase(Locale.ENGLISH));
+      if (entries == null) continue;
+      result.addAll(getUpdateOfPackageWithId(includeAllVersions, includePreRelease, frameworkConstraints, query.getPackageId(), query.getVersion(), query.getVersionConstraint(), entries));
+    }
+    return result;
+  }
+
+  @NotNull
+  private Collection<NuGetIndexEntry> getUpdateOfPackageWithId(boolean includeAllVersions, boolean includePreRelease, Set<String> frameworkConstraints, String requestedPackageId, SemanticVersion requestedVersion, VersionConstraint versionConstraint, List<NuGetIndexEntry> entries) {
+    List<NuGetIndexEntry> result = new SortedList<NuGetIndexEntry>(Collections.reverseOrder(SemanticVersionsComparators.getEntriesComparator()));
+    for (NuGetIndexEntry indexEntry : entries){
       if(match(indexEntry, requestedVersion,  includePreRelease, frameworkConstraints, versionConstraint)){
         LOG.debug(String.format("Matched indexed package found fof id:%s version:%s. %s", requestedPackageId, requestedVersion, indexEntry));
         result.add(indexEntry);
@@ -159,7 +249,7 @@ public class GetUpdatesFunction implements NuGetFeedFunction {
     if(!includePreRelease && Boolean.parseBoolean(indexEntryAttributes.get(IS_PRERELEASE))) return false;
     final Set<String> packageFrameworkConstraints = FrameworkConstraints.convertFromString(indexEntryAttributes.get(PackagesIndex.TEAMCITY_FRAMEWORK_CONSTRAINTS));
     if(!targetFrameworks.isEmpty() && !VersionUtility.isPackageCompatibleWithFrameworks(targetFrameworks, packageFrameworkConstraints)) return false;
-    final SemanticVersion entryVersion = SemanticVersion.valueOf(indexEntry.getPackageInfo().getVersion());
+    final SemanticVersion entryVersion = indexEntry.getSemanticVersion();
     return entryVersion != null && (versionConstraint == null || versionConstraint.satisfies(entryVersion)) && requestedVersion.compareTo(entryVersion) < 0;
   }
 
@@ -189,4 +279,31 @@ public class GetUpdatesFunction implements NuGetFeedFunction {
     }
     return ((OSimpleObject) valueObject).getValue().toString();
   }
+
+  private static class PackageUpdateQuery {
+    @NotNull private final String myPackageId;
+    @NotNull private final SemanticVersion myVersion;
+    @Nullable private final VersionConstraint myVersionConstraint;
+
+    private PackageUpdateQuery(@NotNull String packageId, @NotNull SemanticVersion version, @Nullable VersionConstraint versionConstraint) {
+      myPackageId = packageId;
+      myVersion = version;
+      myVersionConstraint = versionConstraint;
+    }
+
+    @NotNull
+    public String getPackageId() {
+      return myPackageId;
+    }
+
+    @NotNull
+    public SemanticVersion getVersion() {
+      return myVersion;
+    }
+
+    @Nullable
+    public VersionConstraint getVersionConstraint() {
+      return myVersionConstraint;
+    }
+  }
 }
@@ -20,6 +20,7 @@ import com.google.common.collect.Lists;
 import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
 import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
 import jetbrains.buildServer.util.CollectionsUtil;
+import jetbrains.buildServer.util.NamedDeamonThreadFactory;
 import jetbrains.buildServer.util.filters.Filter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -27,19 +28,26 @@ import org.odata4j.edm.EdmFunctionImport;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author Evgeniy.Koshkin
  */
 public class NuGetFeedFunctions {
   private final Collection<NuGetFeedFunction> myAPIv2Functions;
+  private final ExecutorService myExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new NamedDeamonThreadFactory("NuGet GetUpdates"));
 
   public NuGetFeedFunctions(@NotNull PackagesIndex index, @NotNull NuGetServerSettings serverSettings) {
     myAPIv2Functions = Lists.newArrayList(new FindPackagesByIdFunction(index, serverSettings),
-                                          new GetUpdatesFunction(index, serverSettings),
+                                          new GetUpdatesFunction(index, serverSettings, myExecutor),
                                           new SearchFunction(index, serverSettings));
   }
 
+  public void dispose() {
+    myExecutor.shutdownNow();
+  }
+
   @Nullable
   public NuGetFeedFunction find(@NotNull final EdmFunctionImport name) {
     return CollectionsUtil.findFirst(myAPIv2Functions, new Filter<NuGetFeedFunction>() {
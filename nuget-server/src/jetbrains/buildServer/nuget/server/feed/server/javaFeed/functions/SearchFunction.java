@@ -20,7 +20,10 @@ import com.intellij.openapi.diagnostic.Logger;
 import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
 import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesQuery;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackageEntityEx;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackagesFilterLookup;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackagesQueryPlanner;
 import jetbrains.buildServer.nuget.server.util.FrameworkConstraints;
 import jetbrains.buildServer.nuget.server.util.VersionUtility;
 import jetbrains.buildServer.util.CollectionsUtil;
@@ -31,11 +34,12 @@ import org.odata4j.core.OFunctionParameter;
 import org.odata4j.core.OObject;
 import org.odata4j.core.OSimpleObject;
 import org.odata4j.edm.*;
+import org.odata4j.producer.InlineCount;
 import org.odata4j.producer.QueryInfo;
 
 import java.util.*;
 
-import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.IS_PRERELEASE;
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
 import static jetbrains.buildServer.nuget.server.feed.server.javaFeed.MetadataConstants.*;
 
 /**
@@ -46,10 +50,12 @@ public class SearchFunction implements NuGetFeedFunction {
 
   @NotNull private final PackagesIndex myIndex;
   @NotNull private final NuGetServerSettings myServerSettings;
+  @NotNull private final PackagesQueryPlanner myPlanner;
 
   public SearchFunction(@NotNull PackagesIndex index, @NotNull NuGetServerSettings serverSettings) {
     myIndex = index;
     myServerSettings = serverSettings;
+    myPlanner = new PackagesQueryPlanner(new PackagesFilterLookup(index));
   }
 
   @NotNull
@@ -121,13 +127,28 @@ public class SearchFunction implements NuGetFeedFunction {
     LOG.debug(format);
 
     final List<NuGetIndexEntry> result = new ArrayList<NuGetIndexEntry>();
-    final Iterator<NuGetIndexEntry> entryIterator = myIndex.search(searchTerm);
-    while (entryIterator.hasNext()){
-      final NuGetIndexEntry indexEntry = entryIterator.next();
-      if(matches(indexEntry, includePreRelease, frameworkConstraints)){
-        result.add(indexEntry);
+    final PackagesQuery rankedQuery = getRankedQuery(queryInfo);
+    if (rankedQuery == null) {
+      final Iterator<NuGetIndexEntry> entryIterator = myIndex.search(searchTerm);
+      while (entryIterator.hasNext()){
+        final NuGetIndexEntry indexEntry = entryIterator.next();
+        if(matches(indexEntry, includePreRelease, frameworkConstraints)){
+          result.add(indexEntry);
+        }
       }
+    } else {
+      //found packages are ranked in the index, so only the most relevant of them are built
+      final int limit = getResultsLimit(queryInfo);
+      final Iterator<NuGetIndexEntry> entryIterator = myIndex.searchRanked(searchTerm, rankedQuery);
+      while (result.size() < limit && entryIterator.hasNext()){
+        final NuGetIndexEntry indexEntry = entryIterator.next();
+        if(matches(indexEntry, includePreRelease, frameworkConstraints)){
+          result.add(indexEntry);
+        }
+      }
+      LOG.debug(String.format("Returning top %d packages found by term '%s' matching %s", result.size(), searchTerm, rankedQuery));
     }
+
     return CollectionsUtil.convertCollection(result, new Converter<Object, NuGetIndexEntry>() {
       public Object createFrom(@NotNull NuGetIndexEntry source) {
         return new PackageEntityEx(source, myServerSettings);
@@ -135,6 +156,35 @@ public class SearchFunction implements NuGetFeedFunction {
     });
   }
 
+  /**
+   * Found packages are ranked and cut to the requested page for search requests of NuGet clients:
+   * Visual Studio and nuget.exe send $filter=IsLatestVersion or $filter=IsAbsoluteLatestVersion
+   * with $orderby, $skip and $top, other clients may send just $top.
+   * The page contains the most relevant packages, $orderby sorts packages of the page.
+   * The whole $filter should be checked in the index, so the cut page contains only matching packages,
+   * otherwise and for $skiptoken and $inlinecount=allpages requests all found packages are returned.
+   * @param queryInfo query
+   * @return conditions on found packages or null if all found packages should be returned
+   */
+  @Nullable
+  private PackagesQuery getRankedQuery(@Nullable QueryInfo queryInfo) {
+    if (queryInfo == null || queryInfo.top == null) return null;
+    if (queryInfo.skipToken != null || queryInfo.inlineCount == InlineCount.ALLPAGES) return null;
+
+    final PackagesQueryPlanner.Plan plan = myPlanner.plan(queryInfo.filter);
+    return plan.getResidualFilter() == null ? plan.getQuery() : null;
+  }
+
+  /**
+   * @param queryInfo query with $top
+   * @return number of results to return
+   */
+  private static int getResultsLimit(@NotNull QueryInfo queryInfo) {
+    final int skip = queryInfo.skip == null ? 0 : Math.max(0, queryInfo.skip);
+    //one more result is requested by the feed to detect whether there are more pages
+    return (int) Math.min((long) skip + Math.max(0, queryInfo.top) + 1, Integer.MAX_VALUE);
+  }
+
   private boolean matches(NuGetIndexEntry nugetPackage, boolean includePreRelease, Set<String> requestedFrameworks) {
     final Map<String, String> nugetPackageAttributes = nugetPackage.getAttributes();
     if(!includePreRelease && Boolean.parseBoolean(nugetPackageAttributes.get(IS_PRERELEASE))) return false;
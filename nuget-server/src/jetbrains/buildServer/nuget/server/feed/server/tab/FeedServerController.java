@@ -21,6 +21,7 @@ import jetbrains.buildServer.controllers.AuthorizationInterceptor;
 import jetbrains.buildServer.controllers.BaseController;
 import jetbrains.buildServer.controllers.RequestPermissionsChecker;
 import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexingQueue;
 import jetbrains.buildServer.nuget.server.toolRegistry.tab.PermissionChecker;
 import jetbrains.buildServer.serverSide.ServerSettings;
 import jetbrains.buildServer.serverSide.auth.AccessDeniedException;
@@ -43,6 +44,7 @@ public class FeedServerController extends BaseController {
   @NotNull private final NuGetServerSettings mySettings;
   @NotNull private final ServerSettings myServerSettings;
   @NotNull private final RootUrlHolder myRootUrlHolder;
+  @NotNull private final PackagesIndexingQueue myIndexingQueue;
 
   public FeedServerController(@NotNull final AuthorizationInterceptor auth,
                               @NotNull final PermissionChecker checker,
@@ -51,12 +53,14 @@ public class FeedServerController extends BaseController {
                               @NotNull final PluginDescriptor descriptor,
                               @NotNull final ServerSettings serverSettings,
                               @NotNull final NuGetServerSettings settings,
-                              @NotNull final RootUrlHolder rootUrlHolder) {
+                              @NotNull final RootUrlHolder rootUrlHolder,
+                              @NotNull final PackagesIndexingQueue indexingQueue) {
     mySection = section;
     myDescriptor = descriptor;
     mySettings = settings;
     myServerSettings = serverSettings;
     myRootUrlHolder = rootUrlHolder;
+    myIndexingQueue = indexingQueue;
     final String myPath = section.getIncludePath();
 
     auth.addPathBasedPermissionsChecker(myPath, new RequestPermissionsChecker() {
@@ -79,6 +83,8 @@ public class FeedServerController extends BaseController {
     mv.getModel().put("publicFeedUrl", mySettings.getNuGetGuestAuthFeedControllerPath());
     mv.getModel().put("serverEnabled", mySettings.isNuGetServerEnabled());
     mv.getModel().put("isGuestEnabled", myServerSettings.isGuestLoginAllowed());
+    mv.getModel().put("indexingQueueSize", myIndexingQueue.getSize());
+    mv.getModel().put("indexingQueueLag", myIndexingQueue.getLag() / 1000);
 
     return mv;
   }
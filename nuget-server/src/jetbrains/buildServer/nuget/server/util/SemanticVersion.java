@@ -28,15 +28,37 @@ import java.util.regex.Pattern;
  */
 public class SemanticVersion implements Comparable<SemanticVersion> {
   private static Pattern VERSION_STRING_MATCHING_PATTERN = Pattern.compile("^([0-9]+)(?:\\.([0-9]+))?(?:\\.([0-9]+))?(?:\\.([0-9]+))?(?:-([0-9A-Za-z-]+(?:\\.[0-9A-Za-z-]+)*))?(?:\\+[0-9A-Za-z-\\.]+)?$", Pattern.CASE_INSENSITIVE);
+  private static final Pattern SPECIAL_VERSION_SEPARATOR = Pattern.compile("\\.");
+  private static final String[] NO_PARTS = new String[0];
+  private static final long NO_NUMERIC_KEY = -1;
 
   @NotNull private final Version myVersion;
   @Nullable private final String mySpecialVersion;
   @NotNull private final String myOriginalString;
 
+  //comparison keys are computed once, so versions are compared without parsing and allocations
+  private final long myNumericKey;
+  @NotNull private final String[] mySpecialParts;
+  @NotNull private final int[] mySpecialNumbers;
+  @NotNull private final boolean[] myIsSpecialNumber;
+
   private SemanticVersion(@NotNull Version version, @Nullable String specialVersion, @NotNull String originalString) {
     myVersion = version;
     mySpecialVersion = specialVersion;
     myOriginalString = originalString;
+
+    myNumericKey = getNumericKey(version);
+    mySpecialParts = split(specialVersion);
+    mySpecialNumbers = new int[mySpecialParts.length];
+    myIsSpecialNumber = new boolean[mySpecialParts.length];
+    for (int i = 0; i < mySpecialParts.length; i++) {
+      try {
+        mySpecialNumbers[i] = Integer.parseInt(mySpecialParts[i]);
+        myIsSpecialNumber[i] = true;
+      } catch (NumberFormatException e) {
+        myIsSpecialNumber[i] = false;
+      }
+    }
   }
 
   @Nullable
@@ -64,8 +86,18 @@ public class SemanticVersion implements Comparable<SemanticVersion> {
   }
 
   public static int compareAsVersions(@NotNull String versionString1, @NotNull String versionString2) {
-    final SemanticVersion version1 = valueOf(versionString1);
-    final SemanticVersion version2 = valueOf(versionString2);
+    return compareAsVersions(valueOf(versionString1), versionString1, valueOf(versionString2), versionString2);
+  }
+
+  /**
+   * Compares already parsed versions the same way as {@link #compareAsVersions(String, String)} does
+   * @param version1 parsed first version or null if it is not a valid version
+   * @param versionString1 first version string
+   * @param version2 parsed second version or null if it is not a valid version
+   * @param versionString2 second version string
+   */
+  public static int compareAsVersions(@Nullable SemanticVersion version1, @NotNull String versionString1,
+                                      @Nullable SemanticVersion version2, @NotNull String versionString2) {
     return version1 != null && version2 != null ? version1.compareTo(version2) : versionString1.compareTo(versionString2);
   }
 
@@ -80,7 +112,7 @@ public class SemanticVersion implements Comparable<SemanticVersion> {
   }
 
   public int compareTo(@NotNull SemanticVersion other) {
-    int result = myVersion.compareTo(other.myVersion);
+    int result = compareNumbers(other);
     if (result != 0) return result;
     boolean empty = Strings.isNullOrEmpty(mySpecialVersion);
     boolean otherEmpty = Strings.isNullOrEmpty(other.mySpecialVersion);
@@ -88,12 +120,12 @@ public class SemanticVersion implements Comparable<SemanticVersion> {
     else if (empty) return 1;
     else if (otherEmpty) return -1;
 
-    String[] o1 = split(mySpecialVersion);
-    String[] o2 = split(other.mySpecialVersion);
+    String[] o1 = mySpecialParts;
+    String[] o2 = other.mySpecialParts;
 
     int x;
     for(int i = 0, max = Math.min(o1.length, o2.length); i < max; i++) {
-      if ((x = compareElements(o1[i], o2[i]))!= 0) return x;
+      if ((x = compareElements(other, i))!= 0) return x;
     }
     if (o1.length == 0 && o2.length > 0) return 1;
     if (o2.length == 0 && o1.length > 0) return -1;
@@ -130,21 +162,20 @@ public class SemanticVersion implements Comparable<SemanticVersion> {
     return myOriginalString;
   }
 
-  private int compareElements(@NotNull String s1, @NotNull String s2) {
-    int i1 = 0;
-    int i2 = 0;
-    boolean isInt1 = true;
-    boolean isInt2 = true;
-    try {
-      i1 = Integer.parseInt(s1);
-    } catch (Exception e) {
-      isInt1 = false;
-    }
-    try {
-      i2 = Integer.parseInt(s2);
-    } catch (Exception e) {
-      isInt2 = false;
+  private int compareNumbers(@NotNull SemanticVersion other) {
+    if (myNumericKey == NO_NUMERIC_KEY || other.myNumericKey == NO_NUMERIC_KEY) {
+      return myVersion.compareTo(other.myVersion);
     }
+    return myNumericKey < other.myNumericKey ? -1 : myNumericKey == other.myNumericKey ? 0 : 1;
+  }
+
+  private int compareElements(@NotNull SemanticVersion other, int index) {
+    final String s1 = mySpecialParts[index];
+    final String s2 = other.mySpecialParts[index];
+    final int i1 = mySpecialNumbers[index];
+    final int i2 = other.mySpecialNumbers[index];
+    final boolean isInt1 = myIsSpecialNumber[index];
+    final boolean isInt2 = other.myIsSpecialNumber[index];
 
     if (isInt1 && isInt2) {
       if (i1 == i2) return 0;
@@ -164,8 +195,22 @@ public class SemanticVersion implements Comparable<SemanticVersion> {
   }
 
   @NotNull
-  private String[] split(@Nullable String s) {
-    if (s == null || s.length() == 0) return new String[0];
-    return Pattern.compile("\\.").split(s);
+  private static String[] split(@Nullable String s) {
+    if (s == null || s.length() == 0) return NO_PARTS;
+    return SPECIAL_VERSION_SEPARATOR.split(s);
+  }
+
+  /**
+   * Packs version numbers into a long, 15 bits for major and 16 bits for other numbers,
+   * so packed numbers are compared in the same order as versions
+   */
+  private static long getNumericKey(@NotNull Version version) {
+    if (version.getMajor() < 0 || version.getMajor() > Short.MAX_VALUE) return NO_NUMERIC_KEY;
+    if (!fitsIntoKey(version.getMinor()) || !fitsIntoKey(version.getPatch()) || !fitsIntoKey(version.getBuild())) return NO_NUMERIC_KEY;
+    return ((long) version.getMajor() << 48) | ((long) version.getMinor() << 32) | ((long) version.getPatch() << 16) | version.getBuild();
+  }
+
+  private static boolean fitsIntoKey(int number) {
+    return number >= 0 && number <= 0xFFFF;
   }
 }
@@ -41,6 +41,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
+import java.security.MessageDigest;
 import java.util.*;
 
 /**
@@ -147,6 +148,43 @@ public class LocalNuGetPackageItemsFactoryTest extends BaseTestCase {
     Assert.assertNotNull(loadPackage(pkg).get("MinClientVersion"));
   }
 
+  @Test
+  public void test_digest_computed_while_visiting() throws Exception {
+    final File pkg = Paths.getTestDataPath("packages/Ninject.MVC3.2.2.2.0.nupkg");
+    Assert.assertTrue(pkg.isFile());
+
+    final LocalNuGetPackageItemsFactory packageItemsFactory = new LocalNuGetPackageItemsFactory(new Date());
+    final MessageDigest digest = MessageDigest.getInstance("SHA-512");
+    new NuGetPackageStructureVisitor(Lists.<NuGetPackageStructureAnalyser>newArrayList(packageItemsFactory)).visit(artifact(pkg), digest);
+
+    Assert.assertEquals(store(packageItemsFactory.getItems()), store(loadPackage(pkg)));
+    Assert.assertEquals(digest.digest(), MessageDigest.getInstance("SHA-512").digest(FileUtil.loadFileBytes(pkg)));
+  }
+
+  @Test
+  public void test_local_file_visited_by_central_directory() throws Exception {
+    final File pkg = Paths.getTestDataPath("packages/PackageWithPlatformDependencies.3.0.0.nupkg");
+    Assert.assertTrue(pkg.isFile());
+
+    final LocalNuGetPackageItemsFactory packageItemsFactory = new LocalNuGetPackageItemsFactory(new Date());
+    final MessageDigest digest = MessageDigest.getInstance("SHA-512");
+    new NuGetPackageStructureVisitor(Lists.<NuGetPackageStructureAnalyser>newArrayList(packageItemsFactory)).visit(artifact(pkg), pkg, digest);
+
+    Assert.assertEquals(store(packageItemsFactory.getItems()), store(loadPackage(pkg)));
+    Assert.assertEquals(digest.digest(), MessageDigest.getInstance("SHA-512").digest(FileUtil.loadFileBytes(pkg)));
+  }
+
+  @Test
+  public void test_not_zip_local_file_visited_sequentially() throws Exception {
+    final File pkg = Paths.getTestDataPath("packages/Ninject.MVC3.2.2.2.0.nupkg");
+    final File notZip = createTempFile("not a zip");
+
+    final LocalNuGetPackageItemsFactory packageItemsFactory = new LocalNuGetPackageItemsFactory(new Date());
+    new NuGetPackageStructureVisitor(Lists.<NuGetPackageStructureAnalyser>newArrayList(packageItemsFactory)).visit(artifact(pkg), notZip, null);
+
+    Assert.assertEquals(store(packageItemsFactory.getItems()), store(loadPackage(pkg)));
+  }
+
   @NotNull
   private Map<String, String> loadPackage(@NotNull File artifact) throws PackageLoadException, IOException {
     final LocalNuGetPackageItemsFactory packageItemsFactory = new LocalNuGetPackageItemsFactory(new Date());
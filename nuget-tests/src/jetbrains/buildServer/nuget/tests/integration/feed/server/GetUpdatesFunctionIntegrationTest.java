@@ -20,8 +20,16 @@ import com.google.common.collect.Lists;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
 import jetbrains.buildServer.nuget.server.util.FrameworkConstraints;
 import jetbrains.buildServer.util.CollectionsUtil;
+import jetbrains.buildServer.util.StringUtil;
+import org.jetbrains.annotations.NotNull;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
 import static jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex.TEAMCITY_FRAMEWORK_CONSTRAINTS;
 
@@ -30,6 +38,8 @@ import static jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex
  */
 public class GetUpdatesFunctionIntegrationTest extends NuGetJavaFeedIntegrationTestBase {
 
+  private static final String PARALLEL_THRESHOLD_PROP_NAME = "teamcity.nuget.feed.getUpdates.parallelThreshold";
+
   @Test
   public void testVSRequest() throws Exception {
     assert204("GetUpdates()?packageIds='Microsoft.Web.Infrastructure%7CRouteMagic%7Celmah%7Celmah.corelibrary%7Cxunit%7Cxunit.extensions%7CWebActivatorEx%7CNinject%7CMoq'&versions='1.0.0.0%7C1.2%7C1.2.2%7C1.2.2%7C1.9.2%7C1.9.2%7C2.0.2%7C2.2.1.4%7C4.1.1309.0919'&includePrerelease=true&includeAllVersions=false&targetFrameworks=''&versionConstraints=''").run();
@@ -104,10 +114,46 @@ public class GetUpdatesFunctionIntegrationTest extends NuGetJavaFeedIntegrationT
     assertContainsPackageVersion(includeSingleVersionResponse, "4.0");
   }
 
+  @Test
+  public void shouldComputeSameUpdatesInParallel() throws Exception {
+    final List<String> ids = new ArrayList<String>();
+    final List<String> versions = new ArrayList<String>();
+    for (int i = 0; i < 120; i++) {
+      final String id = "foo" + i;
+      addMockPackage(new NuGetIndexEntry(id, CollectionsUtil.asMap(ID, id, VERSION, "1")));
+      addMockPackage(new NuGetIndexEntry(id, CollectionsUtil.asMap(ID, id, VERSION, "2")));
+      addMockPackage(new NuGetIndexEntry(id, CollectionsUtil.asMap(ID, id, VERSION, "3")));
+      ids.add(i % 2 == 0 ? id : id.toUpperCase());
+      versions.add(i % 2 == 0 ? "1.0" : "2.0");
+    }
+    final String request = "GetUpdates()?packageIds='" + StringUtil.join(ids, "%7C") + "'&versions='" + StringUtil.join(versions, "%7C") +
+            "'&includePrerelease=true&includeAllVersions=true&targetFrameworks=''&versionConstraints=''";
+
+    setInternalProperty(PARALLEL_THRESHOLD_PROP_NAME, String.valueOf(Integer.MAX_VALUE));
+    final String sequentialResponse = openRequest(request);
+
+    setInternalProperty(PARALLEL_THRESHOLD_PROP_NAME, "1");
+    final String parallelResponse = openRequest(request);
+
+    final List<String> sequentialPackages = getPackages(sequentialResponse);
+    Assert.assertEquals(sequentialPackages.size(), 180);
+    Assert.assertEquals(getPackages(parallelResponse), sequentialPackages);
+  }
+
   @Test
   public void shouldResponseWithNoContentWhenNumberOfPackageIdsAndVersionsDoNotMatch() throws Exception {
     addMockPackage(new NuGetIndexEntry("foo", CollectionsUtil.asMap(ID, "foo", TEAMCITY_FRAMEWORK_CONSTRAINTS, "", VERSION, "2.0.0.1")));
     addMockPackage(new NuGetIndexEntry("foo", CollectionsUtil.asMap(ID, "boo", TEAMCITY_FRAMEWORK_CONSTRAINTS, "", VERSION, "2.0.0.2")));
     assert204("GetUpdates()?packageIds='foo%7Cboo'&versions='2.0.0.0'&includePrerelease=true&includeAllVersions=false&targetFrameworks=''&versionConstraints=''").run();
   }
+
+  @NotNull
+  private static List<String> getPackages(@NotNull final String response) {
+    final List<String> packages = new ArrayList<String>();
+    final Matcher matcher = Pattern.compile("Packages\\((Id=[^)]*)\\)</id>").matcher(response);
+    while (matcher.find()) {
+      packages.add(matcher.group(1));
+    }
+    return packages;
+  }
 }
@@ -34,6 +34,8 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Created by Eugene Petrenko (eugene.petrenko@gmail.com)
@@ -165,6 +167,41 @@ public class NuGetJavaFeedContentTest extends NuGetJavaFeedIntegrationTestBase {
     }
   }
 
+  @Test
+  public void testLatestVersionsPage() throws Exception {
+    enablePackagesIndexSorting();
+    addMockPackage("foo", "1.0.0");
+    addMockPackage("foo", "2.0.0");
+    addMockPackage("bar", "1.0.0");
+    addMockPackage("bar", "1.1.0-beta");
+    addMockPackage("zoo", "3.0.0");
+
+    final String response = openRequest("Packages()?$filter=IsLatestVersion&$orderby=Id&$skip=1&$top=1");
+    assertContainsPackageVersion(response, "2.0.0");
+    assertNotContainsPackageVersion(response, "1.0.0");
+    assertNotContainsPackageVersion(response, "1.1.0-beta");
+    assertNotContainsPackageVersion(response, "3.0.0");
+  }
+
+  @Test
+  public void testOrderSameForIndexAndProducerPages() throws Exception {
+    enablePackagesIndexSorting();
+    addMockPackage("foo", "1.9.0");
+    addMockPackage("Foo", "1.10.0");
+    addMockPackage("FOO", "1.10.0-beta");
+    addMockPackage("bar", "2.0.0");
+    addMockPackage("Bar", "10.0.0");
+
+    for (String orderBy : Arrays.asList("Id", "Id%20desc", "Version", "Version%20desc", "Id,Version", "Id%20desc,Version")) {
+      //inline count of all pages makes the producer select the page
+      final List<String> indexPage = getPackageVersions(openRequest("Packages()?$orderby=" + orderBy));
+      final List<String> producerPage = getPackageVersions(openRequest("Packages()?$orderby=" + orderBy + "&$inlinecount=allpages"));
+
+      Assert.assertEquals(indexPage.size(), 5, orderBy);
+      Assert.assertEquals(indexPage, producerPage, orderBy);
+    }
+  }
+
   @Test(enabled = false) @TestFor(issues = "TW-36083")
   public void testSemanticVersioning() throws Exception {
     addMockPackage("foo", "1.0.0-Beta6");
@@ -187,6 +224,16 @@ public class NuGetJavaFeedContentTest extends NuGetJavaFeedIntegrationTestBase {
             ;
   }
 
+  @NotNull
+  private static List<String> getPackageVersions(@NotNull final String response) {
+    final List<String> versions = new ArrayList<String>();
+    final Matcher matcher = Pattern.compile("<d:Version>([^<]*)</d:Version>").matcher(response);
+    while (matcher.find()) {
+      versions.add(matcher.group(1));
+    }
+    return versions;
+  }
+
   private void compareStringAsXml(String actualXml, String goldPath) throws JDOMException, IOException {
     compareStringAsXml(actualXml, goldPath, false);
   }
@@ -22,16 +22,21 @@ import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
 import jetbrains.buildServer.nuget.server.feed.server.impl.NuGetServerSettingsImpl;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
 import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesQuery;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexImpl;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesSnapshotHolder;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.SemanticVersionsComparators;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.DownloadUrlComputationTransformation;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.IsPrereleaseTransformation;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.NuGetProducerHolder;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.functions.NuGetFeedFunctions;
+import jetbrains.buildServer.nuget.server.util.SemanticVersion;
+import jetbrains.buildServer.nuget.server.util.VersionUtility;
 import jetbrains.buildServer.nuget.tests.integration.Paths;
 import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
 import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jmock.Expectations;
 import org.jmock.api.Invocation;
 import org.jmock.lib.action.CustomAction;
@@ -54,6 +59,7 @@ import static jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetArt
  */
 public class NuGetJavaFeedIntegrationTestBase extends NuGetFeedIntegrationTestBase {
   protected NuGetProducerHolder myProducer;
+  private NuGetFeedFunctions myFunctions;
   protected PackagesIndex myIndex;
   protected PackagesIndex myActualIndex;
   protected PackagesIndex myIndexProxy;
@@ -82,13 +88,69 @@ public class NuGetJavaFeedIntegrationTestBase extends NuGetFeedIntegrationTestBa
           return getPackages();
         }
       });
+      allowing(myIndexProxy).getNuGetEntries(with(any(PackagesQuery.class)), with(any(Comparator.class)), with(any(Integer.class)), with(any(Integer.class))); will(new CustomAction("lazy return page of packages") {
+        @SuppressWarnings("unchecked")
+        public Object invoke(Invocation invocation) throws Throwable {
+          return myActualIndex.getNuGetEntries((PackagesQuery) invocation.getParameter(0), (Comparator<NuGetIndexEntry>) invocation.getParameter(1), (Integer) invocation.getParameter(2), (Integer) invocation.getParameter(3));
+        }
+      });
+      allowing(myIndexProxy).getNuGetEntry(with(any(String.class)), with(any(String.class))); will(new CustomAction("lazy return package") {
+        public Object invoke(Invocation invocation) throws Throwable {
+          return myActualIndex.getNuGetEntry((String) invocation.getParameter(0), (String) invocation.getParameter(1));
+        }
+      });
       allowing(myIndexProxy).search(with(any(String.class))); will(returnIterator(myFeed));
+      allowing(myIndexProxy).searchRanked(with(any(String.class)), with(any(PackagesQuery.class))); will(new CustomAction("lazy return ranked packages") {
+        public Object invoke(Invocation invocation) throws Throwable {
+          return myActualIndex.searchRanked((String) invocation.getParameter(0), (PackagesQuery) invocation.getParameter(1));
+        }
+      });
       allowing(myIndexProxy).getNuGetEntries(with(any(String.class))); will(new CustomAction("lazy return packages") {
         public Object invoke(Invocation invocation) throws Throwable {
           return getPackages();
         }
       });
+      allowing(myIndexProxy).getNuGetEntries(with(any(Collection.class))); will(new CustomAction("lazy return packages with ids") {
+        @SuppressWarnings("unchecked")
+        public Object invoke(Invocation invocation) throws Throwable {
+          return myActualIndex.getNuGetEntries((Collection<String>) invocation.getParameter(0));
+        }
+      });
+      allowing(myIndexProxy).getLatestNuGetEntries(); will(new CustomAction("lazy return latest packages") {
+        public Object invoke(Invocation invocation) throws Throwable {
+          return myActualIndex.getLatestNuGetEntries();
+        }
+      });
+      allowing(myIndexProxy).findPackageIdsContaining(with(any(String.class)), with(any(String.class))); will(returnValue(null));
+      allowing(myIndexProxy).getNuGetEntriesNewerThan(with(any(String.class)), with(any(SemanticVersion.class))); will(new CustomAction("lazy return packages") {
+        public Object invoke(Invocation invocation) throws Throwable {
+          return getPackages();
+        }
+      });
       allowing(myIndex).getNuGetEntries(); will(returnIterator(myFeed));
+      allowing(myIndex).getLatestNuGetEntries(); will(returnIterator(myFeed));
+      allowing(myIndex).getNuGetEntries(with(any(PackagesQuery.class)), with(any(Comparator.class)), with(any(Integer.class)), with(any(Integer.class))); will(new CustomAction("return page of packages") {
+        @SuppressWarnings("unchecked")
+        public Object invoke(Invocation invocation) throws Throwable {
+          return getPage((PackagesQuery) invocation.getParameter(0), (Comparator<NuGetIndexEntry>) invocation.getParameter(1), (Integer) invocation.getParameter(2), (Integer) invocation.getParameter(3));
+        }
+      });
+      allowing(myIndex).searchRanked(with(any(String.class)), with(any(PackagesQuery.class))); will(new CustomAction("return found packages") {
+        public Object invoke(Invocation invocation) throws Throwable {
+          return getPage((PackagesQuery) invocation.getParameter(1), null, 0, Integer.MAX_VALUE);
+        }
+      });
+      allowing(myIndex).getNuGetEntry(with(any(String.class)), with(any(String.class))); will(new CustomAction("find package") {
+        public Object invoke(Invocation invocation) throws Throwable {
+          return findEntry((String) invocation.getParameter(0), (String) invocation.getParameter(1));
+        }
+      });
+      allowing(myIndex).getNuGetEntries(with(any(Collection.class))); will(new CustomAction("find packages with ids") {
+        @SuppressWarnings("unchecked")
+        public Object invoke(Invocation invocation) throws Throwable {
+          return findEntries((Collection<String>) invocation.getParameter(0));
+        }
+      });
       allowing(mySettings).getNuGetFeedControllerPath(); will(returnValue(NuGetServerSettingsImpl.PATH));
 
       allowing(myMetadataStorage).getAllEntries(NUGET_PROVIDER_ID); will(new CustomAction("transform entries") {
@@ -97,7 +159,8 @@ public class NuGetJavaFeedIntegrationTestBase extends NuGetFeedIntegrationTestBa
         }
       });
     }});
-    myProducer = new NuGetProducerHolder(myIndexProxy, mySettings, new NuGetFeedFunctions(myIndexProxy, mySettings));
+    myFunctions = new NuGetFeedFunctions(myIndexProxy, mySettings);
+    myProducer = new NuGetProducerHolder(myIndexProxy, mySettings, myFunctions);
 
     startNuGetFeedServer();
   }
@@ -132,6 +195,7 @@ public class NuGetJavaFeedIntegrationTestBase extends NuGetFeedIntegrationTestBa
   public void enablePackagesIndexSorting() {
     setPackagesIndex(new PackagesIndexImpl(
             myMetadataStorage,
+            new PackagesSnapshotHolder(myMetadataStorage),
             Arrays.asList(
               new IsPrereleaseTransformation(),
               new MockExternalIdTransformation(),
@@ -145,11 +209,54 @@ public class NuGetJavaFeedIntegrationTestBase extends NuGetFeedIntegrationTestBa
     return myActualIndex.getNuGetEntries();
   }
 
+  @NotNull
+  private Iterator<NuGetIndexEntry> getPage(@NotNull PackagesQuery query, @Nullable Comparator<NuGetIndexEntry> order, int skip, int count) {
+    final List<NuGetIndexEntry> entries = new ArrayList<NuGetIndexEntry>();
+    for (NuGetIndexEntry entry : myFeed) {
+      if (query.matches(entry)) entries.add(entry);
+    }
+    if (order != null) Collections.sort(entries, order);
+    return entries.subList(Math.min(skip, entries.size()), (int) Math.min((long) skip + count, entries.size())).iterator();
+  }
+
+  @Nullable
+  private NuGetIndexEntry findEntry(@NotNull String id, @NotNull String version) {
+    NuGetIndexEntry found = null;
+    for (NuGetIndexEntry entry : myFeed) {
+      final Map<String, String> attributes = entry.getAttributes();
+      if (!id.equalsIgnoreCase(attributes.get(ID))) continue;
+      if (version.equals(attributes.get(VERSION))) return entry;
+      if (found == null && normalize(version).equalsIgnoreCase(normalize(attributes.get(VERSION)))) found = entry;
+    }
+    return found;
+  }
+
+  @NotNull
+  private Iterator<NuGetIndexEntry> findEntries(@NotNull Collection<String> ids) {
+    final Set<String> lowerCaseIds = new HashSet<String>();
+    for (String id : ids) {
+      lowerCaseIds.add(id.toLowerCase(Locale.ENGLISH));
+    }
+    final List<NuGetIndexEntry> entries = new ArrayList<NuGetIndexEntry>();
+    for (NuGetIndexEntry entry : myFeed) {
+      final String id = entry.getAttributes().get(ID);
+      if (id != null && lowerCaseIds.contains(id.toLowerCase(Locale.ENGLISH))) entries.add(entry);
+    }
+    return entries.iterator();
+  }
+
+  @NotNull
+  private static String normalize(@NotNull String version) {
+    final String normalized = VersionUtility.normalizeVersion(version);
+    return normalized == null ? version : normalized;
+  }
+
   @AfterMethod
   @Override
   protected void tearDown() throws Exception {
     super.tearDown();
     myServer.stop();
+    myFunctions.dispose();
   }
 
   @NotNull
@@ -186,6 +186,23 @@ public class SearchFunctionIntegrationTest extends NuGetJavaFeedIntegrationTestB
     assertPackageVersionsOrder(orderByDescriptionAscResponse, "3.0", "2.0", "1.0");
   }
 
+  @Test
+  public void testRankedPageOfClientRequest() throws Exception {
+    enablePackagesIndexSorting();
+    addMockPackage("Foo", "1.0.0");
+    addMockPackage("Foo.Core", "2.0.0");
+    addMockPackage("Bar.Foobar", "3.0.0");
+
+    //the page is cut to the most relevant packages before it is ordered by Id
+    final String response = openRequest("Search()?$filter=IsLatestVersion&$orderby=Id&$skip=0&$top=1&searchTerm='foo'&targetFramework=''&includePrerelease=true");
+    assertContainsPackageVersion(response, "1.0.0");
+    assertNotContainsPackageVersion(response, "2.0.0");
+    assertNotContainsPackageVersion(response, "3.0.0");
+
+    final String allResponse = openRequest("Search()?$filter=IsLatestVersion&$orderby=Id&$skip=0&$top=30&searchTerm='foo'&targetFramework=''&includePrerelease=true");
+    assertPackageVersionsOrder(allResponse, "3.0.0", "1.0.0", "2.0.0");
+  }
+
   @Test
   public void testCountRequest() throws Exception {
     addMockPackage(new NuGetIndexEntry("aaa", CollectionsUtil.asMap(ID, "foo", VERSION, "1")));
@@ -78,6 +78,11 @@ public class SemanticVersionComparisonTest extends BaseTestCase {
     doTest("1.0009.0", "1.10.0", "1.000011.0");
   }
 
+  @Test
+  public void test_large_numbers() {
+    doTest("1.65535.0", "1.65536.0", "1.70000.1", "32767.0.0", "32768.0.0", "40000.1.2.20902", "40000.1.2.70000");
+  }
+
   @Test
   public void rule_3() {
     /**
@@ -17,9 +17,11 @@
 package jetbrains.buildServer.nuget.tests.server.entity;
 
 import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.ODataDataFormat;
 import org.jdom.JDOMException;
 import org.jetbrains.annotations.NotNull;
 import org.odata4j.core.OAtomEntity;
+import org.odata4j.edm.EdmSimpleType;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -31,10 +33,23 @@ import java.util.*;
  */
 
 public class EntityGenerator extends BaseTestCase {
+  private static final Set<String> EXPLICIT = new HashSet<String>(Arrays.asList(
+          "NormalizedVersion",
+          "Created",
+          "LastEdited",
+          "Published",
+          "GalleryDetailsUrl",
+          "Summary",
+          "Title",
+          "VersionDownloadCount",
+          "DownloadCount"
+  ));
+
   public static void main(String[] args) throws IOException, JDOMException {
     new MetadataLoaderTest().test_feed_api_not_changed();
 
     final String entity = "PackageEntityImpl";
+    final String values = "PackageTypedValues";
     final String ientityV2 = "PackageEntityV2";
     final String ientityV3 = "PackageEntityV3";
     final String ientityV4 = "PackageEntityV4";
@@ -51,26 +66,33 @@ public class EntityGenerator extends BaseTestCase {
     data.addAll(V2.getData());
     data.addAll(V3.getData());
     data.addAll(V4.getData());
-    new EntityBeanGenerator(entity, Arrays.asList(ientityV2, ientityV3, ientityV4), data).generateSimpleBean();
+    new EntityBeanGenerator(entity, values, Arrays.asList(ientityV2, ientityV3, ientityV4), data).generateSimpleBean();
+
+    final List<MetadataBeanProperty> typed = new ArrayList<MetadataBeanProperty>();
+    for (MetadataBeanProperty property : data) {
+      if (isTyped(property)) typed.add(property);
+    }
+    new EntityValuesGenerator(values, typed).generateSimpleBean();
+  }
+
+  //properties which values are decoded from attribute strings once and are not computed in the entity
+  private static boolean isTyped(@NotNull final MetadataBeanProperty p) {
+    return p.getType() != EdmSimpleType.STRING && !p.isNullable() && !EXPLICIT.contains(p.getName());
+  }
+
+  @NotNull
+  private static String constantName(@NotNull final String propertyName) {
+    return propertyName.replaceAll("(?<!^)(?=[A-Z])", "_").toUpperCase();
   }
 
   private static class EntityBeanGenerator extends BeanGenerator {
+    private final String myValues;
     private final Collection<String> myIentities;
-    private final Set<String> myExplicit = new HashSet<String>(Arrays.asList(
-                "NormalizedVersion",
-                "Created",
-                "LastEdited",
-                "Published",
-                "GalleryDetailsUrl",
-                "Summary",
-                "Title",
-                "VersionDownloadCount",
-                "DownloadCount"
-        ));
-
-
-    private EntityBeanGenerator(String entityName, List<String> ientity, Collection<MetadataBeanProperty> properties) {
+
+
+    private EntityBeanGenerator(String entityName, String values, List<String> ientity, Collection<MetadataBeanProperty> properties) {
       super(entityName, properties);
+      myValues = values;
       myIentities = ientity;
     }
 
@@ -86,6 +108,9 @@ public class EntityGenerator extends BaseTestCase {
     @Override
     protected void generateAfterContent(@NotNull PrintWriter wr) {
       super.generateAfterContent(wr);
+      wr.println("  @NotNull");
+      wr.println("  protected abstract " + myValues + " getTypedValues();");
+      wr.println();
       for (MetadataBeanProperty property : myProperties) {
         String path = property.getAtomPath();
         if (path == null) continue;
@@ -101,9 +126,151 @@ public class EntityGenerator extends BaseTestCase {
 
     @Override
     protected void generateProperty(@NotNull final PrintWriter w, @NotNull final MetadataBeanProperty p) {
-      if (myExplicit.contains(p.getName())) return;
+      if (EXPLICIT.contains(p.getName())) return;
       super.generateProperty(w, p);
     }
+
+    @Override
+    protected void generatePropertyBody(@NotNull PrintWriter wr, @NotNull MetadataBeanProperty p) {
+      if (!isTyped(p)) {
+        super.generatePropertyBody(wr, p);
+        return;
+      }
+      wr.println("{ ");
+      wr.println("    return getTypedValues().get" + p.getName() + "(getValue(" + constantName(p.getName()) + "));");
+      wr.println("  }");
+      wr.println();
+    }
+  }
+
+  private static class EntityValuesGenerator extends MethodsGenerator {
+    private EntityValuesGenerator(String name, Collection<MetadataBeanProperty> properties) {
+      super(name, properties);
+    }
+
+    @NotNull
+    @Override
+    protected String getPackage() {
+      return "jetbrains.buildServer.nuget.server.feed.server.index";
+    }
+
+    @Override
+    protected Collection<String> getImports() {
+      return Arrays.asList(
+              ODataDataFormat.class.getName(),
+              "org.jetbrains.annotations.NotNull",
+              "org.jetbrains.annotations.Nullable",
+              "org.joda.time.LocalDateTime",
+              "java.util.Map",
+              "static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*"
+      );
+    }
+
+    @Override
+    protected void generateTypeComment(@NotNull PrintWriter wr) {
+      wr.println("/**");
+      wr.println(" * Typed values of package entity properties decoded once from package attributes.");
+      wr.println(" * A decoded value is reused only for the same attribute string instance it was decoded from,");
+      wr.println(" * attributes replaced later (e.g. latest version flags computed per request) are decoded on access.");
+      wr.println(" */");
+    }
+
+    @Override
+    protected String getTypeKind() {
+      return "final class";
+    }
+
+    @Override
+    protected String getExtendsString() {
+      return "";
+    }
+
+    @Override
+    protected void generateBeforeContent(@NotNull PrintWriter wr) {
+      wr.println();
+      for (MetadataBeanProperty p : myProperties) {
+        wr.println("  @Nullable private final String my" + p.getName() + "Text;");
+        wr.println("  @Nullable private final " + typeOf(p) + " my" + p.getName() + ";");
+      }
+      wr.println();
+      wr.println("  public " + myName + "(@NotNull final Map<String, String> attributes) {");
+      boolean first = true;
+      for (MetadataBeanProperty p : myProperties) {
+        final String name = p.getName();
+        final String local = Character.toLowerCase(name.charAt(0)) + name.substring(1);
+        if (!first) wr.println();
+        first = false;
+        wr.println("    my" + name + "Text = attributes.get(" + constantName(name) + ");");
+        wr.println("    " + typeOf(p) + " " + local + " = null;");
+        wr.println("    try {");
+        wr.println("      " + local + " = decode" + name + "(my" + name + "Text);");
+        wr.println("    } catch (NumberFormatException e) {");
+        wr.println("      //malformed value is decoded and reported on access");
+        wr.println("    }");
+        wr.println("    my" + name + " = " + local + ";");
+      }
+      wr.println("  }");
+    }
+
+    @Override
+    protected void generateProperty(@NotNull PrintWriter wr, @NotNull MetadataBeanProperty p) {
+      final String name = p.getName();
+      wr.println();
+      wr.println("  @NotNull");
+      wr.println("  public " + typeOf(p) + " get" + name + "(@Nullable final String text) {");
+      wr.println("    if (text == my" + name + "Text && my" + name + " != null) return my" + name + ";");
+      wr.println("    return decode" + name + "(text);");
+      wr.println("  }");
+    }
+
+    @NotNull
+    @Override
+    protected String generatePropertyModifier(@NotNull MetadataBeanProperty p) {
+      return "public ";
+    }
+
+    @Override
+    protected void generatePropertyBody(@NotNull PrintWriter wr, @NotNull MetadataBeanProperty p) {
+    }
+
+    @Override
+    protected void generateAfterContent(@NotNull PrintWriter wr) {
+      for (MetadataBeanProperty p : myProperties) {
+        wr.println();
+        wr.println("  @NotNull");
+        wr.println("  private static " + typeOf(p) + " decode" + p.getName() + "(@Nullable final String v) {");
+        if (p.getType() == EdmSimpleType.DATETIME) {
+          wr.println("    if (v != null) {");
+          wr.println("      final LocalDateTime date = ODataDataFormat.parseDate(v);");
+          wr.println("      if (date != null) return date;");
+          wr.println("    }");
+          wr.println("    return new LocalDateTime();");
+        } else {
+          wr.println("    if (v == null) { ");
+          if (p.getType() == EdmSimpleType.BOOLEAN) {
+            wr.println("      return false;");
+            wr.println("    }");
+            wr.println("    return Boolean.valueOf(v);");
+          } else if (p.getType() == EdmSimpleType.INT32) {
+            wr.println("      return 0;");
+            wr.println("    }");
+            wr.println("    return Integer.parseInt(v);");
+          } else if (p.getType() == EdmSimpleType.INT64) {
+            wr.println("      return 0L;");
+            wr.println("    }");
+            wr.println("    return Long.parseLong(v);");
+          } else {
+            wr.println("    UnsupportedTypeError");
+          }
+        }
+        wr.println("  }");
+      }
+    }
+
+    @NotNull
+    private static String typeOf(@NotNull final MetadataBeanProperty p) {
+      return p.getType().getCanonicalJavaType().getName();
+    }
   }
 
   private static class EntityInterfaceGenerator extends MethodsGenerator {
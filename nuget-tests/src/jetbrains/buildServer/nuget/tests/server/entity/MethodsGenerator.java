@@ -44,9 +44,15 @@ public abstract class MethodsGenerator {
   protected abstract String getExtendsString();
 
 
+  //package of the generated type
+  @NotNull
+  protected String getPackage() {
+    return "jetbrains.buildServer.nuget.server.feed.server.javaFeed.entity";
+  }
+
   public final void generateSimpleBean() throws IOException {
-    final File file = new File("nuget-server/src/jetbrains/buildServer/nuget/server/feed/server/javaFeed/entity/" + myName + ".java");
-    final String pkg = "jetbrains.buildServer.nuget.server.feed.server.javaFeed.entity";
+    final String pkg = getPackage();
+    final File file = new File("nuget-server/src/" + pkg.replace('.', '/') + "/" + myName + ".java");
     FileUtil.createParentDirs(file);
 
     PrintWriter wr = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "utf-8")));
@@ -64,6 +70,7 @@ public abstract class MethodsGenerator {
     }
     wr.println();
 
+    generateTypeComment(wr);
     wr.println("public " + getTypeKind() + " " + myName + " " + getExtendsString() + " { ");
     generateBeforeContent(wr);
     wr.println();
@@ -109,6 +116,9 @@ public abstract class MethodsGenerator {
   protected abstract void generatePropertyBody(@NotNull final PrintWriter wr,
                                                @NotNull final MetadataBeanProperty p);
 
+  protected void generateTypeComment(@NotNull final PrintWriter wr) {
+  }
+
   protected abstract void generateBeforeContent(@NotNull final PrintWriter wr);
   protected abstract void generateAfterContent(@NotNull final PrintWriter wr);
 
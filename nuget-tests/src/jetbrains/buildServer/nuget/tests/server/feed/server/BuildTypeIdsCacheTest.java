@@ -0,0 +1,95 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.BuildTypeIdsCache;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BuildTypeIdsCacheTest extends BaseTestCase {
+  private Mockery m;
+  private ProjectManager myProjectManager;
+  private SBuildType myBuildType;
+  private EventDispatcher<BuildServerListener> myEvents;
+  private BuildTypeIdsCache myCache;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    m = new Mockery();
+    myProjectManager = m.mock(ProjectManager.class);
+    myBuildType = m.mock(SBuildType.class);
+    myEvents = EventDispatcher.create(BuildServerListener.class);
+    myCache = new BuildTypeIdsCache(myProjectManager, myEvents);
+
+    m.checking(new Expectations(){{
+      allowing(myBuildType).getBuildTypeId(); will(returnValue("bt1"));
+    }});
+  }
+
+  @Test
+  public void test_ids_resolved_once() {
+    m.checking(new Expectations(){{
+      oneOf(myProjectManager).findBuildTypeById("bt1"); will(returnValue(myBuildType));
+      oneOf(myBuildType).getExternalId(); will(returnValue("Project_Build"));
+      oneOf(myProjectManager).findProjectId("bt1"); will(returnValue("project1"));
+      oneOf(myProjectManager).findBuildTypeById("bt2"); will(returnValue(null));
+    }});
+
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(myCache.getExternalId("bt1"), "Project_Build");
+      Assert.assertEquals(myCache.getProjectId("bt1"), "project1");
+      Assert.assertNull(myCache.getExternalId("bt2"));
+    }
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_external_id_changed() {
+    m.checking(new Expectations(){{
+      exactly(2).of(myProjectManager).findBuildTypeById("bt1"); will(returnValue(myBuildType));
+      exactly(2).of(myBuildType).getExternalId(); will(onConsecutiveCalls(returnValue("Old"), returnValue("New")));
+    }});
+
+    Assert.assertEquals(myCache.getExternalId("bt1"), "Old");
+    myEvents.getMulticaster().buildTypeExternalIdChanged(myBuildType, "Old", "New");
+    Assert.assertEquals(myCache.getExternalId("bt1"), "New");
+    Assert.assertEquals(myCache.getExternalId("bt1"), "New");
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_failure_not_cached() {
+    m.checking(new Expectations(){{
+      oneOf(myProjectManager).findProjectId("bt1"); will(throwException(new RuntimeException("bt1")));
+      oneOf(myProjectManager).findProjectId("bt1"); will(returnValue("project1"));
+    }});
+
+    Assert.assertNull(myCache.getProjectId("bt1"));
+    Assert.assertEquals(myCache.getProjectId("bt1"), "project1");
+    m.assertIsSatisfied();
+  }
+}
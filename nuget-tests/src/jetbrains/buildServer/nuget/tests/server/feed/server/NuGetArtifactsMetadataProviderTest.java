@@ -0,0 +1,335 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndexUpdater;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetArtifactsMetadataProvider;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.ODataDataFormat;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexingQueue;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache.ResponseCacheReset;
+import jetbrains.buildServer.nuget.tests.integration.Paths;
+import jetbrains.buildServer.serverSide.BuildsManager;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifacts;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifactsViewMode;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorageWriter;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+import static jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex.*;
+import static jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetArtifactsMetadataProvider.NUGET_PROVIDER_ID;
+
+public class NuGetArtifactsMetadataProviderTest extends BaseTestCase {
+  private Mockery m;
+  private MetadataStorage myStorage;
+  private MetadataStorageWriter myWriter;
+  private PackagesIndexUpdater myIndexUpdater;
+  private BuildsManager myBuilds;
+  private PackagesIndexingQueue myQueue;
+  private NuGetArtifactsMetadataProvider myProvider;
+  private CountDownLatch myRelease;
+  private List<String> myWrittenEntries;
+  private Map<String, Map<String, String>> myWrittenMetadata;
+  private List<List<String>> myIndexedEntries;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    m = new Mockery();
+    myStorage = m.mock(MetadataStorage.class);
+    myWriter = m.mock(MetadataStorageWriter.class);
+    myIndexUpdater = m.mock(PackagesIndexUpdater.class);
+    myBuilds = m.mock(BuildsManager.class);
+    myQueue = new PackagesIndexingQueue(1, 10);
+    myRelease = new CountDownLatch(1);
+    myWrittenEntries = Collections.synchronizedList(new ArrayList<String>());
+    myWrittenMetadata = Collections.synchronizedMap(new HashMap<String, Map<String, String>>());
+    myIndexedEntries = Collections.synchronizedList(new ArrayList<List<String>>());
+
+    final NuGetServerSettings settings = m.mock(NuGetServerSettings.class);
+    final ResponseCacheReset reset = m.mock(ResponseCacheReset.class);
+    m.checking(new Expectations(){{
+      allowing(settings).isNuGetServerEnabled(); will(returnValue(true));
+      allowing(reset).resetCache();
+      never(myWriter).addParameters(with(any(String.class)), with(any(Map.class)));
+
+      allowing(myStorage).addParameters(with(any(Long.class)), with(equal(NUGET_PROVIDER_ID)), with(any(String.class)), with(any(Map.class)));
+      will(new CustomAction("record written entry") {
+        @SuppressWarnings("unchecked")
+        public Object invoke(Invocation invocation) throws Throwable {
+          final String entry = invocation.getParameter(0) + ":" + invocation.getParameter(2);
+          myWrittenEntries.add(entry);
+          myWrittenMetadata.put(entry, new HashMap<String, String>((Map<String, String>) invocation.getParameter(3)));
+          return null;
+        }
+      });
+      allowing(myIndexUpdater).addEntries(with(any(Collection.class)));
+      will(new CustomAction("record indexed entries") {
+        public Object invoke(Invocation invocation) throws Throwable {
+          final List<String> entries = new ArrayList<String>();
+          for (Object entry : (Collection<?>) invocation.getParameter(0)) {
+            entries.add(((BuildMetadataEntry) entry).getBuildId() + ":" + ((BuildMetadataEntry) entry).getKey());
+          }
+          myIndexedEntries.add(entries);
+          return null;
+        }
+      });
+    }});
+
+    myProvider = new NuGetArtifactsMetadataProvider(reset, settings, myIndexUpdater, myStorage, myQueue, myBuilds);
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    myRelease.countDown();
+    myQueue.dispose();
+    myProvider.dispose();
+    super.tearDown();
+  }
+
+  @Test
+  public void test_queued_packages_indexed_one_by_one() throws Exception {
+    final SBuild build = createBuild(7, "NuGet.Core.1.5.20902.9026.nupkg", "WebActivator.1.4.4.nupkg");
+    allowFindNoContent();
+    allowFindBuild(build);
+    blockQueue();
+
+    myProvider.generateMedatadata(build, myWriter);
+    Assert.assertTrue(myWrittenEntries.isEmpty());
+
+    myRelease.countDown();
+    waitForQueue();
+
+    Assert.assertEquals(new HashSet<String>(myWrittenEntries), new HashSet<String>(Arrays.asList("7:NuGet.Core", "7:WebActivator")));
+    //each package is added to the index as soon as it is written
+    Assert.assertEquals(myIndexedEntries.size(), 2);
+    for (List<String> entries : myIndexedEntries) {
+      Assert.assertEquals(entries.size(), 1);
+    }
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_packages_of_removed_build_skipped() throws Exception {
+    final SBuild build = createBuild(7, "NuGet.Core.1.5.20902.9026.nupkg");
+    allowFindNoContent();
+    blockQueue();
+
+    myProvider.generateMedatadata(build, myWriter);
+    m.checking(new Expectations(){{
+      allowing(myBuilds).findBuildInstanceById(7); will(returnValue(null));
+    }});
+    myRelease.countDown();
+    waitForQueue();
+
+    Assert.assertTrue(myWrittenEntries.isEmpty());
+    Assert.assertTrue(myIndexedEntries.isEmpty());
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_cancelled_packages_skipped() throws Exception {
+    final SBuild build = createBuild(7, "NuGet.Core.1.5.20902.9026.nupkg", "WebActivator.1.4.4.nupkg");
+    allowFindNoContent();
+    allowFindBuild(build);
+    blockQueue();
+
+    myProvider.generateMedatadata(build, myWriter);
+    Assert.assertEquals(myQueue.getSize(), 3);
+    myProvider.cancelQueuedPackages(7);
+    Assert.assertEquals(myQueue.getSize(), 1);
+
+    myRelease.countDown();
+    waitForQueue();
+
+    Assert.assertTrue(myWrittenEntries.isEmpty());
+    Assert.assertTrue(myIndexedEntries.isEmpty());
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_reindexed_build_cancels_queued_packages() throws Exception {
+    final SBuild build = createBuild(7, "NuGet.Core.1.5.20902.9026.nupkg");
+    allowFindNoContent();
+    allowFindBuild(build);
+    blockQueue();
+
+    myProvider.generateMedatadata(build, myWriter);
+    myProvider.generateMedatadata(build, myWriter);
+    Assert.assertEquals(myQueue.getSize(), 2);
+
+    myRelease.countDown();
+    waitForQueue();
+
+    Assert.assertEquals(myWrittenEntries, Collections.singletonList("7:NuGet.Core"));
+    Assert.assertEquals(myIndexedEntries.size(), 1);
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_metadata_of_same_content_reused() throws Exception {
+    final SBuild build7 = createBuild(7, "NuGet.Core.1.5.20902.9026.nupkg");
+    final SBuild build8 = createBuild(8, "NuGet.Core.1.5.20902.9026.nupkg");
+    allowFindBuild(build7);
+    allowFindBuild(build8);
+    final Map<String, String> sameContent = new HashMap<String, String>();
+    m.checking(new Expectations(){{
+      allowing(myIndexUpdater).findMetadataByContent(with(any(Long.class)), with(any(String.class))); will(new CustomAction("find same content") {
+        public Object invoke(Invocation invocation) throws Throwable {
+          final String hash = (String) invocation.getParameter(1);
+          return sameContent.isEmpty() || !hash.equals(sameContent.get(PACKAGE_HASH)) ? null : sameContent;
+        }
+      });
+    }});
+
+    myProvider.generateMedatadata(build7, myWriter);
+    waitForQueue();
+    final Map<String, String> metadata7 = myWrittenMetadata.get("7:NuGet.Core");
+    Assert.assertNotNull(metadata7);
+
+    //the title differs from .nuspec file, so it is seen whether the package was read
+    sameContent.putAll(metadata7);
+    sameContent.put(TITLE, "Stored title");
+    sameContent.put("custom", "value of another build");
+    myProvider.generateMedatadata(build8, myWriter);
+    waitForQueue();
+    final Map<String, String> metadata8 = myWrittenMetadata.get("8:NuGet.Core");
+    Assert.assertNotNull(metadata8);
+
+    Assert.assertEquals(metadata8.get(TITLE), "Stored title");
+    Assert.assertFalse(metadata8.containsKey("custom"));
+    Assert.assertEquals(metadata8.get(ID), "NuGet.Core");
+    Assert.assertEquals(metadata8.get(VERSION), metadata7.get(VERSION));
+    Assert.assertEquals(metadata8.get(PACKAGE_HASH), metadata7.get(PACKAGE_HASH));
+    Assert.assertEquals(metadata8.get(PACKAGE_SIZE), metadata7.get(PACKAGE_SIZE));
+    Assert.assertEquals(metadata8.get(TEAMCITY_FRAMEWORK_CONSTRAINTS), metadata7.get(TEAMCITY_FRAMEWORK_CONSTRAINTS));
+    Assert.assertEquals(metadata8.get(TEAMCITY_BUILD_TYPE_ID), "bt8");
+    Assert.assertEquals(metadata8.get(LAST_UPDATED), ODataDataFormat.formatDate(new Date(8000)));
+    Assert.assertFalse(metadata8.get(LAST_UPDATED).equals(metadata7.get(LAST_UPDATED)));
+    m.assertIsSatisfied();
+  }
+
+  private void allowFindNoContent() {
+    m.checking(new Expectations(){{
+      allowing(myIndexUpdater).findMetadataByContent(with(any(Long.class)), with(any(String.class))); will(returnValue(null));
+    }});
+  }
+
+  private void allowFindBuild(@NotNull final SBuild build) {
+    m.checking(new Expectations(){{
+      allowing(myBuilds).findBuildInstanceById(build.getBuildId()); will(returnValue(build));
+    }});
+  }
+
+  /**
+   * Occupies the only thread of the queue until {@link #myRelease} is released
+   */
+  private void blockQueue() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    Assert.assertTrue(myQueue.offer(0, "blocker", 0, new Runnable() {
+      public void run() {
+        started.countDown();
+        try {
+          myRelease.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }));
+    Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+  }
+
+  private void waitForQueue() throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 30 * 1000;
+    while (myQueue.getSize() > 0) {
+      Assert.assertTrue(System.currentTimeMillis() < deadline, "Packages were not indexed in time");
+      Thread.sleep(10);
+    }
+  }
+
+  @NotNull
+  private SBuild createBuild(final long buildId, @NotNull final String... packageNames) throws IOException {
+    final SBuild build = m.mock(SBuild.class, "build-" + buildId + "-" + System.nanoTime());
+    final BuildArtifacts artifacts = m.mock(BuildArtifacts.class, "artifacts-" + build);
+    final BuildArtifact root = m.mock(BuildArtifact.class, "root-" + build);
+    final File artifactsDirectory = createTempDir();
+
+    final List<BuildArtifact> children = new ArrayList<BuildArtifact>();
+    for (String packageName : packageNames) {
+      final File packageFile = new File(artifactsDirectory, packageName);
+      FileUtil.copy(Paths.getTestDataPath("packages/" + packageName), packageFile);
+      children.add(createArtifact(packageFile, build));
+    }
+
+    m.checking(new Expectations(){{
+      allowing(build).getBuildId(); will(returnValue(buildId));
+      allowing(build).getBuildTypeId(); will(returnValue("bt" + buildId));
+      allowing(build).getBuildType(); will(returnValue(null));
+      allowing(build).getFinishDate(); will(returnValue(new Date(buildId * 1000)));
+      allowing(build).getArtifactsDirectory(); will(returnValue(artifactsDirectory));
+      allowing(build).getArtifacts(BuildArtifactsViewMode.VIEW_ALL); will(returnValue(artifacts));
+      ignoring(build);
+
+      allowing(artifacts).getRootArtifact(); will(returnValue(root));
+      allowing(root).isDirectory(); will(returnValue(true));
+      allowing(root).getChildren(); will(returnValue(children));
+    }});
+    return build;
+  }
+
+  @NotNull
+  private BuildArtifact createArtifact(@NotNull final File packageFile, @NotNull final SBuild build) {
+    final BuildArtifact artifact = m.mock(BuildArtifact.class, "artifact-" + packageFile.getName() + "-" + build);
+    m.checking(new Expectations(){{
+      allowing(artifact).isDirectory(); will(returnValue(false));
+      allowing(artifact).getName(); will(returnValue(packageFile.getName()));
+      allowing(artifact).getRelativePath(); will(returnValue(packageFile.getName()));
+      allowing(artifact).getSize(); will(returnValue(packageFile.length()));
+      allowing(artifact).getTimestamp(); will(returnValue(packageFile.lastModified()));
+      allowing(artifact).getInputStream(); will(new CustomAction("open file") {
+        public Object invoke(Invocation invocation) throws Throwable {
+          return new FileInputStream(packageFile);
+        }
+      });
+    }});
+    return artifact;
+  }
+}
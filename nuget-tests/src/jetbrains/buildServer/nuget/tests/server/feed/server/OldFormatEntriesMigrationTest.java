@@ -0,0 +1,168 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndexUpdater;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetMetadataEntry;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.ODataDataFormat;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.OldFormatEntriesMigration;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.BuildsManager;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
+import jetbrains.buildServer.serverSide.executors.ExecutorServices;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import jetbrains.buildServer.util.CollectionsUtil;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jetbrains.annotations.NotNull;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+import static jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex.TEAMCITY_ARTIFACT_RELPATH;
+import static jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex.TEAMCITY_BUILD_TYPE_ID;
+import static jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetArtifactsMetadataProvider.NUGET_PROVIDER_ID;
+
+public class OldFormatEntriesMigrationTest extends BaseTestCase {
+  private Mockery m;
+  private MetadataStorage myStorage;
+  private BuildsManager myBuilds;
+  private PackagesIndexUpdater myUpdater;
+  private List<BuildMetadataEntry> myEntries;
+  private OldFormatEntriesMigration myMigration;
+  private Runnable myOnRebuilt;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    m = new Mockery();
+    myStorage = m.mock(MetadataStorage.class);
+    myBuilds = m.mock(BuildsManager.class);
+    myUpdater = m.mock(PackagesIndexUpdater.class);
+    myEntries = new ArrayList<BuildMetadataEntry>();
+    myOnRebuilt = null;
+    myMigration = new OldFormatEntriesMigration(myStorage, myBuilds, myUpdater,
+            m.mock(ExecutorServices.class), EventDispatcher.create(BuildServerListener.class));
+
+    m.checking(new Expectations(){{
+      allowing(myStorage).getAllEntries(NUGET_PROVIDER_ID); will(returnIterator(myEntries));
+    }});
+  }
+
+  @Test
+  public void test_old_entries_migrated() {
+    final SFinishedBuild build = m.mock(SFinishedBuild.class);
+    final Date finishDate = new Date(1000);
+    myEntries.add(new NuGetMetadataEntry(7, "Foo", CollectionsUtil.asMap(ID, "Foo", VERSION, "1.0", TEAMCITY_ARTIFACT_RELPATH, "Foo.1.0.nupkg")));
+    myEntries.add(new NuGetMetadataEntry(8, "Bar", CollectionsUtil.asMap(ID, "Bar", VERSION, "1.0", TEAMCITY_BUILD_TYPE_ID, "bt2")));
+
+    m.checking(new Expectations(){{
+      oneOf(myBuilds).findBuildInstanceById(7); will(returnValue(build));
+      allowing(build).getBuildTypeId(); will(returnValue("bt1"));
+      allowing(build).getFinishDate(); will(returnValue(finishDate));
+      oneOf(myStorage).addParameters(7, NUGET_PROVIDER_ID, "Foo", CollectionsUtil.asMap(
+              ID, "Foo", VERSION, "1.0", TEAMCITY_ARTIFACT_RELPATH, "Foo.1.0.nupkg",
+              TEAMCITY_BUILD_TYPE_ID, "bt1", LAST_UPDATED, ODataDataFormat.formatDate(finishDate)));
+      oneOf(myUpdater).rebuild(with(any(Runnable.class))); will(captureOnRebuilt());
+    }});
+
+    Assert.assertFalse(myMigration.isCompleted());
+    myMigration.migrate();
+
+    Assert.assertTrue(myMigration.isCompleted());
+    final OldFormatEntriesMigration.MigratedBuild migrated = myMigration.getMigratedBuild(7);
+    Assert.assertNotNull(migrated);
+    Assert.assertEquals(migrated.getBuildTypeId(), "bt1");
+    Assert.assertNull(myMigration.getMigratedBuild(8));
+
+    //migrated entries are read back by the index
+    Assert.assertNotNull(myOnRebuilt);
+    myOnRebuilt.run();
+    Assert.assertNull(myMigration.getMigratedBuild(7));
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_not_written_entries_resolved_after_rebuild() {
+    final SFinishedBuild build7 = m.mock(SFinishedBuild.class, "build7");
+    final SFinishedBuild build8 = m.mock(SFinishedBuild.class, "build8");
+    myEntries.add(new NuGetMetadataEntry(7, "Foo", CollectionsUtil.asMap(ID, "Foo", VERSION, "1.0")));
+    myEntries.add(new NuGetMetadataEntry(8, "Bar", CollectionsUtil.asMap(ID, "Bar", VERSION, "1.0")));
+
+    m.checking(new Expectations(){{
+      oneOf(myBuilds).findBuildInstanceById(7); will(returnValue(build7));
+      oneOf(myBuilds).findBuildInstanceById(8); will(returnValue(build8));
+      allowing(build7).getBuildTypeId(); will(returnValue("bt1"));
+      allowing(build8).getBuildTypeId(); will(returnValue("bt2"));
+      allowing(build7).getFinishDate(); will(returnValue(new Date(1000)));
+      allowing(build8).getFinishDate(); will(returnValue(new Date(2000)));
+      oneOf(myStorage).addParameters(with(equal(7L)), with(equal(NUGET_PROVIDER_ID)), with(equal("Foo")), with(any(Map.class)));
+      oneOf(myStorage).addParameters(with(equal(8L)), with(equal(NUGET_PROVIDER_ID)), with(equal("Bar")), with(any(Map.class)));
+      will(throwException(new IllegalStateException("failed")));
+      oneOf(myUpdater).rebuild(with(any(Runnable.class))); will(captureOnRebuilt());
+    }});
+
+    myMigration.migrate();
+    Assert.assertNotNull(myOnRebuilt);
+    myOnRebuilt.run();
+
+    Assert.assertNull(myMigration.getMigratedBuild(7));
+    final OldFormatEntriesMigration.MigratedBuild migrated = myMigration.getMigratedBuild(8);
+    Assert.assertNotNull(migrated);
+    Assert.assertEquals(migrated.getBuildTypeId(), "bt2");
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_unknown_builds_skipped() {
+    myEntries.add(new NuGetMetadataEntry(7, "Foo", CollectionsUtil.asMap(ID, "Foo", VERSION, "1.0")));
+
+    m.checking(new Expectations(){{
+      oneOf(myBuilds).findBuildInstanceById(7); will(returnValue(null));
+      never(myStorage).addParameters(with(any(Long.class)), with(any(String.class)), with(any(String.class)), with(any(Map.class)));
+      never(myUpdater).rebuild(with(any(Runnable.class)));
+    }});
+
+    myMigration.migrate();
+
+    Assert.assertTrue(myMigration.isCompleted());
+    Assert.assertNull(myMigration.getMigratedBuild(7));
+    m.assertIsSatisfied();
+  }
+
+  @NotNull
+  private CustomAction captureOnRebuilt() {
+    return new CustomAction("capture rebuild action") {
+      public Object invoke(Invocation invocation) throws Throwable {
+        myOnRebuilt = (Runnable) invocation.getParameter(0);
+        return null;
+      }
+    };
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackageAttributesMap;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+
+public class PackageAttributesMapTest extends BaseTestCase {
+  @Test
+  public void test_same_as_hash_map() {
+    final Map<String, String> attributes = new HashMap<String, String>();
+    attributes.put(ID, "Foo");
+    attributes.put(VERSION, "1.0.0");
+    attributes.put("custom", "value");
+
+    final PackageAttributesMap map = new PackageAttributesMap(attributes);
+    Assert.assertEquals(map, attributes);
+    Assert.assertEquals(map.hashCode(), attributes.hashCode());
+    Assert.assertEquals(map.size(), 3);
+    Assert.assertEquals(map.get(ID), "Foo");
+    Assert.assertEquals(map.get(PackageAttributesMap.getSlot(VERSION)), "1.0.0");
+    Assert.assertEquals(map.get("custom"), "value");
+    Assert.assertNull(map.get(TITLE));
+    Assert.assertFalse(map.containsKey(TITLE));
+  }
+
+  @Test
+  public void test_copy_is_independent() {
+    final PackageAttributesMap map = new PackageAttributesMap();
+    map.put(ID, "Foo");
+    map.put("custom", "value");
+
+    final PackageAttributesMap copy = new PackageAttributesMap(map);
+    copy.put(VERSION, "2.0.0");
+    copy.remove("custom");
+
+    Assert.assertEquals(map.size(), 2);
+    Assert.assertNull(map.get(VERSION));
+    Assert.assertEquals(map.get("custom"), "value");
+    Assert.assertEquals(copy.size(), 2);
+    Assert.assertEquals(copy.get(VERSION), "2.0.0");
+  }
+
+  @Test
+  public void test_remove() {
+    final PackageAttributesMap map = new PackageAttributesMap();
+    map.put(ID, "Foo");
+    map.put(TITLE, "Title");
+    map.put(TITLE, null);
+    Assert.assertEquals(map.size(), 1);
+
+    final Iterator<Map.Entry<String, String>> it = map.entrySet().iterator();
+    Assert.assertEquals(it.next().getKey(), ID);
+    it.remove();
+    Assert.assertFalse(it.hasNext());
+    Assert.assertTrue(map.isEmpty());
+  }
+
+  @Test
+  public void test_shared_values_interned() {
+    final PackageAttributesMap map1 = new PackageAttributesMap();
+    final PackageAttributesMap map2 = new PackageAttributesMap();
+    map1.put(AUTHORS, new String("JetBrains"));
+    map2.put(AUTHORS, new String("JetBrains"));
+
+    Assert.assertSame(map1.get(AUTHORS), map2.get(AUTHORS));
+  }
+}
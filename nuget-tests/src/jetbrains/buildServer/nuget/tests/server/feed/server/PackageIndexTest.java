@@ -20,14 +20,21 @@ import com.google.common.collect.Maps;
 import jetbrains.buildServer.BaseTestCase;
 import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
+import jetbrains.buildServer.nuget.server.feed.server.index.NuGetServerStatisticsProvider;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackageTypedValues;
 import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesQuery;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.BuildTypeIdsCache;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetMetadataEntry;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexImpl;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesSnapshotHolder;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.AccessCheckTransformation;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.DownloadUrlComputationTransformation;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.IsPrereleaseTransformation;
-import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.SamePackagesFilterTransformation;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.entity.PackageEntityAdapter;
+import jetbrains.buildServer.nuget.server.util.SemanticVersion;
 import jetbrains.buildServer.nuget.tests.integration.feed.server.MockExternalIdTransformation;
+import jetbrains.buildServer.serverSide.BuildServerListener;
 import jetbrains.buildServer.serverSide.ProjectManager;
 import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
 import jetbrains.buildServer.serverSide.auth.Permission;
@@ -35,6 +42,7 @@ import jetbrains.buildServer.serverSide.auth.SecurityContext;
 import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
 import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
 import jetbrains.buildServer.util.CollectionsUtil;
+import jetbrains.buildServer.util.EventDispatcher;
 import jetbrains.buildServer.util.TestFor;
 import org.jetbrains.annotations.NotNull;
 import org.jmock.Expectations;
@@ -46,6 +54,7 @@ import org.testng.annotations.Test;
 import java.io.UnsupportedEncodingException;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
 
@@ -60,6 +69,7 @@ public class PackageIndexTest extends BaseTestCase {
   private AuthorityHolder myAuthorityHolder;
   private PackagesIndex myIndex;
   private MetadataStorage myStorage;
+  private PackagesSnapshotHolder mySnapshotHolder;
   private List<BuildMetadataEntry> myEntries;
 
   @BeforeMethod
@@ -75,11 +85,12 @@ public class PackageIndexTest extends BaseTestCase {
     m.checking(new Expectations(){{
       allowing(serverSettings).getNuGetFeedControllerPath(); will(returnValue("foo"));
     }});
+    mySnapshotHolder = new PackagesSnapshotHolder(myStorage);
     myIndex = new PackagesIndexImpl(
             myStorage,
+            mySnapshotHolder,
             Arrays.asList(
-                    new SamePackagesFilterTransformation(),
-                    new AccessCheckTransformation(myProjectManager, myContext),
+                    new AccessCheckTransformation(new BuildTypeIdsCache(myProjectManager, EventDispatcher.create(BuildServerListener.class)), myContext),
                     new IsPrereleaseTransformation(),
                     new MockExternalIdTransformation(),
                     new DownloadUrlComputationTransformation(serverSettings)
@@ -137,6 +148,310 @@ public class PackageIndexTest extends BaseTestCase {
     Assert.assertEquals(next.getAttributes().get("teamcity.buildTypeId"), "btY");
   }
 
+  @Test
+  public void test_added_entries() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    assertPackages("Foo.1.2.34:L:A");
+
+    final NuGetMetadataEntry entry = createSnapshotEntry("Foo", "1.2.44", "btX", 9, Collections.<String, String>emptyMap());
+    mySnapshotHolder.addEntries(Arrays.asList(entry, entry));
+
+    assertPackages("Foo.1.2.44:L:A", "Foo.1.2.34");
+
+    mySnapshotHolder.addEntries(Collections.singletonList(entry));
+    assertPackages("Foo.1.2.44:L:A", "Foo.1.2.34");
+  }
+
+  @Test
+  public void test_added_same_packages() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7, packageContent("42", "hash"));
+    assertPackages("Foo.1.2.34:L:A");
+
+    addSnapshotEntry("Foo", "1.2.34", "btY", 9, packageContent("42", "hash"));
+    addSnapshotEntry("Foo", "1.2.34", "btZ", 5, packageContent("42", "hash"));
+
+    //the entry of the newest build is served
+    final Iterator<NuGetIndexEntry> it = myIndex.getNuGetEntries();
+    Assert.assertEquals(it.next().getAttributes().get("teamcity.buildTypeId"), "btY");
+    Assert.assertFalse(it.hasNext());
+    assertStatistics(1, 3, 1);
+
+    final Set<Long> builds = new HashSet<Long>();
+    for (NuGetMetadataEntry entry : mySnapshotHolder.getSnapshot().getEntriesWithContent(42, "hash")) {
+      builds.add(entry.getBuildId());
+    }
+    Assert.assertEquals(builds, new HashSet<Long>(Arrays.asList(5L, 7L, 9L)));
+    Assert.assertEquals(mySnapshotHolder.getSnapshot().getDuplicatesCount(), 2);
+
+    final Map<String, String> found = mySnapshotHolder.findMetadataByContent(42, "hash");
+    Assert.assertNotNull(found);
+    Assert.assertEquals(found.get(VERSION), "1.2.34");
+    Assert.assertNull(mySnapshotHolder.findMetadataByContent(43, "hash"));
+    Assert.assertNull(mySnapshotHolder.findMetadataByContent(42, "other"));
+  }
+
+  @Test
+  public void test_removed_build() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Bar", "1.0.0", "btX", 7);
+    assertStatistics(2, 1, 2);
+
+    addSnapshotEntry("Foo", "1.2.34", "btY", 9);
+    assertStatistics(2, 2, 2);
+
+    //the entry of the older build is served again
+    mySnapshotHolder.removeBuild(9);
+    Iterator<NuGetIndexEntry> it = myIndex.getNuGetEntries("Foo");
+    Assert.assertEquals(it.next().getAttributes().get("teamcity.buildTypeId"), "btX");
+    Assert.assertFalse(it.hasNext());
+    assertStatistics(2, 1, 2);
+    Assert.assertEquals(mySnapshotHolder.getSnapshot().getDuplicatesCount(), 0);
+
+    mySnapshotHolder.removeBuild(7);
+    assertPackages();
+    assertStatistics(0, 0, 0);
+  }
+
+  @Test
+  public void test_rebuild_action_executed_after_load() {
+    final AtomicBoolean rebuilt = new AtomicBoolean();
+    mySnapshotHolder.rebuild(new Runnable() {
+      public void run() {
+        rebuilt.set(true);
+      }
+    });
+    Assert.assertFalse(rebuilt.get());
+
+    mySnapshotHolder.getSnapshot();
+    Assert.assertTrue(rebuilt.get());
+  }
+
+  @Test
+  public void test_index_statistics() {
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Bar", "1.0.0", "btX", 7);
+    addEntry("Foo", "1.2.44", "btX", 9);
+    assertStatistics(3, 2, 2);
+
+    final NuGetMetadataEntry entry = createSnapshotEntry("Zoo", "1.0.0", "btX", 8, Collections.<String, String>emptyMap());
+    mySnapshotHolder.addEntries(Arrays.asList(entry, createSnapshotEntry("Zoo", "1.0.0", "btX", 9, Collections.<String, String>emptyMap())));
+    assertStatistics(4, 3, 3);
+
+    mySnapshotHolder.addEntries(Collections.singletonList(entry));
+    assertStatistics(4, 3, 3);
+  }
+
+  @Test
+  public void test_index_statistics_match_feed() {
+    allowView();
+
+    addEntry("Foo", "1.0.0", "btX", 7);
+    addEntry("foo", "2.0.0", "btX", 8);
+    addEntry("Bar", "1.0.0", "btX", 8);
+    addEntry("Foo", "1.0.0", "btY", 9);
+    assertStatistics(3, 3, 2);
+
+    final Set<String> packageIds = new HashSet<String>();
+    int items = 0;
+    final Iterator<NuGetIndexEntry> it = myIndex.getNuGetEntries();
+    while (it.hasNext()) {
+      packageIds.add(it.next().getAttributes().get(ID).toLowerCase(Locale.ENGLISH));
+      items++;
+    }
+    Assert.assertEquals(items, 3);
+    Assert.assertEquals(packageIds.size(), 2);
+  }
+
+  @Test
+  public void test_entries_by_id() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Bar", "1.0.0", "btX", 8);
+    addEntry("Foo", "1.2.44", "btX", 9);
+    addEntry("Zoo", "3.0.0", "btX", 10);
+
+    assertPackagesCollection(myIndex.getNuGetEntries("Foo"), FlagMode.Exists, "Foo.1.2.34", "Foo.1.2.44");
+    assertPackagesCollection(myIndex.getNuGetEntries("Boo"), FlagMode.Exists);
+  }
+
+  @Test
+  public void test_page_of_entries() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Bar", "1.0.0", "btX", 8);
+    addEntry("Foo", "1.2.44", "btX", 9);
+    addEntry("Zoo", "3.0.0", "btX", 10);
+
+    assertPackagesSorted(myIndex.getNuGetEntries(new PackagesQuery(), null, 1, 2), "Foo.1.2.34", "Foo.1.2.44");
+    assertPackagesSorted(myIndex.getNuGetEntries(new PackagesQuery(), null, 3, 10), "Zoo.3.0.0");
+    assertPackagesSorted(myIndex.getNuGetEntries(new PackagesQuery(), null, 4, 10));
+    assertPackagesCollection(myIndex.getNuGetEntries(new PackagesQuery(), null, 1, 2), FlagMode.IsLatest, "Foo.1.2.44");
+
+    final Comparator<NuGetIndexEntry> newestBuildsFirst = new Comparator<NuGetIndexEntry>() {
+      public int compare(NuGetIndexEntry o1, NuGetIndexEntry o2) {
+        return Long.valueOf(o2.getAttributes().get(PackagesIndex.TEAMCITY_BUILD_ID)).compareTo(Long.valueOf(o1.getAttributes().get(PackagesIndex.TEAMCITY_BUILD_ID)));
+      }
+    };
+    assertPackagesSorted(myIndex.getNuGetEntries(new PackagesQuery(), newestBuildsFirst, 0, 2), "Zoo.3.0.0", "Foo.1.2.44");
+    assertPackagesSorted(myIndex.getNuGetEntries(new PackagesQuery(), newestBuildsFirst, 1, 2), "Foo.1.2.44", "Bar.1.0.0");
+    assertPackagesSorted(myIndex.getNuGetEntries(new PackagesQuery(), newestBuildsFirst, 3, 2), "Foo.1.2.34");
+    assertPackagesCollection(myIndex.getNuGetEntries(new PackagesQuery(), newestBuildsFirst, 1, 2), FlagMode.IsLatest, "Foo.1.2.44");
+  }
+
+  @Test
+  public void test_page_of_entries_by_query() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Bar", "1.0.0", "btX", 8);
+    addEntry("Foo", "1.2.44", "btX", 9);
+    addEntry("Zoo", "3.0.0", "btX", 10);
+
+    final PackagesQuery byId = new PackagesQuery();
+    byId.setId("Foo");
+    assertPackagesSorted(myIndex.getNuGetEntries(byId, null, 0, 10), "Foo.1.2.34", "Foo.1.2.44");
+    assertPackagesSorted(myIndex.getNuGetEntries(byId, null, 1, 10), "Foo.1.2.44");
+
+    final PackagesQuery latest = new PackagesQuery();
+    latest.setLatestVersion(true);
+    assertPackagesSorted(myIndex.getNuGetEntries(latest, null, 0, 10), "Bar.1.0.0", "Foo.1.2.44", "Zoo.3.0.0");
+
+    final PackagesQuery latestById = new PackagesQuery();
+    latestById.setPackageIds(new HashSet<String>(Arrays.asList("foo", "zoo")));
+    latestById.setLatestVersion(true);
+    assertPackagesSorted(myIndex.getNuGetEntries(latestById, null, 0, 1), "Foo.1.2.44");
+
+    final PackagesQuery byVersion = new PackagesQuery();
+    byVersion.setId("Foo");
+    byVersion.setVersion("1.2.34");
+    assertPackagesCollection(myIndex.getNuGetEntries(byVersion, null, 0, 10), FlagMode.IsLatest);
+    assertPackagesSorted(myIndex.getNuGetEntries(byVersion, null, 0, 10), "Foo.1.2.34");
+  }
+
+  @Test
+  public void test_entries_by_id_ignore_case() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("foo", "1.2.40", "btX", 8);
+    addEntry("FOO", "1.2.38", "btX", 9);
+
+    assertPackagesSorted(myIndex.getNuGetEntries("fOo"), "Foo.1.2.34", "FOO.1.2.38", "foo.1.2.40");
+  }
+
+  @Test
+  public void test_entries_by_ids() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Bar", "1.0.0", "btX", 8);
+    addEntry("Foo", "1.2.44", "btX", 9);
+    addEntry("Zoo", "3.0.0", "btX", 10);
+
+    assertPackagesCollection(myIndex.getNuGetEntries(Arrays.asList("foo", "BAR", "Foo", "Boo")), FlagMode.Exists, "Foo.1.2.34", "Foo.1.2.44", "Bar.1.0.0");
+    assertPackagesCollection(myIndex.getNuGetEntries(Arrays.asList("foo", "BAR")), FlagMode.IsLatest, "Foo.1.2.44", "Bar.1.0.0");
+  }
+
+  @Test
+  public void test_entries_newer_than() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Foo", "1.2.38-beta", "btX", 8);
+    addEntry("Foo", "1.2.38", "btX", 9);
+    addEntry("Foo", "1.3.0", "btX", 10);
+
+    assertPackagesCollection(myIndex.getNuGetEntriesNewerThan("foo", SemanticVersion.valueOf("1.2.34")), FlagMode.Exists, "Foo.1.2.38-beta", "Foo.1.2.38", "Foo.1.3.0");
+    assertPackagesCollection(myIndex.getNuGetEntriesNewerThan("foo", SemanticVersion.valueOf("1.2.38")), FlagMode.IsLatest, "Foo.1.3.0");
+    assertPackagesCollection(myIndex.getNuGetEntriesNewerThan("foo", SemanticVersion.valueOf("1.3")), FlagMode.Exists);
+  }
+
+  @Test
+  public void test_latest_entries() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Foo", "1.2.38", "btX", 8);
+    addEntry("Foo", "1.3.0-beta", "btX", 9);
+    addEntry("Bar", "1.0.0-alpha", "btX", 10);
+    addEntry("Bar", "1.0.0-beta", "btX", 11);
+    addEntry("Zoo", "3.0.0", "btX", 12);
+
+    assertPackagesSorted(myIndex.getLatestNuGetEntries(), "Bar.1.0.0-beta", "Foo.1.2.38", "Foo.1.3.0-beta", "Zoo.3.0.0");
+    assertPackagesCollection(myIndex.getLatestNuGetEntries(), FlagMode.IsLatest, "Foo.1.2.38", "Zoo.3.0.0");
+    assertPackagesCollection(myIndex.getLatestNuGetEntries(), FlagMode.IsAbsoluteLatest, "Bar.1.0.0-beta", "Foo.1.3.0-beta", "Zoo.3.0.0");
+  }
+
+  @Test
+  public void test_latest_entries_added() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    assertPackagesSorted(myIndex.getLatestNuGetEntries(), "Foo.1.2.34");
+
+    addSnapshotEntry("Foo", "1.2.44-rc", "btX", 9);
+
+    assertPackagesSorted(myIndex.getLatestNuGetEntries(), "Foo.1.2.34", "Foo.1.2.44-rc");
+    assertPackagesCollection(myIndex.getLatestNuGetEntries(), FlagMode.IsLatest, "Foo.1.2.34");
+    assertPackagesCollection(myIndex.getLatestNuGetEntries(), FlagMode.IsAbsoluteLatest, "Foo.1.2.44-rc");
+  }
+
+  @Test
+  public void test_latest_entries_not_visible() {
+    m.checking(new Expectations() {{
+      allowing(myProjectManager).findProjectId("btX"); will(returnValue("project1"));
+      allowing(myProjectManager).findProjectId("btY"); will(returnValue("project2"));
+      allowing(myAuthorityHolder).isPermissionGrantedForProject("project1", Permission.VIEW_PROJECT); will(returnValue(true));
+      allowing(myAuthorityHolder).isPermissionGrantedForProject("project2", Permission.VIEW_PROJECT); will(returnValue(false));
+    }});
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Foo", "1.2.38", "btY", 8);
+    addEntry("Foo", "1.3.0-beta", "btY", 9);
+
+    assertPackagesSorted(myIndex.getLatestNuGetEntries(), "Foo.1.2.34");
+    assertPackagesCollection(myIndex.getLatestNuGetEntries(), FlagMode.IsAbsoluteLatest, "Foo.1.2.34");
+  }
+
+  @Test
+  public void test_entry_by_id_and_version() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Foo", "1.2.38", "btX", 8);
+    addEntry("Foo", "1.3.0-beta", "btX", 9);
+    addEntry("Bar", "1.0.0", "btX", 10);
+
+    final NuGetIndexEntry latest = myIndex.getNuGetEntry("foo", "1.2.38");
+    Assert.assertNotNull(latest);
+    Assert.assertEquals(latest.getAttributes().get(VERSION), "1.2.38");
+    Assert.assertEquals(latest.getAttributes().get(IS_LATEST_VERSION), "true");
+    Assert.assertEquals(latest.getAttributes().get(IS_ABSOLUTE_LATEST_VERSION), "false");
+
+    final NuGetIndexEntry absoluteLatest = myIndex.getNuGetEntry("FOO", "1.3.0-BETA");
+    Assert.assertNotNull(absoluteLatest);
+    Assert.assertEquals(absoluteLatest.getAttributes().get(VERSION), "1.3.0-beta");
+    Assert.assertEquals(absoluteLatest.getAttributes().get(IS_LATEST_VERSION), "false");
+    Assert.assertEquals(absoluteLatest.getAttributes().get(IS_ABSOLUTE_LATEST_VERSION), "true");
+
+    final NuGetIndexEntry normalized = myIndex.getNuGetEntry("Foo", "1.2.34.0");
+    Assert.assertNotNull(normalized);
+    Assert.assertEquals(normalized.getAttributes().get(VERSION), "1.2.34");
+    Assert.assertEquals(normalized.getAttributes().get(IS_LATEST_VERSION), "false");
+
+    Assert.assertNull(myIndex.getNuGetEntry("Foo", "1.2.35"));
+    Assert.assertNull(myIndex.getNuGetEntry("Bar", "1.2.34"));
+    Assert.assertNull(myIndex.getNuGetEntry("Zoo", "1.0.0"));
+  }
+
   @Test
   @TestFor(issues = "TW-19686")
   public void test_two_package_isLatest_prerelease() {
@@ -161,6 +476,24 @@ public class PackageIndexTest extends BaseTestCase {
     Assert.assertFalse(myIndex.getNuGetEntries().hasNext());
   }
 
+  @Test
+  public void testCheckesProjectAccess_oncePerBuildType() {
+    m.checking(new Expectations() {{
+      oneOf(myProjectManager).findProjectId("btX");
+      will(returnValue("proj1"));
+      oneOf(myProjectManager).findProjectId("btY");
+      will(returnValue("proj1"));
+      oneOf(myAuthorityHolder).isPermissionGrantedForProject("proj1", Permission.VIEW_PROJECT);
+      will(returnValue(true));
+    }});
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Foo", "1.2.35", "btX", 8);
+    addEntry("Bar", "1.0.0", "btY", 9);
+
+    assertPackagesCollection(FlagMode.Exists, "Foo.1.2.34", "Foo.1.2.35", "Bar.1.0.0");
+    m.assertIsSatisfied();
+  }
+
   @Test
   public void testCheckesProjectAccess_exception() {
     m.checking(new Expectations() {{
@@ -344,6 +677,84 @@ public class PackageIndexTest extends BaseTestCase {
     m.assertIsSatisfied();
   }
 
+  @Test
+  public void test_search_words() throws Exception {
+    allowView();
+
+    addEntry("Newtonsoft.Json", "1", "btX", 1, CollectionsUtil.asMap(DESCRIPTION, "Json serializer library"));
+    addEntry("Json.Net", "2", "btX", 2, CollectionsUtil.asMap(TAGS, "json parser"));
+    addEntry("NUnit", "3", "btX", 3, CollectionsUtil.asMap(DESCRIPTION, "Unit testing framework"));
+
+    assertPackagesSorted(myIndex.search("json"), "Json.Net.2", "Newtonsoft.Json.1");
+    assertPackagesSorted(myIndex.search("JSON ser"), "Newtonsoft.Json.1");
+    assertPackagesSorted(myIndex.search("newtonsoft.json"), "Newtonsoft.Json.1");
+    assertPackagesSorted(myIndex.search("json unit"));
+    assertPackagesSorted(myIndex.search(" "), "Json.Net.2", "NUnit.3", "Newtonsoft.Json.1");
+  }
+
+  @Test
+  public void test_search_ranked() throws Exception {
+    allowView();
+
+    addEntry("Newtonsoft.Json", "1", "btX", 1, CollectionsUtil.asMap(DESCRIPTION, "Json serializer library"));
+    addEntry("Json.Net", "2", "btX", 2, CollectionsUtil.asMap(TAGS, "json parser"));
+    addEntry("JsonFx", "3", "btX", 3, CollectionsUtil.asMap(DESCRIPTION, "fast json"));
+    addEntry("Json", "4", "btX", 4);
+    addEntry("Json", "5-beta", "btX", 5);
+    addEntry("NUnit", "6", "btX", 6);
+
+    assertPackagesSorted(myIndex.searchRanked("json", new PackagesQuery()), "Json.4", "Json.5-beta", "Json.Net.2", "Newtonsoft.Json.1", "JsonFx.3");
+    assertPackagesSorted(myIndex.searchRanked("json ser", new PackagesQuery()), "Newtonsoft.Json.1");
+
+    final PackagesQuery latest = new PackagesQuery();
+    latest.setLatestVersion(true);
+    assertPackagesSorted(myIndex.searchRanked("json", latest), "Json.4", "Json.Net.2", "Newtonsoft.Json.1", "JsonFx.3");
+
+    final PackagesQuery absoluteLatest = new PackagesQuery();
+    absoluteLatest.setAbsoluteLatestVersion(true);
+    assertPackagesSorted(myIndex.searchRanked("json", absoluteLatest), "Json.5-beta", "Json.Net.2", "Newtonsoft.Json.1", "JsonFx.3");
+  }
+
+  @Test
+  public void test_find_package_ids_containing() throws Exception {
+    addEntry("Newtonsoft.Json", "1", "btX", 1, CollectionsUtil.asMap(DESCRIPTION, "Json serializer library"));
+    addEntry("Json.Net", "2", "btX", 2, CollectionsUtil.asMap(TAGS, "json parser"));
+    addEntry("NUnit", "3", "btX", 3, CollectionsUtil.asMap(DESCRIPTION, "Unit testing framework", TITLE, "Serializer"));
+
+    Assert.assertEquals(myIndex.findPackageIdsContaining(ID, "JSON"), new HashSet<String>(Arrays.asList("newtonsoft.json", "json.net")));
+    Assert.assertEquals(myIndex.findPackageIdsContaining(ID, "soft.j"), Collections.singleton("newtonsoft.json"));
+    Assert.assertEquals(myIndex.findPackageIdsContaining(DESCRIPTION, "serial"), Collections.singleton("newtonsoft.json"));
+    Assert.assertEquals(myIndex.findPackageIdsContaining(TAGS, " parser"), Collections.singleton("json.net"));
+    Assert.assertEquals(myIndex.findPackageIdsContaining(TAGS, "xml"), Collections.emptySet());
+    Assert.assertNull(myIndex.findPackageIdsContaining(ID, "js"));
+    Assert.assertNull(myIndex.findPackageIdsContaining(TITLE, "serial"));
+  }
+
+  @Test
+  public void test_find_package_ids_containing_removed_build() throws Exception {
+    addEntry("Newtonsoft.Json", "1", "btX", 1, CollectionsUtil.asMap(DESCRIPTION, "Json serializer library"));
+    addEntry("Newtonsoft.Json", "2", "btX", 2, CollectionsUtil.asMap(DESCRIPTION, "Json library"));
+    addEntry("Json.Net", "3", "btX", 3, CollectionsUtil.asMap(TAGS, "json parser"));
+    Assert.assertEquals(myIndex.findPackageIdsContaining(DESCRIPTION, "serial"), Collections.singleton("newtonsoft.json"));
+
+    //trigrams contained in the remaining version of the package are kept
+    mySnapshotHolder.removeBuild(1);
+    Assert.assertEquals(myIndex.findPackageIdsContaining(DESCRIPTION, "serial"), Collections.emptySet());
+    Assert.assertEquals(myIndex.findPackageIdsContaining(DESCRIPTION, "library"), Collections.singleton("newtonsoft.json"));
+    Assert.assertEquals(myIndex.findPackageIdsContaining(ID, "JSON"), new HashSet<String>(Arrays.asList("newtonsoft.json", "json.net")));
+
+    mySnapshotHolder.removeBuild(3);
+    Assert.assertEquals(myIndex.findPackageIdsContaining(ID, "JSON"), Collections.singleton("newtonsoft.json"));
+    Assert.assertEquals(myIndex.findPackageIdsContaining(TAGS, " parser"), Collections.emptySet());
+  }
+
+  private void assertStatistics(long items, long builds, long packageIds) {
+    final Map<String, Long> stats = ((NuGetServerStatisticsProvider) myIndex).getIndexStatistics();
+    Assert.assertEquals(stats.get(NuGetServerStatisticsProvider.TOTAL_NUMBER_OF_ITEMS_STAT), Long.valueOf(items));
+    Assert.assertEquals(stats.get(NuGetServerStatisticsProvider.NUMBER_OF_INDEXED_BUILDS_STAT), Long.valueOf(builds));
+    Assert.assertEquals(stats.get(NuGetServerStatisticsProvider.NUMBER_OF_PACKAGE_IDS_STAT), Long.valueOf(packageIds));
+  }
+
   private void addEntry(final String packageId, final String packageVersion, final String buildTypeId, final long buildId){
     addEntry(packageId, packageVersion, buildTypeId, buildId, Maps.<String, String>newHashMap());
   }
@@ -376,6 +787,33 @@ public class PackageIndexTest extends BaseTestCase {
     });
   }
 
+  private void addSnapshotEntry(final String packageId, final String packageVersion, final String buildTypeId, final long buildId) {
+    addSnapshotEntry(packageId, packageVersion, buildTypeId, buildId, Collections.<String, String>emptyMap());
+  }
+
+  private void addSnapshotEntry(final String packageId, final String packageVersion, final String buildTypeId, final long buildId, @NotNull final Map<String, String> extra) {
+    mySnapshotHolder.addEntries(Collections.singletonList(createSnapshotEntry(packageId, packageVersion, buildTypeId, buildId, extra)));
+  }
+
+  @NotNull
+  private static NuGetMetadataEntry createSnapshotEntry(final String packageId, final String packageVersion, final String buildTypeId, final long buildId, @NotNull final Map<String, String> extra) {
+    final Map<String, String> metadata = new HashMap<String, String>(extra);
+    metadata.put("teamcity.buildTypeId", buildTypeId);
+    metadata.put("teamcity.artifactPath", buildTypeId + "/ZZZ");
+    metadata.put(VERSION, packageVersion);
+    metadata.put(ID, packageId);
+    return new NuGetMetadataEntry(buildId, packageId, metadata);
+  }
+
+  @NotNull
+  private static Map<String, String> packageContent(@NotNull final String size, @NotNull final String hash) {
+    final Map<String, String> metadata = new HashMap<String, String>();
+    metadata.put(PACKAGE_SIZE, size);
+    metadata.put(PACKAGE_HASH, hash);
+    metadata.put(PACKAGE_HASH_ALGORITHM, "SHA512");
+    return metadata;
+  }
+
   private void dumpFeed() {
     System.out.println("Dump the feed: ");
     final Iterator<NuGetIndexEntry> it = myIndex.getNuGetEntries();
@@ -400,8 +838,10 @@ public class PackageIndexTest extends BaseTestCase {
   }
 
   private void assertPackagesSorted(@NotNull String... idsEx) {
-    final Iterator<NuGetIndexEntry> it = myIndex.getNuGetEntries();
+    assertPackagesSorted(myIndex.getNuGetEntries(), idsEx);
+  }
 
+  private void assertPackagesSorted(@NotNull Iterator<NuGetIndexEntry> it, @NotNull String... idsEx) {
     int idx = 0;
     while(it.hasNext()) {
       final NuGetIndexEntry p = it.next();
@@ -463,6 +903,12 @@ public class PackageIndexTest extends BaseTestCase {
       protected String getValue(@NotNull String key) {
         return e.getAttributes().get(key);
       }
+
+      @NotNull
+      @Override
+      protected PackageTypedValues getTypedValues() {
+        return e.getTypedValues();
+      }
     };
   }
 }
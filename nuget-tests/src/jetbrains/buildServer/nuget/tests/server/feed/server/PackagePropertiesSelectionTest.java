@@ -0,0 +1,103 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
+import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackageEntityEx;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackagePropertiesSelection;
+import jetbrains.buildServer.util.CollectionsUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jmock.Mockery;
+import org.odata4j.edm.EdmEntityType;
+import org.odata4j.edm.EdmProperty;
+import org.odata4j.edm.EdmSimpleType;
+import org.odata4j.producer.QueryInfo;
+import org.odata4j.producer.resources.OptionsQueryParser;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+
+public class PackagePropertiesSelectionTest extends BaseTestCase {
+  private EdmEntityType myType;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myType = EdmEntityType.newBuilder()
+            .setNamespace("NuGetGallery")
+            .setName("V2FeedPackage")
+            .addKeys(ID, VERSION)
+            .addProperties(
+                    EdmProperty.newBuilder(ID).setType(EdmSimpleType.STRING),
+                    EdmProperty.newBuilder(VERSION).setType(EdmSimpleType.STRING),
+                    EdmProperty.newBuilder(DESCRIPTION).setType(EdmSimpleType.STRING),
+                    EdmProperty.newBuilder(IS_LATEST_VERSION).setType(EdmSimpleType.BOOLEAN))
+            .build();
+  }
+
+  @Test
+  public void test_selected_properties_in_type_order() {
+    final PackagePropertiesSelection selection = new PackagePropertiesSelection(query("IsLatestVersion,Id,Unknown"));
+    Assert.assertTrue(selection.isLimited());
+    Assert.assertEquals(names(selection.getSelectedProperties(myType)), "Id,IsLatestVersion");
+  }
+
+  @Test
+  public void test_not_limited_selection() {
+    Assert.assertFalse(new PackagePropertiesSelection(query(null)).isLimited());
+    Assert.assertFalse(new PackagePropertiesSelection(query("Id,*")).isLimited());
+    Assert.assertFalse(new PackagePropertiesSelection(null).isLimited());
+    Assert.assertNull(new PackagePropertiesSelection(query("*")).getSelectedProperties(myType));
+  }
+
+  @Test
+  public void test_saved_bytes() {
+    final NuGetServerSettings settings = new Mockery().mock(NuGetServerSettings.class);
+    final PackageEntityEx entity = new PackageEntityEx(new NuGetIndexEntry("Foo.1.0", CollectionsUtil.asMap(
+            ID, "Foo", VERSION, "1.0", DESCRIPTION, "0123456789")), settings);
+
+    final PackagePropertiesSelection selection = new PackagePropertiesSelection(query("Id,Version"));
+    selection.onEntityWritten(entity, myType, 2);
+
+    //Description: 2 * 11 + 9 + 10, IsLatestVersion: 2 * 15 + 9
+    final String statistics = selection.getStatistics();
+    Assert.assertTrue(statistics.contains("written 2 properties of 1 entities"), statistics);
+    Assert.assertTrue(statistics.contains("skipped 2 properties, about 80 bytes saved"), statistics);
+  }
+
+  @NotNull
+  private static QueryInfo query(final String select) {
+    return new QueryInfo(null, null, null, null, null, null, null, null, OptionsQueryParser.parseSelect(select));
+  }
+
+  @NotNull
+  private static String names(@NotNull final List<EdmProperty> properties) {
+    final List<String> names = new ArrayList<String>();
+    for (EdmProperty property : properties) {
+      names.add(property.getName());
+    }
+    return names.toString().replace(", ", ",").replace("[", "").replace("]", "");
+  }
+}
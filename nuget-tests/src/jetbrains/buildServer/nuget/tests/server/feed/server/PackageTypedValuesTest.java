@@ -0,0 +1,82 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackageAttributesMap;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackageTypedValues;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.ODataDataFormat;
+import org.joda.time.LocalDateTime;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Date;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+
+public class PackageTypedValuesTest extends BaseTestCase {
+  @Test
+  public void test_values_decoded_once() {
+    final PackageAttributesMap map = new PackageAttributesMap();
+    map.put(PACKAGE_SIZE, "12345");
+    map.put(LAST_UPDATED, ODataDataFormat.formatDate(new Date(1000)));
+    map.put(IS_PRERELEASE, "true");
+
+    final PackageTypedValues values = new PackageTypedValues(map);
+    Assert.assertEquals(values.getPackageSize(map.get(PACKAGE_SIZE)), Long.valueOf(12345));
+    Assert.assertSame(values.getPackageSize(map.get(PACKAGE_SIZE)), values.getPackageSize(map.get(PACKAGE_SIZE)));
+    Assert.assertEquals(values.getLastUpdated(map.get(LAST_UPDATED)), new LocalDateTime(1000));
+    Assert.assertSame(values.getLastUpdated(map.get(LAST_UPDATED)), values.getLastUpdated(map.get(LAST_UPDATED)));
+    Assert.assertTrue(values.getIsPrerelease(map.get(IS_PRERELEASE)));
+  }
+
+  @Test
+  public void test_missing_values() {
+    final PackageAttributesMap map = new PackageAttributesMap();
+    final PackageTypedValues values = new PackageTypedValues(map);
+
+    Assert.assertEquals(values.getPackageSize(null), Long.valueOf(0));
+    Assert.assertFalse(values.getIsLatestVersion(null));
+    Assert.assertFalse(values.getRequireLicenseAcceptance(null));
+    Assert.assertSame(values.getLastUpdated(null), values.getLastUpdated(null));
+  }
+
+  @Test
+  public void test_changed_values_decoded_on_access() {
+    final PackageAttributesMap map = new PackageAttributesMap();
+    map.put(IS_LATEST_VERSION, "false");
+    map.put(PACKAGE_SIZE, "1");
+    final PackageTypedValues values = new PackageTypedValues(map);
+
+    final PackageAttributesMap copy = new PackageAttributesMap(map);
+    copy.put(IS_LATEST_VERSION, String.valueOf(true));
+    copy.put(PACKAGE_SIZE, "2");
+
+    Assert.assertTrue(values.getIsLatestVersion(copy.get(IS_LATEST_VERSION)));
+    Assert.assertEquals(values.getPackageSize(copy.get(PACKAGE_SIZE)), Long.valueOf(2));
+    Assert.assertEquals(values.getPackageSize(map.get(PACKAGE_SIZE)), Long.valueOf(1));
+  }
+
+  @Test(expectedExceptions = NumberFormatException.class)
+  public void test_malformed_value_fails_on_access() {
+    final PackageAttributesMap map = new PackageAttributesMap();
+    map.put(PACKAGE_SIZE, "not a number");
+
+    final PackageTypedValues values = new PackageTypedValues(map);
+    values.getPackageSize(map.get(PACKAGE_SIZE));
+  }
+}
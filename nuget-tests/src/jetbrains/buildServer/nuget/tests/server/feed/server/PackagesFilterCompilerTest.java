@@ -0,0 +1,128 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
+import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackageEntityEx;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackagesFilterCompiler;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.entity.PackageEntity;
+import jetbrains.buildServer.util.CollectionsUtil;
+import org.core4j.Predicate1;
+import org.jetbrains.annotations.NotNull;
+import org.jmock.Mockery;
+import org.odata4j.expression.BoolCommonExpression;
+import org.odata4j.producer.inmemory.BeanBasedPropertyModel;
+import org.odata4j.producer.inmemory.InMemoryEvaluation;
+import org.odata4j.producer.inmemory.PropertyModel;
+import org.odata4j.producer.resources.OptionsQueryParser;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+
+public class PackagesFilterCompilerTest extends BaseTestCase {
+  private PackagesFilterCompiler myCompiler;
+  private List<PackageEntity> myEntities;
+  private PropertyModel myProperties;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    final Mockery m = new Mockery();
+    final NuGetServerSettings settings = m.mock(NuGetServerSettings.class);
+    myCompiler = new PackagesFilterCompiler();
+    myProperties = new BeanBasedPropertyModel(PackageEntity.class, true);
+    myEntities = new ArrayList<PackageEntity>();
+    myEntities.add(new PackageEntityEx(new NuGetIndexEntry("Foo.1.0", CollectionsUtil.asMap(
+            ID, "Foo", VERSION, "1.0", TAGS, "web json", IS_LATEST_VERSION, "true", IS_ABSOLUTE_LATEST_VERSION, "false", IS_PRERELEASE, "false")), settings));
+    myEntities.add(new PackageEntityEx(new NuGetIndexEntry("foo.bar.2.0-beta", CollectionsUtil.asMap(
+            ID, "foo.bar", VERSION, "2.0-beta", IS_LATEST_VERSION, "false", IS_ABSOLUTE_LATEST_VERSION, "true", IS_PRERELEASE, "true")), settings));
+    myEntities.add(new PackageEntityEx(new NuGetIndexEntry("Bar.1.0", CollectionsUtil.asMap(
+            ID, "Bar", VERSION, "1.0", TITLE, "Bar's package", IS_LATEST_VERSION, "true", IS_ABSOLUTE_LATEST_VERSION, "true", IS_PRERELEASE, "false")), settings));
+  }
+
+  @Test
+  public void test_compiled_filters() {
+    assertCompiled("tolower(Id) eq 'foo'", 1);
+    assertCompiled("Id ne 'Foo' and not IsPrerelease", 1);
+    assertCompiled("substringof('oo', tolower(Id)) or startswith(Title, 'Bar''s')", 3);
+    assertCompiled("IsLatestVersion eq true and not (IsAbsoluteLatestVersion)", 1);
+    assertCompiled("true eq IsAbsoluteLatestVersion or IsPrerelease", 2);
+    assertCompiled("endswith(Version, '-beta') and toupper(Id) ne 'FOO'", 1);
+    assertCompiled("(Id eq 'Foo') and (substringof('json', Tags))", 1);
+    assertCompiled("Title eq 'Foo'", 1);
+  }
+
+  @Test
+  public void test_not_supported_filters() {
+    Assert.assertNull(myCompiler.compile(OptionsQueryParser.parseFilter("Version gt '1.0'")));
+    Assert.assertNull(myCompiler.compile(OptionsQueryParser.parseFilter("Id eq null")));
+    Assert.assertNull(myCompiler.compile(OptionsQueryParser.parseFilter("IsLatestVersion and DownloadCount eq 0")));
+    Assert.assertNull(myCompiler.compile(OptionsQueryParser.parseFilter("length(Id) eq 3")));
+    Assert.assertNull(myCompiler.compile(null));
+  }
+
+  @Test
+  public void test_case_conversion_does_not_depend_on_default_locale() {
+    final PackageEntity entity = new PackageEntityEx(new NuGetIndexEntry("Init.1.0", CollectionsUtil.asMap(ID, "Init", VERSION, "1.0")),
+            new Mockery().mock(NuGetServerSettings.class));
+
+    final Locale defaultLocale = Locale.getDefault();
+    Locale.setDefault(new Locale("tr", "TR"));
+    try {
+      final Predicate1<PackageEntity> toLower = myCompiler.compile(OptionsQueryParser.parseFilter("tolower(Id) eq 'init'"));
+      Assert.assertNotNull(toLower);
+      Assert.assertTrue(toLower.apply(entity));
+
+      final Predicate1<PackageEntity> toUpper = myCompiler.compile(OptionsQueryParser.parseFilter("toupper(Id) eq 'INIT'"));
+      Assert.assertNotNull(toUpper);
+      Assert.assertTrue(toUpper.apply(entity));
+    } finally {
+      Locale.setDefault(defaultLocale);
+    }
+  }
+
+  @Test
+  public void test_cached_by_normalized_text() {
+    final Predicate1<PackageEntity> predicate = myCompiler.compile(OptionsQueryParser.parseFilter("Id eq 'Foo' and IsLatestVersion"));
+    Assert.assertNotNull(predicate);
+    Assert.assertSame(myCompiler.compile(OptionsQueryParser.parseFilter("(Id eq 'Foo') and (IsLatestVersion)")), predicate);
+    Assert.assertNotSame(myCompiler.compile(OptionsQueryParser.parseFilter("Id eq 'foo' and IsLatestVersion")), predicate);
+  }
+
+  private void assertCompiled(@NotNull final String filterText, final int expectedCount) {
+    final BoolCommonExpression filter = OptionsQueryParser.parseFilter(filterText);
+    final Predicate1<PackageEntity> predicate = myCompiler.compile(filter);
+    Assert.assertNotNull(predicate, filterText);
+
+    int count = 0;
+    for (PackageEntity entity : myEntities) {
+      final boolean expected = InMemoryEvaluation.evaluate(filter, entity, myProperties);
+      Assert.assertEquals(predicate.apply(entity), expected, filterText + " for " + entity.getId());
+      if (expected) count++;
+    }
+    Assert.assertEquals(count, expectedCount, filterText);
+  }
+}
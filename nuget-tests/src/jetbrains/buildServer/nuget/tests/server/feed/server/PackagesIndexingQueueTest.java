@@ -0,0 +1,165 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexingQueue;
+import org.jetbrains.annotations.NotNull;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PackagesIndexingQueueTest extends BaseTestCase {
+  private PackagesIndexingQueue myQueue;
+  private List<String> myIndexed;
+  private CountDownLatch myRelease;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myQueue = new PackagesIndexingQueue(1, 3);
+    myIndexed = Collections.synchronizedList(new ArrayList<String>());
+    myRelease = new CountDownLatch(1);
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    myRelease.countDown();
+    myQueue.dispose();
+    super.tearDown();
+  }
+
+  @Test
+  public void test_small_packages_first() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    Assert.assertTrue(myQueue.offer(1, "blocker", 0, new Runnable() {
+      public void run() {
+        started.countDown();
+        await(myRelease);
+      }
+    }));
+    Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    Assert.assertTrue(myQueue.offer(1, "large", 200L * 1024 * 1024, index("large")));
+    Assert.assertTrue(myQueue.offer(1, "small", 1024, index("small")));
+    Assert.assertEquals(myQueue.getSize(), 3);
+
+    myRelease.countDown();
+    waitForQueue();
+    Assert.assertEquals(myIndexed, Arrays.asList("small", "large"));
+    Assert.assertEquals(myQueue.getSize(), 0);
+  }
+
+  @Test
+  public void test_full_queue_rejects_packages() throws InterruptedException {
+    for (int i = 0; i < 3; i++) {
+      Assert.assertTrue(myQueue.offer(1, "package " + i, 0, new Runnable() {
+        public void run() {
+          await(myRelease);
+        }
+      }));
+    }
+    Assert.assertFalse(myQueue.offer(1, "rejected", 0, index("rejected")));
+    Assert.assertTrue(myQueue.getLag() >= 0);
+
+    myRelease.countDown();
+    waitForQueue();
+    Assert.assertTrue(myIndexed.isEmpty());
+  }
+
+  @Test
+  public void test_removed_build_packages_dropped() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    Assert.assertTrue(myQueue.offer(1, "blocker", 0, new Runnable() {
+      public void run() {
+        started.countDown();
+        await(myRelease);
+      }
+    }));
+    Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    Assert.assertTrue(myQueue.offer(2, "removed", 0, index("removed")));
+    Assert.assertTrue(myQueue.offer(3, "kept", 0, index("kept")));
+    Assert.assertEquals(myQueue.remove(2), 1);
+    Assert.assertEquals(myQueue.getSize(), 2);
+
+    myRelease.countDown();
+    waitForQueue();
+    Assert.assertEquals(myIndexed, Collections.singletonList("kept"));
+  }
+
+  @Test
+  public void test_dispose_drains_queue() throws InterruptedException {
+    Assert.assertTrue(myQueue.offer(1, "blocker", 0, new Runnable() {
+      public void run() {
+        await(myRelease);
+      }
+    }));
+    Assert.assertTrue(myQueue.offer(2, "waiting", 0, index("waiting")));
+
+    myRelease.countDown();
+    myQueue.dispose();
+    Assert.assertEquals(myIndexed, Collections.singletonList("waiting"));
+    Assert.assertEquals(myQueue.getSize(), 0);
+  }
+
+  @Test
+  public void test_failed_indexing_releases_queue() throws InterruptedException {
+    Assert.assertTrue(myQueue.offer(1, "failing", 0, new Runnable() {
+      public void run() {
+        throw new RuntimeException("failed to index");
+      }
+    }));
+    waitForQueue();
+  }
+
+  @NotNull
+  private Runnable index(@NotNull final String name) {
+    return new Runnable() {
+      public void run() {
+        myIndexed.add(name);
+      }
+    };
+  }
+
+  private void waitForQueue() throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (myQueue.getSize() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(myQueue.getSize(), 0);
+  }
+
+  private static void await(@NotNull final CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
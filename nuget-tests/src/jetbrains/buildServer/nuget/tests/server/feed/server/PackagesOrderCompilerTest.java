@@ -0,0 +1,83 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackagesOrderCompiler;
+import jetbrains.buildServer.util.CollectionsUtil;
+import org.jetbrains.annotations.NotNull;
+import org.odata4j.producer.resources.OptionsQueryParser;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+
+public class PackagesOrderCompilerTest extends BaseTestCase {
+  private List<NuGetIndexEntry> myEntries;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myEntries = new ArrayList<NuGetIndexEntry>();
+    myEntries.add(new NuGetIndexEntry("Foo.1.9", CollectionsUtil.asMap(ID, "Foo", VERSION, "1.9", LAST_UPDATED, "j3000")));
+    myEntries.add(new NuGetIndexEntry("Foo.1.10", CollectionsUtil.asMap(ID, "Foo", VERSION, "1.10", LAST_UPDATED, "j1000")));
+    myEntries.add(new NuGetIndexEntry("Foo.1.10-beta", CollectionsUtil.asMap(ID, "Foo", VERSION, "1.10-beta", LAST_UPDATED, "j2000")));
+    myEntries.add(new NuGetIndexEntry("Bar.2.0", CollectionsUtil.asMap(ID, "Bar", VERSION, "2.0", LAST_UPDATED, "j4000")));
+    myEntries.add(new NuGetIndexEntry("foo.1.0", CollectionsUtil.asMap(ID, "foo", VERSION, "1.0", LAST_UPDATED, "j5000")));
+  }
+
+  @Test
+  public void test_compiled_orders() {
+    assertOrder("Id", "Bar.2.0", "Foo.1.9", "Foo.1.10", "Foo.1.10-beta", "foo.1.0");
+    assertOrder("Id desc,Version", "foo.1.0", "Foo.1.10", "Foo.1.10-beta", "Foo.1.9", "Bar.2.0");
+    assertOrder("Version desc", "Bar.2.0", "Foo.1.9", "Foo.1.10-beta", "Foo.1.10", "foo.1.0");
+    assertOrder("Published", "Foo.1.10", "Foo.1.10-beta", "Foo.1.9", "Bar.2.0", "foo.1.0");
+    assertOrder("DownloadCount desc,LastUpdated desc", "foo.1.0", "Bar.2.0", "Foo.1.9", "Foo.1.10-beta", "Foo.1.10");
+  }
+
+  @Test
+  public void test_ids_and_versions_compared_as_strings() {
+    //the in-memory producer compares Id and Version values as strings, so case variants of an Id are not grouped
+    //and versions are not compared as semantic versions
+    assertOrder("Id,Version", "Bar.2.0", "Foo.1.10", "Foo.1.10-beta", "Foo.1.9", "foo.1.0");
+  }
+
+  @Test
+  public void test_not_supported_orders() {
+    Assert.assertNull(PackagesOrderCompiler.compile(OptionsQueryParser.parseOrderBy("Title")));
+    Assert.assertNull(PackagesOrderCompiler.compile(OptionsQueryParser.parseOrderBy("Id,Title desc")));
+    Assert.assertNull(PackagesOrderCompiler.compile(null));
+  }
+
+  private void assertOrder(@NotNull final String orderBy, @NotNull final String... expectedKeys) {
+    final Comparator<NuGetIndexEntry> order = PackagesOrderCompiler.compile(OptionsQueryParser.parseOrderBy(orderBy));
+    Assert.assertNotNull(order, orderBy);
+
+    final List<NuGetIndexEntry> sorted = new ArrayList<NuGetIndexEntry>(myEntries);
+    Collections.sort(sorted, order);
+    final List<String> keys = new ArrayList<String>();
+    for (NuGetIndexEntry entry : sorted) {
+      keys.add(entry.getKey());
+    }
+    Assert.assertEquals(keys, Arrays.asList(expectedKeys), orderBy);
+  }
+}
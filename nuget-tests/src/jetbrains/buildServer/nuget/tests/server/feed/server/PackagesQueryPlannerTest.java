@@ -0,0 +1,102 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesQuery;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackagesFilterLookup;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackagesQueryPlanner;
+import org.jetbrains.annotations.NotNull;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.odata4j.expression.Expression;
+import org.odata4j.producer.resources.OptionsQueryParser;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+public class PackagesQueryPlannerTest extends BaseTestCase {
+  private Mockery m;
+  private PackagesIndex myIndex;
+  private PackagesQueryPlanner myPlanner;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    m = new Mockery();
+    myIndex = m.mock(PackagesIndex.class);
+    myPlanner = new PackagesQueryPlanner(new PackagesFilterLookup(myIndex));
+  }
+
+  @Test
+  public void test_no_filter() {
+    final PackagesQueryPlanner.Plan plan = myPlanner.plan(null);
+    Assert.assertNull(plan.getResidualFilter());
+    Assert.assertNull(plan.getQuery().getPackageIds());
+    Assert.assertFalse(plan.getQuery().isLatestVersionsOnly());
+  }
+
+  @Test
+  public void test_all_conditions_in_index() {
+    final PackagesQueryPlanner.Plan plan = plan("(Id eq 'Foo') and IsLatestVersion and LastUpdated gt datetime'2012-01-01T00:00:00'");
+    final PackagesQuery query = plan.getQuery();
+
+    Assert.assertNull(plan.getResidualFilter());
+    Assert.assertEquals(query.getId(), "Foo");
+    Assert.assertEquals(query.getPackageIds(), new HashSet<String>(Arrays.asList("foo")));
+    Assert.assertTrue(query.isLatestVersion());
+    Assert.assertFalse(query.isAbsoluteLatestVersion());
+    Assert.assertNotNull(query.getLastUpdatedAfter());
+  }
+
+  @Test
+  public void test_residual_filter() {
+    m.checking(new Expectations(){{
+      oneOf(myIndex).findPackageIdsContaining("Id", "foo"); will(returnValue(new HashSet<String>(Arrays.asList("foo", "foo.bar"))));
+    }});
+
+    final PackagesQueryPlanner.Plan plan = plan("IsAbsoluteLatestVersion eq true and substringof('foo', Id) and Version eq '1.0'");
+    final PackagesQuery query = plan.getQuery();
+
+    Assert.assertNotNull(plan.getResidualFilter());
+    Assert.assertEquals(Expression.asPrintString(plan.getResidualFilter()), "substringof(string(foo),simpleProperty(Id))");
+    Assert.assertEquals(query.getPackageIds(), new HashSet<String>(Arrays.asList("foo", "foo.bar")));
+    Assert.assertEquals(query.getVersion(), "1.0");
+    Assert.assertTrue(query.isAbsoluteLatestVersion());
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_or_is_not_pushed_down() {
+    final PackagesQueryPlanner.Plan plan = plan("Id eq 'Foo' or IsLatestVersion");
+
+    Assert.assertNotNull(plan.getResidualFilter());
+    Assert.assertNull(plan.getQuery().getId());
+    Assert.assertFalse(plan.getQuery().isLatestVersion());
+    Assert.assertFalse(plan.getQuery().isLatestVersionsOnly());
+  }
+
+  @NotNull
+  private PackagesQueryPlanner.Plan plan(@NotNull final String filter) {
+    return myPlanner.plan(OptionsQueryParser.parseFilter(filter));
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetMetadataEntry;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesSnapshot;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesSnapshotFile;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.util.CollectionsUtil;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+import static jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex.TEAMCITY_BUILD_TYPE_ID;
+
+public class PackagesSnapshotFileTest extends BaseTestCase {
+  @Test
+  public void test_save_load() throws Exception {
+    final PackagesSnapshot snapshot = createSnapshot();
+
+    final PackagesSnapshotFile file = new PackagesSnapshotFile(new File(createTempDir(), "packages.index"));
+    file.save(snapshot);
+    final PackagesSnapshot loaded = file.load();
+
+    Assert.assertNotNull(loaded);
+    Assert.assertEquals(loaded.size(), snapshot.size());
+    final Iterator<NuGetMetadataEntry> loadedEntries = loaded.getEntries().iterator();
+    for (NuGetMetadataEntry expected : snapshot.getEntries()) {
+      final NuGetMetadataEntry actual = loadedEntries.next();
+      Assert.assertEquals(actual.getBuildId(), expected.getBuildId());
+      Assert.assertEquals(actual.getKey(), expected.getKey());
+      Assert.assertEquals(actual.getMetadata(), expected.getMetadata());
+    }
+    Assert.assertEquals(loaded.getPackageIdsCount(), 2);
+  }
+
+  @Test
+  public void test_no_file() throws Exception {
+    Assert.assertNull(new PackagesSnapshotFile(new File(createTempDir(), "packages.index")).load());
+  }
+
+  @Test
+  public void test_corrupted_file() throws Exception {
+    final File file = createTempFile();
+    FileUtil.writeFile(file, "not an index", "UTF-8");
+    Assert.assertNull(new PackagesSnapshotFile(file).load());
+  }
+
+  @Test
+  public void test_damaged_file() throws Exception {
+    final File file = new File(createTempDir(), "packages.index");
+    new PackagesSnapshotFile(file).save(createSnapshot());
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      //damage the count of strings
+      raf.seek(8);
+      raf.writeInt(Integer.MAX_VALUE);
+    } finally {
+      raf.close();
+    }
+    Assert.assertNull(new PackagesSnapshotFile(file).load());
+  }
+
+  @Test
+  public void test_truncated_file() throws Exception {
+    final File file = new File(createTempDir(), "packages.index");
+    new PackagesSnapshotFile(file).save(createSnapshot());
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(raf.length() / 2);
+    } finally {
+      raf.close();
+    }
+    Assert.assertNull(new PackagesSnapshotFile(file).load());
+  }
+
+  @Test
+  public void test_replace_file() throws Exception {
+    final File file = new File(createTempDir(), "packages.index");
+    new PackagesSnapshotFile(file).save(PackagesSnapshot.create(new ArrayList<BuildMetadataEntry>().iterator()));
+    new PackagesSnapshotFile(file).save(createSnapshot());
+
+    final PackagesSnapshot loaded = new PackagesSnapshotFile(file).load();
+    Assert.assertNotNull(loaded);
+    Assert.assertEquals(loaded.size(), 3);
+    Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+    Assert.assertFalse(new File(file.getPath() + ".bak").exists());
+  }
+
+  @NotNull
+  private static PackagesSnapshot createSnapshot() {
+    final List<BuildMetadataEntry> entries = new ArrayList<BuildMetadataEntry>();
+    entries.add(new NuGetMetadataEntry(7, "Foo", CollectionsUtil.asMap(ID, "Foo", VERSION, "1.0", TEAMCITY_BUILD_TYPE_ID, "bt1")));
+    entries.add(new NuGetMetadataEntry(8, "Foo", CollectionsUtil.asMap(ID, "Foo", VERSION, "2.0-beta", TEAMCITY_BUILD_TYPE_ID, "bt1", "custom", "\u0444")));
+    entries.add(new NuGetMetadataEntry(9, "Bar", CollectionsUtil.asMap(ID, "Bar", VERSION, "1.0", TEAMCITY_BUILD_TYPE_ID, "bt2")));
+    return PackagesSnapshot.create(entries.iterator());
+  }
+}